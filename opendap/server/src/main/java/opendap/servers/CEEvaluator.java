@@ -111,6 +111,10 @@ public class CEEvaluator {
    */
   private ClauseFactory clauseFactory;
 
+  private boolean compileClauses = true;
+
+  private CompiledSelection compiled; // built from _cv on first use, null when _cv changes
+
   /**
    * Construct a new <code>CEEvaluator</code> with <code>dds</code> as the
    * DDS object with which to resolve all variable and function names.
@@ -185,6 +189,7 @@ public class CEEvaluator {
     // projection flag for each member of the CE's ServerDDS
     // instance. This also builds the list of clauses.
 
+    compiled = null;
     try {
       CeParser.constraint_expression(this, _dds.getFactory(), clauseFactory, constraint, urlencoded);
     } catch (ConstraintException ce) {
@@ -235,6 +240,7 @@ public class CEEvaluator {
   public void appendClause(Clause c) {
     if (c != null) {
       _cv.add(c);
+      compiled = null;
     }
   }
 
@@ -253,6 +259,7 @@ public class CEEvaluator {
    */
   public boolean removeClause(Clause c) {
     if (c != null) {
+      compiled = null;
       return (_cv.remove(c));
     }
     return (false);
@@ -268,6 +275,34 @@ public class CEEvaluator {
     return _cv.elements();
   }
 
+  /**
+   * Turn compiling of the selection clauses on or off. It is on by default.
+   *
+   * @param compileClauses if false, evalClauses() evaluates each Clause itself.
+   */
+  public void setCompileClauses(boolean compileClauses) {
+    this.compileClauses = compileClauses;
+  }
+
+  /**
+   * Get the selection clauses compiled into a CompiledSelection. It is built on the first call,
+   * and again after the clauses change.
+   * <p/>
+   * NB: This is not valid until the CE has been parsed!
+   */
+  public CompiledSelection getCompiledSelection() {
+    if (compiled == null)
+      compiled = CompiledSelection.compile(_cv);
+    return compiled;
+  }
+
+  /**
+   * @return true if the selection is false for every row, so a Sequence need not read any.
+   */
+  public boolean isSelectionAlwaysFalse() {
+    return compileClauses && getCompiledSelection().isAlwaysFalse();
+  }
+
 
   /**
    * This function sends the variables described in the constrained DDS to
@@ -313,6 +348,8 @@ public class CEEvaluator {
 
   /**
    * Evaluate all of the Clauses in the Clause vector.
+   * Unless turned off with setCompileClauses(false), the clauses are compiled into a
+   * CompiledSelection on the first call, which is then used for every following row.
    *
    * @param specialO That special Object that can be passed down
    *        through the <code>DDS.send()</code> method.
@@ -320,6 +357,9 @@ public class CEEvaluator {
    */
   public boolean evalClauses(Object specialO) throws NoSuchVariableException, DAP2ServerSideException, IOException {
 
+    if (compileClauses && !_Debug)
+      return getCompiledSelection().evaluate();
+
     boolean result = true;
     Enumeration ec = getClauses();
 
@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 1998-2018 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package opendap.servers;
+
+import opendap.dap.*;
+import opendap.servers.parsers.ExprParserConstants;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The selection clauses of a constraint expression, compiled once into predicates over primitive values.
+ * <p/>
+ * The interpreted path ({@link RelOpClause#evaluate()} and {@link Operator#op}) dispatches on the
+ * BaseType classes of both operands for every row of a Sequence. Here that dispatch is done once,
+ * constant operands are read once, constant clauses are folded, and regular expressions
+ * are compiled once. The semantics are those of {@link Operator}: the same operand type
+ * resolution, the same widening of the two operands and the same exceptions.
+ * <p/>
+ * Clauses that cannot be compiled (function clauses, non-scalar operands, operator/type
+ * combinations that Operator rejects) are evaluated through {@link TopLevelClause#evaluate()}.
+ *
+ * @see CEEvaluator#evalClauses(Object)
+ */
+public class CompiledSelection implements ExprParserConstants {
+
+  /** A compiled clause. */
+  interface Predicate {
+    boolean test() throws DAP2ServerSideException;
+  }
+
+  private static final Predicate TRUE = () -> true;
+  private static final Predicate FALSE = () -> false;
+
+  /**
+   * Compile a list of TopLevelClauses, which are and-ed together.
+   *
+   * @param clauses the clauses from the CEEvaluator
+   * @return the compiled selection
+   */
+  public static CompiledSelection compile(List<?> clauses) {
+    List<Predicate> preds = new ArrayList<>();
+    int ncompiled = 0;
+    for (Object o : clauses) {
+      Predicate p = compileClause((TopLevelClause) o);
+      if (p == TRUE)
+        continue; // constant true: leave it out
+      preds.add(p);
+      if (p == FALSE)
+        break; // never get past this one
+      if (!(p instanceof Fallback))
+        ncompiled++;
+    }
+    return new CompiledSelection(preds, ncompiled);
+  }
+
+  private final Predicate[] preds;
+  private final int ncompiled;
+
+  private CompiledSelection(List<Predicate> preds, int ncompiled) {
+    this.preds = preds.toArray(new Predicate[0]);
+    this.ncompiled = ncompiled;
+  }
+
+  /**
+   * Evaluate the selection against the current values of the variables.
+   *
+   * @return true if all the clauses evaluate to true.
+   */
+  public boolean evaluate() throws DAP2ServerSideException {
+    for (Predicate p : preds) {
+      if (!p.test())
+        return false;
+    }
+    return true;
+  }
+
+  /** @return true if the selection is false for every row, eg when a clause has only constant operands. */
+  public boolean isAlwaysFalse() {
+    return preds.length > 0 && preds[0] == FALSE;
+  }
+
+  /** @return number of RelOpClauses turned into primitive predicates. */
+  public int getCompiledCount() {
+    return ncompiled;
+  }
+
+  /** @return number of clauses left to their own evaluate() method. */
+  public int getFallbackCount() {
+    int n = 0;
+    for (Predicate p : preds) {
+      if (p instanceof Fallback)
+        n++;
+    }
+    return n;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////
+
+  private static class Fallback implements Predicate {
+    private final TopLevelClause clause;
+
+    Fallback(TopLevelClause clause) {
+      this.clause = clause;
+    }
+
+    public boolean test() throws DAP2ServerSideException {
+      return clause.evaluate();
+    }
+  }
+
+  private static Predicate compileClause(TopLevelClause clause) {
+    if (clause.isConstant()) {
+      try {
+        return clause.evaluate() ? TRUE : FALSE;
+      } catch (DAP2ServerSideException e) {
+        return new Fallback(clause); // let it fail where it always did
+      }
+    }
+    if (!(clause instanceof RelOpClause))
+      return new Fallback(clause);
+
+    RelOpClause relop = (RelOpClause) clause;
+    Operand lhs = Operand.of(relop.getLHS());
+    if (lhs == null)
+      return new Fallback(clause);
+
+    List<Predicate> alternatives = new ArrayList<>();
+    for (Object o : relop.getRHS()) {
+      Operand rhs = Operand.of((SubClause) o);
+      Predicate p = (rhs == null) ? null : compareOp(relop.getOperator(), lhs, rhs);
+      if (p == null)
+        return new Fallback(clause);
+      alternatives.add(p);
+    }
+
+    if (alternatives.size() == 1)
+      return alternatives.get(0);
+
+    // a={b,c,d} is true if any of them is true
+    Predicate[] any = alternatives.toArray(new Predicate[0]);
+    return () -> {
+      for (Predicate p : any) {
+        if (p.test())
+          return true;
+      }
+      return false;
+    };
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // operands
+
+  // the type that Operator.op() resolves a BaseType to; the order of the instanceof tests must match Operator
+  private enum Type {
+    BYTE, FLOAT32, FLOAT64, INT16, INT32, STRING, UINT16, UINT32;
+
+    static Type of(BaseType bt) {
+      if (bt instanceof DByte)
+        return BYTE;
+      else if (bt instanceof DFloat32)
+        return FLOAT32;
+      else if (bt instanceof DFloat64)
+        return FLOAT64;
+      else if (bt instanceof DInt16)
+        return INT16;
+      else if (bt instanceof DInt32)
+        return INT32;
+      else if (bt instanceof DString)
+        return STRING;
+      else if (bt instanceof DUInt16)
+        return UINT16;
+      else if (bt instanceof DUInt32)
+        return UINT32;
+      else if (bt instanceof DURL)
+        return STRING;
+      return null;
+    }
+
+    boolean isNumeric() {
+      return this != STRING;
+    }
+  }
+
+  private static class Operand {
+    final BaseType value; // the variable in the DDS, whose value changes from row to row, or a constant
+    final Type type;
+    final boolean constant;
+
+    Operand(BaseType value, Type type, boolean constant) {
+      this.value = value;
+      this.type = type;
+      this.constant = constant;
+    }
+
+    // only ValueClauses holding scalars are compiled
+    static Operand of(SubClause clause) {
+      if (!(clause instanceof ValueClause))
+        return null;
+      BaseType bt = ((ValueClause) clause).getValue();
+      Type type = Type.of(bt);
+      if (type == null)
+        return null;
+      return new Operand(bt, type, clause.isConstant());
+    }
+  }
+
+  // How Operator widens the two sides: as in Java, double beats float beats integer.
+  private enum Widen {
+    LONG, FLOAT, DOUBLE
+  }
+
+  private interface LongValue {
+    long get();
+  }
+
+  private interface DoubleValue {
+    double get();
+  }
+
+  private interface StringValue {
+    String get();
+  }
+
+  private static Predicate compareOp(int oprtr, Operand lop, Operand rop) {
+    if (lop.type.isNumeric() != rop.type.isNumeric())
+      return null; // Operator throws InvalidOperatorException
+    if (!lop.type.isNumeric())
+      return compareStrings(oprtr, lop, rop);
+    if (oprtr == REGEXP)
+      return null; // Operator throws InvalidOperatorException
+
+    Widen widen = widen(lop.type, rop.type);
+    // Operator masks a Byte on the right only if the left is also a Byte
+    boolean maskRightByte = lop.type == Type.BYTE;
+    switch (widen) {
+      case LONG:
+        return compareLongs(oprtr, longValue(lop, true), longValue(rop, maskRightByte));
+      case FLOAT:
+        // float comparison: each side is rounded to float first
+        DoubleValue lf = floatValue(lop, true);
+        DoubleValue rf = floatValue(rop, maskRightByte);
+        return compareDoubles(oprtr, lf, rf);
+      default:
+        return compareDoubles(oprtr, doubleValue(lop, true), doubleValue(rop, maskRightByte));
+    }
+  }
+
+  private static Widen widen(Type left, Type right) {
+    if (left == Type.FLOAT64 || right == Type.FLOAT64)
+      return Widen.DOUBLE;
+    if (left == Type.FLOAT32 || right == Type.FLOAT32)
+      return Widen.FLOAT;
+    return Widen.LONG;
+  }
+
+  private static LongValue longValue(Operand op, boolean maskByte) {
+    LongValue v;
+    switch (op.type) {
+      case BYTE: {
+        DByte b = (DByte) op.value;
+        v = maskByte ? () -> ((int) b.getValue()) & 0xFF : () -> b.getValue();
+        break;
+      }
+      case INT16: {
+        DInt16 s = (DInt16) op.value;
+        v = () -> s.getValue();
+        break;
+      }
+      case UINT16: {
+        DUInt16 s = (DUInt16) op.value;
+        v = () -> ((int) s.getValue()) & 0xFFFF;
+        break;
+      }
+      case INT32: {
+        DInt32 i = (DInt32) op.value;
+        v = () -> i.getValue();
+        break;
+      }
+      case UINT32: {
+        DUInt32 i = (DUInt32) op.value;
+        v = () -> ((long) i.getValue()) & 0xFFFFFFFFL;
+        break;
+      }
+      default:
+        throw new IllegalStateException(op.type.toString());
+    }
+    if (op.constant) {
+      long c = v.get();
+      return () -> c;
+    }
+    return v;
+  }
+
+  private static DoubleValue floatValue(Operand op, boolean maskByte) {
+    DoubleValue v;
+    if (op.type == Type.FLOAT32) {
+      DFloat32 f = (DFloat32) op.value;
+      v = () -> f.getValue();
+    } else {
+      LongValue lv = longValue(op, maskByte);
+      v = () -> (float) lv.get();
+    }
+    if (op.constant) {
+      double c = v.get();
+      return () -> c;
+    }
+    return v;
+  }
+
+  private static DoubleValue doubleValue(Operand op, boolean maskByte) {
+    DoubleValue v;
+    if (op.type == Type.FLOAT64) {
+      DFloat64 d = (DFloat64) op.value;
+      v = () -> d.getValue();
+    } else if (op.type == Type.FLOAT32) {
+      DFloat32 f = (DFloat32) op.value;
+      v = () -> f.getValue();
+    } else {
+      LongValue lv = longValue(op, maskByte);
+      v = () -> (double) lv.get();
+    }
+    if (op.constant) {
+      double c = v.get();
+      return () -> c;
+    }
+    return v;
+  }
+
+  private static StringValue stringValue(Operand op) {
+    DString s = (DString) op.value;
+    if (op.constant) {
+      String c = s.getValue();
+      return () -> c;
+    }
+    return s::getValue;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // comparisons, one lambda per operator so the switch is done once
+
+  private static Predicate compareLongs(int oprtr, LongValue l, LongValue r) {
+    switch (oprtr) {
+      case LESS:
+        return () -> l.get() < r.get();
+      case LESS_EQL:
+        return () -> l.get() <= r.get();
+      case GREATER:
+        return () -> l.get() > r.get();
+      case GREATER_EQL:
+        return () -> l.get() >= r.get();
+      case EQUAL:
+        return () -> l.get() == r.get();
+      case NOT_EQUAL:
+        return () -> l.get() != r.get();
+      default:
+        return null;
+    }
+  }
+
+  private static Predicate compareDoubles(int oprtr, DoubleValue l, DoubleValue r) {
+    switch (oprtr) {
+      case LESS:
+        return () -> l.get() < r.get();
+      case LESS_EQL:
+        return () -> l.get() <= r.get();
+      case GREATER:
+        return () -> l.get() > r.get();
+      case GREATER_EQL:
+        return () -> l.get() >= r.get();
+      case EQUAL:
+        return () -> l.get() == r.get();
+      case NOT_EQUAL:
+        return () -> l.get() != r.get();
+      default:
+        return null;
+    }
+  }
+
+  private static Predicate compareStrings(int oprtr, Operand lop, Operand rop) {
+    StringValue l = stringValue(lop);
+    StringValue r = stringValue(rop);
+    switch (oprtr) {
+      case LESS:
+        return () -> l.get().compareTo(r.get()) < 0;
+      case LESS_EQL:
+        return () -> l.get().compareTo(r.get()) <= 0;
+      case GREATER:
+        return () -> l.get().compareTo(r.get()) > 0;
+      case GREATER_EQL:
+        return () -> l.get().compareTo(r.get()) >= 0;
+      case EQUAL:
+        if (rop.constant)
+          return () -> l.get().equals(r.get());
+        return () -> l.get().compareTo(r.get()) == 0;
+      case NOT_EQUAL:
+        if (rop.constant)
+          return () -> !l.get().equals(r.get());
+        return () -> l.get().compareTo(r.get()) != 0;
+      case REGEXP:
+        return matches(lop, l, r);
+      default:
+        return null;
+    }
+  }
+
+  // Operator matches the right operand against the regular expression on the left
+  private static Predicate matches(Operand lop, StringValue regexp, StringValue input) {
+    if (lop.constant) {
+      Pattern pattern;
+      try {
+        pattern = Pattern.compile(regexp.get());
+      } catch (RuntimeException e) {
+        return null; // let Operator report it
+      }
+      return () -> {
+        try {
+          return pattern.matcher(input.get()).matches();
+        } catch (Exception e) {
+          throw new SBHException(e.getMessage());
+        }
+      };
+    }
+
+    // the expression changes with the row; keep the ones we have seen
+    Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+        return size() > MAX_PATTERNS;
+      }
+    };
+    return () -> {
+      try {
+        String re = regexp.get();
+        Pattern pattern = patterns.get(re);
+        if (pattern == null) {
+          pattern = Pattern.compile(re);
+          patterns.put(re, pattern);
+        }
+        return pattern.matcher(input.get()).matches();
+      } catch (PatternSyntaxException e1) {
+        throw new RegExpException(e1.getMessage());
+      } catch (Exception e2) {
+        throw new SBHException(e2.getMessage());
+      }
+    };
+  }
+
+  private static final int MAX_PATTERNS = 100;
+}
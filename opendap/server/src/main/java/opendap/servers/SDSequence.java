@@ -423,7 +423,7 @@ public abstract class SDSequence extends DSequence implements ServerMethods, Rel
       throws NoSuchVariableException, DAP2ServerSideException, IOException {
 
 
-    boolean moreToRead = true;
+    boolean moreToRead = !ce.isSelectionAlwaysFalse(); // eg a constant clause like 1>2
 
     while (moreToRead) {
 
@@ -1427,16 +1427,8 @@ public class CeParser extends Ceparse {
   public static boolean constraint_expression(CEEvaluator ceEval, BaseTypeFactory factory, ClauseFactory clauseFactory,
       String constraint, String url // for error reporting
   ) throws DAP2Exception, ParseException {
-    CeParser parser = new CeParser(factory);
-    parser.setURL(url);
-    parser.setConstraint(constraint);
-    ServerDDS sdds = ceEval.getDDS();
-    if (!parser.parse(constraint))
-      return false;
-    ASTconstraint root = (ASTconstraint) parser.getAST();
-    root.init(ceEval, factory, clauseFactory, sdds, parser.getASTnodeset());
-    root.walkConstraint();
-    return true;
+    // the parse tree does not depend on the DDS, so it may come from the cache
+    return ConstraintCache.constraint_expression(ceEval, factory, clauseFactory, constraint, url);
   }
 
   public void setURL(String url) {
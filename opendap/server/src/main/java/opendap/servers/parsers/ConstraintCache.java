@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package opendap.servers.parsers;
+
+import opendap.dap.BaseTypeFactory;
+import opendap.dap.DAP2Exception;
+import opendap.dap.parsers.ParseException;
+import opendap.servers.CEEvaluator;
+import opendap.servers.ClauseFactory;
+import opendap.servers.DAP2ServerSideException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of parsed constraint expressions, keyed by the constraint string.
+ * <p/>
+ * Parsing only depends on the constraint string: names are looked up in the DDS when the tree is walked. So a
+ * parsed tree can be reused with any DDS, and a hit skips the lexer and parser. The walk is still done for each
+ * request, on that request's DDS, and reports missing variables the same way as before.
+ * <p/>
+ * The tree holds the walk's context (the CEEvaluator and DDS) in its root node, so walks of one cached
+ * tree are serialized. A walk only marks the projection and builds the clauses, so this is short.
+ */
+public class ConstraintCache {
+  private static final int DEFAULT_MAX_SIZE = 1000;
+  private static final int MAX_CONSTRAINT_LENGTH = 10 * 1000; // dont keep very long constraints
+
+  private static int maxSize = DEFAULT_MAX_SIZE;
+  private static final Map<String, Parsed> cache = new LinkedHashMap<String, Parsed>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Parsed> eldest) {
+      return size() > maxSize;
+    }
+  };
+
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+
+  /** Set the number of constraints kept, 0 to turn the cache off. */
+  public static synchronized void setMaxSize(int max) {
+    maxSize = Math.max(0, max);
+    cache.clear();
+  }
+
+  public static synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  public static synchronized int size() {
+    return cache.size();
+  }
+
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  public static synchronized void clear() {
+    cache.clear();
+  }
+
+  private static synchronized Parsed get(String constraint) {
+    return cache.get(constraint);
+  }
+
+  private static synchronized void put(String constraint, Parsed parsed) {
+    if (maxSize > 0 && constraint.length() <= MAX_CONSTRAINT_LENGTH)
+      cache.put(constraint, parsed);
+  }
+
+  /**
+   * Parse the constraint, or find it in the cache, and walk it on the CEEvaluator's DDS.
+   * Same contract as CeParser.constraint_expression.
+   */
+  static boolean constraint_expression(CEEvaluator ceEval, BaseTypeFactory factory, ClauseFactory clauseFactory,
+      String constraint, String url) throws DAP2Exception, ParseException {
+    String key = (constraint == null) ? "" : constraint;
+    Parsed parsed = get(key);
+    if (parsed != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+      CeParser parser = new CeParser(factory);
+      parser.setURL(url);
+      parser.setConstraint(constraint);
+      if (!parser.parse(constraint))
+        return false;
+      parsed = new Parsed((ASTconstraint) parser.getAST(), parser.getASTnodeset());
+      put(key, parsed);
+    }
+    parsed.walk(ceEval, factory, clauseFactory);
+    return true;
+  }
+
+  private static class Parsed {
+    private final ASTconstraint root;
+    private final List<AST> nodes;
+
+    Parsed(ASTconstraint root, List<AST> nodes) {
+      this.root = root;
+      this.nodes = nodes;
+    }
+
+    synchronized void walk(CEEvaluator ceEval, BaseTypeFactory factory, ClauseFactory clauseFactory)
+        throws DAP2ServerSideException, DAP2Exception {
+      try {
+        root.init(ceEval, factory, clauseFactory, ceEval.getDDS(), nodes);
+        root.walkConstraint();
+      } finally {
+        // dont hold on to the request's DDS
+        root.init(null, null, null, null, Collections.emptyList());
+      }
+    }
+  }
+}
@@ -71,19 +71,31 @@ public class AsciiWriter {
         }
       }
 
-    } else {
+    } else if (!writeStreaming(bt, datasetName, pw, specialO)) {
       if (!((ServerMethods) bt).isRead()) // make sure data is in memory, but don't read it twice!
         ((ServerMethods) bt).read(datasetName, specialO);
       toASCII(bt, pw);
     }
   }
 
+  /**
+   * Servers may override this to read and write a large variable a piece at a time, instead of reading it all
+   * into memory first. The output must be the same as toASCII(bt, pw).
+   *
+   * @param bt a projected top level variable, not a sequence
+   * @return true if the variable was written, false to read and write it the usual way
+   */
+  protected boolean writeStreaming(BaseType bt, String datasetName, PrintWriter pw, Object specialO)
+      throws IOException, NoSuchVariableException {
+    return false;
+  }
+
 
   public void toASCII(BaseType dtype, PrintWriter pw) {
     toASCII(dtype, pw, true, null, true);
   }
 
-  private void toASCII(BaseType dtype, PrintWriter pw, boolean addName, String rootName, boolean newLine) {
+  protected void toASCII(BaseType dtype, PrintWriter pw, boolean addName, String rootName, boolean newLine) {
     if (dtype instanceof DArray)
       showArray((DArray) dtype, pw, addName, rootName, newLine);
     else if (dtype instanceof DGrid)
@@ -288,7 +300,7 @@ public class AsciiWriter {
       pw.print("\n");
   }
 
-  private String toASCIIFlatName(BaseType data, String rootName) {
+  protected String toASCIIFlatName(BaseType data, String rootName) {
     String result;
 
     StringBuffer s = new StringBuffer();
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 1998-2018 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package opendap.test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import opendap.dap.*;
+import opendap.servers.*;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Test that compiled selections give the same answer as the interpreted clauses
+public class TestCompiledSelection {
+
+  // @formatter:off
+  static final String testDDS = "Dataset {\n"
+      + "Sequence {\n"
+          + "byte b;\n"
+          + "int16 s;\n"
+          + "uint16 us;\n"
+          + "int32 i;\n"
+          + "uint32 ui;\n"
+          + "float32 f;\n"
+          + "float64 d;\n"
+          + "String name;\n"
+      + "} sq;\n"
+      + "} TestCompiledSelection;\n";
+
+  static final String[] constraints = {
+      "sq&sq.i>5",
+      "sq&sq.i={1,2,3}",
+      "sq&sq.d<=2.5",
+      "sq&sq.d>=-2.5&sq.d<2.5",
+      "sq&sq.b>100",
+      "sq&sq.b<sq.s",
+      "sq&sq.s!=-3",
+      "sq&sq.us<40000",
+      "sq&sq.ui>3000000000",
+      "sq&sq.ui<=sq.i",
+      "sq&sq.f=1.5",
+      "sq&sq.f<sq.d",
+      "sq&sq.f>16777217",
+      "sq&sq.name=\"KDEN\"",
+      "sq&sq.name!={\"KDEN\",\"KBOU\"}",
+      "sq&sq.name<\"KC\"",
+      "sq&sq.name=~\"KD.*\"",
+      "sq&sq.name>5",
+      "sq&sq.i=~\"1\"",
+      "sq&2>1&sq.i<100",
+      "sq&1>2&sq.i<100",
+  };
+  // @formatter:on
+
+  static final String[] names = {"KDEN", "KBOU", "KCYS", "KD.*", "KAPA", "[", "KDENVER"};
+
+  private ServerDDS makeDDS() throws Exception {
+    ServerDDS sdds = new ServerDDS(new TestSDFactory());
+    if (!sdds.parse(new ByteArrayInputStream(testDDS.getBytes(StandardCharsets.UTF_8))))
+      throw new ParseException("Cannot parse DDS");
+    return sdds;
+  }
+
+  private void setRow(DSequence sq, Random random) throws NoSuchVariableException {
+    int i = random.nextInt(20) - 5;
+    ((DByte) sq.getVariable("b")).setValue((byte) random.nextInt(256));
+    ((DInt16) sq.getVariable("s")).setValue((short) (random.nextInt(400) - 200));
+    ((DUInt16) sq.getVariable("us")).setValue((short) random.nextInt(65536));
+    ((DInt32) sq.getVariable("i")).setValue(i);
+    ((DUInt32) sq.getVariable("ui")).setValue(random.nextBoolean() ? i : random.nextInt());
+    ((DFloat32) sq.getVariable("f"))
+        .setValue(random.nextInt(10) == 0 ? 16777217.0f : random.nextInt(8) * 0.5f - 1.0f);
+    ((DFloat64) sq.getVariable("d")).setValue(random.nextInt(10) == 0 ? Double.NaN : random.nextGaussian() * 3);
+    ((DString) sq.getVariable("name")).setValue(names[random.nextInt(names.length)]);
+  }
+
+  private String eval(CEEvaluator ce) {
+    try {
+      return Boolean.toString(ce.evalClauses(null));
+    } catch (Exception e) {
+      return e.getClass().getName();
+    }
+  }
+
+  @Test
+  public void testSameResult() throws Exception {
+    for (String constraint : constraints) {
+      ServerDDS sdds = makeDDS();
+      CEEvaluator ce = new CEEvaluator(sdds);
+      ce.parseConstraint(constraint, null);
+      DSequence sq = (DSequence) sdds.getVariable("sq");
+
+      Random random = new Random(constraint.hashCode());
+      for (int row = 0; row < 2000; row++) {
+        setRow(sq, random);
+        ce.setCompileClauses(false);
+        String interpreted = eval(ce);
+        ce.setCompileClauses(true);
+        String compiled = eval(ce);
+        assertWithMessage(constraint + " row " + row).that(compiled).isEqualTo(interpreted);
+      }
+    }
+  }
+
+  @Test
+  public void testCompiled() throws Exception {
+    ServerDDS sdds = makeDDS();
+    CEEvaluator ce = new CEEvaluator(sdds);
+    ce.parseConstraint("sq&2>1&sq.i>5&sq.name=\"KDEN\"", null);
+    CompiledSelection selection = ce.getCompiledSelection();
+    assertThat(selection.getCompiledCount()).isEqualTo(2);
+    assertThat(selection.getFallbackCount()).isEqualTo(0);
+    assertThat(selection.isAlwaysFalse()).isFalse();
+
+    ce = new CEEvaluator(makeDDS());
+    ce.parseConstraint("sq&sq.i>5&1>2", null);
+    assertThat(ce.isSelectionAlwaysFalse()).isFalse(); // sq.i>5 comes first
+    ce = new CEEvaluator(makeDDS());
+    ce.parseConstraint("sq&1>2&sq.i>5", null);
+    assertThat(ce.isSelectionAlwaysFalse()).isTrue();
+
+    ce = new CEEvaluator(makeDDS());
+    ce.parseConstraint("sq&sq.name>5", null); // Operator rejects this, so leave it to the clause
+    assertThat(ce.getCompiledSelection().getFallbackCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSecondConstraint() throws Exception {
+    ServerDDS sdds = makeDDS();
+    CEEvaluator ce = new CEEvaluator(sdds);
+    DSequence sq = (DSequence) sdds.getVariable("sq");
+    ((DInt32) sq.getVariable("i")).setValue(10);
+
+    ce.parseConstraint("sq&sq.i>5", null);
+    assertThat(ce.evalClauses(null)).isTrue();
+    assertThat(ce.getCompiledSelection().getCompiledCount()).isEqualTo(1);
+
+    // the clauses of both constraints apply, not the ones compiled for the first
+    ce.parseConstraint("sq&sq.i<3", null);
+    assertThat(ce.getCompiledSelection().getCompiledCount()).isEqualTo(2);
+    assertThat(ce.evalClauses(null)).isFalse();
+    ce.setCompileClauses(false);
+    assertThat(ce.evalClauses(null)).isFalse();
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package opendap.test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import opendap.dap.*;
+import opendap.servers.*;
+import opendap.servers.parsers.ConstraintCache;
+import org.junit.After;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+// Test that a cached parse tree is applied to each DDS on its own
+public class TestConstraintCache {
+
+  private ServerDDS makeDDS() throws Exception {
+    ServerDDS sdds = new ServerDDS(new TestSDFactory());
+    if (!sdds.parse(new ByteArrayInputStream(TestCompiledSelection.testDDS.getBytes(StandardCharsets.UTF_8))))
+      throw new ParseException("Cannot parse DDS");
+    return sdds;
+  }
+
+  @After
+  public void cleanup() {
+    ConstraintCache.setMaxSize(1000);
+  }
+
+  @Test
+  public void testSameConstraintTwoDDS() throws Exception {
+    ConstraintCache.setMaxSize(10);
+    String constraint = "sq.i,sq.name&sq.i>5";
+
+    ServerDDS dds1 = makeDDS();
+    CEEvaluator ce1 = new CEEvaluator(dds1);
+    ce1.parseConstraint(constraint, null);
+    long hits = ConstraintCache.getHits();
+
+    ServerDDS dds2 = makeDDS();
+    CEEvaluator ce2 = new CEEvaluator(dds2);
+    ce2.parseConstraint(constraint, null);
+    assertThat(ConstraintCache.getHits()).isEqualTo(hits + 1);
+    assertThat(ConstraintCache.size()).isEqualTo(1);
+
+    for (ServerDDS dds : new ServerDDS[] {dds1, dds2}) {
+      DSequence sq = (DSequence) dds.getVariable("sq");
+      assertThat(((ServerMethods) sq.getVariable("i")).isProject()).isTrue();
+      assertThat(((ServerMethods) sq.getVariable("name")).isProject()).isTrue();
+      assertThat(((ServerMethods) sq.getVariable("d")).isProject()).isFalse();
+    }
+
+    // the clauses refer to the variables of their own DDS
+    ((DInt32) ((DSequence) dds1.getVariable("sq")).getVariable("i")).setValue(10);
+    ((DInt32) ((DSequence) dds2.getVariable("sq")).getVariable("i")).setValue(1);
+    assertThat(ce1.evalClauses(null)).isTrue();
+    assertThat(ce2.evalClauses(null)).isFalse();
+  }
+
+  @Test
+  public void testMissingVariableIsStillAnError() throws Exception {
+    ConstraintCache.setMaxSize(10);
+    ServerDDS dds = makeDDS();
+    new CEEvaluator(dds).parseConstraint("sq.i", null);
+
+    ServerDDS other = new ServerDDS(new TestSDFactory());
+    other.parse(new ByteArrayInputStream("Dataset {\n int32 j;\n} other;\n".getBytes(StandardCharsets.UTF_8)));
+    try {
+      new CEEvaluator(other).parseConstraint("sq.i", null);
+      throw new AssertionError("expected an exception");
+    } catch (DAP2Exception e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTurnedOff() throws Exception {
+    ConstraintCache.setMaxSize(0);
+    new CEEvaluator(makeDDS()).parseConstraint("sq.i", null);
+    assertThat(ConstraintCache.size()).isEqualTo(0);
+  }
+}
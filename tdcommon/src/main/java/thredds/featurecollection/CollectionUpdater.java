@@ -14,6 +14,7 @@ import org.springframework.stereotype.Component;
 import thredds.inventory.CollectionUpdateEvent;
 import thredds.inventory.CollectionUpdateType;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
 import java.util.Date;
 
 /**
@@ -45,6 +46,7 @@ public class CollectionUpdater {
   private org.quartz.Scheduler scheduler = null;
   private boolean failed = false;
   private boolean isTdm = false;
+  private CollectionWatcher watcher = null;
 
   public void setTdm(boolean tdm) {
     isTdm = tdm;
@@ -69,6 +71,34 @@ public class CollectionUpdater {
     this.eventBus = eventBus;
   }
 
+  /**
+   * Update collections with a rescan when their files change, instead of periodically.
+   * Collections that cant be watched are still rescanned.
+   *
+   * @param debounceMsecs update when there have been no changes for this long
+   * @param stableMsecs and the changed files have not changed size for this long
+   */
+  public synchronized void setWatch(long debounceMsecs, long stableMsecs) {
+    if (watcher != null)
+      watcher.close();
+    watcher = new CollectionWatcher(event -> eventBus.post(event), debounceMsecs, stableMsecs);
+  }
+
+  // debugging
+  public synchronized CollectionWatcher getWatcher() {
+    return watcher;
+  }
+
+  /** Stop watching the collections that are not in the config catalogs anymore, after they are read again */
+  public synchronized void retainWatched(Collection<String> collectionNames) {
+    if (watcher == null)
+      return;
+    for (String name : watcher.getCollectionNames()) {
+      if (!collectionNames.contains(name))
+        watcher.unwatch(name);
+    }
+  }
+
 
   // debugging
   public org.quartz.Scheduler getScheduler() {
@@ -85,10 +115,13 @@ public class CollectionUpdater {
       logger = fcLogger;
 
     FeatureCollectionConfig.UpdateConfig updateConfig = (isTdm) ? config.tdmConfig : config.updateConfig;
-    if (updateConfig == null || updateConfig.updateType == CollectionUpdateType.never)
-      return;
-
     String collectionName = config.getCollectionName();
+    if (updateConfig == null || updateConfig.updateType == CollectionUpdateType.never) {
+      CollectionWatcher watcher = getWatcher();
+      if (watcher != null)
+        watcher.unwatch(collectionName); // updating was removed from the config
+      return;
+    }
 
     // prob dont need to set a job if theres no chron job ?
 
@@ -131,22 +164,25 @@ public class CollectionUpdater {
       }
     }
 
+    // watch the directories for changes instead of rescanning periodically
+    boolean watched = false;
+    CollectionWatcher watcher = getWatcher();
+    if (watcher != null) {
+      if (updateConfig.rescan != null) {
+        final Logger flogger = logger;
+        // if the root directory is deleted or moved later, go back to rescanning
+        watched = watcher.watch(config, updateConfig.updateType, logger,
+            () -> scheduleRescan(collectionName, updateJob.getKey(), updateConfig, flogger));
+      } else
+        watcher.unwatch(collectionName); // rescan was removed from the config
+    }
+
     // task to run the job periodically, with rescan
     if (updateConfig.rescan != null) {
-      map = new org.quartz.JobDataMap();
-      map.put(UpdateType, updateConfig.updateType);
-      map.put(Source, "rescan");
-      CronTrigger rescanTrigger = TriggerBuilder.newTrigger().withIdentity(collectionName, "rescan")
-          .withSchedule(CronScheduleBuilder.cronSchedule(updateConfig.rescan)).forJob(updateJob).usingJobData(map)
-          .build();
-
-      try {
-        scheduler.scheduleJob(rescanTrigger);
-        logger.info("scheduleJob recurring scan for '{}' cronExpr={}", config.collectionName, updateConfig.rescan);
-      } catch (Throwable e) {
-        logger.error("scheduleJob failed to schedule cron Job", e);
-        // e.printStackTrace();
-      }
+      if (watched)
+        unscheduleRescan(collectionName, logger); // in case it was rescanned before
+      else
+        scheduleRescan(collectionName, updateJob.getKey(), updateConfig, logger);
     }
 
     /*
@@ -180,7 +216,40 @@ public class CollectionUpdater {
 
   }
 
+  private void scheduleRescan(String collectionName, JobKey jobKey, FeatureCollectionConfig.UpdateConfig updateConfig,
+      Logger logger) {
+    org.quartz.JobDataMap map = new org.quartz.JobDataMap();
+    map.put(UpdateType, updateConfig.updateType);
+    map.put(Source, "rescan");
+    CronTrigger rescanTrigger = TriggerBuilder.newTrigger().withIdentity(collectionName, "rescan")
+        .withSchedule(CronScheduleBuilder.cronSchedule(updateConfig.rescan)).forJob(jobKey).usingJobData(map).build();
+
+    try {
+      if (scheduler.checkExists(rescanTrigger.getKey()))
+        scheduler.rescheduleJob(rescanTrigger.getKey(), rescanTrigger);
+      else
+        scheduler.scheduleJob(rescanTrigger);
+      logger.info("scheduleJob recurring scan for '{}' cronExpr={}", collectionName, updateConfig.rescan);
+    } catch (Throwable e) {
+      logger.error("scheduleJob failed to schedule cron Job", e);
+      // e.printStackTrace();
+    }
+  }
+
+  private void unscheduleRescan(String collectionName, Logger logger) {
+    try {
+      if (scheduler.unscheduleJob(new TriggerKey(collectionName, "rescan")))
+        logger.info("unscheduleJob recurring scan for '{}', it is watched", collectionName);
+    } catch (Throwable e) {
+      logger.error("unscheduleJob failed to remove cron Job", e);
+    }
+  }
+
   public void shutdown() {
+    synchronized (this) {
+      if (watcher != null)
+        watcher.close();
+    }
     if (scheduler == null)
       return;
     try {
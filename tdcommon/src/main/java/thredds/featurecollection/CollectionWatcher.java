@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.featurecollection;
+
+import org.slf4j.Logger;
+import thredds.inventory.CollectionSpecParser;
+import thredds.inventory.CollectionUpdateEvent;
+import thredds.inventory.CollectionUpdateType;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Update feature collections when the files in their directories change, instead of rescanning them periodically.
+ * <p/>
+ * Uses a WatchService on the collection root directory, and its subdirectories if the collection spec wants them.
+ * Events for a collection are collected until there have been none for the debounce time, and the changed files
+ * have not changed size for the stable time, then one CollectionUpdateEvent is sent for all of them.
+ * If events were lost (OVERFLOW), the collection is updated as soon as it is quiet.
+ * If the root directory can no longer be watched (eg it was deleted or moved), the collection is not watched anymore,
+ * and the caller is told, so that it can rescan it instead.
+ * Collections on network file systems, where changes made by other hosts are not seen, are not watched;
+ * the caller keeps rescanning them.
+ *
+ * @since 5.0
+ */
+@ThreadSafe
+public class CollectionWatcher {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(CollectionWatcher.class);
+  static private final String SOURCE = "watch";
+  static private final long TICK = 1000; // msecs
+  static private final Set<String> networkFileSystems =
+      new HashSet<>(Arrays.asList("nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afs", "lustre", "gpfs", "ceph",
+          "glusterfs", "fuse.glusterfs", "fuse.sshfs", "sshfs", "9p", "panfs", "beegfs"));
+  // written by the TDS and TDM next to the data files
+  static private final String[] indexSuffixes = {".gbx9", ".ncx4", ".ncx3", ".ncx2", ".ncx", ".tmp", ".lock"};
+
+  private final Consumer<CollectionUpdateEvent> sender;
+  private final long debounceMsecs;
+  private final long stableMsecs;
+
+  @GuardedBy("this")
+  private final Map<WatchKey, List<Watched>> keys = new HashMap<>(); // a directory may be in more than one collection
+  @GuardedBy("this")
+  private final Map<String, Watched> collections = new HashMap<>(); // key is the collection name
+  @GuardedBy("this")
+  private WatchService watchService;
+  @GuardedBy("this")
+  private Thread thread;
+
+  private static class FileState {
+    long size;
+    long lastChange; // when the size was last seen to change
+
+    FileState(long size, long lastChange) {
+      this.size = size;
+      this.lastChange = lastChange;
+    }
+  }
+
+  private static class Watched {
+    final String collectionName;
+    final CollectionUpdateType updateType;
+    final Path rootDir;
+    final boolean subdirs;
+    final Pattern filter; // may be null
+    final boolean filterOnName;
+    final Logger logger;
+    final Runnable onLost; // may be null
+
+    final Map<Path, FileState> pending = new HashMap<>(); // changed files, not yet sent
+    boolean overflow; // events were lost
+    long lastEvent; // 0 if nothing pending
+
+    Watched(String collectionName, CollectionUpdateType updateType, Path rootDir, boolean subdirs, Pattern filter,
+        boolean filterOnName, Logger logger, Runnable onLost) {
+      this.collectionName = collectionName;
+      this.updateType = updateType;
+      this.rootDir = rootDir;
+      this.subdirs = subdirs;
+      this.filter = filter;
+      this.filterOnName = filterOnName;
+      this.logger = logger;
+      this.onLost = onLost;
+    }
+
+    boolean isPending() {
+      return lastEvent > 0;
+    }
+
+    // index and hidden files are never wanted, even if the filter matches them
+    boolean wants(Path file) {
+      String name = file.getFileName().toString();
+      if (name.startsWith("."))
+        return false;
+      for (String suffix : indexSuffixes)
+        if (name.endsWith(suffix))
+          return false;
+      return filter == null || filter.matcher(filterOnName ? name : file.toString()).matches();
+    }
+
+    boolean isSame(CollectionUpdateType updateType, Path rootDir, boolean subdirs, Pattern filter,
+        boolean filterOnName) {
+      return this.updateType == updateType && this.rootDir.equals(rootDir) && this.subdirs == subdirs
+          && Objects.equals(pattern(this.filter), pattern(filter)) && this.filterOnName == filterOnName;
+    }
+
+    private static String pattern(Pattern p) {
+      return (p == null) ? null : p.pattern();
+    }
+  }
+
+  /**
+   * @param sender called with the update events, from the watcher thread
+   * @param debounceMsecs send an update when there have been no events for this long
+   * @param stableMsecs and the size of the changed files has not changed for this long
+   */
+  public CollectionWatcher(Consumer<CollectionUpdateEvent> sender, long debounceMsecs, long stableMsecs) {
+    this.sender = sender;
+    this.debounceMsecs = debounceMsecs;
+    this.stableMsecs = stableMsecs;
+  }
+
+  /**
+   * Start watching the directories of a collection.
+   *
+   * @param config the collection
+   * @param updateType the type of the update events to send
+   * @param logger log for this collection
+   * @param onLost called from the watcher thread if the root directory can no longer be watched later, and the
+   *        collection must be rescanned from then on
+   * @return false if the collection cant be watched, so it must be rescanned
+   */
+  public boolean watch(FeatureCollectionConfig config, CollectionUpdateType updateType, Logger logger,
+      Runnable onLost) {
+    Formatter errlog = new Formatter();
+    CollectionSpecParser specp = config.getCollectionSpecParser(errlog);
+    Path rootDir = Paths.get(specp.getRootDir());
+    return watch(config.getCollectionName(), updateType, rootDir, specp.wantSubdirs(), specp.getFilter(),
+        specp.getFilterOnName(), logger, onLost);
+  }
+
+  synchronized boolean watch(String collectionName, CollectionUpdateType updateType, Path rootDir, boolean subdirs,
+      Pattern filter, boolean filterOnName, Logger logger, Runnable onLost) {
+    Watched old = collections.get(collectionName);
+    if (old != null) {
+      if (old.isSame(updateType, rootDir, subdirs, filter, filterOnName))
+        return true;
+      unwatch(collectionName); // the collection changed in the config catalogs
+    }
+    if (!Files.isDirectory(rootDir)) {
+      logger.warn("CollectionWatcher: {} root directory {} does not exist, rescan instead", collectionName, rootDir);
+      return false;
+    }
+
+    Watched watched = new Watched(collectionName, updateType, rootDir, subdirs, filter, filterOnName, logger, onLost);
+    try {
+      String type = Files.getFileStore(rootDir).type().toLowerCase(Locale.ROOT);
+      if (networkFileSystems.contains(type)) {
+        logger.info("CollectionWatcher: {} is on a {} file system, rescan instead", collectionName, type);
+        return false;
+      }
+
+      if (watchService == null)
+        watchService = rootDir.getFileSystem().newWatchService();
+      register(watched, rootDir);
+      collections.put(collectionName, watched);
+
+    } catch (IOException | UnsupportedOperationException e) {
+      removeKeys(watched); // the directories registered before the failure
+      logger.warn("CollectionWatcher: cant watch {}, rescan instead", collectionName, e);
+      return false;
+    }
+
+    if (thread == null) {
+      thread = new Thread(this::run, "CollectionWatcher");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    logger.info("CollectionWatcher: watching '{}' in {} subdirs={}", collectionName, rootDir, subdirs);
+    return true;
+  }
+
+  /**
+   * Stop watching a collection, eg when it is no longer in the config catalogs.
+   *
+   * @return false if it was not watched
+   */
+  public synchronized boolean unwatch(String collectionName) {
+    Watched watched = collections.remove(collectionName);
+    if (watched == null)
+      return false;
+    removeKeys(watched);
+    watched.logger.info("CollectionWatcher: stopped watching '{}'", collectionName);
+    return true;
+  }
+
+  // cancel the keys that are only used by this collection
+  private void removeKeys(Watched watched) {
+    Iterator<Map.Entry<WatchKey, List<Watched>>> iter = keys.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<WatchKey, List<Watched>> entry = iter.next();
+      List<Watched> watchedList = entry.getValue();
+      if (watchedList.remove(watched) && watchedList.isEmpty()) {
+        entry.getKey().cancel();
+        iter.remove();
+      }
+    }
+  }
+
+  /** The names of the watched collections */
+  public synchronized Set<String> getCollectionNames() {
+    return new HashSet<>(collections.keySet());
+  }
+
+  // register the directory, and its subdirectories if wanted
+  private void register(Watched watched, Path dir) throws IOException {
+    if (!watched.subdirs) {
+      addKey(register(dir), watched);
+      return;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+        addKey(register(subdir), watched);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // registering a directory again returns the same key
+  private void addKey(WatchKey key, Watched watched) {
+    List<Watched> watchedList = keys.computeIfAbsent(key, k -> new ArrayList<>());
+    if (!watchedList.contains(watched))
+      watchedList.add(watched);
+  }
+
+  private WatchKey register(Path dir) throws IOException {
+    return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE);
+  }
+
+  public synchronized void close() {
+    if (thread != null)
+      thread.interrupt();
+    thread = null;
+    try {
+      if (watchService != null)
+        watchService.close();
+    } catch (IOException e) {
+      logger.warn("CollectionWatcher close failed", e);
+    }
+    watchService = null;
+    keys.clear();
+    collections.clear();
+  }
+
+  public synchronized void showStatus(Formatter f) {
+    for (Watched watched : collections.values())
+      f.format("  %s watching %s pending=%d overflow=%s%n", watched.collectionName, watched.rootDir,
+          watched.pending.size(), watched.overflow);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+
+  private void run() {
+    WatchService service;
+    synchronized (this) {
+      service = watchService;
+    }
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        WatchKey key = service.poll(TICK, TimeUnit.MILLISECONDS);
+        long now = System.currentTimeMillis();
+        if (key != null)
+          lost(processEvents(key, now));
+        checkPending(now);
+
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      } catch (Throwable t) {
+        logger.error("CollectionWatcher failed", t);
+      }
+    }
+  }
+
+  // return the collections whose root directory can no longer be watched
+  private synchronized List<Watched> processEvents(WatchKey key, long now) {
+    List<Watched> watchedList = new ArrayList<>(keys.getOrDefault(key, Collections.emptyList()));
+    Path dir = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      for (Watched watched : watchedList)
+        processEvent(watched, dir, event, now);
+    }
+
+    List<Watched> lost = new ArrayList<>();
+    if (!key.reset()) { // directory was deleted, or watching stopped
+      keys.remove(key);
+      for (Watched watched : watchedList) {
+        if (watched.rootDir.equals(dir) && collections.get(watched.collectionName) == watched) {
+          collections.remove(watched.collectionName);
+          removeKeys(watched);
+          lost.add(watched);
+        } else {
+          overflow(watched, now); // a subdirectory
+        }
+      }
+    }
+    return lost;
+  }
+
+  // outside the lock, the callers may schedule a rescan
+  private void lost(List<Watched> lost) {
+    for (Watched watched : lost) {
+      watched.logger.warn("CollectionWatcher: cant watch '{}' root directory {} anymore, rescan instead",
+          watched.collectionName, watched.rootDir);
+      if (watched.onLost == null)
+        continue;
+      try {
+        watched.onLost.run();
+      } catch (Throwable t) {
+        watched.logger.error("CollectionWatcher: rescan of {} failed to start", watched.collectionName, t);
+      }
+    }
+  }
+
+  private void processEvent(Watched watched, Path dir, WatchEvent<?> event, long now) {
+    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+      overflow(watched, now);
+      return;
+    }
+
+    Path file = dir.resolve((Path) event.context());
+    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && watched.subdirs && Files.isDirectory(file)) {
+      try {
+        register(watched, file); // files already in it are not seen as events
+        overflow(watched, now);
+      } catch (IOException e) {
+        watched.logger.warn("CollectionWatcher: cant watch new directory {}", file, e);
+        overflow(watched, now);
+      }
+      return;
+    }
+    changed(watched, file, now);
+  }
+
+  // a file of the collection was created, modified or deleted
+  synchronized void changed(String collectionName, Path file, long now) {
+    Watched watched = collections.get(collectionName);
+    if (watched != null)
+      changed(watched, file, now);
+  }
+
+  private void changed(Watched watched, Path file, long now) {
+    if (!watched.wants(file))
+      return;
+    long size = size(file);
+    FileState state = watched.pending.get(file);
+    if (state == null)
+      watched.pending.put(file, new FileState(size, now));
+    else if (state.size != size) {
+      state.size = size;
+      state.lastChange = now;
+    }
+    watched.lastEvent = now;
+  }
+
+  private void overflow(Watched watched, long now) {
+    watched.overflow = true;
+    watched.lastEvent = now;
+  }
+
+  /** Send an update for the collections that are quiet and whose changed files are stable */
+  synchronized void checkPending(long now) {
+    for (Watched watched : collections.values()) {
+      if (!watched.isPending() || now - watched.lastEvent < debounceMsecs)
+        continue;
+      if (!isStable(watched, now))
+        continue;
+
+      watched.logger.info("CollectionWatcher: update '{}' for {} changed files overflow={}", watched.collectionName,
+          watched.pending.size(), watched.overflow);
+      watched.pending.clear();
+      watched.overflow = false;
+      watched.lastEvent = 0;
+      try {
+        sender.accept(new CollectionUpdateEvent(watched.updateType, watched.collectionName, SOURCE));
+      } catch (Throwable t) {
+        watched.logger.error("CollectionWatcher: update of {} failed", watched.collectionName, t);
+      }
+    }
+  }
+
+  // files that are still being written change size; deleted files are stable
+  private boolean isStable(Watched watched, long now) {
+    boolean stable = true;
+    for (Map.Entry<Path, FileState> entry : watched.pending.entrySet()) {
+      FileState state = entry.getValue();
+      long size = size(entry.getKey());
+      if (size != state.size) {
+        state.size = size;
+        state.lastChange = now;
+      }
+      if (size >= 0 && now - state.lastChange < stableMsecs)
+        stable = false;
+    }
+    return stable;
+  }
+
+  private static long size(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return -1; // deleted
+    }
+  }
+}
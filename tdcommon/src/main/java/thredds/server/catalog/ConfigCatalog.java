@@ -54,6 +54,24 @@ public class ConfigCatalog extends Catalog {
     return builder;
   }
 
+  /**
+   * Make a CatalogBuilder with just one dataset of this catalog, and its nested datasets.
+   * The metadata it inherits from its parents is made local, so it is the same as in the whole catalog.
+   *
+   * @param dataset a dataset in this catalog
+   * @param context the servlet context
+   */
+  public CatalogBuilder makeCatalogBuilder(Dataset dataset, String context) {
+    CatalogBuilder builder = new CatalogBuilder(this);
+    DatasetBuilder dsBuilder = makeDatasetBuilder(null, dataset, context);
+    dsBuilder.put(Dataset.ThreddsMetadataInheritable, null);
+    dsBuilder.transferInheritedMetadata(dataset); // this dataset and its parents
+    if (dsBuilder.get(Dataset.RestrictAccess) == null && dataset.getRestrictAccess() != null)
+      dsBuilder.put(Dataset.RestrictAccess, dataset.getRestrictAccess());
+    builder.addDataset(dsBuilder);
+    return builder;
+  }
+
   /**
    * @deprecated Use {@link #makeCatalogBuilder(String)} instead
    */
@@ -7,6 +7,8 @@ package thredds.server.catalog;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import org.jdom2.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -36,6 +38,7 @@ public class ConfigCatalogCache implements CatalogReader {
   private String context;
 
   private String rootPath;
+  private ConfigCatalogSnapshots snapshots; // null unless ConfigCatalog.snapshot is on
   private Cache<String, ConfigCatalog> cache;
   private List<String> rootCatalogKeys;
 
@@ -52,13 +55,27 @@ public class ConfigCatalogCache implements CatalogReader {
         // .removalListener(MY_LISTENER)
         .build(new CacheLoader<String, ConfigCatalog>() {
           public ConfigCatalog load(String key) throws IOException {
-            return readCatalog(key, context);
+            return readCatalog(key, context, snapshots);
           }
         });
 
     this.context = context;
   }
 
+  /**
+   * Keep binary snapshots of the catalogs in this directory, and read them instead of the XML when they are up to
+   * date.
+   *
+   * @param snapshotDir directory of the snapshots, or null to always parse the XML
+   */
+  public void setSnapshotDir(String snapshotDir) throws IOException {
+    this.snapshots = (snapshotDir == null) ? null : new ConfigCatalogSnapshots(snapshotDir);
+  }
+
+  public ConfigCatalogSnapshots getSnapshots() {
+    return snapshots;
+  }
+
   public void put(String catKey, ConfigCatalog cat) throws IOException {
     cache.put(catKey, cat);
   }
@@ -67,6 +84,14 @@ public class ConfigCatalogCache implements CatalogReader {
     cache.invalidateAll();
   }
 
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
   public ConfigCatalog getFromAbsolutePath(String catalogFullPath) throws IOException {
     catalogFullPath = catalogFullPath.replace("\\", "/"); // nasty microsnot
     if (catalogFullPath.startsWith(rootPath)) {
@@ -75,7 +100,7 @@ public class ConfigCatalogCache implements CatalogReader {
       return get(catKey);
     }
 
-    return readCatalog(catalogFullPath, context);
+    return readCatalog(catalogFullPath, context, snapshots);
   }
 
 
@@ -91,7 +116,7 @@ public class ConfigCatalogCache implements CatalogReader {
        * }
        */
 
-      return cache.get(catKey, () -> readCatalog(rootPath + catKey, context));
+      return cache.get(catKey, () -> readCatalog(rootPath + catKey, context, snapshots));
 
     } catch (ExecutionException e) {
       Throwable c = e.getCause();
@@ -107,6 +132,11 @@ public class ConfigCatalogCache implements CatalogReader {
   }
 
   static public ConfigCatalog readCatalog(String catalogFullPath, String context) throws IOException {
+    return readCatalog(catalogFullPath, context, null);
+  }
+
+  static private ConfigCatalog readCatalog(String catalogFullPath, String context, ConfigCatalogSnapshots snapshots)
+      throws IOException {
 
     // see if it exists
     File catFile = new File(catalogFullPath);
@@ -123,7 +153,13 @@ public class ConfigCatalogCache implements CatalogReader {
     }
 
     ConfigCatalogBuilder builder = new ConfigCatalogBuilder(context);
-    ConfigCatalog cat = (ConfigCatalog) builder.buildFromURI(uri); // LOOK use file and keep lastModified
+    ConfigCatalog cat;
+    if (snapshots != null) {
+      Element root = snapshots.read(catalogFullPath); // checks lastModified and size of the file
+      cat = (ConfigCatalog) builder.buildFromJdom(root, uri);
+    } else {
+      cat = (ConfigCatalog) builder.buildFromURI(uri);
+    }
     if (builder.hasFatalError()) {
       throw new IOException("invalid catalog: " + getFileName(catalogFullPath));
     }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.catalog;
+
+import org.jdom2.*;
+import org.jdom2.input.SAXBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary snapshots of the parsed XML of configuration catalogs, kept in a directory, one file per catalog.
+ * A snapshot is used only if the catalog file has the same last modified time and size as when the snapshot was made,
+ * otherwise the XML is parsed again and the snapshot rewritten.
+ * <p/>
+ * The snapshot is the JDOM tree (elements, namespaces, attributes, text), with the names in a string table,
+ * so reading it is a few reads per node and skips the XML parser. ConfigCatalogBuilder then makes the ConfigCatalog
+ * from the tree as usual, so the catalog is the same as one read from XML.
+ *
+ * @since 5.0
+ */
+public class ConfigCatalogSnapshots {
+  static private final Logger logger = LoggerFactory.getLogger(ConfigCatalogSnapshots.class);
+  static private final int MAGIC = 0x54445343; // "TDSC"
+  static private final int VERSION = 1;
+  static private final byte ELEMENT = 1, TEXT = 2, CDATA = 3;
+
+  private final Path dir;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * @param dir directory where the snapshots are kept, created if needed
+   */
+  public ConfigCatalogSnapshots(String dir) throws IOException {
+    this.dir = Paths.get(dir);
+    Files.createDirectories(this.dir);
+  }
+
+  /**
+   * Get the root element of this catalog, from its snapshot if it is up to date, else by parsing the XML and writing
+   * a new snapshot.
+   *
+   * @param catalogFullPath the catalog file
+   * @return the root element, detached from its Document
+   */
+  public Element read(String catalogFullPath) throws IOException {
+    Path catFile = Paths.get(catalogFullPath);
+    BasicFileAttributes att = Files.readAttributes(catFile, BasicFileAttributes.class);
+    long lastModified = att.lastModifiedTime().toMillis();
+    Path snapFile = snapshotFile(catalogFullPath);
+
+    if (Files.exists(snapFile)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(snapFile), 64 * 1024))) {
+        Element root = readSnapshot(in, catalogFullPath, lastModified, att.size());
+        if (root != null) {
+          hits.incrementAndGet();
+          return root;
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.warn("ConfigCatalogSnapshots failed to read {}: {}", snapFile, e.getMessage());
+      }
+    }
+
+    // stale or missing: parse the XML, the same way as CatalogBuilder
+    misses.incrementAndGet();
+    Element root;
+    try {
+      SAXBuilder saxBuilder = new SAXBuilder();
+      saxBuilder.setExpandEntities(false);
+      root = saxBuilder.build(catFile.toFile()).getRootElement().detach();
+    } catch (JDOMException e) {
+      throw new IOException("invalid catalog: " + catalogFullPath + ": " + e.getMessage(), e);
+    }
+    write(root, catalogFullPath, lastModified, att.size(), snapFile);
+    return root;
+  }
+
+  /** Remove the snapshot of this catalog, if any */
+  public void delete(String catalogFullPath) throws IOException {
+    Files.deleteIfExists(snapshotFile(catalogFullPath));
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  public void show(Formatter f) {
+    f.format("ConfigCatalogSnapshots dir=%s hits=%d misses=%d failures=%d", dir, hits.get(), misses.get(),
+        failures.get());
+  }
+
+  // one file per catalog, named by a hash of the catalog path; the path is checked when reading
+  private Path snapshotFile(String catalogFullPath) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < catalogFullPath.length(); i++) {
+      h ^= catalogFullPath.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return dir.resolve(String.format("%016x.snap", h));
+  }
+
+  // write to a temporary file and move it into place, so readers never see a partial snapshot
+  private void write(Element root, String catalogFullPath, long lastModified, long size, Path snapFile) {
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(dir, "snap", ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+        writeSnapshot(out, root, catalogFullPath, lastModified, size);
+      }
+      Files.move(tmp, snapFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tmp = null;
+
+    } catch (IOException | RuntimeException e) {
+      failures.incrementAndGet();
+      logger.warn("ConfigCatalogSnapshots failed to write {}: {}", snapFile, e.getMessage());
+    } finally {
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException ioe) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////
+  // MAGIC, VERSION, catalog path, lastModified, size, string table, root element
+
+  static void writeSnapshot(DataOutputStream out, Element root, String catalogFullPath, long lastModified, long size)
+      throws IOException {
+    Map<String, Integer> table = new LinkedHashMap<>();
+    collectStrings(root, table);
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeString(out, catalogFullPath);
+    out.writeLong(lastModified);
+    out.writeLong(size);
+    out.writeInt(table.size());
+    for (String s : table.keySet())
+      writeString(out, s);
+    writeElement(out, root, table);
+  }
+
+  // element and attribute names and namespaces; text and attribute values are written in place
+  private static void collectStrings(Element elem, Map<String, Integer> table) {
+    addString(elem.getName(), table);
+    addString(elem.getNamespacePrefix(), table);
+    addString(elem.getNamespaceURI(), table);
+    for (Namespace ns : elem.getAdditionalNamespaces()) {
+      addString(ns.getPrefix(), table);
+      addString(ns.getURI(), table);
+    }
+    for (Attribute att : elem.getAttributes()) {
+      addString(att.getName(), table);
+      addString(att.getNamespacePrefix(), table);
+      addString(att.getNamespaceURI(), table);
+    }
+    for (Element child : elem.getChildren())
+      collectStrings(child, table);
+  }
+
+  private static void addString(String s, Map<String, Integer> table) {
+    table.putIfAbsent(s, table.size());
+  }
+
+  private static void writeElement(DataOutputStream out, Element elem, Map<String, Integer> table)
+      throws IOException {
+    out.writeInt(table.get(elem.getName()));
+    out.writeInt(table.get(elem.getNamespacePrefix()));
+    out.writeInt(table.get(elem.getNamespaceURI()));
+
+    List<Namespace> namespaces = elem.getAdditionalNamespaces();
+    out.writeInt(namespaces.size());
+    for (Namespace ns : namespaces) {
+      out.writeInt(table.get(ns.getPrefix()));
+      out.writeInt(table.get(ns.getURI()));
+    }
+
+    List<Attribute> atts = elem.getAttributes();
+    out.writeInt(atts.size());
+    for (Attribute att : atts) {
+      out.writeInt(table.get(att.getName()));
+      out.writeInt(table.get(att.getNamespacePrefix()));
+      out.writeInt(table.get(att.getNamespaceURI()));
+      writeString(out, att.getValue());
+    }
+
+    // comments and processing instructions are not used by the catalog builder
+    List<Content> contents = new ArrayList<>();
+    for (Content c : elem.getContent()) {
+      if (c instanceof Element || c instanceof Text) // Text includes CDATA
+        contents.add(c);
+      else if (c instanceof EntityRef)
+        throw new IllegalStateException("cant snapshot entity reference " + ((EntityRef) c).getName());
+    }
+    out.writeInt(contents.size());
+    for (Content c : contents) {
+      if (c instanceof Element) {
+        out.writeByte(ELEMENT);
+        writeElement(out, (Element) c, table);
+      } else {
+        out.writeByte(c instanceof CDATA ? CDATA : TEXT);
+        writeString(out, ((Text) c).getText());
+      }
+    }
+  }
+
+  // not writeUTF, which is limited to 64K
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  /**
+   * Read a snapshot.
+   *
+   * @return the root element, or null if the snapshot is not for this version of the catalog file
+   */
+  static Element readSnapshot(DataInputStream in, String catalogFullPath, long lastModified, long size)
+      throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION)
+      return null;
+    if (!catalogFullPath.equals(readString(in)))
+      return null; // hash collision
+    if (in.readLong() != lastModified || in.readLong() != size)
+      return null; // stale
+
+    int n = in.readInt();
+    String[] table = new String[n];
+    for (int i = 0; i < n; i++)
+      table[i] = readString(in);
+
+    // the names were checked when the XML was parsed
+    JDOMFactory factory = new UncheckedJDOMFactory();
+    Map<String, Namespace> namespaces = new HashMap<>();
+    return readElement(in, table, factory, namespaces);
+  }
+
+  private static Element readElement(DataInputStream in, String[] table, JDOMFactory factory,
+      Map<String, Namespace> namespaces) throws IOException {
+    String name = table[in.readInt()];
+    Namespace ns = namespace(table[in.readInt()], table[in.readInt()], namespaces);
+    Element elem = factory.element(name, ns);
+
+    int nns = in.readInt();
+    for (int i = 0; i < nns; i++)
+      factory.addNamespaceDeclaration(elem, namespace(table[in.readInt()], table[in.readInt()], namespaces));
+
+    int natts = in.readInt();
+    for (int i = 0; i < natts; i++) {
+      String attName = table[in.readInt()];
+      Namespace attNs = namespace(table[in.readInt()], table[in.readInt()], namespaces);
+      factory.setAttribute(elem, factory.attribute(attName, readString(in), attNs));
+    }
+
+    int ncontent = in.readInt();
+    for (int i = 0; i < ncontent; i++) {
+      byte type = in.readByte();
+      if (type == ELEMENT)
+        factory.addContent(elem, readElement(in, table, factory, namespaces));
+      else if (type == TEXT)
+        factory.addContent(elem, factory.text(readString(in)));
+      else if (type == CDATA)
+        factory.addContent(elem, factory.cdata(readString(in)));
+      else
+        throw new IOException("bad content type " + type);
+    }
+    return elem;
+  }
+
+  private static Namespace namespace(String prefix, String uri, Map<String, Namespace> namespaces) {
+    return namespaces.computeIfAbsent(prefix + " " + uri, k -> Namespace.getNamespace(prefix, uri));
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int len = in.readInt();
+    byte[] b = new byte[len];
+    in.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+}
@@ -13,6 +13,8 @@ import javax.annotation.Nonnull;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Find the dataRoot path from the request, by getting the longest match.
@@ -44,8 +46,9 @@ public class DataRootPathMatcher {
   private DataRootTracker tracker;
 
   private final TreeSet<String> treeSet = new TreeSet<>(new PathComparator()); // this should be in-memory for speed
-  private final Map<String, DataRootExt> map = new HashMap<>(); // this could be turned into an off-heap cache if
-                                                                // needed, with persistence.
+  private final Map<String, DataRootExt> map = new ConcurrentHashMap<>(); // this could be turned into an off-heap
+                                                                          // cache if needed, with persistence.
+  private final Map<String, Object> catalogLocks = new ConcurrentHashMap<>(); // one catalog read at a time
 
   public DataRootPathMatcher(ConfigCatalogCache ccc, DataRootTracker tracker) {
     this.ccc = ccc;
@@ -142,36 +145,124 @@ public class DataRootPathMatcher {
     return convert2DataRoot(dataRootExt);
   }
 
-  // convert a dataRootExt to a dataRoot
+  /**
+   * Convert a dataRootExt to a dataRoot, reading the catalog that it is in if needed.
+   * May be called from any thread, once the roots are published. Each catalog is read by only one thread at a time,
+   * and all the roots in it are converted together.
+   */
   public @Nonnull DataRoot convert2DataRoot(DataRootExt dataRootExt) {
     DataRoot dataRoot = dataRootExt.getDataRoot();
     if (dataRoot != null)
       return dataRoot;
 
     // otherwise must read the catalog that its in
-    dataRoot = readDataRootFromCatalog(dataRootExt);
-    dataRootExt.setDataRoot(dataRoot);
+    String catLocation = dataRootExt.getCatLocation();
+    synchronized (catalogLocks.computeIfAbsent(catLocation, k -> new Object())) {
+      dataRoot = dataRootExt.getDataRoot();
+      if (dataRoot == null) // not done by another thread while we waited
+        dataRoot = readDataRootFromCatalog(dataRootExt);
+    }
     return dataRoot;
   }
 
   private @Nonnull DataRoot readDataRootFromCatalog(DataRootExt dataRootExt) {
+    String catLocation = dataRootExt.getCatLocation();
     try {
-      ConfigCatalog cat = ccc.get(dataRootExt.getCatLocation());
-      extractDataRoots(dataRootExt.getCatLocation(), cat.getDatasetsLocal(), false, null); // will create a new
-                                                                                           // DataRootExt and replace
-                                                                                           // this one in the map
-      DataRootExt dataRootExtNew = map.get(dataRootExt.getPath());
-      if (null == dataRootExtNew) {
-        logger.error("Reading catalog " + dataRootExt.getCatLocation() + " failed to find dataRoot path="
-            + dataRootExt.getPath());
-        throw new IllegalStateException("Reading catalog " + dataRootExt.getCatLocation()
-            + " failed to find dataRoot path=" + dataRootExt.getPath());
+      ConfigCatalog cat = ccc.get(catLocation);
+      Map<String, DataRoot> roots = new HashMap<>();
+      findDataRoots(cat.getDatasetsLocal(), roots);
+
+      // set all the roots of this catalog that are waiting, so the catalog is read only once.
+      // The tree and the tracker are not changed, so this is safe after the roots are published.
+      for (DataRoot root : roots.values()) {
+        DataRootExt dre = map.get(root.getPath());
+        if (dre != null && dre.getDataRoot() == null && catLocation.equals(dre.getCatLocation()))
+          dre.setDataRoot(root);
       }
-      return dataRootExtNew.getDataRoot();
+
+      DataRoot dataRoot = roots.get(dataRootExt.getPath());
+      if (null == dataRoot) {
+        logger.error("Reading catalog " + catLocation + " failed to find dataRoot path=" + dataRootExt.getPath());
+        throw new IllegalStateException(
+            "Reading catalog " + catLocation + " failed to find dataRoot path=" + dataRootExt.getPath());
+      }
+      dataRootExt.setDataRoot(dataRoot);
+      return dataRoot;
 
     } catch (IOException e) {
-      throw new IllegalStateException("Error Reading catalog " + dataRootExt.getCatLocation(), e);
+      throw new IllegalStateException("Error Reading catalog " + catLocation, e);
+    }
+  }
+
+  // the dataRoots defined in these datasets, same as extractDataRoots but without the checks
+  private void findDataRoots(List<Dataset> dsList, Map<String, DataRoot> result) {
+    for (Dataset dataset : dsList) {
+      DataRoot root = null;
+      if (dataset instanceof DatasetScan)
+        root = new DataRoot((DatasetScan) dataset);
+      else if (dataset instanceof FeatureCollectionRef)
+        root = new DataRoot((FeatureCollectionRef) dataset);
+      else if (dataset instanceof CatalogScan)
+        root = new DataRoot((CatalogScan) dataset);
+      if (root != null && root.getPath() != null)
+        result.put(root.getPath(), root);
+
+      if (!(dataset instanceof CatalogRef))
+        findDataRoots(dataset.getDatasetsLocal(), result);
+    }
+  }
+
+  /**
+   * Convert all the dataRoots that still need their catalog read, using nthreads threads, and wait for them.
+   * Each task reads one catalog, so the catalogs are read in parallel and each one only once.
+   * Called before the roots are published, so the first requests after a restart dont wait on catalog reads.
+   *
+   * @param nthreads number of threads; if <= 0, nothing is done and the roots are converted when first requested
+   * @return number of dataRoots converted
+   */
+  public int materializeDataRoots(int nthreads) {
+    if (nthreads <= 0)
+      return 0;
+
+    // one task for each catalog
+    Map<String, List<DataRootExt>> byCatalog = new HashMap<>();
+    for (DataRootExt dre : map.values()) {
+      if (dre.getDataRoot() == null && dre.getCatLocation() != null)
+        byCatalog.computeIfAbsent(dre.getCatLocation(), k -> new ArrayList<>()).add(dre);
     }
+    if (byCatalog.isEmpty())
+      return 0;
+
+    long start = System.currentTimeMillis();
+    AtomicInteger count = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(nthreads, byCatalog.size()));
+    try {
+      List<Callable<Object>> tasks = new ArrayList<>();
+      for (List<DataRootExt> roots : byCatalog.values()) {
+        tasks.add(Executors.callable(() -> {
+          for (DataRootExt dre : roots) {
+            try {
+              convert2DataRoot(dre);
+              count.incrementAndGet();
+            } catch (Throwable t) {
+              failed.incrementAndGet();
+              logCatalogInit.error(ERROR + "Failed to convert dataRoot " + dre.getPath() + ": " + t.getMessage());
+            }
+          }
+        }));
+      }
+      executor.invokeAll(tasks);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    logCatalogInit.info("DataRootPathMatcher converted {} dataRoots ({} failed) from {} catalogs in {} msecs",
+        count.get(), failed.get(), byCatalog.size(), System.currentTimeMillis() - start);
+    return count.get();
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
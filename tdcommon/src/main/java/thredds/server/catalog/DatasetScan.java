@@ -56,6 +56,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * DatasetScan
@@ -164,6 +165,88 @@ public class DatasetScan extends CatalogRef {
    * @return the catalog for this path or null if build unsuccessful.
    */
   public CatalogBuilder makeCatalogForDirectory(String orgPath, URI baseURI) throws IOException {
+    DirectoryScan scan = scanDirectory(orgPath, baseURI);
+    if (scan == null)
+      return null;
+    DatasetBuilder top = scan.top;
+
+    if (config.addLatest != null && config.addLatest.latestOnTop)
+      top.addDataset(makeLatestProxy(top, scan.parentId));
+
+    // create Datasets
+    for (MFile mfile : scan.mfiles)
+      top.addDataset(makeDataset(top, mfile, scan));
+
+    if (config.addLatest != null && !config.addLatest.latestOnTop)
+      top.addDataset(makeLatestProxy(top, scan.parentId));
+
+    // make the catalog
+    return scan.catBuilder;
+  }
+
+  /** Receives the catalogs made by makeCatalogForDirectory(String, URI, int, String, CatalogHandler) */
+  public interface CatalogHandler {
+    void handle(CatalogBuilder catalog) throws IOException;
+  }
+
+  /**
+   * Same as makeCatalogForDirectory(String, URI), but the catalog is handed to the handler a batch of datasets at a
+   * time, so the datasets of a large directory are never all made at once.
+   * An empty dataset named marker shows where the datasets of the directory go. The first catalog has the top dataset
+   * with the latest proxy, if any, and a marker in place of the datasets of the directory. The following catalogs
+   * each have the top dataset with a batch of datasets between two markers.
+   *
+   * @param orgPath the part of the baseURI that is the path
+   * @param baseURI the base URL for the catalog, used to resolve relative URLs.
+   * @param batchSize number of datasets in a batch
+   * @param marker name of the marker datasets
+   * @param handler receives the catalogs
+   * @return false if the path is not in this DatasetScan, and nothing was handed to the handler
+   */
+  public boolean makeCatalogForDirectory(String orgPath, URI baseURI, int batchSize, String marker,
+      CatalogHandler handler) throws IOException {
+    DirectoryScan scan = scanDirectory(orgPath, baseURI);
+    if (scan == null)
+      return false;
+    DatasetBuilder top = scan.top;
+
+    if (config.addLatest != null && config.addLatest.latestOnTop)
+      top.addDataset(makeLatestProxy(top, scan.parentId));
+    top.addDataset(makeMarker(top, marker));
+    if (config.addLatest != null && !config.addLatest.latestOnTop)
+      top.addDataset(makeLatestProxy(top, scan.parentId));
+    handler.handle(scan.catBuilder);
+
+    int count = 0;
+    while (count < scan.mfiles.size()) {
+      DirectoryScan batch = makeTopCatalog(scan.dataDirRelative, baseURI);
+      if (scan.hasFileService)
+        batch.top.put(ServiceName, fileService.getName());
+      batch.top.addDataset(makeMarker(batch.top, marker));
+      for (int i = 0; i < batchSize && count < scan.mfiles.size(); i++, count++)
+        batch.top.addDataset(makeDataset(batch.top, scan.mfiles.get(count), scan));
+      batch.top.addDataset(makeMarker(batch.top, marker));
+      handler.handle(batch.catBuilder);
+    }
+    return true;
+  }
+
+  private static DatasetBuilder makeMarker(DatasetBuilder parent, String marker) {
+    DatasetBuilder ds = new DatasetBuilder(parent);
+    ds.setName(marker);
+    return ds;
+  }
+
+  // the directory of a request, scanned and sorted, and the catalog without its datasets
+  private static class DirectoryScan {
+    CatalogBuilder catBuilder;
+    DatasetBuilder top;
+    String dataDirRelative, parentPath, parentId;
+    List<MFile> mfiles;
+    boolean hasFileService; // some files are not thredds datasets
+  }
+
+  private DirectoryScan scanDirectory(String orgPath, URI baseURI) throws IOException {
 
     // Get the dataset location.
     String dataDirRelative = translatePathToReletiveLocation(orgPath, config.path);
@@ -175,14 +258,41 @@ public class DatasetScan extends CatalogRef {
     }
     if (!dataDirRelative.endsWith("/"))
       dataDirRelative += "/";
-    String parentPath = (dataDirRelative.length() > 1) ? config.path + "/" + dataDirRelative : config.path + "/";
+    DirectoryScan scan = makeTopCatalog(dataDirRelative, baseURI);
+
+    String dataDirComplete = getDataDir(config.scanDir, dataDirRelative);
+    MFile directory = MFiles.create(dataDirComplete);
+    if (!directory.exists()) {
+      throw new FileNotFoundException("Directory does not exist. URL path = " + orgPath);
+    }
+    if (!directory.isDirectory()) {
+      throw new FileNotFoundException("Not a directory. URL path = " + orgPath);
+    }
+
+    // scan and sort the directory
+    scan.mfiles = getSortedFiles(directory, config.getSortFilesAscending());
+
+    // files that are not thredds datasets use the file service
+    for (MFile mfile : scan.mfiles) {
+      if (!mfile.isDirectory() && allowedServices != null && !allowedServices.isAThreddsDataset(mfile.getName())) {
+        scan.hasFileService = true;
+        scan.top.put(ServiceName, fileService.getName());
+        break;
+      }
+    }
+    return scan;
+  }
+
+  // Setup and create catalog builder, with the top dataset
+  private DirectoryScan makeTopCatalog(String dataDirRelative, URI baseURI) {
+    DirectoryScan scan = new DirectoryScan();
+    scan.dataDirRelative = dataDirRelative;
+    scan.parentPath = (dataDirRelative.length() > 1) ? config.path + "/" + dataDirRelative : config.path + "/";
     String id = this.getId();
     if (id == null)
       id = config.path;
-    String parentId = (dataDirRelative.length() > 1) ? id + "/" + dataDirRelative : id + "/";
-    String dataDirComplete = getDataDir(config.scanDir, dataDirRelative);
+    scan.parentId = (dataDirRelative.length() > 1) ? id + "/" + dataDirRelative : id + "/";
 
-    // Setup and create catalog builder.
     CatalogBuilder catBuilder = new CatalogBuilder();
     catBuilder.setBaseURI(baseURI);
     assert this.getParentCatalog() != null;
@@ -219,62 +329,40 @@ public class DatasetScan extends CatalogRef {
     }
 
     catBuilder.addDataset(top);
+    scan.catBuilder = catBuilder;
+    scan.top = top;
+    return scan;
+  }
 
-    MFile directory = MFiles.create(dataDirComplete);
-    if (!directory.exists()) {
-      throw new FileNotFoundException("Directory does not exist. URL path = " + orgPath);
-    }
-    if (!directory.isDirectory()) {
-      throw new FileNotFoundException("Not a directory. URL path = " + orgPath);
-    }
+  private DatasetBuilder makeDataset(DatasetBuilder top, MFile mfile, DirectoryScan scan) {
+    DatasetBuilder ds;
 
-    // scan and sort the directory
-    List<MFile> mfiles = getSortedFiles(directory, config.getSortFilesAscending());
+    if (mfile.isDirectory()) {
+      CatalogRefBuilder catref = new CatalogRefBuilder(top);
+      catref.setTitle(makeName(mfile));
+      catref.setHref(mfile.getName() + "/catalog.xml");
+      catref.addToList(Dataset.Properties, new Property("DatasetScan", "true"));
+      ds = catref;
 
-    if (config.addLatest != null && config.addLatest.latestOnTop)
-      top.addDataset(makeLatestProxy(top, parentId));
+    } else {
+      ds = new DatasetBuilder(top);
+      ds.setName(makeName(mfile));
+      String urlPath = scan.parentPath + mfile.getName();
+      ds.put(Dataset.UrlPath, urlPath);
+      ds.put(Dataset.DataSize, mfile.getLength()); // <dataSize units="Kbytes">54.73</dataSize>
+      CalendarDate date = CalendarDate.of(mfile.getLastModified());
+      ds.put(Dataset.Dates, new DateType(date).setType("modified")); // <date
+                                                                     // type="modified">2011-09-02T20:50:58.288Z</date>
 
-    // create Datasets
-    for (MFile mfile : mfiles) {
-      DatasetBuilder ds;
-
-      if (mfile.isDirectory()) {
-        CatalogRefBuilder catref = new CatalogRefBuilder(top);
-        catref.setTitle(makeName(mfile));
-        catref.setHref(mfile.getName() + "/catalog.xml");
-        catref.addToList(Dataset.Properties, new Property("DatasetScan", "true"));
-        top.addDataset(catref);
-        ds = catref;
-
-      } else {
-        ds = new DatasetBuilder(top);
-        ds.setName(makeName(mfile));
-        String urlPath = parentPath + mfile.getName();
-        ds.put(Dataset.UrlPath, urlPath);
-        ds.put(Dataset.DataSize, mfile.getLength()); // <dataSize units="Kbytes">54.73</dataSize>
-        CalendarDate date = CalendarDate.of(mfile.getLastModified());
-        ds.put(Dataset.Dates, new DateType(date).setType("modified")); // <date
-                                                                       // type="modified">2011-09-02T20:50:58.288Z</date>
-
-        if (addTimeCoverage != null)
-          addTimeCoverage.addMetadata(ds, mfile);
-
-        if (allowedServices != null && !allowedServices.isAThreddsDataset(mfile.getName())) {
-          ds.addToList(Dataset.Properties, new Property(NotAThreddsDataset, "true"));
-          top.put(ServiceName, fileService.getName());
-        }
-
-        top.addDataset(ds);
-      }
+      if (addTimeCoverage != null)
+        addTimeCoverage.addMetadata(ds, mfile);
 
-      ds.put(Dataset.Id, parentId + mfile.getName());
+      if (allowedServices != null && !allowedServices.isAThreddsDataset(mfile.getName()))
+        ds.addToList(Dataset.Properties, new Property(NotAThreddsDataset, "true"));
     }
 
-    if (config.addLatest != null && !config.addLatest.latestOnTop)
-      top.addDataset(makeLatestProxy(top, parentId));
-
-    // make the catalog
-    return catBuilder;
+    ds.put(Dataset.Id, scan.parentId + mfile.getName());
+    return ds;
   }
 
   private static String getDataDir(String scanDir, String dataDirRelative) {
@@ -325,6 +413,29 @@ public class DatasetScan extends CatalogRef {
     return mFiles;
   }
 
+  /**
+   * Visit the files of this scan that are thredds datasets, in its directory and the subdirectories that are not
+   * filtered out. Used to crawl the scan in the background; stops if the thread is interrupted.
+   *
+   * @param visitor called for each file
+   */
+  public void scanFiles(Consumer<MFile> visitor) throws IOException {
+    MFile top = MFiles.create(config.scanDir);
+    if (top == null || !top.isDirectory())
+      return;
+
+    Deque<MFile> dirs = new ArrayDeque<>();
+    dirs.push(top);
+    while (!dirs.isEmpty() && !Thread.currentThread().isInterrupted()) {
+      for (MFile mfile : getFiles(dirs.pop())) {
+        if (mfile.isDirectory())
+          dirs.push(mfile);
+        else if (allowedServices == null || allowedServices.isAThreddsDataset(mfile.getName()))
+          visitor.accept(mfile);
+      }
+    }
+  }
+
   ////////////////////////////////////////////////
   // Naming
 
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.catalog.builder;
+
+import org.jdom2.*;
+import thredds.client.catalog.Dataset;
+import thredds.server.catalog.ConfigCatalog;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Reads a configuration catalog with StAX in one pass, and hands its datasets to a Handler a batch at a time, so
+ * that a catalog with millions of datasets can be processed without having all of it in memory.
+ * <p/>
+ * A dataset element that contains other datasets is a "container". Each batch is made into a small catalog:
+ * the catalog element without its datasets, then the containers that the batch is in, each without its datasets, then
+ * the batch. ConfigCatalogBuilder makes a ConfigCatalog from it as usual, so services, inherited metadata, datasetScans
+ * and featureCollections are the same as when the whole catalog is read, as long as the metadata of a container comes
+ * before its datasets, as the schema requires. Each container is handed to the Handler once, without its datasets,
+ * in the batch of its parent; its datasets follow in later batches, so the datasets come in document order.
+ * <p/>
+ * Memory used is the containers that are open plus one batch, so it scales with the depth of the catalog rather than
+ * the number of datasets.
+ *
+ * @since 5.0
+ */
+public class ConfigCatalogStreamReader {
+  static private final Set<String> datasetElements =
+      new HashSet<>(Arrays.asList("dataset", "catalogRef", "datasetScan", "featureCollection", "catalogScan"));
+
+  public interface Handler {
+    /** Called first, with the catalog without any datasets: services, properties, datasetRoots */
+    void catalog(ConfigCatalog header) throws IOException;
+
+    /**
+     * Called for each batch of datasets, in document order.
+     *
+     * @param datasets the batch, with their nested datasets if they are not containers
+     * @param topLevel true if these are datasets of the catalog itself, not of a container
+     */
+    void datasets(List<Dataset> datasets, boolean topLevel) throws IOException;
+  }
+
+  private static class Frame {
+    final Element elem;
+    boolean container; // elem is the catalog or a dataset whose datasets are handed out in batches
+    final boolean dataset; // elem is a dataset element in a container, so it goes into the batch when it ends
+    final List<Element> pending = new ArrayList<>(); // batch of datasets, if container
+    int pendingElements;
+
+    Frame(Element elem, boolean container, boolean dataset) {
+      this.elem = elem;
+      this.container = container;
+      this.dataset = dataset;
+    }
+  }
+
+  private final String context;
+  private final int batchSize;
+
+  private URI baseURI;
+  private Handler handler;
+  private String catalogNs;
+  private boolean headerDone;
+  private int bufferedElements; // elements in the dataset being read
+  private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+  private final Map<String, Namespace> namespaces = new HashMap<>();
+
+  /**
+   * @param context servlet context, as in ConfigCatalogBuilder
+   * @param batchSize approximate number of elements in a batch
+   */
+  public ConfigCatalogStreamReader(String context, int batchSize) {
+    this.context = context;
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Read a catalog file.
+   *
+   * @param catalogFullPath the catalog file
+   * @param baseURI base URI of the catalog, as in CatalogBuilder.buildFromLocation
+   * @param handler gets the catalog and the datasets
+   * @throws IOException if the XML is invalid, or a batch has a fatal error
+   */
+  public void read(String catalogFullPath, URI baseURI, Handler handler) throws IOException {
+    this.baseURI = baseURI;
+    this.handler = handler;
+    this.headerDone = false;
+    stack.clear();
+
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(catalogFullPath)), 64 * 1024)) {
+      XMLStreamReader reader = factory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+              startElement(reader);
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              endElement();
+              break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+              text(reader.getText(), false);
+              break;
+            case XMLStreamConstants.CDATA:
+              text(reader.getText(), true);
+              break;
+            default: // comments, processing instructions
+          }
+        }
+      } finally {
+        reader.close();
+      }
+
+    } catch (XMLStreamException e) {
+      throw new IOException("invalid catalog: " + catalogFullPath + ": " + e.getMessage(), e);
+    } finally {
+      stack.clear();
+      namespaces.clear();
+    }
+  }
+
+  private void startElement(XMLStreamReader reader) throws IOException {
+    Element elem = makeElement(reader);
+    if (stack.isEmpty()) { // the catalog
+      catalogNs = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+      stack.push(new Frame(elem, true, false));
+      return;
+    }
+
+    Frame top = stack.peek();
+    boolean isDataset = datasetElements.contains(elem.getName()) && catalogNs.equals(elem.getNamespaceURI());
+
+    // a plain dataset that turns out to have datasets becomes a container
+    if (!top.container && isDataset && top.dataset && top.elem.getName().equals("dataset")) {
+      stack.pop();
+      Frame parent = stack.peek();
+      stack.push(top);
+      addToBatch(parent, top.elem.clone()); // the container itself, without its datasets
+      flush(parent);
+      top.container = true;
+      bufferedElements = 0;
+    }
+
+    if (top.container) {
+      if (isDataset) {
+        if (top == stack.getLast())
+          header();
+        bufferedElements = 1;
+        stack.push(new Frame(elem, false, true)); // attached to the batch when it ends
+      } else {
+        top.elem.addContent(elem); // metadata, services, etc
+        stack.push(new Frame(elem, false, false));
+      }
+    } else {
+      top.elem.addContent(elem);
+      bufferedElements++;
+      stack.push(new Frame(elem, false, false));
+    }
+  }
+
+  private void endElement() throws IOException {
+    Frame frame = stack.pop();
+    if (frame.container) {
+      if (stack.isEmpty())
+        header(); // in case the catalog has no datasets
+      flush(frame);
+    }
+    if (stack.isEmpty())
+      return;
+
+    if (frame.dataset && !frame.container) {
+      Frame parent = stack.peek();
+      addToBatch(parent, frame.elem);
+      if (parent.pendingElements >= batchSize)
+        flush(parent);
+    }
+  }
+
+  private void text(String text, boolean cdata) {
+    if (stack.isEmpty())
+      return;
+    Frame top = stack.peek();
+    if (top.container && text.trim().isEmpty())
+      return; // whitespace between datasets
+    top.elem.addContent(cdata ? new CDATA(text) : new Text(text));
+  }
+
+  private void addToBatch(Frame container, Element dataset) {
+    container.pending.add(dataset);
+    container.pendingElements += bufferedElements;
+    bufferedElements = 0;
+  }
+
+  private void header() throws IOException {
+    if (headerDone)
+      return;
+    headerDone = true;
+    handler.catalog(build(stack.getLast().elem.clone()));
+  }
+
+  // make the batch of this container into a catalog, and hand its datasets to the handler
+  private void flush(Frame container) throws IOException {
+    if (container.pending.isEmpty())
+      return;
+
+    // the containers, from the catalog down to this one
+    List<Frame> chain = new ArrayList<>();
+    for (Iterator<Frame> iter = stack.descendingIterator(); iter.hasNext();) {
+      Frame f = iter.next();
+      if (f.container)
+        chain.add(f);
+      if (f == container)
+        break;
+    }
+    if (!chain.contains(container))
+      chain.add(container); // container has been popped
+
+    Element root = chain.get(0).elem.clone();
+    Element inner = root;
+    for (int i = 1; i < chain.size(); i++) {
+      Element c = chain.get(i).elem.clone();
+      inner.addContent(c);
+      inner = c;
+    }
+    inner.addContent(container.pending);
+    container.pending.clear();
+    container.pendingElements = 0;
+
+    ConfigCatalog cat = build(root);
+    List<Dataset> datasets = cat.getDatasetsLocal();
+    for (int i = 1; i < chain.size(); i++) {
+      if (datasets.isEmpty())
+        throw new IOException("catalog " + baseURI + " failed to build container " + chain.get(i).elem.getName());
+      datasets = datasets.get(0).getDatasetsLocal();
+    }
+    handler.datasets(datasets, chain.size() == 1);
+  }
+
+  private ConfigCatalog build(Element root) throws IOException {
+    ConfigCatalogBuilder builder = new ConfigCatalogBuilder(context);
+    ConfigCatalog cat = (ConfigCatalog) builder.buildFromJdom(root, baseURI);
+    if (builder.hasFatalError())
+      throw new IOException("invalid catalog: " + baseURI + ": " + builder.getErrorMessage());
+    return cat;
+  }
+
+  private Element makeElement(XMLStreamReader reader) {
+    Element elem = new Element(reader.getLocalName(), namespace(reader.getPrefix(), reader.getNamespaceURI()));
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      Namespace ns = namespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+      if (!ns.equals(elem.getNamespace()))
+        elem.addNamespaceDeclaration(ns);
+    }
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      Namespace ns = namespace(reader.getAttributePrefix(i), reader.getAttributeNamespace(i));
+      elem.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i), ns);
+    }
+    return elem;
+  }
+
+  private Namespace namespace(String prefix, String uri) {
+    String p = (prefix == null) ? "" : prefix;
+    String u = (uri == null) ? "" : uri;
+    return namespaces.computeIfAbsent(p + " " + u, k -> Namespace.getNamespace(p, u));
+  }
+}
@@ -1,9 +1,11 @@
 /* Copyright */
 package thredds.server.catalog.tracker;
 
+import thredds.server.catalog.CatalogScan;
 import thredds.server.catalog.DataRoot;
 import java.io.*;
 import java.util.Formatter;
+import java.util.HashMap;
 
 /**
  * Externalized DataRoot.
@@ -22,8 +24,10 @@ public class DataRootExt implements Comparable<DataRootExt> {
   private String catLocation;
   private String name;
   private String restrict;
+  private String watch; // catalogScan only
+  private String xlink; // catalogScan only
 
-  private DataRoot dataRoot;
+  private volatile DataRoot dataRoot; // may be set by any request thread
 
   public DataRootExt() {}
 
@@ -35,17 +39,30 @@ public class DataRootExt implements Comparable<DataRootExt> {
     this.name = dataRoot.getName();
     this.catLocation = catLocation;
     this.restrict = dataRoot.getRestrict();
+    CatalogScan catScan = dataRoot.getCatalogScan();
+    if (catScan != null) {
+      this.watch = catScan.getWatch();
+      this.xlink = catScan.getXlinkHref();
+    }
   }
 
   public String getPath() {
     return path;
   }
 
+  /**
+   * The DataRoot, if it is known or can be made from what is tracked.
+   * DatasetRoot and catalogScan roots are made here; datasetScan and featureCollection roots inherit services and
+   * metadata from their catalog, so they are null until the catalog is read, see DataRootPathMatcher.convert2DataRoot.
+   */
   public DataRoot getDataRoot() {
     if (dataRoot != null)
       return dataRoot;
     if (type == DataRoot.Type.datasetRoot) {
       dataRoot = new DataRoot(path, dirLocation, restrict);
+    } else if (type == DataRoot.Type.catalogScan && xlink != null) {
+      // CatalogScan only uses its name, path and location
+      dataRoot = new DataRoot(new CatalogScan(null, name, xlink, new HashMap<>(), path, dirLocation, watch));
     }
     return dataRoot;
   }
@@ -81,6 +98,10 @@ public class DataRootExt implements Comparable<DataRootExt> {
    * required string dirLocation = 2;
    * required DataRootType type = 3;
    * optional string catLocation = 4; // omit for simple dataset root
+   * optional string name = 5; // omit for simple dataset root
+   * optional string restrict = 6;
+   * optional string watch = 7; // catalogScan only
+   * optional string xlink = 8; // catalogScan only
    * }
    */
   public void writeExternal(DataOutputStream out) throws IOException {
@@ -94,6 +115,10 @@ public class DataRootExt implements Comparable<DataRootExt> {
     }
     if (restrict != null)
       builder.setRestrict(restrict);
+    if (watch != null)
+      builder.setWatch(watch);
+    if (xlink != null)
+      builder.setXlink(xlink);
 
     ConfigCatalogExtProto.DataRoot index = builder.build();
     byte[] b = index.toByteArray();
@@ -132,6 +157,10 @@ public class DataRootExt implements Comparable<DataRootExt> {
       name = dsp.getName();
     if (dsp.getRestrict().length() > 0)
       restrict = dsp.getRestrict();
+    if (dsp.getWatch().length() > 0)
+      watch = dsp.getWatch();
+    if (dsp.getXlink().length() > 0)
+      xlink = dsp.getXlink();
   }
 
   ////////////////////////////
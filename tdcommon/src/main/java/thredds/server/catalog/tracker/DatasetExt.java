@@ -21,6 +21,7 @@ public class DatasetExt {
   // Dataset ds;
   String ncml;
   String restrictedAccess;
+  String path; // the key, only set while tracking
 
   public String getNcml() {
     return ncml;
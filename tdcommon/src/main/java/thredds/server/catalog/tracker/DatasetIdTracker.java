@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.catalog.tracker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import thredds.client.catalog.Catalog;
+import thredds.client.catalog.Dataset;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Track which config catalog each dataset ID is in, and where in the catalog it is.
+ * Used to find a dataset by its ID without walking the catalog, and without reading catalogs that havent changed.
+ * <p/>
+ * The position is the index of the dataset in each level of nesting, starting with the datasets of the catalog.
+ * It may be empty if the position is not known, then the dataset is found by ID in the catalog.
+ *
+ * @since 5.0
+ */
+public class DatasetIdTracker {
+  static private final Logger logger = LoggerFactory.getLogger(DatasetIdTracker.class);
+  static private final int[] unknown = new int[0];
+
+  private static final String dbname = "/datasetIdTracker.dat";
+  private final String filepath;
+  private final Map<String, Entry> ids = new HashMap<>();
+  private final Map<String, List<String>> catalogs = new HashMap<>(); // catalog path -> ids
+  private boolean changed;
+
+  /** Where a dataset is */
+  public static class Entry {
+    public final String catRelLocation;
+    private final int[] position;
+
+    Entry(String catRelLocation, int[] position) {
+      this.catRelLocation = catRelLocation;
+      this.position = position;
+    }
+
+    /**
+     * Find the dataset in its catalog, from its position if it is still there, else by ID.
+     *
+     * @return the dataset, or null if its not in the catalog
+     */
+    public Dataset findDataset(Catalog cat, String id) {
+      if (position.length > 0) {
+        List<Dataset> datasets = cat.getDatasetsLocal();
+        Dataset ds = null;
+        for (int index : position) {
+          if (index >= datasets.size()) {
+            ds = null;
+            break;
+          }
+          ds = datasets.get(index);
+          datasets = ds.getDatasetsLocal();
+        }
+        if (ds != null && id.equals(ds.getID()))
+          return ds;
+      }
+      return cat.findDatasetByID(id); // catalog changed since it was tracked
+    }
+  }
+
+  public DatasetIdTracker(String pathname, boolean startOver) {
+    this.filepath = pathname + dbname;
+    File file = new File(filepath);
+    if (startOver) {
+      if (file.exists() && !file.delete())
+        throw new IllegalStateException("DatasetIdTracker not able to delete " + filepath);
+      changed = true;
+    } else if (file.exists()) {
+      readIds();
+    }
+  }
+
+  /** Remove all the ids of this catalog, before it is read again, or when it is gone */
+  public void removeCatalog(String catRelLocation) {
+    List<String> catIds = catalogs.remove(catRelLocation);
+    if (catIds == null)
+      return;
+    for (String id : catIds) {
+      Entry entry = ids.get(id);
+      if (entry != null && entry.catRelLocation.equals(catRelLocation))
+        ids.remove(id);
+    }
+    changed = true;
+  }
+
+  /**
+   * Track a dataset.
+   *
+   * @param catRelLocation the catalog path, relative to the content root
+   * @param id the dataset ID
+   * @param position index of the dataset in each level of the catalog, or null if not known
+   * @return false if the ID is already in another dataset, which is kept
+   */
+  public boolean put(String catRelLocation, String id, int[] position) {
+    List<String> catIds = catalogs.computeIfAbsent(catRelLocation, k -> new ArrayList<>());
+    catRelLocation = catIds.isEmpty() ? catRelLocation : ids.get(catIds.get(0)).catRelLocation; // share the String
+    if (ids.putIfAbsent(id, new Entry(catRelLocation, position == null ? unknown : position)) != null)
+      return false;
+    catIds.add(id);
+    changed = true;
+    return true;
+  }
+
+  public Entry get(String id) {
+    return ids.get(id);
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  // catalog path, number of ids, then id and position of each
+  private void readIds() {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filepath)))) {
+      while (in.available() > 0) {
+        String catRelLocation = in.readUTF();
+        int n = in.readInt();
+        List<String> catIds = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          String id = in.readUTF();
+          int[] position = new int[in.readShort()];
+          for (int j = 0; j < position.length; j++)
+            position[j] = in.readInt();
+          ids.put(id, new Entry(catRelLocation, position.length == 0 ? unknown : position));
+          catIds.add(id);
+        }
+        catalogs.put(catRelLocation, catIds);
+      }
+
+    } catch (IOException e) {
+      logger.error("read " + filepath, e);
+      ids.clear();
+      catalogs.clear();
+      changed = true;
+    }
+  }
+
+  /** Write to a temporary file, then rename it, so a crash while saving leaves the old file */
+  public void save() throws IOException {
+    if (!changed)
+      return;
+    Path file = Paths.get(filepath);
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      for (Map.Entry<String, List<String>> cat : catalogs.entrySet()) {
+        out.writeUTF(cat.getKey());
+        out.writeInt(cat.getValue().size());
+        for (String id : cat.getValue()) {
+          out.writeUTF(id);
+          int[] position = ids.get(id).position;
+          out.writeShort(position.length);
+          for (int index : position)
+            out.writeInt(index);
+        }
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    changed = false;
+  }
+}
@@ -137,6 +137,21 @@ public class DatasetTrackerChronicle implements DatasetTracker {
   }
 
   public boolean trackDataset(long catId, Dataset dataset, DatasetTracker.Callback callback) {
+    DatasetExt dsext = makeDatasetExt(catId, dataset, callback);
+    if (dsext == null)
+      return false;
+    datasetMap.put(dsext.path, dsext);
+    changed = true;
+    return true;
+  }
+
+  /**
+   * Common to the DatasetTrackers that keep datasets with a restriction or NcML: report the dataset to the
+   * callback, and make the value to keep.
+   *
+   * @return the DatasetExt, with its path set, or null if the dataset is not tracked
+   */
+  static DatasetExt makeDatasetExt(long catId, Dataset dataset, DatasetTracker.Callback callback) {
     if (callback != null) {
       callback.hasDataset(dataset);
       boolean track = false;
@@ -156,7 +171,7 @@ public class DatasetTrackerChronicle implements DatasetTracker {
     boolean hasNcml = (dataset.getNcmlElement() != null) && !(dataset instanceof DatasetScan)
         && !(dataset instanceof FeatureCollectionRef);
     if (!hasRestrict && !hasNcml)
-      return false;
+      return null;
 
     String path = null;
     if (dataset instanceof DatasetScan) {
@@ -194,7 +209,7 @@ public class DatasetTrackerChronicle implements DatasetTracker {
 
     if (path == null) {
       catalogInitLog.debug("trackDataset {} has null path", dataset);
-      return false;
+      return null;
     }
 
     String ncml = null;
@@ -205,11 +220,9 @@ public class DatasetTrackerChronicle implements DatasetTracker {
       ncml = xmlOut.outputString(ncmlElem);
     }
 
-    // changed = true;
     DatasetExt dsext = new DatasetExt(catId, dataset.getRestrictAccess(), ncml);
-    datasetMap.put(path, dsext);
-    changed = true;
-    return true;
+    dsext.path = path;
+    return dsext;
   }
 
   public String findResourceControl(String path) {
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.catalog.tracker;
+
+import thredds.client.catalog.Dataset;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DatasetTracker that writes its datasets once, on save(), to a file that is then memory mapped and never changed.
+ * The file holds a Bloom filter of the paths, a table of (path, restriction, NcML) offsets sorted by path, and the
+ * UTF-8 bytes of the strings. The Bloom filter is kept on the heap and answers most lookups, since very few
+ * datasets have a restriction or NcML; otherwise the path is found by binary search, and only the string asked
+ * for is decoded. Unlike DatasetTrackerChronicle, the file is sized from what is written, so there is no maximum
+ * number of datasets or average value size to configure.
+ * <p>
+ * Datasets tracked before save() are kept in memory. save() merges them with the existing file, if any, and
+ * replaces it.
+ *
+ * @since 5.0
+ */
+public class DatasetTrackerMapped implements DatasetTracker {
+  static private org.slf4j.Logger catalogInitLog = org.slf4j.LoggerFactory.getLogger("catalogInit");
+  static private final String datasetName = "/mapped.datasets.dat";
+
+  private static final int MAGIC = 0x54445431; // "TDT1"
+  private static final int HEADER_SIZE = 16;
+  private static final int ENTRY_SIZE = 24; // 3 * (offset, length)
+  private static final int BITS_PER_ENTRY = 10;
+  private static final int NUM_HASHES = 7; // about 1% false positives
+
+  // delete old databases
+  public static void cleanupBefore(String pathname, long trackerNumber) {
+    for (long tnum = trackerNumber - 1; tnum > 0; tnum--) {
+      File oldDatabaseFile = new File(pathname + datasetName + "." + tnum);
+      if (!oldDatabaseFile.exists())
+        break;
+      if (oldDatabaseFile.delete()) {
+        catalogInitLog.info("DatasetTrackerMapped deleted {} ", oldDatabaseFile.getAbsolutePath());
+      } else {
+        catalogInitLog.error("DatasetTrackerMapped not able to delete {} ", oldDatabaseFile.getAbsolutePath());
+      }
+    }
+  }
+
+  private final File dbFile;
+  private boolean alreadyExists;
+  private boolean changed;
+  // tracked since the last save, read without the lock
+  private final Map<String, DatasetExt> pending = new ConcurrentHashMap<>();
+  private volatile Table table; // null if nothing saved yet
+
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder bloomRejects = new LongAdder();
+
+  public DatasetTrackerMapped(String pathname, long number) {
+    dbFile = new File(pathname + datasetName + "." + number);
+    alreadyExists = dbFile.exists();
+    if (!alreadyExists)
+      return;
+
+    try {
+      table = Table.open(dbFile);
+      catalogInitLog.info("DatasetTrackerMapped opened success on '{}' datasets={}", dbFile.getAbsolutePath(),
+          table.count);
+
+    } catch (Throwable e) {
+      catalogInitLog.error(
+          "DatasetTrackerMapped failed on '" + dbFile.getAbsolutePath() + "', delete catalog cache and reload ", e);
+      reinit();
+      alreadyExists = false; // so that all catalogs are read again
+    }
+  }
+
+  @Override
+  public synchronized void save() throws IOException {
+    if (!changed && dbFile.exists())
+      return;
+
+    // merge with what was saved before
+    Map<String, DatasetExt> all = new HashMap<>();
+    Table old = table;
+    if (old != null) {
+      for (int i = 0; i < old.count; i++)
+        all.put(old.getKey(i), new DatasetExt(0, old.getRestrict(i), old.getNcml(i)));
+    }
+    all.putAll(pending);
+
+    File tmpFile = new File(dbFile.getPath() + ".tmp");
+    write(tmpFile, all);
+    try {
+      Files.move(tmpFile.toPath(), dbFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmpFile.toPath(), dbFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    table = Table.open(dbFile);
+    pending.clear();
+    changed = false;
+    alreadyExists = true;
+    catalogInitLog.info("DatasetTrackerMapped wrote {} datasets, {} bytes to '{}'", table.count, dbFile.length(),
+        dbFile.getAbsolutePath());
+  }
+
+  /** The mapping is released when this object is garbage collected. */
+  @Override
+  public synchronized void close() {
+    table = null;
+  }
+
+  @Override
+  public boolean exists() {
+    return alreadyExists;
+  }
+
+  @Override
+  public synchronized boolean reinit() {
+    table = null;
+    pending.clear();
+    changed = true;
+    if (dbFile.exists() && !dbFile.delete()) {
+      catalogInitLog.error("DatasetTrackerMapped not able to delete {} ", dbFile.getAbsolutePath());
+      return false;
+    }
+    alreadyExists = true;
+    return true;
+  }
+
+  @Override
+  public synchronized boolean trackDataset(long catId, Dataset dataset, Callback callback) {
+    DatasetExt dsext = DatasetTrackerChronicle.makeDatasetExt(catId, dataset, callback);
+    if (dsext == null || dsext.path == null)
+      return false;
+    pending.put(dsext.path, dsext);
+    changed = true;
+    return true;
+  }
+
+  @Override
+  public String findResourceControl(String path) {
+    DatasetExt dext = (path == null || pending.isEmpty()) ? null : pending.get(path);
+    if (dext != null)
+      return dext.getRestrictAccess();
+    Table t = table;
+    int index = (t == null) ? -1 : find(t, path);
+    return (index < 0) ? null : t.getRestrict(index);
+  }
+
+  @Override
+  public String findNcml(String path) {
+    DatasetExt dext = (path == null || pending.isEmpty()) ? null : pending.get(path);
+    if (dext != null)
+      return dext.getNcml();
+    Table t = table;
+    int index = (t == null) ? -1 : find(t, path);
+    return (index < 0) ? null : t.getNcml(index);
+  }
+
+  private int find(Table t, String path) {
+    lookups.increment();
+    if (path == null || !t.mightContain(path)) {
+      bloomRejects.increment();
+      return -1;
+    }
+    return t.search(path.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void showDB(Formatter f) {
+    Table t = table;
+    f.format("DatasetTrackerMapped %s datasets=%d bytes=%d lookups=%d bloomRejects=%d%n", dbFile.getPath(),
+        t == null ? 0 : t.count, dbFile.length(), lookups.sum(), bloomRejects.sum());
+    if (t == null)
+      return;
+    for (int i = 0; i < t.count; i++) {
+      f.format("%4d: '%s' == %s%n", i, t.getKey(i), new DatasetExt(0, t.getRestrict(i), t.getNcml(i)));
+      if ((i + 1) % 10 == 0)
+        f.format("%n");
+    }
+  }
+
+  // Package private for testing
+  long getCount() {
+    Table t = table;
+    return (t == null ? 0 : t.count) + pending.size();
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // file format, all big-endian:
+  // header: magic, count, number of longs in the Bloom filter, number of hashes
+  // Bloom filter
+  // count entries, sorted by the UTF-8 bytes of the path: (offset, length) of path, restriction, NcML; length -1 = null
+  // the strings, UTF-8
+
+  private static void write(File file, Map<String, DatasetExt> datasets) throws IOException {
+    int count = datasets.size();
+    byte[][][] entries = new byte[count][][];
+    int n = 0;
+    for (Map.Entry<String, DatasetExt> entry : datasets.entrySet()) {
+      DatasetExt dext = entry.getValue();
+      entries[n++] = new byte[][] {entry.getKey().getBytes(StandardCharsets.UTF_8), utf8(dext.getRestrictAccess()),
+          utf8(dext.getNcml())};
+    }
+    Arrays.sort(entries, (a, b) -> Arrays.compareUnsigned(a[0], b[0]));
+
+    long[] bloom = new long[Math.max(1, (count * BITS_PER_ENTRY + 63) / 64)];
+    for (Map.Entry<String, DatasetExt> entry : datasets.entrySet())
+      bloomAdd(bloom, entry.getKey());
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+      out.writeInt(MAGIC);
+      out.writeInt(count);
+      out.writeInt(bloom.length);
+      out.writeInt(NUM_HASHES);
+      for (long bits : bloom)
+        out.writeLong(bits);
+
+      long offset = HEADER_SIZE + 8L * bloom.length + (long) ENTRY_SIZE * count;
+      for (byte[][] entry : entries) {
+        for (byte[] b : entry) {
+          out.writeInt(b == null ? 0 : (int) offset);
+          out.writeInt(b == null ? -1 : b.length);
+          if (b != null)
+            offset += b.length;
+        }
+      }
+      if (offset > Integer.MAX_VALUE)
+        throw new IOException("DatasetTrackerMapped too large: " + offset + " bytes");
+
+      for (byte[][] entry : entries) {
+        for (byte[] b : entry) {
+          if (b != null)
+            out.write(b);
+        }
+      }
+    }
+  }
+
+  private static byte[] utf8(String s) {
+    return (s == null) ? null : s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  // 64 bit hash of the chars, so that a lookup does not have to encode the path
+  private static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static void bloomAdd(long[] bloom, String key) {
+    long h = hash(key);
+    int h1 = (int) h;
+    int h2 = (int) (h >>> 32);
+    long nbits = 64L * bloom.length;
+    for (int i = 0; i < NUM_HASHES; i++) {
+      int bit = (int) (((h1 + i * h2) & 0x7fffffffL) % nbits);
+      bloom[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  private static class Table {
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final long[] bloom;
+    private final int nhashes;
+    private final int indexStart;
+
+    static Table open(File file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        // the mapping stays valid after the channel is closed
+        return new Table(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+    }
+
+    private Table(MappedByteBuffer buffer) throws IOException {
+      this.buffer = buffer;
+      if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        throw new IOException("not a DatasetTrackerMapped file");
+      count = buffer.getInt(4);
+      bloom = new long[buffer.getInt(8)];
+      nhashes = buffer.getInt(12);
+      for (int i = 0; i < bloom.length; i++)
+        bloom[i] = buffer.getLong(HEADER_SIZE + 8 * i);
+      indexStart = HEADER_SIZE + 8 * bloom.length;
+      if ((long) indexStart + (long) ENTRY_SIZE * count > buffer.limit())
+        throw new IOException("DatasetTrackerMapped file is truncated");
+    }
+
+    boolean mightContain(String key) {
+      long h = hash(key);
+      int h1 = (int) h;
+      int h2 = (int) (h >>> 32);
+      long nbits = 64L * bloom.length;
+      for (int i = 0; i < nhashes; i++) {
+        int bit = (int) (((h1 + i * h2) & 0x7fffffffL) % nbits);
+        if ((bloom[bit >>> 6] & (1L << bit)) == 0)
+          return false;
+      }
+      return true;
+    }
+
+    // binary search of the sorted paths, return index or -1
+    int search(byte[] key) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compareKey(mid, key);
+        if (cmp < 0)
+          low = mid + 1;
+        else if (cmp > 0)
+          high = mid - 1;
+        else
+          return mid;
+      }
+      return -1;
+    }
+
+    private int compareKey(int index, byte[] key) {
+      int pos = indexStart + ENTRY_SIZE * index;
+      int offset = buffer.getInt(pos);
+      int len = buffer.getInt(pos + 4);
+      int n = Math.min(len, key.length);
+      for (int i = 0; i < n; i++) {
+        int cmp = Byte.toUnsignedInt(buffer.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+        if (cmp != 0)
+          return cmp;
+      }
+      return len - key.length;
+    }
+
+    String getKey(int index) {
+      return getString(indexStart + ENTRY_SIZE * index);
+    }
+
+    String getRestrict(int index) {
+      return getString(indexStart + ENTRY_SIZE * index + 8);
+    }
+
+    String getNcml(int index) {
+      return getString(indexStart + ENTRY_SIZE * index + 16);
+    }
+
+    private String getString(int pos) {
+      int len = buffer.getInt(pos + 4);
+      if (len < 0)
+        return null;
+      byte[] b = new byte[len];
+      ByteBuffer dup = buffer.duplicate(); // dont change the shared position
+      dup.position(buffer.getInt(pos));
+      dup.get(b);
+      return new String(b, StandardCharsets.UTF_8);
+    }
+  }
+}
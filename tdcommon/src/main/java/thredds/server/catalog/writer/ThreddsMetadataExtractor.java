@@ -38,10 +38,12 @@ import thredds.client.catalog.tools.DataFactory;
 import ucar.nc2.Attribute;
 import ucar.nc2.VariableSimpleIF;
 import ucar.nc2.constants.DataFormatType;
+import ucar.nc2.constants.FeatureType;
 import ucar.nc2.dataset.CoordinateAxis;
 import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dataset.CoordinateAxis1DTime;
 import ucar.nc2.dt.*;
+import ucar.nc2.ft.FeatureDataset;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.point.PointDatasetImpl;
 import ucar.nc2.grib.collection.Grib;
@@ -69,44 +71,60 @@ public class ThreddsMetadataExtractor {
    * @throws IOException
    */
   public ThreddsMetadata extract(Dataset threddsDataset) throws IOException {
-    ThreddsMetadata metadata = new ThreddsMetadata();
-    Map<String, Object> flds = metadata.getFlds();
-
     try (DataFactory.Result result = new DataFactory().openFeatureDataset(threddsDataset, null)) {
       if (result.fatalError) {
         logger.warn(" openFeatureDataset failed, errs=%s%n", result.errLog);
         return null;
       }
+      return extract(result.featureDataset, result.featureType, threddsDataset.getDataFormatName());
 
-      if (result.featureType.isCoverageFeatureType()) {
-        GridDataset gridDataset = (GridDataset) result.featureDataset; // LOOK wrong
-        flds.put(Dataset.GeospatialCoverage, extractGeospatial(gridDataset));
+    } catch (IOException ioe) {
+      logger.error("Error opening dataset " + threddsDataset.getName(), ioe);
+    }
 
-        CalendarDateRange tc = extractCalendarDateRange(gridDataset);
-        if (tc != null)
-          flds.put(Dataset.TimeCoverage, tc);
+    return new ThreddsMetadata();
+  }
 
-        ThreddsMetadata.VariableGroup vars = extractVariables(threddsDataset.getDataFormatName(), gridDataset);
-        if (vars != null)
-          flds.put(Dataset.VariableGroups, vars);
+  /**
+   * extract info from an open feature dataset
+   *
+   * @param featureDataset the open feature dataset, not closed here
+   * @param fileFormat the data format name, used to name the variables of GRIB files; may be null
+   * @return results in ThreddsMetadata object
+   */
+  public ThreddsMetadata extract(FeatureDataset featureDataset, String fileFormat) {
+    return extract(featureDataset, featureDataset.getFeatureType(), fileFormat);
+  }
 
-      } else if (result.featureType.isPointFeatureType()) {
-        PointDatasetImpl pobsDataset = (PointDatasetImpl) result.featureDataset;
-        LatLonRect llbb = pobsDataset.getBoundingBox();
-        if (null != llbb)
-          flds.put(Dataset.GeospatialCoverage, new ThreddsMetadata.GeospatialCoverage(llbb, null, 0.0, 0.0));
+  private ThreddsMetadata extract(FeatureDataset featureDataset, FeatureType featureType, String fileFormat) {
+    ThreddsMetadata metadata = new ThreddsMetadata();
+    Map<String, Object> flds = metadata.getFlds();
 
-        CalendarDateRange tc = extractCalendarDateRange(pobsDataset);
-        if (tc != null)
-          flds.put(Dataset.TimeCoverage, tc);
+    if (featureType.isCoverageFeatureType()) {
+      GridDataset gridDataset = (GridDataset) featureDataset; // LOOK wrong
+      flds.put(Dataset.GeospatialCoverage, extractGeospatial(gridDataset));
 
-        ThreddsMetadata.VariableGroup vars = extractVariables(pobsDataset);
-        if (vars != null)
-          flds.put(Dataset.VariableGroups, vars);
-      }
+      CalendarDateRange tc = extractCalendarDateRange(gridDataset);
+      if (tc != null)
+        flds.put(Dataset.TimeCoverage, tc);
 
-    } catch (IOException ioe) {
-      logger.error("Error opening dataset " + threddsDataset.getName(), ioe);
+      ThreddsMetadata.VariableGroup vars = extractVariables(fileFormat, gridDataset);
+      if (vars != null)
+        flds.put(Dataset.VariableGroups, vars);
+
+    } else if (featureType.isPointFeatureType()) {
+      PointDatasetImpl pobsDataset = (PointDatasetImpl) featureDataset;
+      LatLonRect llbb = pobsDataset.getBoundingBox();
+      if (null != llbb)
+        flds.put(Dataset.GeospatialCoverage, new ThreddsMetadata.GeospatialCoverage(llbb, null, 0.0, 0.0));
+
+      CalendarDateRange tc = extractCalendarDateRange(pobsDataset);
+      if (tc != null)
+        flds.put(Dataset.TimeCoverage, tc);
+
+      ThreddsMetadata.VariableGroup vars = extractVariables(pobsDataset);
+      if (vars != null)
+        flds.put(Dataset.VariableGroups, vars);
     }
 
     return metadata;
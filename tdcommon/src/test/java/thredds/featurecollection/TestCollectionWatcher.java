@@ -0,0 +1,159 @@
+package thredds.featurecollection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.inventory.CollectionUpdateEvent;
+import thredds.inventory.CollectionUpdateType;
+
+public class TestCollectionWatcher {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TestCollectionWatcher.class);
+  private static final long DEBOUNCE = 5000;
+  private static final long STABLE = 10000;
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final List<CollectionUpdateEvent> events = new ArrayList<>();
+  private CollectionWatcher watcher;
+  private File dataDir;
+  // later than the watcher thread clock, so it never sends updates itself
+  private long now = System.currentTimeMillis() + 24 * 3600 * 1000L;
+
+  @Before
+  public void makeWatcher() throws IOException {
+    watcher = new CollectionWatcher(events::add, DEBOUNCE, STABLE);
+    Path watched = tempFolder.newFolder("watched").toPath();
+    assertThat(watcher.watch("gfs", CollectionUpdateType.test, watched, false, Pattern.compile(".*\\.grib2$"), true,
+        logger, null)).isTrue();
+    dataDir = tempFolder.newFolder("data");
+  }
+
+  @After
+  public void closeWatcher() {
+    watcher.close();
+  }
+
+  private Path write(String name, int size) throws IOException {
+    Path file = new File(dataDir, name).toPath();
+    Files.write(file, new byte[size]);
+    return file;
+  }
+
+  @Test
+  public void shouldDebounceBurst() throws IOException {
+    for (int i = 0; i < 10; i++)
+      watcher.changed("gfs", write("run" + i + ".grib2", 100), now + i * 1000);
+    now += 9 * 1000;
+
+    watcher.checkPending(now + DEBOUNCE - 1);
+    assertThat(events).isEmpty();
+    watcher.checkPending(now + STABLE);
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getCollectionName()).isEqualTo("gfs");
+    assertThat(events.get(0).getType()).isEqualTo(CollectionUpdateType.test);
+
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).hasSize(1);
+  }
+
+  @Test
+  public void shouldWaitForStableFiles() throws IOException {
+    Path file = write("run.grib2", 100);
+    watcher.changed("gfs", file, now);
+
+    write("run.grib2", 200); // still being copied, no event seen
+    watcher.checkPending(now + STABLE);
+    assertThat(events).isEmpty();
+    watcher.checkPending(now + 2 * STABLE - 1);
+    assertThat(events).isEmpty();
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).hasSize(1);
+  }
+
+  @Test
+  public void shouldIgnoreOtherFiles() throws IOException {
+    watcher.changed("gfs", write("run.grib2.gbx9", 100), now);
+    watcher.changed("other", write("run.grib2", 100), now);
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).isEmpty();
+  }
+
+  @Test
+  public void shouldIgnoreIndexFilesMatchingFilter() throws IOException {
+    Path watched = tempFolder.newFolder("runs").toPath();
+    assertThat(watcher.watch("runs", CollectionUpdateType.test, watched, false, Pattern.compile("run.*"), true, logger,
+        null)).isTrue();
+    watcher.changed("runs", write("run.grib2.gbx9", 100), now);
+    watcher.changed("runs", write("run.grib2.ncx4", 100), now);
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).isEmpty();
+
+    watcher.changed("runs", write("run.grib2", 100), now);
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).hasSize(1);
+  }
+
+  @Test
+  public void shouldWatchAgainWhenChanged() throws IOException {
+    Path watched = tempFolder.getRoot().toPath().resolve("watched");
+    assertThat(watcher.watch("gfs", CollectionUpdateType.test, watched, false, Pattern.compile(".*\\.grib2$"), true,
+        logger, null)).isTrue();
+    watcher.changed("gfs", write("run.grib2", 100), now);
+    assertThat(watcher.watch("gfs", CollectionUpdateType.always, watched, false, Pattern.compile(".*\\.grib1$"), true,
+        logger, null)).isTrue();
+    watcher.changed("gfs", write("run2.grib2", 100), now);
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).isEmpty(); // the pending change was for the old filter
+
+    watcher.changed("gfs", write("run.grib1", 100), now);
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getType()).isEqualTo(CollectionUpdateType.always);
+  }
+
+  @Test
+  public void shouldUnwatch() throws IOException {
+    watcher.changed("gfs", write("run.grib2", 100), now);
+    assertThat(watcher.unwatch("gfs")).isTrue();
+    assertThat(watcher.unwatch("gfs")).isFalse();
+    assertThat(watcher.getCollectionNames()).isEmpty();
+    watcher.changed("gfs", write("run2.grib2", 100), now);
+    watcher.checkPending(now + 2 * STABLE);
+    assertThat(events).isEmpty();
+  }
+
+  @Test
+  public void shouldSendForDeletedFiles() throws IOException {
+    Path file = write("run.grib2", 100);
+    Files.delete(file);
+    watcher.changed("gfs", file, now);
+    watcher.checkPending(now + DEBOUNCE);
+    assertThat(events).hasSize(1);
+  }
+
+  @Test
+  public void shouldTellWhenRootDirIsLost() throws Exception {
+    File root = tempFolder.newFolder("lost");
+    CountDownLatch lost = new CountDownLatch(1);
+    assertThat(watcher.watch("lost", CollectionUpdateType.test, root.toPath(), false, null, true, logger,
+        lost::countDown)).isTrue();
+    assertThat(root.delete()).isTrue();
+
+    assertThat(lost.await(10, TimeUnit.SECONDS)).isTrue(); // seen by the watcher thread
+    assertThat(watcher.getCollectionNames()).containsExactly("gfs");
+  }
+}
@@ -0,0 +1,107 @@
+package thredds.server.catalog;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.jdom2.Element;
+import org.jdom2.filter.Filters;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.Dataset;
+
+public class TestConfigCatalogSnapshots {
+  private static final String CATALOG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+      + "<catalog name='snapshot test' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'\n"
+      + "    xmlns:xlink='http://www.w3.org/1999/xlink'>\n"
+      + "  <!-- comments are not kept -->\n"
+      + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+      + "  <dataset name='top' ID='top'>\n"
+      + "    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n"
+      + "    <documentation type='summary'>Some <![CDATA[<b>text</b>]]> and été</documentation>\n"
+      + "    <dataset name='one' ID='one' urlPath='data/one.nc'/>\n"
+      + "    <catalogRef xlink:href='nested/catalog.xml' xlink:title='nested'/>\n"
+      + "  </dataset>\n"
+      + "  <datasetScan name='scan' path='scan' location='/data/'>\n"
+      + "    <filter><include wildcard='*.nc'/></filter>\n"
+      + "  </datasetScan>\n"
+      + "</catalog>\n";
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Path catFile;
+  private ConfigCatalogSnapshots snapshots;
+
+  @Before
+  public void writeCatalog() throws IOException {
+    catFile = tempFolder.getRoot().toPath().resolve("catalog.xml");
+    Files.write(catFile, CATALOG.getBytes(StandardCharsets.UTF_8));
+    snapshots = new ConfigCatalogSnapshots(tempFolder.newFolder("snapshots").getPath());
+  }
+
+  private static String toString(Element elem) {
+    return new XMLOutputter(Format.getRawFormat()).outputString(elem);
+  }
+
+  @Test
+  public void shouldReadSameTreeFromSnapshot() throws Exception {
+    Element parsed = new SAXBuilder().build(catFile.toFile()).getRootElement();
+
+    Element first = snapshots.read(catFile.toString());
+    assertThat(snapshots.getMisses()).isEqualTo(1);
+    assertThat(snapshots.getHits()).isEqualTo(0);
+
+    Element second = snapshots.read(catFile.toString());
+    assertThat(snapshots.getMisses()).isEqualTo(1);
+    assertThat(snapshots.getHits()).isEqualTo(1);
+
+    // the comment is dropped, everything else is the same
+    parsed.removeContent(Filters.comment());
+    assertThat(toString(first)).isEqualTo(toString(parsed));
+    assertThat(toString(second)).isEqualTo(toString(parsed));
+  }
+
+  @Test
+  public void shouldReparseWhenCatalogChanges() throws IOException {
+    snapshots.read(catFile.toString());
+    Files.write(catFile, CATALOG.replace("snapshot test", "changed").getBytes(StandardCharsets.UTF_8));
+
+    Element root = snapshots.read(catFile.toString());
+    assertThat(root.getAttributeValue("name")).isEqualTo("changed");
+    assertThat(snapshots.getMisses()).isEqualTo(2);
+    assertThat(snapshots.getHits()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldBuildSameCatalog() throws IOException {
+    String dir = tempFolder.getRoot().getPath() + "/";
+    ConfigCatalogCache ccc = new ConfigCatalogCache();
+    ccc.init(dir, 10, "thredds");
+    ccc.setSnapshotDir(new File(dir, "cache").getPath());
+
+    ConfigCatalog fromXml = ConfigCatalogCache.readCatalog(catFile.toString());
+    ConfigCatalog fromSnapshot = ccc.get("catalog.xml");
+    ccc.invalidateAll();
+    ConfigCatalog fromSnapshot2 = ccc.get("catalog.xml");
+    assertThat(ccc.getSnapshots().getHits()).isEqualTo(1);
+
+    for (ConfigCatalog cat : new ConfigCatalog[] {fromSnapshot, fromSnapshot2}) {
+      assertThat(cat.getName()).isEqualTo(fromXml.getName());
+      assertThat(cat.getServices()).hasSize(1);
+      assertThat(cat.getDatasetsLocal()).hasSize(fromXml.getDatasetsLocal().size());
+      Dataset one = cat.findDatasetByID("one");
+      assertThat(one.getServiceDefault().getName()).isEqualTo("odap");
+      assertThat(cat.getDatasetsLocal().get(1)).isInstanceOf(DatasetScan.class);
+      assertThat(((DatasetScan) cat.getDatasetsLocal().get(1)).getScanLocation()).isEqualTo("/data/");
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package thredds.server.catalog;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.server.catalog.tracker.DataRootTracker;
+
+public class TestDataRootPathMatcher {
+  private static final String CATALOG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+      + "<catalog name='test' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'>\n"
+      + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+      + "  <datasetScan name='scan one' path='scan1' location='/data/one/'>\n"
+      + "    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n" + "  </datasetScan>\n"
+      + "  <dataset name='nested'>\n"
+      + "    <datasetScan name='scan two' path='scan2' location='/data/two/' restrictAccess='secret'>\n"
+      + "      <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n" + "    </datasetScan>\n"
+      + "  </dataset>\n" + "  <catalogScan name='more catalogs' path='moreCats' location='catalogs5'/>\n"
+      + "</catalog>\n";
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private String dir;
+
+  // read the catalog and track its roots, as on the first startup
+  @Before
+  public void trackRoots() throws IOException {
+    dir = tempFolder.getRoot().getAbsolutePath();
+    Files.write(new File(dir, "catalog.xml").toPath(), CATALOG.getBytes(StandardCharsets.UTF_8));
+
+    ConfigCatalogCache ccc = newCache();
+    DataRootTracker tracker = new DataRootTracker(dir, true, null);
+    DataRootPathMatcher matcher = new DataRootPathMatcher(ccc, tracker);
+    ConfigCatalog cat = ccc.get("catalog.xml");
+    matcher.extractDataRoots("catalog.xml", cat.getDatasetsLocal(), true, null);
+    tracker.save();
+  }
+
+  private ConfigCatalogCache newCache() {
+    ConfigCatalogCache ccc = new ConfigCatalogCache();
+    ccc.init(dir + "/", 10, "thredds");
+    return ccc;
+  }
+
+  // as on a restart that does not read the catalogs
+  private DataRootPathMatcher restart(ConfigCatalogCache ccc) {
+    return new DataRootPathMatcher(ccc, new DataRootTracker(dir, false, null));
+  }
+
+  @Test
+  public void shouldMakeCatalogScanFromTracker() {
+    ConfigCatalogCache ccc = newCache();
+    DataRootPathMatcher matcher = restart(ccc);
+
+    DataRoot catScanRoot = matcher.findDataRoot("moreCats/catalog.xml");
+    assertThat(catScanRoot).isNotNull();
+    assertThat(catScanRoot.getType()).isEqualTo(DataRoot.Type.catalogScan);
+    assertThat(catScanRoot.getCatalogScan().getLocation()).isEqualTo("catalogs5");
+    assertThat(catScanRoot.getCatalogScan().getName()).isEqualTo("more catalogs");
+    assertThat(ccc.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldMaterializeAllRootsOfCatalog() {
+    ConfigCatalogCache ccc = newCache();
+    DataRootPathMatcher matcher = restart(ccc);
+    assertThat(matcher.get("scan1").getDataRoot()).isNull();
+    assertThat(matcher.get("scan2").getDataRoot()).isNull();
+
+    assertThat(matcher.materializeDataRoots(0)).isEqualTo(0);
+    assertThat(matcher.materializeDataRoots(4)).isEqualTo(2);
+    assertThat(ccc.getStats().loadCount()).isEqualTo(1);
+
+    DataRoot scan2 = matcher.get("scan2").getDataRoot();
+    assertThat(scan2).isNotNull();
+    assertThat(scan2.getDatasetScan()).isNotNull();
+    assertThat(scan2.getRestrict()).isEqualTo("secret");
+    assertThat(matcher.findDataRoot("scan1/sub/file.nc").getDirLocation()).isEqualTo("/data/one/");
+
+    assertThat(matcher.materializeDataRoots(4)).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldReadCatalogOnceForConcurrentRequests() throws Exception {
+    ConfigCatalogCache ccc = newCache();
+    DataRootPathMatcher matcher = restart(ccc);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<DataRoot>> results = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        String reqPath = (i % 2 == 0) ? "scan1/file.nc" : "scan2/file.nc";
+        results.add(executor.submit(() -> matcher.findDataRoot(reqPath)));
+      }
+      for (Future<DataRoot> result : results)
+        assertThat(result.get().getDatasetScan()).isNotNull();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(ccc.getStats().loadCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,129 @@
+package thredds.server.catalog.builder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.CatalogRef;
+import thredds.client.catalog.Dataset;
+import thredds.client.catalog.Service;
+import thredds.server.catalog.ConfigCatalog;
+
+public class TestConfigCatalogStreamReader {
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File catFile;
+  private URI uri;
+
+  @Before
+  public void writeCatalog() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+    sb.append("<catalog name='big' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'\n");
+    sb.append("    xmlns:xlink='http://www.w3.org/1999/xlink'>\n");
+    sb.append("  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n");
+    sb.append("  <service name='http' serviceType='HTTPServer' base='/thredds/fileServer/'/>\n");
+    sb.append("  <datasetRoot path='root' location='/data/'/>\n");
+    sb.append("  <dataset name='leaf' urlPath='root/leaf.nc' serviceName='http'/>\n");
+    sb.append("  <dataset name='outer' ID='outer' restrictAccess='secret'>\n");
+    sb.append("    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n");
+    for (int i = 0; i < 20; i++)
+      sb.append("    <dataset name='ds").append(i).append("' ID='ds").append(i).append("' urlPath='root/ds").append(i)
+          .append(".nc'/>\n");
+    sb.append("    <dataset name='inner'>\n");
+    sb.append("      <metadata inherited='true'><serviceName>http</serviceName></metadata>\n");
+    sb.append("      <dataset name='deep' urlPath='root/deep.nc'>\n");
+    sb.append("        <documentation type='summary'>deep <![CDATA[<b>dataset</b>]]></documentation>\n");
+    sb.append("      </dataset>\n");
+    sb.append("    </dataset>\n");
+    sb.append("    <catalogRef xlink:href='other/catalog.xml' xlink:title='other'/>\n");
+    sb.append("    <dataset name='last' urlPath='root/last.nc'/>\n");
+    sb.append("  </dataset>\n");
+    sb.append("  <datasetScan name='scan' path='scan' location='/data/scan/'>\n");
+    sb.append("    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n");
+    sb.append("  </datasetScan>\n");
+    sb.append("  <catalogScan name='cats' path='cats' location='cats'/>\n");
+    sb.append("</catalog>\n");
+
+    catFile = tempFolder.newFile("big.xml");
+    Files.write(catFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    uri = new URI("/thredds/catalog/big.xml");
+  }
+
+  // depth first, as ConfigCatalogInitialization.processDatasets walks them
+  private static void flatten(List<Dataset> datasets, List<String> result) {
+    for (Dataset ds : datasets) {
+      Service service = ds.getServiceDefault();
+      result.add(String.format("%s %s %s %s %s %s", ds.getClass().getSimpleName(), ds.getName(), ds.getUrlPath(),
+          ds.getRestrictAccess(), service == null ? null : service.getName(), ds.getDocumentation("summary")));
+      if (!(ds instanceof CatalogRef))
+        flatten(ds.getDatasetsLocal(), result);
+    }
+  }
+
+  private List<String> readStreaming(int batchSize, List<ConfigCatalog> headers, List<String> topLevel)
+      throws IOException {
+    List<String> result = new ArrayList<>();
+    new ConfigCatalogStreamReader("thredds", batchSize).read(catFile.getPath(), uri,
+        new ConfigCatalogStreamReader.Handler() {
+          @Override
+          public void catalog(ConfigCatalog header) {
+            assertThat(result).isEmpty();
+            headers.add(header);
+          }
+
+          @Override
+          public void datasets(List<Dataset> datasets, boolean isTop) {
+            flatten(datasets, result);
+            if (isTop)
+              datasets.forEach(ds -> topLevel.add(ds.getName()));
+          }
+        });
+    return result;
+  }
+
+  @Test
+  public void shouldMatchCatalogBuilder() throws IOException {
+    ConfigCatalogBuilder builder = new ConfigCatalogBuilder("thredds");
+    ConfigCatalog cat = (ConfigCatalog) builder.buildFromLocation(catFile.getPath(), uri);
+    List<String> expected = new ArrayList<>();
+    flatten(cat.getDatasetsLocal(), expected);
+    assertThat(expected).hasSize(28);
+
+    for (int batchSize : new int[] {1, 3, 1000}) {
+      List<ConfigCatalog> headers = new ArrayList<>();
+      List<String> topLevel = new ArrayList<>();
+      assertThat(readStreaming(batchSize, headers, topLevel)).containsExactlyElementsIn(expected).inOrder();
+      assertThat(topLevel).containsExactly("leaf", "outer", "scan", "cats").inOrder();
+
+      assertThat(headers).hasSize(1);
+      ConfigCatalog header = headers.get(0);
+      assertThat(header.getName()).isEqualTo("big");
+      assertThat(header.getServices()).hasSize(2);
+      assertThat(header.getDatasetRoots()).hasSize(1);
+      assertThat(header.getDatasetsLocal()).isEmpty();
+    }
+  }
+
+  @Test
+  public void shouldHandleCatalogWithoutDatasets() throws IOException {
+    Files.write(catFile.toPath(),
+        ("<catalog name='empty' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'>"
+            + "<service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/></catalog>")
+                .getBytes(StandardCharsets.UTF_8));
+    List<ConfigCatalog> headers = new ArrayList<>();
+    assertThat(readStreaming(10, headers, new ArrayList<>())).isEmpty();
+    assertThat(headers).hasSize(1);
+    assertThat(headers.get(0).getServices()).hasSize(1);
+  }
+}
@@ -0,0 +1,93 @@
+package thredds.server.catalog.tracker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.net.URI;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.Catalog;
+import thredds.client.catalog.Dataset;
+import thredds.server.catalog.ConfigCatalog;
+import thredds.server.catalog.builder.ConfigCatalogBuilder;
+
+public class TestDatasetIdTracker {
+  private static final String CATALOG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+      + "<catalog name='ids' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'>\n"
+      + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+      + "  <service name='http' serviceType='HTTPServer' base='/thredds/fileServer/'/>\n"
+      + "  <dataset name='first' ID='first' urlPath='data/first.nc' serviceName='http'/>\n"
+      + "  <dataset name='outer' ID='outer' restrictAccess='secret'>\n"
+      + "    <metadata inherited='true'><serviceName>odap</serviceName><dataFormat>NetCDF</dataFormat></metadata>\n"
+      + "    <dataset name='inner' ID='inner'>\n"
+      + "      <metadata inherited='true'><dataFormat>GRIB-2</dataFormat></metadata>\n"
+      + "      <dataset name='deep' ID='deep' urlPath='data/deep.grib2'/>\n" + "    </dataset>\n"
+      + "  </dataset>\n" + "</catalog>\n";
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private ConfigCatalog cat;
+
+  @Before
+  public void readCatalog() throws IOException {
+    ConfigCatalogBuilder builder = new ConfigCatalogBuilder("thredds");
+    cat = (ConfigCatalog) builder.buildFromString(CATALOG, URI.create("/thredds/catalog/ids.xml"));
+    assertThat(builder.hasFatalError()).isFalse();
+  }
+
+  @Test
+  public void shouldPersistIds() throws IOException {
+    String dir = tempFolder.getRoot().getPath();
+    DatasetIdTracker tracker = new DatasetIdTracker(dir, true);
+    assertThat(tracker.put("ids.xml", "first", new int[] {0})).isTrue();
+    assertThat(tracker.put("ids.xml", "deep", new int[] {1, 0, 0})).isTrue();
+    assertThat(tracker.put("other.xml", "other", null)).isTrue();
+    assertThat(tracker.put("other.xml", "first", new int[] {3})).isFalse();
+    tracker.save();
+
+    DatasetIdTracker reread = new DatasetIdTracker(dir, false);
+    assertThat(reread.size()).isEqualTo(3);
+    assertThat(reread.get("first").catRelLocation).isEqualTo("ids.xml");
+    assertThat(reread.get("deep").findDataset(cat, "deep").getName()).isEqualTo("deep");
+
+    reread.removeCatalog("ids.xml");
+    assertThat(reread.get("first")).isNull();
+    assertThat(reread.get("other").catRelLocation).isEqualTo("other.xml");
+
+    assertThat(new DatasetIdTracker(dir, true).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldFindMovedDataset() {
+    DatasetIdTracker tracker = new DatasetIdTracker(tempFolder.getRoot().getPath(), true);
+    tracker.put("ids.xml", "deep", new int[] {0, 5});
+    tracker.put("ids.xml", "inner", null);
+    tracker.put("ids.xml", "gone", new int[] {0});
+    assertThat(tracker.get("deep").findDataset(cat, "deep").getName()).isEqualTo("deep");
+    assertThat(tracker.get("inner").findDataset(cat, "inner").getName()).isEqualTo("inner");
+    assertThat(tracker.get("gone").findDataset(cat, "gone")).isNull();
+  }
+
+  @Test
+  public void shouldMakeCatalogWithInheritedMetadata() {
+    Dataset deep = cat.findDatasetByID("deep");
+    Catalog subset = cat.makeCatalogBuilder(deep, "thredds").makeCatalog();
+
+    assertThat(subset.getDatasetsLocal()).hasSize(1);
+    Dataset ds = subset.getDatasetsLocal().get(0);
+    assertThat(ds.getID()).isEqualTo("deep");
+    assertThat(ds.getServiceDefault().getName()).isEqualTo("odap");
+    assertThat(ds.getDataFormatName()).isEqualTo("GRIB-2");
+    assertThat(ds.getRestrictAccess()).isEqualTo("secret");
+    assertThat(subset.getServices()).hasSize(2);
+    assertThat(subset.findDatasetByID("deep")).isNotNull();
+
+    Dataset first = cat.makeCatalogBuilder(cat.findDatasetByID("first"), "thredds").makeCatalog().getDatasetsLocal()
+        .get(0);
+    assertThat(first.getServiceDefault().getName()).isEqualTo("http");
+    assertThat(first.getRestrictAccess()).isNull();
+  }
+}
@@ -0,0 +1,104 @@
+package thredds.server.catalog.tracker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.Dataset;
+
+public class TestDatasetTrackerMapped {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldNotTrackDatasetWithoutNcmlAndRestrictions() throws IOException {
+    try (DatasetTrackerMapped datasetTracker = new DatasetTrackerMapped(tempFolder.getRoot().getAbsolutePath(), 1)) {
+      assertThat(datasetTracker.exists()).isFalse();
+
+      final Dataset dataset = Dataset.makeStandalone("path", "featureType", "dataFormat", "serviceType");
+      assertThat(datasetTracker.trackDataset(1, dataset, null)).isFalse();
+      datasetTracker.save();
+      assertThat(datasetTracker.getCount()).isEqualTo(0);
+      assertThat(datasetTracker.findNcml("path")).isNull();
+    }
+  }
+
+  @Test
+  public void shouldReturnNcmlAndRestriction() throws IOException {
+    try (DatasetTrackerMapped datasetTracker = new DatasetTrackerMapped(tempFolder.getRoot().getAbsolutePath(), 1)) {
+      datasetTracker.trackDataset(1, mockDataset(100, "path1", null), null);
+      datasetTracker.trackDataset(1, mockDataset(10_000, "path2", null), null);
+      datasetTracker.trackDataset(1, mockDataset(-1, "path3", "secret"), null);
+
+      // before and after it is written
+      for (int i = 0; i < 2; i++) {
+        assertThat(datasetTracker.getCount()).isEqualTo(3);
+        assertThat(datasetTracker.findNcml("path1")).isEqualTo(ncmlString(100));
+        assertThat(datasetTracker.findNcml("path2")).isEqualTo(ncmlString(10_000));
+        assertThat(datasetTracker.findNcml("path3")).isNull();
+        assertThat(datasetTracker.findResourceControl("path1")).isNull();
+        assertThat(datasetTracker.findResourceControl("path3")).isEqualTo("secret");
+        assertThat(datasetTracker.findNcml("path4")).isNull();
+        datasetTracker.save();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReopenAndMerge() throws IOException {
+    String dir = tempFolder.getRoot().getAbsolutePath();
+    try (DatasetTrackerMapped datasetTracker = new DatasetTrackerMapped(dir, 1)) {
+      for (int i = 0; i < 1000; i++)
+        datasetTracker.trackDataset(1, mockDataset(i, "path" + i, null), null);
+      datasetTracker.save();
+    }
+
+    try (DatasetTrackerMapped datasetTracker = new DatasetTrackerMapped(dir, 1)) {
+      assertThat(datasetTracker.exists()).isTrue();
+      assertThat(datasetTracker.getCount()).isEqualTo(1000);
+      assertThat(datasetTracker.findNcml("path999")).isEqualTo(ncmlString(999));
+
+      datasetTracker.trackDataset(1, mockDataset(5, "path7", "secret"), null);
+      datasetTracker.trackDataset(1, mockDataset(5, "path1000", null), null);
+      datasetTracker.save();
+      assertThat(datasetTracker.getCount()).isEqualTo(1001);
+      assertThat(datasetTracker.findNcml("path7")).isEqualTo(ncmlString(5));
+      assertThat(datasetTracker.findResourceControl("path7")).isEqualTo("secret");
+      assertThat(datasetTracker.findNcml("path1000")).isEqualTo(ncmlString(5));
+    }
+
+    try (DatasetTrackerMapped datasetTracker = new DatasetTrackerMapped(dir, 1)) {
+      assertThat(datasetTracker.reinit()).isTrue();
+      datasetTracker.save();
+      assertThat(datasetTracker.getCount()).isEqualTo(0);
+      assertThat(datasetTracker.findNcml("path1")).isNull();
+    }
+  }
+
+  private static Dataset mockDataset(int ncmlLength, String path, String restrict) {
+    final Dataset dataset = mock(Dataset.class);
+    if (ncmlLength >= 0)
+      when(dataset.getNcmlElement()).thenReturn(createNcml(ncmlLength));
+    when(dataset.getRestrictAccess()).thenReturn(restrict);
+    when(dataset.getUrlPath()).thenReturn(path);
+    return dataset;
+  }
+
+  private static String ncmlString(int ncmlLength) {
+    return new XMLOutputter(Format.getCompactFormat()).outputString(createNcml(ncmlLength));
+  }
+
+  private static Element createNcml(int ncmlLength) {
+    final Element element = new Element("name", "namespace");
+    element.setAttribute("attribute", "a".repeat(ncmlLength));
+    return element;
+  }
+}
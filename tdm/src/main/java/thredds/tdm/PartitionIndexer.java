@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.tdm;
+
+import org.slf4j.Logger;
+import thredds.featurecollection.FeatureCollectionConfig;
+import thredds.featurecollection.FeatureCollectionType;
+import thredds.inventory.CollectionSpecParser;
+import thredds.inventory.CollectionUpdateType;
+import thredds.inventory.MCollection;
+import thredds.inventory.filter.StreamFilter;
+import thredds.inventory.partition.DirectoryBuilder;
+import thredds.inventory.partition.DirectoryCollection;
+import thredds.inventory.partition.DirectoryPartition;
+import ucar.nc2.grib.collection.GribCdmIndex;
+import ucar.nc2.time.CalendarDate;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Update the indexes of a directory partitioned GRIB collection in parallel.
+ * <p/>
+ * The leaf directories are independent, so their indexes are made as separate jobs on a shared work stealing pool,
+ * newest directories first. When they are all done, GribCdmIndex.updateGribCollection() makes the partition indexes
+ * above them, finding the leaves up to date, so the top level ncx is written last. If a leaf fails, the others still
+ * finish, then the update fails without writing the partition indexes.
+ * The pool is shared by all collections, and each job reads its GRIB files one at a time, so the number of threads
+ * also caps the number of data files open at once.
+ * Other collections are updated by GribCdmIndex.updateGribCollection() alone.
+ *
+ * @since 5.0
+ */
+class PartitionIndexer {
+  private static final org.slf4j.Logger tdmLogger = org.slf4j.LoggerFactory.getLogger(PartitionIndexer.class);
+
+  private final ExecutorService pool;
+
+  /**
+   * @param nthreads number of partitions indexed at the same time, over all collections
+   */
+  PartitionIndexer(int nthreads) {
+    this.pool = Executors.newWorkStealingPool(nthreads);
+    tdmLogger.info(" TDM partitionThreads= {}", nthreads);
+  }
+
+  void shutdown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Update the collection indexes.
+   *
+   * @return true if the collection changed
+   */
+  boolean update(FeatureCollectionConfig config, CollectionUpdateType updateType, Logger fcLogger)
+      throws IOException, InterruptedException {
+    Logger logger = (fcLogger != null) ? fcLogger : org.slf4j.LoggerFactory.getLogger(GribCdmIndex.class);
+    Formatter errlog = new Formatter();
+    CollectionSpecParser specp = config.getCollectionSpecParser(errlog);
+    if (updateType == CollectionUpdateType.never || config.ptype != FeatureCollectionConfig.PartitionType.directory
+        || !specp.wantSubdirs())
+      return GribCdmIndex.updateGribCollection(config, updateType, logger);
+
+    List<Path> leaves = new ArrayList<>();
+    Path rootPath = Paths.get(specp.getRootDir());
+    try (MCollection topCollection =
+        DirectoryBuilder.factory(config, rootPath, true, null, GribCdmIndex.NCX_SUFFIX, logger)) {
+      if (!(topCollection instanceof DirectoryPartition)) // a leaf directory
+        return GribCdmIndex.updateGribCollection(config, updateType, logger);
+      DirectoryPartition dpart = (DirectoryPartition) topCollection;
+      dpart.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
+      findLeaves(dpart, config, updateType, leaves);
+    }
+
+    // newest partitions first
+    Map<Path, Long> lastModified = new HashMap<>();
+    for (Path leaf : leaves)
+      lastModified.put(leaf, lastModified(leaf));
+    leaves.sort(Comparator.comparing(lastModified::get, Comparator.reverseOrder()));
+
+    String name = config.collectionName;
+    int total = leaves.size();
+    tdmLogger.info("{}: index {} partitions", name, total);
+    AtomicInteger count = new AtomicInteger();
+    AtomicBoolean changed = new AtomicBoolean();
+    List<Future<?>> jobs = new ArrayList<>(total);
+    for (Path leaf : leaves) {
+      jobs.add(pool.submit(() -> {
+        if (Thread.currentThread().isInterrupted())
+          return null;
+        long start = System.currentTimeMillis();
+        boolean leafChanged = updateLeaf(config, updateType, leaf, logger);
+        if (leafChanged)
+          changed.set(true);
+        long took = System.currentTimeMillis() - start;
+        int n = count.incrementAndGet();
+        tdmLogger.info("{}: partition {}/{} {} changed {} took {} ms", name, n, total, leaf, leafChanged, took);
+        System.out.printf("%s: %s partition %d/%d %s changed %s took %d msecs%n", CalendarDate.present(), name, n,
+            total, leaf, leafChanged, took);
+        return null;
+      }));
+    }
+
+    // wait for all of them, so the failed ones can all be logged
+    int failed = 0;
+    Throwable firstFailure = null;
+    try {
+      for (int i = 0; i < total; i++) {
+        try {
+          jobs.get(i).get();
+        } catch (ExecutionException e) {
+          failed++;
+          if (firstFailure == null)
+            firstFailure = e.getCause();
+          tdmLogger.error("{}: partition {} failed", name, leaves.get(i), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      for (Future<?> job : jobs)
+        job.cancel(true);
+      throw e;
+    }
+    if (failed > 0) {
+      tdmLogger.error("{}: {} of {} partitions failed, the collection index is not updated", name, failed, total);
+      throw new IOException(name + ": " + failed + " of " + total + " partitions failed", firstFailure);
+    }
+
+    // the leaves are up to date, so always would only make them again
+    CollectionUpdateType topType = (updateType == CollectionUpdateType.always) ? CollectionUpdateType.test : updateType;
+    boolean topChanged = GribCdmIndex.updateGribCollection(config, topType, logger);
+    return changed.get() || topChanged;
+  }
+
+  // the same partitions that GribCdmIndex will make
+  private void findLeaves(DirectoryPartition dpart, FeatureCollectionConfig config, CollectionUpdateType updateType,
+      List<Path> leaves) throws IOException {
+    for (MCollection part : dpart.makePartitions(updateType)) {
+      part.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
+      if (part instanceof DirectoryPartition)
+        findLeaves((DirectoryPartition) part, config, updateType, leaves);
+      else
+        leaves.add(Paths.get(part.getRoot()));
+    }
+  }
+
+  // update all the grib indices in one directory, and the collection index for that directory
+  private boolean updateLeaf(FeatureCollectionConfig config, CollectionUpdateType updateType, Path dirPath,
+      Logger logger) throws IOException {
+    Formatter errlog = new Formatter();
+    CollectionSpecParser specp = config.getCollectionSpecParser(errlog);
+    boolean isGrib1 = config.type == FeatureCollectionType.GRIB1;
+
+    try (DirectoryCollection dcm =
+        new DirectoryCollection(config.collectionName, dirPath, false, config.olderThan, logger)) {
+      dcm.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
+      if (specp.getFilter() != null)
+        dcm.setStreamFilter(new StreamFilter(specp.getFilter(), specp.getFilterOnName()));
+      return GribCdmIndex.updateGribCollection(isGrib1, dcm, updateType,
+          FeatureCollectionConfig.PartitionType.directory, logger, errlog);
+    }
+  }
+
+  private static long lastModified(Path dir) {
+    try {
+      return Files.getLastModifiedTime(dir).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -75,6 +75,7 @@ public class Tdm {
   private List<Server> servers;
 
   private java.util.concurrent.ExecutorService executor;
+  private PartitionIndexer partitionIndexer; // null unless partitions are indexed in parallel
   private Resource catalog;
   private boolean showOnly = false; // if true, just show dirs and exit
 
@@ -113,6 +114,10 @@ public class Tdm {
     tdmLogger.info(" TDM nthreads= {}", n);
   }
 
+  public void setPartitionThreads(int n) {
+    partitionIndexer = new PartitionIndexer(n);
+  }
+
   public void setForceOnStartup(boolean forceOnStartup) {
     this.forceOnStartup = forceOnStartup;
   }
@@ -219,6 +224,8 @@ public class Tdm {
         System.out.printf(" %s%n", makeTriggerUrl(name));
 
       executor.shutdown();
+      if (partitionIndexer != null)
+        partitionIndexer.shutdown();
       collectionUpdater.shutdown();
       return;
     }
@@ -312,7 +319,8 @@ public class Tdm {
         long start = System.currentTimeMillis();
         int taskNo = indexTaskCount.getAndIncrement();
         tdmLogger.debug("{} start {}", taskNo, config.collectionName);
-        boolean changed = GribCdmIndex.updateGribCollection(config, updateType, null);
+        boolean changed = (partitionIndexer != null) ? partitionIndexer.update(config, updateType, null)
+            : GribCdmIndex.updateGribCollection(config, updateType, null);
 
         long took = System.currentTimeMillis() - start;
         tdmLogger.debug("{} done {}: changed {} took {} ms", taskNo, config.collectionName, changed, took);
@@ -443,6 +451,11 @@ public class Tdm {
     @Parameter(names = {"-nthreads"}, description = "number of threads", required = false)
     public int nthreads = 1;
 
+    @Parameter(names = {"-partitionThreads"},
+        description = "number of threads indexing the partitions of directory partitioned collections",
+        required = false)
+    public int partitionThreads = 0;
+
     @Parameter(names = {"-showOnly"}, description = "show collections and exit", required = false)
     public boolean showOnly;
 
@@ -517,6 +530,9 @@ public class Tdm {
         if (cmdLine.nthreads != 0)
           app.setNThreads(cmdLine.nthreads);
 
+        if (cmdLine.partitionThreads > 0)
+          app.setPartitionThreads(cmdLine.partitionThreads);
+
         if (cmdLine.showOnly)
           app.setShowOnly(true);
 
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import opendap.dap.DFloat32;
+import opendap.dap.DInt32;
+import opendap.dap.DString;
+import opendap.servers.CEEvaluator;
+import org.openjdk.jmh.annotations.*;
+import thredds.server.opendap.NcDDS;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.write.NetcdfFormatWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a DAP2 constraint expression, and evaluating its selection clauses,
+ * with the compiled selection and with the interpreted clauses.
+ * The clauses are evaluated against the current values of the variables, as they are for each sequence row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CEEvaluatorBenchmark {
+  private static final String projection = "temp[0:1:9][0:1:99][0:1:99]";
+  private static final String constraint = "temp,pres,stn&temp>260.0&pres<1000&stn=\"KDEN\"";
+
+  @Param({"true", "false"})
+  boolean compile;
+
+  private File tempDir;
+  private NetcdfFile gridFile;
+  private NetcdfFile scalarFile;
+  private NcDDS gridDDS;
+  private CEEvaluator selectCE;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    tempDir = SyntheticData.makeTempDir();
+    gridFile = SyntheticData.openInMemory(SyntheticData.makeGridFile(tempDir, 10, 100, 100));
+    gridDDS = new NcDDS("grid", gridFile);
+
+    scalarFile = SyntheticData.openInMemory(makeScalarFile(tempDir));
+    NcDDS scalarDDS = new NcDDS("scalars", scalarFile);
+    ((DFloat32) scalarDDS.getVariable("temp")).setValue(270.0f);
+    ((DInt32) scalarDDS.getVariable("pres")).setValue(950);
+    ((DString) scalarDDS.getVariable("stn")).setValue("KDEN");
+    selectCE = new CEEvaluator(scalarDDS);
+    selectCE.setCompileClauses(compile);
+    selectCE.parseConstraint(constraint, null);
+    // otherwise the compiled runs would measure the clauses' own evaluate()
+    if (compile && selectCE.getCompiledSelection().getFallbackCount() > 0)
+      throw new IllegalStateException("selection not compiled: " + constraint);
+    if (!selectCE.evalClauses(null))
+      throw new IllegalStateException("selection should be true: " + constraint);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    gridFile.close();
+    scalarFile.close();
+    SyntheticData.deleteAll(tempDir);
+  }
+
+  @Benchmark
+  public CEEvaluator parseConstraint() throws Exception {
+    CEEvaluator ce = new CEEvaluator(gridDDS);
+    ce.parseConstraint(projection, null);
+    return ce;
+  }
+
+  @Benchmark
+  public boolean evalClauses() throws Exception {
+    return selectCE.evalClauses(null);
+  }
+
+  // scalar float, int and string (as a char array) variables
+  private static File makeScalarFile(File dir) throws IOException {
+    File file = new File(dir, "scalars.nc");
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addDimension("stn_len", 4);
+    builder.addVariable("temp", DataType.FLOAT, "");
+    builder.addVariable("pres", DataType.INT, "");
+    builder.addVariable("stn", DataType.CHAR, "stn_len");
+    try (NetcdfFormatWriter writer = builder.build()) {
+      writer.write("temp", Array.factory(DataType.FLOAT, new int[0], new float[] {270.0f}));
+      writer.write("pres", Array.factory(DataType.INT, new int[0], new int[] {950}));
+      writer.write("stn", Array.factory(DataType.CHAR, new int[] {4}, "KDEN".toCharArray()));
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return file;
+  }
+}
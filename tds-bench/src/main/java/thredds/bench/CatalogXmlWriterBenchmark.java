@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import thredds.client.catalog.*;
+import thredds.client.catalog.builder.CatalogBuilder;
+import thredds.client.catalog.builder.DatasetBuilder;
+import thredds.client.catalog.tools.CatalogXmlWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a large catalog, like the ones generated for a big datasetScan or feature collection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogXmlWriterBenchmark {
+
+  @Param({"1000", "100000"})
+  int ndatasets;
+
+  private Catalog catalog;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    CatalogBuilder cb = new CatalogBuilder();
+    Service dap = new Service("odap", "/thredds/dodsC/", ServiceType.OPENDAP.toString(),
+        ServiceType.OPENDAP.getDescription(), null, new ArrayList<Service>(), new ArrayList<Property>(),
+        ServiceType.OPENDAP.getAccessType());
+    Service files = new Service("http", "/thredds/fileServer/", ServiceType.HTTPServer.toString(),
+        ServiceType.HTTPServer.getDescription(), null, new ArrayList<Service>(), new ArrayList<Property>(),
+        ServiceType.HTTPServer.getAccessType());
+    cb.addService(new Service("all", "", ServiceType.Compound.toString(), ServiceType.Compound.getDescription(), null,
+        Arrays.asList(dap, files), new ArrayList<Property>(), ServiceType.Compound.getAccessType()));
+    cb.setName("Synthetic catalog with " + ndatasets + " datasets");
+
+    DatasetBuilder top = new DatasetBuilder(null);
+    top.setName("Synthetic model output");
+    top.put(Dataset.Id, "synthetic");
+    ThreddsMetadata tmd = new ThreddsMetadata();
+    tmd.getFlds().put(Dataset.ServiceName, "all");
+    tmd.getFlds().put(Dataset.DataFormatType, "NetCDF");
+    top.put(Dataset.ThreddsMetadataInheritable, tmd);
+
+    for (int i = 0; i < ndatasets; i++) {
+      DatasetBuilder ds = new DatasetBuilder(top);
+      String name = String.format("model_%07d.nc", i);
+      ds.setName(name);
+      ds.put(Dataset.Id, "synthetic/" + name);
+      ds.put(Dataset.UrlPath, "synthetic/" + name);
+      ds.put(Dataset.DataSize, 1000L * 1000L + i);
+      top.addDataset(ds);
+    }
+    cb.addDataset(top);
+    catalog = cb.makeCatalog();
+  }
+
+  @Benchmark
+  public long writeXML() throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    new CatalogXmlWriter().writeXML(catalog, out);
+    return out.count;
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import java.io.OutputStream;
+
+/**
+ * Discards what is written, counting the bytes. Benchmarks return the count so the JIT cannot drop the writes.
+ */
+class CountingOutputStream extends OutputStream {
+  long count;
+
+  @Override
+  public void write(int b) {
+    count++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    count += len;
+  }
+}
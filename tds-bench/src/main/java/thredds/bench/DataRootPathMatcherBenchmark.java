@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import thredds.server.catalog.DataRootPathMatcher;
+import thredds.server.catalog.DatasetRootConfig;
+import thredds.server.catalog.tracker.DataRootTracker;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Longest prefix match of request paths against the data roots, done on every dataset request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataRootPathMatcherBenchmark {
+
+  @Param({"100", "10000"})
+  int nroots;
+
+  private File tempDir;
+  private DataRootPathMatcher matcher;
+  private String[] requests;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    tempDir = SyntheticData.makeTempDir();
+    matcher = new DataRootPathMatcher(null, new DataRootTracker(tempDir.getPath(), true, null));
+
+    // roots look like "model/run3/grid17", nested so that the longest match matters
+    int nmodels = Math.max(1, nroots / 100);
+    for (int i = 0; i < nroots; i++) {
+      String path = "model" + (i % nmodels) + "/run" + (i % 10) + "/grid" + i;
+      matcher.addRoot(new DatasetRootConfig(path, "/data/" + path), "catalog.xml", false);
+    }
+    for (int m = 0; m < nmodels; m++)
+      matcher.addRoot(new DatasetRootConfig("model" + m, "/data/model" + m), "catalog.xml", false);
+
+    Random random = new Random(SyntheticData.SEED);
+    requests = new String[1024];
+    for (int i = 0; i < requests.length; i++) {
+      int root = random.nextInt(nroots);
+      switch (i % 3) {
+        case 0: // deepest root
+          requests[i] = "model" + (root % nmodels) + "/run" + (root % 10) + "/grid" + root + "/file" + i + ".nc";
+          break;
+        case 1: // falls back to the model root
+          requests[i] = "model" + (root % nmodels) + "/other/file" + i + ".nc";
+          break;
+        default: // no match
+          requests[i] = "unknown" + root + "/file" + i + ".nc";
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    SyntheticData.deleteAll(tempDir);
+  }
+
+  @Benchmark
+  public String findLongestPathMatch() {
+    String req = requests[next++ & (requests.length - 1)];
+    return matcher.findLongestPathMatch(req);
+  }
+}
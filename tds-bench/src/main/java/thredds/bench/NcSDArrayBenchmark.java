@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import opendap.servers.CEEvaluator;
+import opendap.servers.ServerMethods;
+import org.openjdk.jmh.annotations.*;
+import thredds.server.opendap.NcDDS;
+import ucar.nc2.NetcdfFile;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * DAP2 binary response for a float array, as OpendapServlet sends it:
+ * NcSDArray reads the subset, then serializes it, optionally through a deflater.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NcSDArrayBenchmark {
+
+  @Param({"temp[0][0:1:199][0:1:199]", "temp[0:1:9][0:1:199][0:1:199]", "temp[0:1:9][0:4:199][0:4:199]"})
+  String constraint;
+
+  @Param({"false", "true"})
+  boolean deflate;
+
+  private File tempDir;
+  private NetcdfFile ncfile;
+  private NcDDS dds;
+  private CEEvaluator ce;
+  private ServerMethods temp;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    tempDir = SyntheticData.makeTempDir();
+    ncfile = SyntheticData.openInMemory(SyntheticData.makeGridFile(tempDir, 10, 200, 200));
+    dds = new NcDDS("grid", ncfile);
+    ce = new CEEvaluator(dds);
+    ce.parseConstraint(constraint, null);
+    temp = (ServerMethods) dds.getVariable("temp");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    ncfile.close();
+    SyntheticData.deleteAll(tempDir);
+  }
+
+  @Benchmark
+  public long serialize() throws Exception {
+    temp.setRead(false); // otherwise the array is not read again
+    CountingOutputStream counter = new CountingOutputStream();
+    DeflaterOutputStream dOut = deflate ? new DeflaterOutputStream(counter) : null;
+    DataOutputStream sink = new DataOutputStream(new BufferedOutputStream(deflate ? dOut : counter));
+    ce.send(dds.getEncodedName(), sink, null);
+    sink.flush();
+    if (dOut != null)
+      dOut.finish();
+    return counter.count;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import thredds.server.ncss.view.dsg.point.PointSubsetWriterCSV;
+import thredds.server.ncss.view.dsg.point.PointSubsetWriterXML;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.nc2.ft.FeatureDatasetPoint;
+import ucar.nc2.ft2.coverage.SubsetParams;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCSS point subsetting: all observations of a point dataset written as CSV and as XML.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NcssPointWriterBenchmark {
+
+  @Param({"10000", "100000"})
+  int nobs;
+
+  private File tempDir;
+  private FeatureDatasetPoint fdPoint;
+  private SubsetParams params;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    tempDir = SyntheticData.makeTempDir();
+    NetcdfDataset ncd = NetcdfDatasets.enhance(SyntheticData.openInMemory(SyntheticData.makePointFile(tempDir, nobs)),
+        NetcdfDataset.getDefaultEnhanceMode(), null);
+    Formatter errlog = new Formatter();
+    fdPoint = (FeatureDatasetPoint) FeatureDatasetFactoryManager.wrap(FeatureType.POINT, ncd, null, errlog);
+    if (fdPoint == null)
+      throw new IOException("Cant open synthetic point dataset: " + errlog);
+
+    params = new SubsetParams();
+    params.setVariables(Arrays.asList("temp", "pres"));
+    params.set(SubsetParams.timeAll, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fdPoint.close();
+    SyntheticData.deleteAll(tempDir);
+  }
+
+  @Benchmark
+  public long writeCsv() throws Exception {
+    CountingOutputStream out = new CountingOutputStream();
+    new PointSubsetWriterCSV(fdPoint, params, out).write();
+    return out.count;
+  }
+
+  @Benchmark
+  public long writeXml() throws Exception {
+    CountingOutputStream out = new CountingOutputStream();
+    new PointSubsetWriterXML(fdPoint, params, out).write();
+    return out.count;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import cern.colt.list.IntArrayList;
+import org.openjdk.jmh.annotations.*;
+import ucar.nc2.dt.ugrid.geom.LatLonPoint2D;
+import ucar.nc2.dt.ugrid.geom.LatLonPolygon2D;
+import ucar.nc2.dt.ugrid.rtree.RTree;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTree over the triangles of a synthetic unstructured mesh: loading all cells, then intersection and
+ * nearest neighbour queries, as the UGRID subsetting does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RTreeBenchmark {
+
+  @Param({"10000", "200000"})
+  int ncells;
+
+  private LatLonPolygon2D[] cells;
+  private LatLonPolygon2D[] queryBoxes;
+  private LatLonPoint2D[] queryPoints;
+  private RTree tree;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    // triangles on a regular grid covering lat [20,50], lon [-130,-60]
+    int nside = (int) Math.ceil(Math.sqrt(ncells / 2.0));
+    double dlat = 30.0 / nside;
+    double dlon = 70.0 / nside;
+    cells = new LatLonPolygon2D[ncells];
+    for (int i = 0; i < ncells; i++) {
+      int square = i / 2;
+      double lat = 20.0 + (square / nside) * dlat;
+      double lon = -130.0 + (square % nside) * dlon;
+      if (i % 2 == 0)
+        cells[i] = new LatLonPolygon2D.Double(new double[] {lat, lat, lat + dlat}, new double[] {lon, lon + dlon, lon});
+      else
+        cells[i] = new LatLonPolygon2D.Double(new double[] {lat, lat + dlat, lat + dlat},
+            new double[] {lon + dlon, lon + dlon, lon});
+    }
+    tree = load();
+
+    Random random = new Random(SyntheticData.SEED);
+    queryBoxes = new LatLonPolygon2D[256];
+    queryPoints = new LatLonPoint2D[256];
+    for (int i = 0; i < 256; i++) {
+      double lat = 20.0 + 28.0 * random.nextDouble();
+      double lon = -130.0 + 68.0 * random.nextDouble();
+      queryBoxes[i] = new LatLonPolygon2D.Double(new double[] {lat, lat, lat + 2.0, lat + 2.0},
+          new double[] {lon, lon + 2.0, lon + 2.0, lon});
+      queryPoints[i] = new LatLonPoint2D.Double(lat, lon);
+    }
+  }
+
+  private RTree load() {
+    RTree result = new RTree();
+    for (int i = 0; i < cells.length; i++)
+      result.add(cells[i], i);
+    return result;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public RTree bulkLoad() {
+    return load();
+  }
+
+  @Benchmark
+  public int intersects() {
+    IntArrayList hits = tree.intersects(queryBoxes[next++ & 255]);
+    return hits.size();
+  }
+
+  @Benchmark
+  public int nearest() {
+    return tree.nearest(queryPoints[next++ & 255]);
+  }
+}
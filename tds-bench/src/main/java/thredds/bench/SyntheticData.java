@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.bench;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.constants.CF;
+import ucar.nc2.write.NetcdfFormatWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Synthetic datasets for the benchmarks, so they do not depend on the test data server.
+ * Files are written to a temporary directory once per trial and deleted by the caller.
+ */
+class SyntheticData {
+  static final long SEED = 20211019L;
+
+  /**
+   * A netCDF-3 file with one float variable temp(time, y, x) and no coordinate variables,
+   * so that NcDDS serves it as a plain array.
+   */
+  static File makeGridFile(File dir, int ntimes, int ny, int nx) throws IOException {
+    File file = new File(dir, "grid" + ntimes + "x" + ny + "x" + nx + ".nc");
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addDimension("time", ntimes);
+    builder.addDimension("y", ny);
+    builder.addDimension("x", nx);
+    builder.addVariable("temp", DataType.FLOAT, "time y x").addAttribute(new Attribute(CDM.UNITS, "K"));
+
+    Random random = new Random(SEED);
+    float[] data = new float[ntimes * ny * nx];
+    for (int i = 0; i < data.length; i++)
+      data[i] = 250.0f + 50.0f * random.nextFloat();
+
+    try (NetcdfFormatWriter writer = builder.build()) {
+      writer.write("temp", Array.factory(DataType.FLOAT, new int[] {ntimes, ny, nx}, data));
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return file;
+  }
+
+  /**
+   * A CF point feature file with nobs observations spread over CONUS and one day.
+   */
+  static File makePointFile(File dir, int nobs) throws IOException {
+    File file = new File(dir, "point" + nobs + ".nc");
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addAttribute(new Attribute(CDM.CONVENTIONS, "CF-1.6"));
+    builder.addAttribute(new Attribute(CF.FEATURE_TYPE, CF.FeatureType.point.name()));
+    builder.addDimension("obs", nobs);
+    builder.addVariable("time", DataType.DOUBLE, "obs")
+        .addAttribute(new Attribute(CDM.UNITS, "seconds since 2021-01-01T00:00:00Z"))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "time"));
+    builder.addVariable("lat", DataType.DOUBLE, "obs").addAttribute(new Attribute(CDM.UNITS, CDM.LAT_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "latitude"));
+    builder.addVariable("lon", DataType.DOUBLE, "obs").addAttribute(new Attribute(CDM.UNITS, CDM.LON_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "longitude"));
+    builder.addVariable("temp", DataType.FLOAT, "obs").addAttribute(new Attribute(CDM.UNITS, "K"))
+        .addAttribute(new Attribute(CF.COORDINATES, "time lat lon"));
+    builder.addVariable("pres", DataType.FLOAT, "obs").addAttribute(new Attribute(CDM.UNITS, "hPa"))
+        .addAttribute(new Attribute(CF.COORDINATES, "time lat lon"));
+
+    Random random = new Random(SEED);
+    double[] time = new double[nobs];
+    double[] lat = new double[nobs];
+    double[] lon = new double[nobs];
+    float[] temp = new float[nobs];
+    float[] pres = new float[nobs];
+    for (int i = 0; i < nobs; i++) {
+      time[i] = i * (86400.0 / nobs);
+      lat[i] = 25.0 + 25.0 * random.nextDouble();
+      lon[i] = -125.0 + 60.0 * random.nextDouble();
+      temp[i] = 250.0f + 50.0f * random.nextFloat();
+      pres[i] = 900.0f + 150.0f * random.nextFloat();
+    }
+
+    int[] shape = {nobs};
+    try (NetcdfFormatWriter writer = builder.build()) {
+      writer.write("time", Array.factory(DataType.DOUBLE, shape, time));
+      writer.write("lat", Array.factory(DataType.DOUBLE, shape, lat));
+      writer.write("lon", Array.factory(DataType.DOUBLE, shape, lon));
+      writer.write("temp", Array.factory(DataType.FLOAT, shape, temp));
+      writer.write("pres", Array.factory(DataType.FLOAT, shape, pres));
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return file;
+  }
+
+  /**
+   * Read a file fully into memory, so that the benchmark measures the encoder and not the disk.
+   */
+  static NetcdfFile openInMemory(File file) throws IOException {
+    return NetcdfFiles.openInMemory(file.getName(), Files.readAllBytes(file.toPath()));
+  }
+
+  static File makeTempDir() throws IOException {
+    return Files.createTempDirectory("tds-bench").toFile();
+  }
+
+  static void deleteAll(File dir) {
+    if (dir == null)
+      return;
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory())
+          deleteAll(f);
+        else if (!f.delete())
+          f.deleteOnExit();
+      }
+    }
+    if (!dir.delete())
+      dir.deleteOnExit();
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.tds.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Latency percentiles and throughput per request kind, plus allocation rate and GC pauses of the server,
+ * taken from the part of its unified GC log (-Xlog:gc:file=...:uptime) written during the measurement.
+ */
+class LoadReport {
+
+  /** Collected by one worker thread, merged at the end. */
+  static class Stats {
+    long[] latencies = new long[1024]; // nanoseconds
+    int count;
+    int errors;
+    long bytes;
+
+    void add(long nanos, long nbytes, boolean ok) {
+      if (count == latencies.length)
+        latencies = Arrays.copyOf(latencies, count * 2);
+      latencies[count++] = nanos;
+      bytes += nbytes;
+      if (!ok)
+        errors++;
+    }
+
+    void merge(Stats other) {
+      if (count + other.count > latencies.length)
+        latencies = Arrays.copyOf(latencies, count + other.count);
+      System.arraycopy(other.latencies, 0, latencies, count, other.count);
+      count += other.count;
+      errors += other.errors;
+      bytes += other.bytes;
+    }
+
+    double percentileMillis(double p) {
+      if (count == 0)
+        return Double.NaN;
+      int index = (int) Math.ceil(p / 100.0 * count) - 1;
+      return latencies[Math.max(0, Math.min(count - 1, index))] / 1.0e6;
+    }
+  }
+
+  // [12.345s] GC(7) Pause Young (Normal) (G1 Evacuation Pause) 120M->30M(512M) 4.567ms
+  private static final Pattern gcPause =
+      Pattern.compile("\\[([\\d.]+)s\\].*GC\\((\\d+)\\) Pause.* (\\d+)M->(\\d+)M\\((\\d+)M\\) ([\\d.]+)ms");
+
+  static class GcStats {
+    int npauses;
+    double totalPauseMillis;
+    double maxPauseMillis;
+    double p99PauseMillis = Double.NaN;
+    double allocatedMbytes;
+    double allocRateMbPerSec = Double.NaN;
+  }
+
+  private final Map<RequestMix.Kind, Stats> byKind = new EnumMap<>(RequestMix.Kind.class);
+  private final Stats all = new Stats();
+  private final double seconds;
+  private final int concurrency;
+  private GcStats gc;
+
+  LoadReport(Iterable<Map<RequestMix.Kind, Stats>> perThread, double seconds, int concurrency) {
+    this.seconds = seconds;
+    this.concurrency = concurrency;
+    for (Map<RequestMix.Kind, Stats> m : perThread) {
+      for (Map.Entry<RequestMix.Kind, Stats> e : m.entrySet()) {
+        byKind.computeIfAbsent(e.getKey(), k -> new Stats()).merge(e.getValue());
+        all.merge(e.getValue());
+      }
+    }
+    for (Stats s : byKind.values())
+      Arrays.sort(s.latencies, 0, s.count);
+    Arrays.sort(all.latencies, 0, all.count);
+  }
+
+  /** Parse the GC log between the two file offsets, taken at the start and end of the measurement. */
+  void readGcLog(File gcLog, long startOffset, long endOffset) throws IOException {
+    if (gcLog == null || endOffset <= startOffset)
+      return;
+    byte[] bytes = new byte[(int) (endOffset - startOffset)];
+    try (RandomAccessFile raf = new RandomAccessFile(gcLog, "r")) {
+      raf.seek(startOffset);
+      raf.readFully(bytes);
+    }
+
+    GcStats result = new GcStats();
+    double[] pauses = new double[16];
+    double firstUptime = Double.NaN, lastUptime = Double.NaN;
+    long lastAfter = -1;
+    for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+      Matcher m = gcPause.matcher(line);
+      if (!m.find())
+        continue;
+      double uptime = Double.parseDouble(m.group(1));
+      long before = Long.parseLong(m.group(3));
+      long after = Long.parseLong(m.group(4));
+      double pause = Double.parseDouble(m.group(6));
+
+      if (Double.isNaN(firstUptime))
+        firstUptime = uptime;
+      lastUptime = uptime;
+      if (lastAfter >= 0 && before > lastAfter)
+        result.allocatedMbytes += before - lastAfter;
+      lastAfter = after;
+
+      if (result.npauses == pauses.length)
+        pauses = Arrays.copyOf(pauses, pauses.length * 2);
+      pauses[result.npauses++] = pause;
+      result.totalPauseMillis += pause;
+      result.maxPauseMillis = Math.max(result.maxPauseMillis, pause);
+    }
+
+    if (result.npauses > 0) {
+      Arrays.sort(pauses, 0, result.npauses);
+      result.p99PauseMillis = pauses[Math.max(0, (int) Math.ceil(0.99 * result.npauses) - 1)];
+    }
+    if (lastUptime > firstUptime)
+      result.allocRateMbPerSec = result.allocatedMbytes / (lastUptime - firstUptime);
+    this.gc = result;
+  }
+
+  String toText() {
+    Formatter f = new Formatter(Locale.ROOT);
+    f.format("Load test: %d clients, %.1f secs%n", concurrency, seconds);
+    f.format("%-10s %9s %7s %9s %9s %9s %9s %9s %9s%n", "kind", "requests", "errors", "req/s", "MB/s", "p50 ms",
+        "p90 ms", "p99 ms", "max ms");
+    for (Map.Entry<RequestMix.Kind, Stats> e : byKind.entrySet())
+      formatRow(f, e.getKey().toString(), e.getValue());
+    formatRow(f, "all", all);
+    if (gc != null) {
+      f.format("Server GC: %d pauses, total %.1f ms, p99 %.1f ms, max %.1f ms, allocation %.1f MB/s%n", gc.npauses,
+          gc.totalPauseMillis, gc.p99PauseMillis, gc.maxPauseMillis, gc.allocRateMbPerSec);
+    }
+    return f.toString();
+  }
+
+  private void formatRow(Formatter f, String name, Stats s) {
+    f.format("%-10s %9d %7d %9.1f %9.2f %9.1f %9.1f %9.1f %9.1f%n", name, s.count, s.errors, s.count / seconds,
+        s.bytes / 1.0e6 / seconds, s.percentileMillis(50), s.percentileMillis(90), s.percentileMillis(99),
+        s.percentileMillis(100));
+  }
+
+  String toJson() {
+    Formatter f = new Formatter(Locale.ROOT);
+    f.format("{%n  \"concurrency\": %d,%n  \"seconds\": %.3f,%n  \"kinds\": {%n", concurrency, seconds);
+    for (Map.Entry<RequestMix.Kind, Stats> e : byKind.entrySet()) {
+      formatJson(f, e.getKey().toString(), e.getValue());
+      f.format(",%n");
+    }
+    formatJson(f, "all", all);
+    f.format("%n  }");
+    if (gc != null) {
+      f.format(",%n  \"gc\": {\"pauses\": %d, \"totalPauseMs\": %s, \"p99PauseMs\": %s, \"maxPauseMs\": %s, "
+          + "\"allocatedMB\": %s, \"allocRateMBs\": %s}", gc.npauses, num(gc.totalPauseMillis),
+          num(gc.p99PauseMillis), num(gc.maxPauseMillis), num(gc.allocatedMbytes), num(gc.allocRateMbPerSec));
+    }
+    f.format("%n}%n");
+    return f.toString();
+  }
+
+  private void formatJson(Formatter f, String name, Stats s) {
+    f.format(
+        "    \"%s\": {\"requests\": %d, \"errors\": %d, \"throughput\": %s, \"bytes\": %d, "
+            + "\"p50Ms\": %s, \"p90Ms\": %s, \"p99Ms\": %s, \"maxMs\": %s}",
+        name, s.count, s.errors, num(s.count / seconds), s.bytes, num(s.percentileMillis(50)),
+        num(s.percentileMillis(90)), num(s.percentileMillis(99)), num(s.percentileMillis(100)));
+  }
+
+  private static String num(double d) {
+    return Double.isNaN(d) || Double.isInfinite(d) ? "null" : String.format(Locale.ROOT, "%.3f", d);
+  }
+
+  void write(File reportDir) throws IOException {
+    Files.createDirectories(reportDir.toPath());
+    Files.write(new File(reportDir, "results.txt").toPath(), toText().getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(reportDir, "results.json").toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.tds.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drives a fixed number of clients against a running TDS serving the SyntheticContent, each sending requests
+ * picked from the request mix back to back. After the warmup, latencies are recorded for the measured duration,
+ * and reported per request kind with the server's GC pauses and allocation rate.
+ *
+ * Usage: LoadTest --content dir [--server url] [--mix kind=weight,...] [--concurrency n] [--warmup secs]
+ * [--duration secs] [--timeout secs] [--gcLog file] [--report dir]
+ */
+public class LoadTest {
+
+  public static void main(String[] args) throws Exception {
+    String server = "http://localhost:8081/thredds";
+    String mix = RequestMix.DEFAULT_MIX;
+    File contentDir = null;
+    File gcLog = null;
+    File reportDir = null;
+    int concurrency = 16;
+    int warmup = 10;
+    int duration = 60;
+    int timeout = 60;
+
+    for (int i = 0; i < args.length - 1; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--server":
+          server = value;
+          break;
+        case "--content":
+          contentDir = new File(value);
+          break;
+        case "--mix":
+          mix = value;
+          break;
+        case "--concurrency":
+          concurrency = Integer.parseInt(value);
+          break;
+        case "--warmup":
+          warmup = Integer.parseInt(value);
+          break;
+        case "--duration":
+          duration = Integer.parseInt(value);
+          break;
+        case "--timeout":
+          timeout = Integer.parseInt(value);
+          break;
+        case "--gcLog":
+          gcLog = new File(value);
+          break;
+        case "--report":
+          reportDir = new File(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument " + args[i]);
+      }
+    }
+    if (contentDir == null)
+      throw new IllegalArgumentException("--content is required");
+
+    Properties content = new Properties();
+    try (InputStream in = new FileInputStream(new File(contentDir, SyntheticContent.PROPERTIES))) {
+      content.load(in);
+    }
+
+    RequestMix requestMix = new RequestMix(server, mix, content, Duration.ofSeconds(timeout));
+    LoadTest loadTest = new LoadTest(requestMix, concurrency);
+    loadTest.waitForServer(server, Duration.ofMinutes(5));
+    LoadReport report = loadTest.run(warmup, duration, gcLog);
+
+    System.out.print(report.toText());
+    if (reportDir != null) {
+      report.write(reportDir);
+      System.out.printf("Results written to %s%n", reportDir);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////
+
+  private final RequestMix requestMix;
+  private final int concurrency;
+  private final HttpClient client;
+
+  LoadTest(RequestMix requestMix, int concurrency) {
+    this.requestMix = requestMix;
+    this.concurrency = concurrency;
+    this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+        .followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(Duration.ofSeconds(10)).build();
+  }
+
+  // feature collections are read at startup, so wait until the top catalog is served
+  private void waitForServer(String server, Duration maxWait) throws InterruptedException {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(server + "/catalog/catalog.xml")).GET().build();
+    long deadline = System.nanoTime() + maxWait.toNanos();
+    while (System.nanoTime() < deadline) {
+      try {
+        if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200)
+          return;
+      } catch (IOException e) {
+        // not up yet
+      }
+      Thread.sleep(1000);
+    }
+    throw new IllegalStateException("Server did not start: " + server);
+  }
+
+  LoadReport run(int warmupSecs, int durationSecs, File gcLog) throws Exception {
+    long start = System.nanoTime();
+    long measureStart = start + warmupSecs * 1_000_000_000L;
+    long measureEnd = measureStart + durationSecs * 1_000_000_000L;
+
+    ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+    List<Future<Map<RequestMix.Kind, LoadReport.Stats>>> futures = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      long seed = 17L * i + 1;
+      futures.add(pool.submit(() -> client(new Random(seed), measureStart, measureEnd)));
+    }
+
+    // mark the server GC log at the start and end of the measured interval
+    long gcStart = -1, gcEnd = -1;
+    if (gcLog != null) {
+      sleepUntil(measureStart);
+      gcStart = gcLog.length();
+      sleepUntil(measureEnd);
+      gcEnd = gcLog.length();
+    }
+
+    List<Map<RequestMix.Kind, LoadReport.Stats>> results = new ArrayList<>();
+    for (Future<Map<RequestMix.Kind, LoadReport.Stats>> f : futures)
+      results.add(f.get());
+    pool.shutdown();
+
+    LoadReport report = new LoadReport(results, durationSecs, concurrency);
+    if (gcLog != null)
+      report.readGcLog(gcLog, gcStart, gcEnd);
+    return report;
+  }
+
+  private static void sleepUntil(long nanoTime) throws InterruptedException {
+    long wait = nanoTime - System.nanoTime();
+    if (wait > 0)
+      Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+  }
+
+  // one client: send requests back to back; only those started during the measured interval are recorded
+  private Map<RequestMix.Kind, LoadReport.Stats> client(Random random, long measureStart, long measureEnd) {
+    Map<RequestMix.Kind, LoadReport.Stats> result = new EnumMap<>(RequestMix.Kind.class);
+    byte[] buffer = new byte[64 * 1024];
+    while (true) {
+      long begin = System.nanoTime();
+      if (begin >= measureEnd)
+        break;
+
+      RequestMix.Kind kind = requestMix.pick(random);
+      HttpRequest request = requestMix.makeRequest(kind, random);
+      long nbytes = 0;
+      boolean ok;
+      try {
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+          int n;
+          while ((n = in.read(buffer)) > 0)
+            nbytes += n;
+        }
+        ok = response.statusCode() < 400;
+      } catch (IOException e) {
+        ok = false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      long took = System.nanoTime() - begin;
+
+      if (begin >= measureStart)
+        result.computeIfAbsent(kind, k -> new LoadReport.Stats()).add(took, nbytes, ok);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.tds.load;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * The kinds of requests the load test sends, and their relative weights.
+ * Requests are built against the content made by SyntheticContent, whose sizes are read from its properties.
+ */
+class RequestMix {
+
+  enum Kind {
+    catalog, dods, ncssGrid, ncssPoint, wms, fileRange
+  }
+
+  static final String DEFAULT_MIX = "catalog=30,dods=25,ncssGrid=10,ncssPoint=10,wms=10,fileRange=15";
+
+  private final String server;
+  private final Kind[] kinds;
+  private final int[] cumulative;
+  private final int total;
+  private final Duration timeout;
+
+  private final int ngrids, ntimes, ndays, nstations, fanout, depth;
+  private final long gridFileSize;
+
+  /**
+   * @param server base url, eg http://localhost:8081/thredds
+   * @param mix comma separated kind=weight
+   * @param content written by SyntheticContent
+   */
+  RequestMix(String server, String mix, Properties content, Duration timeout) {
+    this.server = server.endsWith("/") ? server.substring(0, server.length() - 1) : server;
+    this.timeout = timeout;
+
+    Map<Kind, Integer> weights = parseMix(mix);
+    kinds = weights.keySet().toArray(new Kind[0]);
+    cumulative = new int[kinds.length];
+    int sum = 0;
+    for (int i = 0; i < kinds.length; i++) {
+      sum += weights.get(kinds[i]);
+      cumulative[i] = sum;
+    }
+    if (sum <= 0)
+      throw new IllegalArgumentException("Request mix has no positive weights: " + mix);
+    total = sum;
+
+    ngrids = Integer.parseInt(content.getProperty("ngrids"));
+    ntimes = Integer.parseInt(content.getProperty("ntimes"));
+    ndays = Integer.parseInt(content.getProperty("ndays"));
+    nstations = Integer.parseInt(content.getProperty("nstations"));
+    fanout = Integer.parseInt(content.getProperty("fanout"));
+    depth = Integer.parseInt(content.getProperty("depth"));
+    gridFileSize = Long.parseLong(content.getProperty("gridFileSize"));
+  }
+
+  static Map<Kind, Integer> parseMix(String mix) {
+    Map<Kind, Integer> result = new EnumMap<>(Kind.class);
+    for (String entry : mix.split(",")) {
+      String[] kv = entry.trim().split("=");
+      if (kv.length != 2)
+        throw new IllegalArgumentException("Bad request mix entry '" + entry + "', expected kind=weight");
+      int weight = Integer.parseInt(kv[1].trim());
+      if (weight > 0)
+        result.put(Kind.valueOf(kv[0].trim()), weight);
+    }
+    return result;
+  }
+
+  Kind pick(Random random) {
+    int r = random.nextInt(total);
+    for (int i = 0; i < kinds.length; i++) {
+      if (r < cumulative[i])
+        return kinds[i];
+    }
+    return kinds[kinds.length - 1];
+  }
+
+  HttpRequest makeRequest(Kind kind, Random random) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder().timeout(timeout).GET();
+    String path;
+    switch (kind) {
+      case catalog:
+        path = catalog(random);
+        break;
+      case dods:
+        path = dods(random);
+        break;
+      case ncssGrid:
+        path = ncssGrid(random);
+        break;
+      case ncssPoint:
+        path = ncssPoint(random);
+        break;
+      case wms:
+        path = wms(random);
+        break;
+      case fileRange:
+        path = "/fileServer/" + grid(random);
+        long len = 64 * 1024 + random.nextInt(960 * 1024);
+        long start = (long) (random.nextDouble() * Math.max(1, gridFileSize - len));
+        builder.header("Range", "bytes=" + start + "-" + (start + len - 1));
+        break;
+      default:
+        throw new IllegalStateException(kind.toString());
+    }
+    return builder.uri(URI.create(server + path)).build();
+  }
+
+  private String grid(Random random) {
+    return SyntheticContent.ROOT_PATH + "/grid/" + SyntheticContent.gridName(random.nextInt(ngrids));
+  }
+
+  private String gridTime(Random random) {
+    int hour = random.nextInt(ntimes);
+    return String.format("2021-01-%02dT%02d:00:00Z", hour / 24 + 1, hour % 24);
+  }
+
+  // a node anywhere in the deep catalog tree, as xml or html
+  private String catalog(Random random) {
+    StringBuilder sb = new StringBuilder("/catalog/deep");
+    int level = random.nextInt(depth + 1);
+    for (int i = 0; i < level; i++)
+      sb.append("/n").append(random.nextInt(fanout));
+    sb.append(random.nextBoolean() ? "/catalog.xml" : "/catalog.html");
+    return sb.toString();
+  }
+
+  // coordinate variables, as clients do on open, or a hyperslab of one time step
+  private String dods(Random random) {
+    String ce;
+    if (random.nextInt(4) == 0) {
+      ce = "time,lat,lon";
+    } else {
+      int t = random.nextInt(ntimes);
+      int y0 = random.nextInt(120);
+      int x0 = random.nextInt(240);
+      int size = 10 + random.nextInt(50);
+      ce = String.format("temp[%d][%d:1:%d][%d:1:%d]", t, y0, y0 + size, x0, x0 + size);
+    }
+    return "/dodsC/" + grid(random) + ".dods?" + ce.replace("[", "%5B").replace("]", "%5D");
+  }
+
+  private String bbox(Random random, String format, double size) {
+    double south = 25.0 + 20.0 * random.nextDouble();
+    double west = -125.0 + 50.0 * random.nextDouble();
+    return String.format(Locale.ROOT, format, south + size, south, west, west + size);
+  }
+
+  // grids, or the best time series of the partitioned model runs
+  private String ncssGrid(Random random) {
+    String bbox = bbox(random, "north=%.2f&south=%.2f&west=%.2f&east=%.2f", 5.0 + 10.0 * random.nextDouble());
+    if (random.nextInt(4) == 0) {
+      String time = String.format("2021-01-%02dT%02d:00:00Z", 1 + random.nextInt(5), 6 * random.nextInt(4));
+      return "/ncss/grid/" + SyntheticContent.ROOT_PATH + "/fmrc/Synthetic_Runs_best.ncd?var=temp&" + bbox
+          + "&time=" + time + "&accept=netcdf";
+    }
+    return "/ncss/grid/" + grid(random) + "?var=temp&" + bbox + "&time=" + gridTime(random) + "&accept=netcdf";
+  }
+
+  // a few hours of point observations in a box, or a day from a few stations
+  private String ncssPoint(Random random) {
+    int day = 1 + random.nextInt(ndays);
+    int hour = random.nextInt(20);
+    String timeRange = String.format("time_start=2021-01-%02dT%02d:00:00Z&time_end=2021-01-%02dT%02d:00:00Z", day,
+        hour, day, hour + 4);
+    if (random.nextBoolean()) {
+      String bbox = bbox(random, "north=%.2f&south=%.2f&west=%.2f&east=%.2f", 5.0);
+      return "/ncss/point/" + SyntheticContent.ROOT_PATH + "/point/Synthetic_Points_fc.cdmr?var=temp&" + bbox + "&"
+          + timeRange + "&accept=csv";
+    }
+    StringBuilder stns = new StringBuilder();
+    for (int i = 0; i < 3; i++) {
+      if (i > 0)
+        stns.append(',');
+      stns.append(SyntheticContent.stationName(random.nextInt(nstations)));
+    }
+    return "/ncss/point/" + SyntheticContent.ROOT_PATH + "/station/Synthetic_Stations_fc.cdmr?var=temp&stns=" + stns
+        + "&" + timeRange + "&accept=csv";
+  }
+
+  private String wms(Random random) {
+    double size = 10.0 + 60.0 * random.nextDouble();
+    String bbox = bbox(random, "%3$.2f,%2$.2f,%4$.2f,%1$.2f", size); // CRS:84 is west,south,east,north
+    return "/wms/" + grid(random) + "?service=WMS&version=1.3.0&request=GetMap&layers=temp&styles=&crs=CRS:84"
+        + "&bbox=" + bbox + "&width=256&height=256&format=image/png&time=" + gridTime(random);
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.tds.load;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.constants.CF;
+import ucar.nc2.write.NetcdfFormatWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Generates a TDS content directory with synthetic data for the load test, so it runs offline:
+ * <ul>
+ * <li>CF grids, served through a datasetRoot (OPeNDAP, NCSS grid, WMS, fileServer)</li>
+ * <li>CF point and station files, served as Point and Station feature collections (NCSS point)</li>
+ * <li>grid model runs in year/month/day directories, served as an FMRC feature collection</li>
+ * <li>a deep tree of catalogs connected by catalogRefs</li>
+ * </ul>
+ * The sizes used are written to loadTest.properties, which LoadTest reads to build its requests.
+ *
+ * Usage: SyntheticContent contentDir [small|large]
+ */
+public class SyntheticContent {
+  static final String PROPERTIES = "loadTest.properties";
+  static final String ROOT_PATH = "load";
+  static final String REFTIME = "2021-01-01T00:00:00Z";
+
+  private static final long SEED = 20211019L;
+
+  final File contentDir;
+  final File dataDir;
+  final Properties props = new Properties();
+  final Random random = new Random(SEED);
+
+  // sizes
+  int ngrids = 8;
+  int ntimes = 24;
+  int nlat = 181;
+  int nlon = 360;
+  int ndays = 10;
+  int nobs = 20000; // per point file
+  int nstations = 200;
+  int nruns = 20; // 4 a day
+  int fanout = 4; // catalog tree
+  int depth = 4;
+  int leafDatasets = 50;
+
+  SyntheticContent(File contentDir, String size) {
+    this.contentDir = contentDir;
+    this.dataDir = new File(contentDir, "data");
+    if ("large".equals(size)) {
+      ngrids = 32;
+      nlat = 721;
+      nlon = 1440;
+      nobs = 200000;
+      nstations = 2000;
+      depth = 5;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: SyntheticContent contentDir [small|large]");
+      System.exit(1);
+    }
+    SyntheticContent content = new SyntheticContent(new File(args[0]), args.length > 1 ? args[1] : "small");
+    long start = System.currentTimeMillis();
+    content.generate();
+    System.out.printf("Generated load test content in %s (%d secs)%n", content.contentDir,
+        (System.currentTimeMillis() - start) / 1000);
+  }
+
+  void generate() throws IOException {
+    File threddsDir = new File(contentDir, "thredds");
+    Files.createDirectories(threddsDir.toPath());
+    Files.createDirectories(dataDir.toPath());
+
+    for (int i = 0; i < ngrids; i++)
+      writeGrid(new File(dataDir, "grid/" + gridName(i)), REFTIME, ntimes, nlat, nlon);
+    for (int day = 0; day < ndays; day++) {
+      writePoints(new File(dataDir, String.format("point/obs_202101%02d.nc", day + 1)), day);
+      writeStations(new File(dataDir, String.format("station/stn_202101%02d.nc", day + 1)), day);
+    }
+    for (int run = 0; run < nruns; run++) {
+      int day = run / 4 + 1;
+      int hour = (run % 4) * 6;
+      String reftime = String.format("2021-01-%02dT%02d:00:00Z", day, hour);
+      String name = String.format("partitioned/2021/01/%02d/run_202101%02d_%02d.nc", day, day, hour);
+      writeGrid(new File(dataDir, name), reftime, 16, nlat / 2 + 1, nlon / 2);
+    }
+
+    writeThreddsConfig(new File(threddsDir, "threddsConfig.xml"));
+    writeRootCatalog(new File(threddsDir, "catalog.xml"));
+    writeCatalogTree(new File(threddsDir, "deep"), "deep", 0);
+
+    props.setProperty("ngrids", Integer.toString(ngrids));
+    props.setProperty("ntimes", Integer.toString(ntimes));
+    props.setProperty("nlat", Integer.toString(nlat));
+    props.setProperty("nlon", Integer.toString(nlon));
+    props.setProperty("ndays", Integer.toString(ndays));
+    props.setProperty("nstations", Integer.toString(nstations));
+    props.setProperty("fanout", Integer.toString(fanout));
+    props.setProperty("depth", Integer.toString(depth));
+    props.setProperty("gridFileSize", Long.toString(new File(dataDir, "grid/" + gridName(0)).length()));
+    try (OutputStream out = new FileOutputStream(new File(contentDir, PROPERTIES))) {
+      props.store(out, "Generated by SyntheticContent");
+    }
+  }
+
+  static String gridName(int i) {
+    return String.format("grid_%02d.nc", i);
+  }
+
+  static String stationName(int i) {
+    return String.format("S%04d", i);
+  }
+
+  ///////////////////////////////////////////////////////////////
+  // data files
+
+  private NetcdfFormatWriter.Builder create(File file) throws IOException {
+    Files.createDirectories(file.getParentFile().toPath());
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addAttribute(new Attribute(CDM.CONVENTIONS, "CF-1.6"));
+    builder.addAttribute(new Attribute(CDM.TITLE, "Synthetic data for the TDS load test"));
+    return builder;
+  }
+
+  private void writeGrid(File file, String reftime, int nt, int ny, int nx) throws IOException {
+    NetcdfFormatWriter.Builder builder = create(file);
+    builder.addDimension("time", nt);
+    builder.addDimension("lat", ny);
+    builder.addDimension("lon", nx);
+    builder.addVariable("time", DataType.DOUBLE, "time")
+        .addAttribute(new Attribute(CDM.UNITS, "hours since " + reftime))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "time"));
+    builder.addVariable("lat", DataType.FLOAT, "lat").addAttribute(new Attribute(CDM.UNITS, CDM.LAT_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "latitude"));
+    builder.addVariable("lon", DataType.FLOAT, "lon").addAttribute(new Attribute(CDM.UNITS, CDM.LON_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "longitude"));
+    builder.addVariable("temp", DataType.FLOAT, "time lat lon").addAttribute(new Attribute(CDM.UNITS, "K"))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "air_temperature"));
+
+    double[] time = new double[nt];
+    for (int t = 0; t < nt; t++)
+      time[t] = t;
+    float[] lat = new float[ny];
+    for (int y = 0; y < ny; y++)
+      lat[y] = -90.0f + 180.0f * y / (ny - 1);
+    float[] lon = new float[nx];
+    for (int x = 0; x < nx; x++)
+      lon[x] = -180.0f + 360.0f * x / nx;
+
+    try (NetcdfFormatWriter writer = builder.build()) {
+      writer.write("time", Array.factory(DataType.DOUBLE, new int[] {nt}, time));
+      writer.write("lat", Array.factory(DataType.FLOAT, new int[] {ny}, lat));
+      writer.write("lon", Array.factory(DataType.FLOAT, new int[] {nx}, lon));
+
+      // one time step at a time, to bound memory on the large grids
+      float[] slice = new float[ny * nx];
+      for (int t = 0; t < nt; t++) {
+        for (int y = 0; y < ny; y++) {
+          double base = 300.0 - 50.0 * Math.abs(lat[y]) / 90.0;
+          for (int x = 0; x < nx; x++)
+            slice[y * nx + x] = (float) (base + 5.0 * Math.sin((lon[x] + 15.0 * t) * Math.PI / 180.0)
+                + random.nextGaussian());
+        }
+        writer.write(writer.findVariable("temp"), new int[] {t, 0, 0},
+            Array.factory(DataType.FLOAT, new int[] {1, ny, nx}, slice));
+      }
+    } catch (Exception e) {
+      throw new IOException("Failed to write " + file, e);
+    }
+  }
+
+  private void writePoints(File file, int day) throws IOException {
+    NetcdfFormatWriter.Builder builder = create(file);
+    builder.addAttribute(new Attribute(CF.FEATURE_TYPE, CF.FeatureType.point.name()));
+    builder.addDimension("obs", nobs);
+    builder.addVariable("time", DataType.DOUBLE, "obs")
+        .addAttribute(new Attribute(CDM.UNITS, "seconds since " + REFTIME))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "time"));
+    builder.addVariable("lat", DataType.FLOAT, "obs").addAttribute(new Attribute(CDM.UNITS, CDM.LAT_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "latitude"));
+    builder.addVariable("lon", DataType.FLOAT, "obs").addAttribute(new Attribute(CDM.UNITS, CDM.LON_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "longitude"));
+    builder.addVariable("temp", DataType.FLOAT, "obs").addAttribute(new Attribute(CDM.UNITS, "K"))
+        .addAttribute(new Attribute(CF.COORDINATES, "time lat lon"));
+
+    double[] time = new double[nobs];
+    float[] lat = new float[nobs];
+    float[] lon = new float[nobs];
+    float[] temp = new float[nobs];
+    for (int i = 0; i < nobs; i++) {
+      time[i] = day * 86400.0 + i * (86400.0 / nobs);
+      lat[i] = 25.0f + 25.0f * random.nextFloat();
+      lon[i] = -125.0f + 60.0f * random.nextFloat();
+      temp[i] = 250.0f + 50.0f * random.nextFloat();
+    }
+
+    int[] shape = {nobs};
+    try (NetcdfFormatWriter writer = builder.build()) {
+      writer.write("time", Array.factory(DataType.DOUBLE, shape, time));
+      writer.write("lat", Array.factory(DataType.FLOAT, shape, lat));
+      writer.write("lon", Array.factory(DataType.FLOAT, shape, lon));
+      writer.write("temp", Array.factory(DataType.FLOAT, shape, temp));
+    } catch (Exception e) {
+      throw new IOException("Failed to write " + file, e);
+    }
+  }
+
+  // orthogonal multidimensional time series: temp(station, time), hourly
+  private void writeStations(File file, int day) throws IOException {
+    int nt = 24;
+    int strlen = 8;
+    NetcdfFormatWriter.Builder builder = create(file);
+    builder.addAttribute(new Attribute(CF.FEATURE_TYPE, CF.FeatureType.timeSeries.name()));
+    builder.addDimension("station", nstations);
+    builder.addDimension("time", nt);
+    builder.addDimension("name_strlen", strlen);
+    builder.addVariable("station_name", DataType.CHAR, "station name_strlen")
+        .addAttribute(new Attribute(CF.CF_ROLE, CF.TIMESERIES_ID));
+    builder.addVariable("lat", DataType.FLOAT, "station").addAttribute(new Attribute(CDM.UNITS, CDM.LAT_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "latitude"));
+    builder.addVariable("lon", DataType.FLOAT, "station").addAttribute(new Attribute(CDM.UNITS, CDM.LON_UNITS))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "longitude"));
+    builder.addVariable("time", DataType.DOUBLE, "time")
+        .addAttribute(new Attribute(CDM.UNITS, "hours since " + REFTIME))
+        .addAttribute(new Attribute(CF.STANDARD_NAME, "time"));
+    builder.addVariable("temp", DataType.FLOAT, "station time").addAttribute(new Attribute(CDM.UNITS, "K"))
+        .addAttribute(new Attribute(CF.COORDINATES, "time lat lon"));
+
+    // station positions must be the same in every file
+    Random stnRandom = new Random(SEED);
+    char[] names = new char[nstations * strlen];
+    float[] lat = new float[nstations];
+    float[] lon = new float[nstations];
+    for (int s = 0; s < nstations; s++) {
+      String name = stationName(s);
+      name.getChars(0, name.length(), names, s * strlen);
+      lat[s] = 25.0f + 25.0f * stnRandom.nextFloat();
+      lon[s] = -125.0f + 60.0f * stnRandom.nextFloat();
+    }
+    double[] time = new double[nt];
+    for (int t = 0; t < nt; t++)
+      time[t] = day * 24 + t;
+    float[] temp = new float[nstations * nt];
+    for (int i = 0; i < temp.length; i++)
+      temp[i] = 250.0f + 50.0f * random.nextFloat();
+
+    try (NetcdfFormatWriter writer = builder.build()) {
+      writer.write("station_name", Array.factory(DataType.CHAR, new int[] {nstations, strlen}, names));
+      writer.write("lat", Array.factory(DataType.FLOAT, new int[] {nstations}, lat));
+      writer.write("lon", Array.factory(DataType.FLOAT, new int[] {nstations}, lon));
+      writer.write("time", Array.factory(DataType.DOUBLE, new int[] {nt}, time));
+      writer.write("temp", Array.factory(DataType.FLOAT, new int[] {nstations, nt}, temp));
+    } catch (Exception e) {
+      throw new IOException("Failed to write " + file, e);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////
+  // configuration and catalogs
+
+  private static final String CATALOG_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<catalog name=\"%s\" xmlns=\"http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0\"\n"
+      + "         xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n";
+
+  private static final String SERVICES = "  <service name=\"all\" base=\"\" serviceType=\"compound\">\n"
+      + "    <service name=\"odap\" serviceType=\"OpenDAP\" base=\"/thredds/dodsC/\"/>\n"
+      + "    <service name=\"http\" serviceType=\"HTTPServer\" base=\"/thredds/fileServer/\"/>\n"
+      + "    <service name=\"wms\" serviceType=\"WMS\" base=\"/thredds/wms/\"/>\n"
+      + "    <service name=\"ncssGrid\" serviceType=\"NetcdfSubset\" base=\"/thredds/ncss/grid/\"/>\n"
+      + "    <service name=\"ncssPoint\" serviceType=\"NetcdfSubset\" base=\"/thredds/ncss/point/\"/>\n"
+      + "  </service>\n";
+
+  private void writeThreddsConfig(File file) throws IOException {
+    try (PrintWriter pw = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      pw.println("<threddsConfig>");
+      pw.println("  <serverInformation>");
+      pw.println("    <name>TDS load test</name>");
+      pw.println("  </serverInformation>");
+      pw.println("  <NetcdfSubsetService>");
+      pw.println("    <allow>true</allow>");
+      pw.println("  </NetcdfSubsetService>");
+      pw.println("  <WMS>");
+      pw.println("    <allow>true</allow>");
+      pw.println("  </WMS>");
+      pw.println("</threddsConfig>");
+    }
+  }
+
+  private void writeRootCatalog(File file) throws IOException {
+    String data = dataDir.getAbsolutePath().replace('\\', '/');
+    try (PrintWriter pw = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      pw.printf(CATALOG_HEADER, "TDS load test");
+      pw.print(SERVICES);
+      pw.printf("  <datasetRoot path=\"%s\" location=\"%s/\"/>%n", ROOT_PATH, data);
+      pw.println();
+
+      pw.println("  <dataset name=\"Synthetic grids\" ID=\"loadGrids\">");
+      pw.println("    <metadata inherited=\"true\">");
+      pw.println("      <serviceName>all</serviceName>");
+      pw.println("      <dataType>Grid</dataType>");
+      pw.println("    </metadata>");
+      for (int i = 0; i < ngrids; i++)
+        pw.printf("    <dataset name=\"%s\" ID=\"%s/grid/%s\" urlPath=\"%s/grid/%s\"/>%n", gridName(i), ROOT_PATH,
+            gridName(i), ROOT_PATH, gridName(i));
+      pw.println("  </dataset>");
+      pw.println();
+
+      pw.printf("  <featureCollection name=\"Synthetic Points\" featureType=\"Point\" path=\"%s/point\">%n", ROOT_PATH);
+      pw.println("    <metadata inherited=\"true\"><serviceName>all</serviceName></metadata>");
+      pw.printf("    <collection spec=\"%s/point/obs_#yyyyMMdd#\\.nc$\"/>%n", data);
+      pw.println("    <update startup=\"always\"/>");
+      pw.println("  </featureCollection>");
+      pw.println();
+
+      pw.printf("  <featureCollection name=\"Synthetic Stations\" featureType=\"Station\" path=\"%s/station\">%n",
+          ROOT_PATH);
+      pw.println("    <metadata inherited=\"true\"><serviceName>all</serviceName></metadata>");
+      pw.printf("    <collection spec=\"%s/station/stn_#yyyyMMdd#\\.nc$\"/>%n", data);
+      pw.println("    <update startup=\"always\"/>");
+      pw.println("  </featureCollection>");
+      pw.println();
+
+      pw.printf("  <featureCollection name=\"Synthetic Runs\" featureType=\"FMRC\" path=\"%s/fmrc\">%n", ROOT_PATH);
+      pw.println("    <metadata inherited=\"true\"><serviceName>all</serviceName><dataType>Grid</dataType></metadata>");
+      pw.printf("    <collection spec=\"%s/partitioned/**/run_#yyyyMMdd_HH#\\.nc$\"/>%n", data);
+      pw.println("    <update startup=\"always\"/>");
+      pw.println("  </featureCollection>");
+      pw.println();
+
+      pw.println("  <catalogRef xlink:title=\"Deep catalog tree\" xlink:href=\"deep/catalog.xml\" name=\"\"/>");
+      pw.println("</catalog>");
+    }
+  }
+
+  // each level has fanout catalogRefs; the leaves list datasets pointing at the grids
+  private void writeCatalogTree(File dir, String name, int level) throws IOException {
+    Files.createDirectories(dir.toPath());
+    try (PrintWriter pw = new PrintWriter(new File(dir, "catalog.xml"), StandardCharsets.UTF_8.name())) {
+      pw.printf(CATALOG_HEADER, name);
+      pw.print(SERVICES);
+      if (level < depth) {
+        for (int i = 0; i < fanout; i++)
+          pw.printf("  <catalogRef xlink:title=\"%s\" xlink:href=\"n%d/catalog.xml\" name=\"\"/>%n", name + "/n" + i,
+              i);
+      } else {
+        pw.printf("  <dataset name=\"%s\" ID=\"%s\">%n", name, name);
+        pw.println("    <metadata inherited=\"true\"><serviceName>all</serviceName><dataType>Grid</dataType></metadata>");
+        for (int i = 0; i < leafDatasets; i++) {
+          String urlPath = ROOT_PATH + "/grid/" + gridName(i % ngrids);
+          pw.printf("    <dataset name=\"dataset %d\" ID=\"%s/ds%d\" urlPath=\"%s\"/>%n", i, name, i, urlPath);
+        }
+        pw.println("  </dataset>");
+      }
+      pw.println("</catalog>");
+    }
+    if (level < depth) {
+      for (int i = 0; i < fanout; i++)
+        writeCatalogTree(new File(dir, "n" + i), name + "/n" + i, level + 1);
+    }
+  }
+}
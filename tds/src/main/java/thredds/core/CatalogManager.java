@@ -17,6 +17,7 @@ import thredds.server.catalog.CatalogScan;
 import thredds.server.catalog.ConfigCatalog;
 import thredds.server.catalog.ConfigCatalogCache;
 import thredds.server.catalog.DatasetScan;
+import thredds.server.catalog.tracker.DatasetIdTracker;
 import thredds.server.config.TdsContext;
 import java.io.IOException;
 import java.net.URI;
@@ -50,6 +51,9 @@ public class CatalogManager {
   @Autowired
   private AllowedServices globalServices;
 
+  private int datasetScanBatchSize; // if > 0, DatasetScan directory catalogs are streamed in batches of this size
+  private volatile DatasetIdTracker datasetIdTracker; // replaced on reread, null if not used
+
   ///////////////////////////////////////////////////////////
 
   /**
@@ -94,6 +98,98 @@ public class CatalogManager {
     return catBuilder.makeCatalog();
   }
 
+  public void setDatasetIdTracker(DatasetIdTracker datasetIdTracker) {
+    this.datasetIdTracker = datasetIdTracker;
+  }
+
+  /**
+   * Get a catalog with just one dataset of a config catalog, found with the DatasetIdTracker, without making the
+   * whole catalog. The dataset has the metadata it inherits, and the catalog has the services it needs.
+   *
+   * @param path the path for the requested catalog.
+   * @param baseURI the base URI for the catalog, used to resolve relative URLs.
+   * @param datasetId the ID of the dataset
+   * @return the catalog, or null if the dataset is not tracked in this catalog, or the catalog is dynamic.
+   */
+  public Catalog getCatalogForDataset(String path, URI baseURI, String datasetId) throws IOException {
+    DatasetIdTracker tracker = this.datasetIdTracker;
+    if (path == null || tracker == null)
+      return null;
+
+    String workPath = path;
+    if (workPath.startsWith("/"))
+      workPath = workPath.substring(1);
+
+    DatasetIdTracker.Entry entry = tracker.get(datasetId);
+    if (entry == null || !entry.catRelLocation.equals(workPath))
+      return null;
+
+    // dynamic catalogs come first, see getCatalog()
+    int pos = workPath.lastIndexOf("/");
+    String dirPath = (pos >= 0) ? workPath.substring(0, pos) : workPath;
+    DataRootManager.DataRootMatch match = dataRootManager.findDataRootMatch(dirPath);
+    if (match != null && (match.dataRoot.getFeatureCollection() != null || match.dataRoot.getDatasetScan() != null
+        || match.dataRoot.getCatalogScan() != null))
+      return null;
+
+    ConfigCatalog configCatalog = ccc.get(workPath);
+    if (configCatalog == null)
+      return null;
+    Dataset ds = entry.findDataset(configCatalog, datasetId);
+    if (ds == null)
+      return null;
+
+    CatalogBuilder catBuilder = configCatalog.makeCatalogBuilder(ds, tdsContext.getContextPath());
+    addGlobalServices(catBuilder);
+    return catBuilder.makeCatalog();
+  }
+
+  public void setDatasetScanBatchSize(int datasetScanBatchSize) {
+    this.datasetScanBatchSize = datasetScanBatchSize;
+  }
+
+  public boolean isDatasetScanStreaming() {
+    return datasetScanBatchSize > 0;
+  }
+
+  /**
+   * If the path is for the catalog of a DatasetScan directory, hand the catalog to the handler a batch of datasets at
+   * a time, see DatasetScan.makeCatalogForDirectory(String, URI, int, String, CatalogHandler).
+   * Global services are added to the first catalog.
+   *
+   * @param path the catalog path
+   * @param baseURI the base URI of the catalog
+   * @param marker name of the marker datasets
+   * @param handler receives the catalogs
+   * @return false if streaming is not enabled or the path is not a DatasetScan directory, and nothing was handed to
+   *         the handler
+   */
+  public boolean makeDatasetScanCatalog(String path, URI baseURI, String marker, DatasetScan.CatalogHandler handler)
+      throws IOException {
+    if (datasetScanBatchSize <= 0 || path.endsWith("/latest.xml"))
+      return false;
+    String workPath = path.startsWith("/") ? path.substring(1) : path;
+
+    // strip off the filename
+    int pos = workPath.lastIndexOf("/");
+    String dirPath = (pos >= 0) ? workPath.substring(0, pos) : workPath;
+
+    DataRootManager.DataRootMatch match = dataRootManager.findDataRootMatch(dirPath);
+    if (match == null || match.dataRoot.getFeatureCollection() != null)
+      return false;
+    DatasetScan dscan = match.dataRoot.getDatasetScan();
+    if (dscan == null)
+      return false;
+
+    boolean[] first = {true};
+    return dscan.makeCatalogForDirectory(dirPath, baseURI, datasetScanBatchSize, marker, catBuilder -> {
+      if (first[0])
+        addGlobalServices(catBuilder);
+      first[0] = false;
+      handler.handle(catBuilder);
+    });
+  }
+
   // barfola on the return type
   private Object makeDynamicCatalog(String path, URI baseURI) throws IOException {
     boolean isLatest = path.endsWith("/latest.xml");
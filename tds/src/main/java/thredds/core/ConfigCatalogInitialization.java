@@ -11,13 +11,18 @@ import org.springframework.util.StringUtils;
 import thredds.client.catalog.Access;
 import thredds.client.catalog.CatalogRef;
 import thredds.client.catalog.Dataset;
+import thredds.featurecollection.CollectionUpdater;
 import thredds.featurecollection.FeatureCollectionCache;
 import thredds.server.admin.DebugCommands;
 import thredds.server.catalog.*;
 import thredds.server.catalog.builder.ConfigCatalogBuilder;
+import thredds.server.catalog.builder.ConfigCatalogStreamReader;
 import thredds.server.catalog.tracker.*;
 import thredds.server.config.TdsContext;
 import thredds.server.config.ThreddsConfig;
+import thredds.server.metadata.ExtractedMetadataCache;
+import thredds.server.opendap.Dap2ResponseCache;
+import thredds.server.search.DatasetSearchIndex;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.util.Counters;
 import ucar.util.prefs.PreferencesExt;
@@ -64,6 +69,18 @@ public class ConfigCatalogInitialization {
   @Autowired
   private FeatureCollectionCache fcCache;
 
+  @Autowired
+  private CollectionUpdater collectionUpdater;
+
+  @Autowired
+  private CatalogManager catalogManager;
+
+  @Autowired
+  private DatasetSearchIndex searchIndex;
+
+  @Autowired
+  private ExtractedMetadataCache metadataCache;
+
   ///////////////////////////////////////////////////////
   public enum ReadMode {
     always, check, triggerOnly;
@@ -87,11 +104,18 @@ public class ConfigCatalogInitialization {
   private String trackerDir; // the tracker "databases" are kept in this directory
   private long maxDatasets; // chronicle limit
   private String averageValueSize;
+  private String datasetTrackerType; // chronicle or mapped
+  private int materializeThreads; // convert the tracked dataRoots before publishing them, if > 0
+  private long streamingSize; // read catalogs at least this big with ConfigCatalogStreamReader, if > 0
+  private int streamingBatchSize = 10 * 1000; // elements
+  private boolean trackDatasetIds; // keep an index of dataset ids, for catalog requests with a dataset parameter
+  private boolean useSearchIndex; // keep the search index of the datasets up to date
 
   // on reread, construct new objects, so cant be spring beans
   private DataRootPathMatcher dataRootPathMatcher;
   private DataRootTracker dataRootTracker;
   private DatasetTracker datasetTracker;
+  private DatasetIdTracker datasetIdTracker; // null if not trackDatasetIds
 
   // temporary, discard after init
   private CatalogTracker catalogTracker;
@@ -115,6 +139,27 @@ public class ConfigCatalogInitialization {
     this.averageValueSize = averageValueSize;
   }
 
+  public void setDatasetTrackerType(String datasetTrackerType) {
+    this.datasetTrackerType = datasetTrackerType;
+  }
+
+  public void setMaterializeThreads(int materializeThreads) {
+    this.materializeThreads = materializeThreads;
+  }
+
+  public void setStreaming(long streamingSize, int streamingBatchSize) {
+    this.streamingSize = streamingSize;
+    this.streamingBatchSize = streamingBatchSize;
+  }
+
+  public void setTrackDatasetIds(boolean trackDatasetIds) {
+    this.trackDatasetIds = trackDatasetIds;
+  }
+
+  public void setSearchIndex(boolean useSearchIndex) {
+    this.useSearchIndex = useSearchIndex;
+  }
+
   // called from TdsInit on spring-managed auto-wired bean
   public synchronized void init(ReadMode readMode, PreferencesExt prefs) {
     if (readMode == null)
@@ -146,7 +191,9 @@ public class ConfigCatalogInitialization {
     if (!isStartup && readMode == ReadMode.always)
       trackerNumber++; // must write a new database if TDS is already running and rereading all
     if (!isDebugMode || this.datasetTracker == null)
-      this.datasetTracker = new DatasetTrackerChronicle(trackerDir, maxDatasets, trackerNumber, averageValueSize);
+      this.datasetTracker = "mapped".equalsIgnoreCase(datasetTrackerType)
+          ? new DatasetTrackerMapped(trackerDir, trackerNumber)
+          : new DatasetTrackerChronicle(trackerDir, maxDatasets, trackerNumber, averageValueSize);
 
     boolean databaseAlreadyExists = datasetTracker.exists(); // detect if tracker database exists
     if (!databaseAlreadyExists) {
@@ -157,6 +204,9 @@ public class ConfigCatalogInitialization {
 
     if (this.callback == null)
       this.callback = new StatCallback(readMode);
+    this.datasetIdTracker = trackDatasetIds ? new DatasetIdTracker(trackerDir, readMode == ReadMode.always) : null;
+    if (useSearchIndex && searchIndex != null)
+      searchIndex.open(trackerDir, readMode == ReadMode.always);
 
     // going to reread global services
     allowedServices.clearGlobalServices();
@@ -213,20 +263,46 @@ public class ConfigCatalogInitialization {
       datasetTracker.save();
       catalogTracker.save();
       dataRootTracker.save();
+      if (datasetIdTracker != null)
+        datasetIdTracker.save();
+      if (searchIndex != null)
+        searchIndex.save();
     } catch (IOException e) {
       // e.printStackTrace();
       logCatalogInit.error("datasetTracker.save() failed", e);
     }
 
+    // read the catalogs of the dataRoots that were only tracked, before any request needs them
+    dataRootPathMatcher.materializeDataRoots(materializeThreads);
+
     // heres where we may be doing a switcheroo in a running TDS
     if (dataRootManager != null)
       dataRootManager.setDataRootPathMatcher(dataRootPathMatcher);
     if (datasetManager != null)
       datasetManager.setDatasetTracker(datasetTracker);
+    if (catalogManager != null)
+      catalogManager.setDatasetIdTracker(datasetIdTracker);
+
+    // cached DAP2 responses may have been made with NcML from the old catalogs, which is not part of their key
+    if (!isStartup)
+      Dap2ResponseCache.clear();
+
+    // stop watching the directories of feature collections that were removed
+    if (!isStartup && collectionUpdater != null && dataRootManager != null)
+      collectionUpdater.retainWatched(dataRootManager.getFeatureCollectionNames());
+
+    // optionally open the feature collections in the background, now that the data roots are live
+    if (fcCache != null && dataRootManager != null)
+      fcCache.warmUp(dataRootManager::getFeatureCollections);
+
+    // optionally extract the metadata of the datasetScan files in the background
+    if (metadataCache != null && dataRootManager != null)
+      metadataCache.crawl(dataRootManager::getDatasetScans);
 
     // cleanup old version of the database
     if (!isStartup && readMode == ReadMode.always) {
       DatasetTrackerChronicle.cleanupBefore(trackerDir, trackerNumber);
+      DatasetTrackerMapped.cleanupBefore(trackerDir, trackerNumber);
     }
 
     long took = System.currentTimeMillis() - readNow;
@@ -289,6 +365,10 @@ public class ConfigCatalogInitialization {
     File catalogFile = new File(this.contentRootPath, catalogRelPath);
     if (!catalogFile.exists()) {
       catalogTracker.removeCatalog(catalogRelPath);
+      if (datasetIdTracker != null)
+        datasetIdTracker.removeCatalog(catalogRelPath);
+      if (searchIndex != null)
+        searchIndex.removeCatalog(catalogRelPath);
       logCatalogInit.error(ERROR + "initCatalog(): Catalog [" + catalogRelPath + "] does not exist.");
       return;
     }
@@ -311,6 +391,12 @@ public class ConfigCatalogInitialization {
 
     // if (logCatalogInit.isDebugEnabled()) logCatalogInit.debug("initCatalog {} -> {}", path, f.getAbsolutePath());
 
+    // very large catalogs are read a batch of datasets at a time
+    if (!isRoot && streamingSize > 0 && catalogFile.length() >= streamingSize) {
+      readCatalogStreaming(readMode, catalogRelPath, catalogFile, idSet);
+      return;
+    }
+
     // read it
     ConfigCatalog cat = readCatalog(catalogRelPath, catalogFile.getPath());
     if (cat == null) {
@@ -327,6 +413,74 @@ public class ConfigCatalogInitialization {
         return; // thats all we need
     }
 
+    if (datasetIdTracker != null)
+      datasetIdTracker.removeCatalog(catalogRelPath); // its ids are added again
+    if (searchIndex != null)
+      searchIndex.removeCatalog(catalogRelPath);
+    processCatalog(readMode, catalogRelPath, catalogFile, cat);
+
+    // look for dataRoots in datasetScans and featureCollections
+    dataRootPathMatcher.extractDataRoots(catalogRelPath, cat.getDatasetsLocal(), readMode == ReadMode.always,
+        fcNameMap);
+
+    // get the directory path, relative to the rootDir
+    String dirPath = getDirPath(catalogRelPath);
+    processDatasets(catId, readMode, catalogRelPath, dirPath, cat.getDatasetsLocal(), new int[0], idSet); // recurse
+
+    processCatalogScans(readMode, dirPath, catalogFile, cat.getCatalogScans());
+  }
+
+  // same as checkCatalogToRead, but the datasets of the catalog are never all in memory
+  private void readCatalogStreaming(ReadMode readMode, String catalogRelPath, File catalogFile, Set<String> idSet)
+      throws IOException {
+    URI uri;
+    try {
+      uri = new URI(this.contextPath + "/catalog/" + catalogRelPath);
+    } catch (URISyntaxException e) {
+      logCatalogInit.error(ERROR + "readCatalog(): URISyntaxException=" + e.getMessage());
+      return;
+    }
+    String dirPath = getDirPath(catalogRelPath);
+    List<CatalogScan> catScans = new ArrayList<>();
+
+    logCatalogInit.info("-------readCatalogStreaming(): path=" + catalogRelPath);
+    ConfigCatalogStreamReader reader = new ConfigCatalogStreamReader(this.contextPath, streamingBatchSize);
+    try {
+      reader.read(catalogFile.getPath(), uri, new ConfigCatalogStreamReader.Handler() {
+        long catId;
+
+        @Override
+        public void catalog(ConfigCatalog header) throws IOException {
+          catId = catalogTracker.put(new CatalogExt(0, catalogRelPath, false, readNow));
+          if (datasetIdTracker != null)
+            datasetIdTracker.removeCatalog(catalogRelPath);
+          if (searchIndex != null)
+            searchIndex.removeCatalog(catalogRelPath);
+          processCatalog(readMode, catalogRelPath, catalogFile, header);
+        }
+
+        @Override
+        public void datasets(List<Dataset> datasets, boolean topLevel) throws IOException {
+          dataRootPathMatcher.extractDataRoots(catalogRelPath, datasets, readMode == ReadMode.always, fcNameMap);
+          processDatasets(catId, readMode, catalogRelPath, dirPath, datasets, null, idSet); // position not known
+          if (topLevel) {
+            for (Dataset ds : datasets)
+              if (ds instanceof CatalogScan)
+                catScans.add((CatalogScan) ds);
+          }
+        }
+      });
+
+    } catch (Throwable t) {
+      logCatalogInit.error(ERROR + "  Exception on catalog=" + catalogFile.getPath() + " " + t.getMessage(), t);
+      return;
+    }
+
+    processCatalogScans(readMode, dirPath, catalogFile, catScans);
+  }
+
+  // catalog level: datasetRoots and services
+  private void processCatalog(ReadMode readMode, String catalogRelPath, File catalogFile, ConfigCatalog cat) {
     if (callback != null)
       callback.hasCatalogRef(cat);
 
@@ -344,18 +498,18 @@ public class ConfigCatalogInitialization {
                 + " in catalog: " + catalogFile.getPath() + " are disallowed in threddsConfig file");
       }
     }
+  }
 
-    // look for dataRoots in datasetScans and featureCollections
-    dataRootPathMatcher.extractDataRoots(catalogRelPath, cat.getDatasetsLocal(), readMode == ReadMode.always,
-        fcNameMap);
-
-    // get the directory path, relative to the rootDir
+  // the directory path, relative to the rootDir
+  private static String getDirPath(String catalogRelPath) {
     int pos = catalogRelPath.lastIndexOf("/");
-    String dirPath = (pos > 0) ? catalogRelPath.substring(0, pos + 1) : "";
-    processDatasets(catId, readMode, dirPath, cat.getDatasetsLocal(), idSet); // recurse
+    return (pos > 0) ? catalogRelPath.substring(0, pos + 1) : "";
+  }
 
-    // look for catalogScans
-    for (CatalogScan catScan : cat.getCatalogScans()) {
+  // look for catalogScans
+  private void processCatalogScans(ReadMode readMode, String dirPath, File catalogFile, List<CatalogScan> catScans)
+      throws IOException {
+    for (CatalogScan catScan : catScans) {
       if (exceedLimit)
         return;
       Path relLocation = Paths.get(dirPath, catScan.getLocation());
@@ -386,7 +540,12 @@ public class ConfigCatalogInitialization {
     try {
       // read the catalog
       logCatalogInit.info("-------readCatalog(): path=" + catalogRelPath);
-      ConfigCatalog cat = (ConfigCatalog) builder.buildFromLocation(catalogFullPath, uri);
+      ConfigCatalogSnapshots snapshots = (ccc == null) ? null : ccc.getSnapshots();
+      ConfigCatalog cat;
+      if (snapshots != null)
+        cat = (ConfigCatalog) builder.buildFromJdom(snapshots.read(catalogFullPath), uri);
+      else
+        cat = (ConfigCatalog) builder.buildFromLocation(catalogFullPath, uri);
       if (builder.hasFatalError()) {
         logCatalogInit.error(ERROR + "   invalid catalog -- " + builder.getErrorMessage());
         return null;
@@ -405,12 +564,19 @@ public class ConfigCatalogInitialization {
   }
 
   // dirPath = the directory path, relative to the rootDir
-  private void processDatasets(long catId, ReadMode readMode, String dirPath, List<Dataset> datasets, Set<String> idMap)
-      throws IOException {
+  // position = the position of the parent of the datasets in the catalog, or null if not known
+  private void processDatasets(long catId, ReadMode readMode, String catalogRelPath, String dirPath,
+      List<Dataset> datasets, int[] position, Set<String> idMap) throws IOException {
     if (exceedLimit)
       return;
 
-    for (Dataset ds : datasets) {
+    for (int i = 0; i < datasets.size(); i++) {
+      Dataset ds = datasets.get(i);
+      int[] dsPosition = null;
+      if (position != null) {
+        dsPosition = Arrays.copyOf(position, position.length + 1);
+        dsPosition[position.length] = i;
+      }
       if (datasetTracker.trackDataset(catId, ds, callback))
         countDatasets++;
       if (maxDatasetsProcess > 0 && countDatasets > maxDatasetsProcess)
@@ -423,6 +589,11 @@ public class ConfigCatalogInitialization {
           logCatalogInit.error(ERROR + "Duplicate id on  '" + ds.getName() + "' id= '" + id + "'");
         } else {
           idMap.add(id);
+          if (datasetIdTracker != null && !datasetIdTracker.put(catalogRelPath, id, dsPosition))
+            logCatalogInit.warn("Duplicate id '{}' in catalog {}, already in catalog {}", id, catalogRelPath,
+                datasetIdTracker.get(id).catRelLocation);
+          if (searchIndex != null)
+            searchIndex.add(catalogRelPath, ds);
         }
       }
 
@@ -465,7 +636,7 @@ public class ConfigCatalogInitialization {
 
       } else {
         // recurse through nested datasets
-        processDatasets(catId, readMode, dirPath, ds.getDatasetsLocal(), idMap);
+        processDatasets(catId, readMode, catalogRelPath, dirPath, ds.getDatasetsLocal(), dsPosition, idMap);
       }
     }
   }
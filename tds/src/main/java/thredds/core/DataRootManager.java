@@ -50,7 +50,7 @@ public class DataRootManager implements InitializingBean {
   private TdsContext tdsContext;
 
   // injected by catalogInitializer, when catalogs are reread, so cant be spring managed
-  private DataRootPathMatcher dataRootPathMatcher;
+  private volatile DataRootPathMatcher dataRootPathMatcher; // swapped on reread, read without locking
 
   @Autowired
   private DebugCommands debugCommands;
@@ -135,13 +135,14 @@ public class DataRootManager implements InitializingBean {
     return match;
   }
 
-  private synchronized DataRoot findDataRoot(String spath) {
+  // not synchronized: the matcher is not changed once it is published, and it reads a catalog for a dataRoot
+  // while holding a lock for just that catalog
+  private DataRoot findDataRoot(String spath) {
     if (spath == null)
       return null;
     if (spath.startsWith("/"))
       spath = spath.substring(1);
 
-    // LOOK could it be safe to swap dataRootPathMatcher without synchronizing?
     return dataRootPathMatcher.findDataRoot(spath);
   }
 
@@ -192,6 +193,33 @@ public class DataRootManager implements InitializingBean {
     return result;
   }
 
+  /** The names of the feature collections, without making their data roots */
+  public synchronized Set<String> getFeatureCollectionNames() {
+    Set<String> result = new HashSet<>();
+    for (Map.Entry<String, DataRootExt> entry : dataRootPathMatcher.getValues()) {
+      DataRootExt drootExt = entry.getValue();
+      if (drootExt.getType() == DataRoot.Type.featureCollection)
+        result.add(drootExt.getName());
+    }
+    return result;
+  }
+
+  public synchronized List<DatasetScan> getDatasetScans() {
+    List<DatasetScan> result = new ArrayList<>();
+    for (Map.Entry<String, DataRootExt> entry : dataRootPathMatcher.getValues()) {
+      DataRootExt drootExt = entry.getValue();
+      if (drootExt.getType() == DataRoot.Type.datasetScan) {
+        DataRoot dataRoot = dataRootPathMatcher.convert2DataRoot(drootExt);
+        if (dataRoot == null) {
+          logger.error("Cant find dataRoot {} in DataRootPathMatcher", drootExt);
+          continue;
+        }
+        result.add(dataRoot.getDatasetScan());
+      }
+    }
+    return result;
+  }
+
   public synchronized FeatureCollectionRef findFeatureCollection(String collectionName) {
     for (Map.Entry<String, DataRootExt> entry : dataRootPathMatcher.getValues()) {
       DataRootExt drootExt = entry.getValue();
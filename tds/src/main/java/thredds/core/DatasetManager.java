@@ -19,7 +19,9 @@ import thredds.server.admin.DebugCommands;
 import thredds.server.catalog.DatasetScan;
 import thredds.server.catalog.FeatureCollectionRef;
 import thredds.server.catalog.tracker.DatasetTracker;
+import thredds.server.ncss.exception.FeaturesNotFoundException;
 import thredds.servlet.DatasetSource;
+import thredds.servlet.RequestIoStats;
 import thredds.servlet.ServletUtil;
 import thredds.servlet.restrict.Authorizer;
 import thredds.util.TdsPathUtils;
@@ -39,14 +41,19 @@ import ucar.nc2.ft2.simpgeometry.SimpleGeometryFeatureDataset;
 import ucar.nc2.ft2.coverage.CoverageCollection;
 import ucar.nc2.internal.ncml.NcmlReader;
 import ucar.nc2.util.Optional;
+import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.util.cache.FileFactory;
+import ucar.unidata.geoloc.LatLonRect;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Provides an API to obtain the various Dataset objects, given the request Path.
@@ -120,6 +127,38 @@ public class DatasetManager implements InitializingBean {
     return ncml != null ? NcmlReader.getLocationFromNcml(ncml) : null;
   }
 
+  /**
+   * The last modified time of the one local file that a request path is read from, or -1 if it is not read from a
+   * single file: NcML in the catalog, in a DatasetScan or in a .ncml file (which may aggregate other files),
+   * feature collections, pluggable DatasetSources and object stores. For caches of responses, which are only valid
+   * while that file is unchanged.
+   */
+  public long getSingleFileLastModified(HttpServletRequest req, String reqPath) {
+    if (reqPath == null)
+      return -1;
+    if (reqPath.startsWith("/"))
+      reqPath = reqPath.substring(1);
+    if (datasetTracker.findNcml(reqPath) != null)
+      return -1;
+
+    DataRootMatch match = dataRootManager.findDataRootMatch(reqPath);
+    if (match == null || match.dataRoot.getFeatureCollection() != null || hasDatasetScanNcml(match))
+      return -1;
+    for (DatasetSource datasetSource : datasetSources) {
+      if (datasetSource.isMine(req))
+        return -1;
+    }
+
+    String location = dataRootManager.getLocationFromRequestPath(reqPath);
+    if (location == null || isLocationObjectStore(location))
+      return -1;
+    String lower = location.toLowerCase();
+    if (lower.endsWith(".ncml") || lower.endsWith(".xml"))
+      return -1;
+    long lastModified = new File(location).lastModified();
+    return lastModified > 0 ? lastModified : -1;
+  }
+
   public static boolean isLocationObjectStore(String location) {
     return location != null ? (location.startsWith("cdms3:") || location.startsWith("s3:")) : false;
   }
@@ -142,6 +181,38 @@ public class DatasetManager implements InitializingBean {
     }
   }
 
+  // opens the file the same way acquireFile(durl, cancelTask) does; only called on a cache miss,
+  // which is how the request I/O stats and the metrics tell hits from misses. One per acquire.
+  private static class CountingFileFactory implements FileFactory {
+    private final boolean useBuilders;
+    private boolean opened;
+
+    CountingFileFactory(boolean useBuilders) {
+      this.useBuilders = useBuilders;
+    }
+
+    public NetcdfFile open(DatasetUrl durl, int buffer_size, ucar.nc2.util.CancelTask cancelTask, Object spiObject)
+        throws IOException {
+      opened = true;
+      RequestIoStats.addCacheMiss();
+      return useBuilders ? NetcdfDatasets.openFile(durl, buffer_size, cancelTask, spiObject)
+          : NetcdfDataset.openFile(durl, buffer_size, cancelTask, spiObject);
+    }
+  }
+
+  private static final LongAdder ncCacheHits = new LongAdder();
+  private static final LongAdder ncCacheMisses = new LongAdder();
+
+  /** Datasets acquired from the NetcdfFile caches by openNetcdfFile that were already open. */
+  public static long getNetcdfFileCacheHits() {
+    return ncCacheHits.sum();
+  }
+
+  /** Datasets acquired from the NetcdfFile caches by openNetcdfFile that had to be opened. */
+  public static long getNetcdfFileCacheMisses() {
+    return ncCacheMisses.sum();
+  }
+
   // return null means request has been handled, and calling routine should exit without further processing
   public NetcdfFile openNetcdfFile(HttpServletRequest req, HttpServletResponse res, String reqPath) throws IOException {
     if (log.isDebugEnabled())
@@ -210,11 +281,16 @@ public class DatasetManager implements InitializingBean {
       }
 
       DatasetUrl durl = DatasetUrl.findDatasetUrl(location);
-      if (useNetcdfJavaBuilders || isLocationObjectStore(location)) {
-        ncfile = NetcdfDatasets.acquireFile(durl, null);
+      long start = System.nanoTime();
+      boolean useBuilders = useNetcdfJavaBuilders || isLocationObjectStore(location);
+      CountingFileFactory factory = new CountingFileFactory(useBuilders);
+      if (useBuilders) {
+        ncfile = NetcdfDatasets.acquireFile(factory, null, durl, -1, null, null);
       } else {
-        ncfile = NetcdfDataset.acquireFile(durl, null);
+        ncfile = NetcdfDataset.acquireFile(factory, null, durl, -1, null, null);
       }
+      (factory.opened ? ncCacheMisses : ncCacheHits).increment();
+      RequestIoStats.addOpen(System.nanoTime() - start, !factory.opened);
     }
 
     if (ncfile == null)
@@ -319,6 +395,19 @@ public class DatasetManager implements InitializingBean {
   // return null means request has been handled, and calling routine should exit without further processing
   public FeatureDatasetPoint openPointDataset(HttpServletRequest req, HttpServletResponse res, String reqPath)
       throws IOException {
+    try {
+      return openPointDataset(req, res, reqPath, null, null, null);
+    } catch (FeaturesNotFoundException e) { // only thrown for a subset
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // return null means request has been handled, and calling routine should exit without further processing
+  // feature collections may use the subset to open only the files that intersect it, and throw
+  // FeaturesNotFoundException if none do
+  public FeatureDatasetPoint openPointDataset(HttpServletRequest req, HttpServletResponse res, String reqPath,
+      LatLonRect wantBB, CalendarDateRange wantRange, List<String> wantStations)
+      throws IOException, FeaturesNotFoundException {
     // first look for a feature collection
     DataRootManager.DataRootMatch match = dataRootManager.findDataRootMatch(reqPath);
     if ((match != null) && (match.dataRoot.getFeatureCollection() != null)) {
@@ -331,7 +420,7 @@ public class DatasetManager implements InitializingBean {
         log.debug("  -- DatasetHandler found FeatureCollection= " + featCollection);
 
       InvDatasetFeatureCollection fc = featureCollectionCache.get(featCollection);
-      FeatureDatasetPoint fd = fc.getPointDataset(match.remaining);
+      FeatureDatasetPoint fd = fc.getPointDataset(match.remaining, wantBB, wantRange, wantStations);
       if (fd == null)
         throw new IllegalArgumentException("Not a Point Dataset " + fc.getName());
       return fd;
@@ -7,6 +7,7 @@ package thredds.core;
 
 import thredds.inventory.MFile;
 import thredds.inventory.MFiles;
+import thredds.server.ncss.exception.FeaturesNotFoundException;
 import thredds.servlet.ServletUtil;
 import thredds.util.TdsPathUtils;
 import ucar.nc2.NetcdfFile;
@@ -16,11 +17,14 @@ import ucar.nc2.dt.GridDataset;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft2.coverage.CoverageCollection;
 import ucar.nc2.ft2.simpgeometry.*;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonRect;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * This is the public interface to TDS objects for all services.
@@ -56,6 +60,18 @@ public class TdsRequestedDataset {
     return trd.openAsPointDataset(request, response);
   }
 
+  // return null means request has been handled, and calling routine should exit without further processing
+  // point feature collections may use the subset to open only the files that intersect it, and throw
+  // FeaturesNotFoundException if none do
+  public static FeatureDatasetPoint getPointDataset(HttpServletRequest request, HttpServletResponse response,
+      String path, LatLonRect wantBB, CalendarDateRange wantRange, List<String> wantStations)
+      throws IOException, FeaturesNotFoundException {
+    TdsRequestedDataset trd = new TdsRequestedDataset(request, null);
+    if (path != null)
+      trd.path = path;
+    return datasetManager.openPointDataset(request, response, trd.path, wantBB, wantRange, wantStations);
+  }
+
   // return null means request has been handled, and calling routine should exit without further processing
   public static GridDataset getGridDataset(HttpServletRequest request, HttpServletResponse response, String path)
       throws IOException {
@@ -96,6 +112,11 @@ public class TdsRequestedDataset {
     return (file == null) ? -1 : file.getLastModified();
   }
 
+  // -1 unless the dataset is read from a single local file, see DatasetManager.getSingleFileLastModified
+  public static long getSingleFileLastModified(HttpServletRequest request, String reqPath) {
+    return datasetManager.getSingleFileLastModified(request, reqPath);
+  }
+
   public static File getFile(String reqPath) {
     String location = getLocationFromRequestPath(reqPath);
     return (location == null) ? null : new File(location);
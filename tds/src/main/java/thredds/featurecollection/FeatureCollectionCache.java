@@ -12,10 +12,23 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import thredds.inventory.CollectionSpecParser;
 import thredds.server.catalog.FeatureCollectionRef;
+import ucar.nc2.grib.collection.GribCdmIndex;
+import ucar.nc2.time.CalendarDate;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 /**
  * Keep cache of InvDatasetFeatureCollection
@@ -23,6 +36,8 @@ import java.util.concurrent.ExecutionException;
  * On cache miss, call InvDatasetFeatureCollection.factory().
  * On cache remove, call InvDatasetFeatureCollection.close().
  * The cache is filled lazily, when that fc is requested.
+ * Optionally, warmUp() fills it in the background after the config catalogs are read,
+ * most recently updated collections first.
  *
  * @author caron
  * @since 4/2/2015
@@ -40,6 +55,11 @@ public class FeatureCollectionCache implements InitializingBean {
 
   private Cache<String, InvDatasetFeatureCollection> cache; // key is the collectionName
 
+  // optional warm up
+  private int warmUpThreads; // 0 means no warm up
+  private ExecutorService warmUpExecutor;
+  private final Map<String, WarmUpStatus> warmUpStatus = new ConcurrentSkipListMap<>(); // key is the collectionName
+
   public FeatureCollectionCache() {}
 
   public FeatureCollectionCache(int maxSize) {
@@ -79,6 +99,14 @@ public class FeatureCollectionCache implements InitializingBean {
     cache.invalidateAll();
   }
 
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
   public InvDatasetFeatureCollection get(final FeatureCollectionRef fcr) throws IOException {
     try {
       return cache.get(fcr.getCollectionName(), new Callable<InvDatasetFeatureCollection>() {
@@ -96,6 +124,125 @@ public class FeatureCollectionCache implements InitializingBean {
     }
   }
 
+  ////////////////////////////////////////////////////////////////////////////
+  // warm up
+
+  /**
+   * Set the number of background threads used by warmUp(). Set by TdsInit from threddsConfig.xml.
+   *
+   * @param nthreads number of threads; if <= 0, warmUp() does nothing
+   */
+  public void setWarmUpThreads(int nthreads) {
+    this.warmUpThreads = nthreads;
+  }
+
+  /**
+   * Open the feature collections in the background, so that the first request doesnt pay for
+   * InvDatasetFeatureCollection.factory(), opening the indexes and initializing the state.
+   * Called after the config catalogs are read; a warm up already in progress is cancelled.
+   *
+   * @param fcSupplier supplies the configured collections; called in a background thread
+   */
+  public synchronized void warmUp(Supplier<List<FeatureCollectionRef>> fcSupplier) {
+    if (warmUpExecutor != null)
+      warmUpExecutor.shutdownNow(); // a reread supersedes the previous warm up
+    warmUpStatus.clear();
+    if (warmUpThreads <= 0)
+      return;
+
+    ExecutorService executor = Executors.newFixedThreadPool(warmUpThreads);
+    warmUpExecutor = executor;
+    executor.submit(() -> {
+      List<FeatureCollectionRef> fcList = new ArrayList<>(fcSupplier.get());
+      fcList.sort(Comparator.comparingLong((FeatureCollectionRef fcr) -> lastUpdated(fcr.getConfig())).reversed());
+      logger.info("FeatureCollectionCache warm up of {} collections using {} threads", fcList.size(), warmUpThreads);
+
+      for (FeatureCollectionRef fcr : fcList) {
+        WarmUpStatus status = new WarmUpStatus(fcr.getCollectionName());
+        warmUpStatus.put(status.collectionName, status);
+        executor.submit(() -> warmUp(fcr, status));
+      }
+      executor.shutdown(); // already submitted tasks still run
+    });
+  }
+
+  private void warmUp(FeatureCollectionRef fcr, WarmUpStatus status) {
+    if (Thread.currentThread().isInterrupted())
+      return;
+    status.start = System.currentTimeMillis();
+    try {
+      InvDatasetFeatureCollection fc = get(fcr);
+      fc.checkState(); // does the initial updateCollection()
+    } catch (Throwable t) {
+      status.error = t.getMessage();
+      logger.warn("FeatureCollectionCache warm up failed on {}", fcr.getCollectionName(), t);
+    }
+    status.took = System.currentTimeMillis() - status.start;
+  }
+
+  // most recent change to the collection that we can find cheaply: the top index file for GRIB, else the root
+  // directory
+  private long lastUpdated(FeatureCollectionConfig config) {
+    if (config == null)
+      return 0;
+    try {
+      File file;
+      if (config.type == FeatureCollectionType.GRIB1 || config.type == FeatureCollectionType.GRIB2) {
+        file = GribCdmIndex.getTopIndexFileFromConfig(config);
+      } else {
+        CollectionSpecParser sp = config.getCollectionSpecParser(new Formatter());
+        file = new File(sp.getRootDir());
+      }
+      return (file == null) ? 0 : file.lastModified();
+    } catch (Throwable t) {
+      return 0;
+    }
+  }
+
+  public void showWarmUp(Formatter f) {
+    if (warmUpThreads <= 0) {
+      f.format("Feature collection warm up is not enabled%n");
+      return;
+    }
+    int done = 0;
+    for (WarmUpStatus status : warmUpStatus.values())
+      if (status.took >= 0)
+        done++;
+    f.format("Feature collection warm up: %d of %d collections done (%d threads)%n%n", done, warmUpStatus.size(),
+        warmUpThreads);
+    for (WarmUpStatus status : warmUpStatus.values())
+      status.show(f);
+  }
+
+  public synchronized void shutdown() {
+    if (warmUpExecutor != null)
+      warmUpExecutor.shutdownNow();
+  }
+
+  private static class WarmUpStatus {
+    final String collectionName;
+    volatile long start; // 0 = not started
+    volatile long took = -1; // msecs, -1 = not finished
+    volatile String error;
+
+    WarmUpStatus(String collectionName) {
+      this.collectionName = collectionName;
+    }
+
+    void show(Formatter f) {
+      if (start == 0)
+        f.format("  %-40s waiting%n", collectionName);
+      else if (took < 0)
+        f.format("  %-40s started %s%n", collectionName, CalendarDate.of(start));
+      else if (error != null)
+        f.format("  %-40s FAILED took %d msecs: %s%n", collectionName, took, error);
+      else
+        f.format("  %-40s took %d msecs%n", collectionName, took);
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+
   private InvDatasetFeatureCollection makeFeatureCollection(FeatureCollectionRef fcr) throws IOException {
     try {
       InvDatasetFeatureCollection result = InvDatasetFeatureCollection.factory(fcr, fcr.getConfig());
@@ -5,7 +5,10 @@
 
 package thredds.featurecollection;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import thredds.client.catalog.*;
+import thredds.client.catalog.builder.AccessBuilder;
 import thredds.client.catalog.builder.CatalogBuilder;
 import thredds.client.catalog.builder.CatalogRefBuilder;
 import thredds.client.catalog.builder.DatasetBuilder;
@@ -68,12 +71,14 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   static private final String TWOD_DATASET = GribCollectionImmutable.Type.TwoD.toString();
   static private final String PARTITION_DATASET = "TP";
   static private final String COLLECTION_DATASET = "GC";
+  static private final int CATALOG_CACHE_SIZE = 200;
 
   /////////////////////////////////////////////////////////////////////////////
   protected class StateGrib extends State {
     GribCollectionImmutable gribCollection; // top level
     GribCollectionImmutable latest;
     String latestPath;
+    Cache<String, Catalog> catalogCache; // catalogs built from this gribCollection; replaced on each update
 
     protected StateGrib(StateGrib from) {
       super(from);
@@ -81,6 +86,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
         this.gribCollection = from.gribCollection;
         this.latest = from.latest;
         this.latestPath = from.latestPath;
+        this.catalogCache = from.catalogCache;
       }
     }
 
@@ -132,6 +138,8 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
       else
         localState.gribCollection.showStatus(f);
     }
+    if (!summaryOnly && localState.catalogCache != null)
+      f.format("%nCatalog cache: size=%d %s%n", localState.catalogCache.size(), localState.catalogCache.stats());
   }
 
   @Override
@@ -142,6 +150,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
       GribCollectionImmutable previousLatest = localState.latest;
 
       localState.latest = null; // will get updated next time its asked for
+      localState.catalogCache = makeCatalogCache(); // catalogs from the previous collection are dropped with the old state
       localState.gribCollection = GribCdmIndex.openGribCollection(this.config, force, logger);
       if (localState.gribCollection == null)
         logger.error("InvDatasetFcGrib.updateCollection failed " + this.config);
@@ -416,18 +425,24 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
     if (localState.gribCollection == null)
       return null; // not ready yet maybe
 
+    String key = makeCatalogCacheKey(false, match, catURI);
+    Catalog cached = localState.catalogCache.getIfPresent(key);
+    if (cached != null)
+      return makeCatalogBuilder(cached);
+
+    CatalogBuilder result = null;
     try {
 
       // case 0
       if ((match == null) || (match.length() == 0)) {
-        return makeCatalogTop(catURI, localState); // top catalog : uses state.top previously made in checkState()
+        result = makeCatalogTop(catURI, localState); // top catalog : uses state.top previously made in checkState()
       }
 
       // case 1
-      if (localState.gribCollection instanceof PartitionCollectionImmutable) {
+      else if (localState.gribCollection instanceof PartitionCollectionImmutable) {
         String[] paths = match.split("/");
         PartitionCollectionImmutable pc = (PartitionCollectionImmutable) localState.gribCollection;
-        return makeCatalogFromPartition(pc, paths, 0, catURI);
+        result = makeCatalogFromPartition(pc, paths, 0, catURI);
       }
 
     } catch (Exception e) {
@@ -435,7 +450,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
       logger.error("Error making catalog for " + configPath, e);
     }
 
-    return null;
+    return cacheCatalog(localState, key, result);
   }
 
   private CatalogBuilder makeCatalogFromPartition(PartitionCollectionImmutable pc, String[] paths, int idx, URI catURI)
@@ -497,6 +512,11 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
     if (!(localState.gribCollection instanceof PartitionCollectionImmutable))
       return null;
 
+    String key = makeCatalogCacheKey(true, matchPath, catURI);
+    Catalog cached = localState.catalogCache.getIfPresent(key);
+    if (cached != null)
+      return makeCatalogBuilder(cached);
+
     PartitionCollectionImmutable pc = (PartitionCollectionImmutable) localState.gribCollection;
     if (localState.latest == null) {
       List<String> paths = new ArrayList<>();
@@ -520,7 +540,52 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
       // }
     }
 
-    return makeCatalogFromCollection(localState.latest, localState.latestPath, catURI);
+    return cacheCatalog(localState, key, makeCatalogFromCollection(localState.latest, localState.latestPath, catURI));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////////////
+  // Catalogs depend only on the gribCollection in the state, so they are cached per state.
+  // The cache holds the immutable Catalog; callers get a fresh CatalogBuilder since they may mutate it.
+
+  private Cache<String, Catalog> makeCatalogCache() {
+    return CacheBuilder.newBuilder().maximumSize(CATALOG_CACHE_SIZE).recordStats().build();
+  }
+
+  private String makeCatalogCacheKey(boolean isLatest, String match, URI catURI) {
+    return (isLatest ? "latest:" : "catalog:") + (match == null ? "" : match) + ":" + catURI;
+  }
+
+  private CatalogBuilder cacheCatalog(StateGrib localState, String key, CatalogBuilder builder) {
+    if (builder == null)
+      return null;
+    Catalog catalog = builder.makeCatalog();
+    localState.catalogCache.put(key, catalog);
+    return makeCatalogBuilder(catalog);
+  }
+
+  private CatalogBuilder makeCatalogBuilder(Catalog catalog) {
+    CatalogBuilder builder = new CatalogBuilder(catalog);
+    for (Dataset ds : catalog.getDatasetsLocal())
+      builder.addDataset(makeDatasetBuilder(null, ds));
+    return builder;
+  }
+
+  private DatasetBuilder makeDatasetBuilder(DatasetBuilder parent, Dataset ds) {
+    DatasetBuilder builder;
+    if (ds instanceof CatalogRef)
+      builder = new CatalogRefBuilder(parent, (CatalogRef) ds);
+    else
+      builder = new DatasetBuilder(parent, ds);
+
+    List<Access> accesses = (List<Access>) ds.getLocalFieldAsList(Dataset.Access);
+    for (Access access : accesses)
+      builder.addAccess(new AccessBuilder(builder, access));
+
+    if (!(ds instanceof CatalogRef)) {
+      for (Dataset nested : ds.getDatasetsLocal())
+        builder.addDataset(makeDatasetBuilder(builder, nested));
+    }
+    return builder;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -10,15 +10,20 @@ import thredds.client.catalog.builder.CatalogBuilder;
 import thredds.client.catalog.builder.CatalogRefBuilder;
 import thredds.client.catalog.builder.DatasetBuilder;
 import thredds.inventory.CollectionUpdateType;
+import thredds.inventory.MFile;
+import thredds.inventory.MFileCollectionManager;
 import thredds.client.catalog.tools.ThreddsMetadataAcdd;
 import thredds.server.catalog.FeatureCollectionRef;
 import thredds.server.catalog.writer.ThreddsMetadataExtractor;
+import thredds.server.ncss.exception.FeaturesNotFoundException;
 import ucar.nc2.Attribute;
 import ucar.nc2.constants.FeatureType;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.point.PointDatasetImpl;
 import ucar.nc2.ft.point.collection.CompositeDatasetFactory;
 import ucar.nc2.ft.point.collection.UpdateableCollection;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonRect;
 import ucar.unidata.util.StringUtil2;
 import java.io.IOException;
 import java.net.URI;
@@ -37,6 +42,8 @@ public class InvDatasetFcPoint extends InvDatasetFeatureCollection {
 
   private final FeatureDatasetPoint fd; // LOOK this stays open
   private final Set<FeatureCollectionConfig.PointDatasetType> wantDatasets;
+  private final PointFileSummaryIndex summaryIndex; // per-file bounds, to open only the files that intersect a subset;
+                                                    // null if not enabled
 
   InvDatasetFcPoint(FeatureCollectionRef parent, FeatureCollectionConfig config) {
     super(parent, config);
@@ -57,10 +64,14 @@ public class InvDatasetFcPoint extends InvDatasetFeatureCollection {
 
     state = new State(null);
     this.wantDatasets = config.pointConfig.datasets;
+    this.summaryIndex =
+        PointFileSummaryIndex.isEnabled() ? new PointFileSummaryIndex(name, fcType.getFeatureType()) : null;
   }
 
   @Override
   public void close() {
+    if (summaryIndex != null)
+      summaryIndex.close();
     if (fd != null) {
       try {
         fd.close();
@@ -76,6 +87,58 @@ public class InvDatasetFcPoint extends InvDatasetFeatureCollection {
     return fd;
   }
 
+  /**
+   * Get a Point Dataset containing only the files that may intersect the subset, using the file summary index.
+   * Files that have not been summarized are always included.
+   * If all files are needed, or the index is not enabled or not built yet, the full collection dataset is returned.
+   * The caller must close the returned dataset.
+   *
+   * @param matchPath match.remaining
+   * @param wantBB requested bounding box, or null for all
+   * @param wantRange requested time range, or null for all
+   * @param wantStations requested station names, or null for all
+   * @throws FeaturesNotFoundException if no file can intersect the subset
+   */
+  @Override
+  public FeatureDatasetPoint getPointDataset(String matchPath, LatLonRect wantBB, CalendarDateRange wantRange,
+      List<String> wantStations) throws IOException, FeaturesNotFoundException {
+    if (wantStations != null) { // stations are chosen by name, the bounding box is not used
+      wantBB = null;
+      wantStations = PointFileSummaryIndex.wantedStations(wantStations);
+    }
+    if (summaryIndex == null || (wantBB == null && wantRange == null && wantStations == null))
+      return fd;
+    checkState(); // make sure the index update has been started
+    if (!summaryIndex.isReady())
+      return fd;
+
+    List<MFile> want = new ArrayList<>();
+    int nfiles = 0;
+    for (MFile mfile : datasetCollection.getFilesSorted()) {
+      nfiles++;
+      if (summaryIndex.intersects(mfile, wantBB, wantRange, wantStations))
+        want.add(mfile);
+    }
+    if (want.isEmpty())
+      throw new FeaturesNotFoundException("No features are in the requested subset");
+    if (want.size() == nfiles)
+      return fd;
+
+    MFileCollectionManager subsetCollection = MFileCollectionManager.openWithRecheck(name, null);
+    subsetCollection.setFiles(want);
+    Formatter errlog = new Formatter();
+    FeatureDatasetPoint subsetFd = (FeatureDatasetPoint) CompositeDatasetFactory.factory(name,
+        fcType.getFeatureType(), subsetCollection, errlog);
+    if (subsetFd == null) {
+      logger.warn("{}: failed to open subset of {} files, err= {}", name, want.size(), errlog);
+      return fd;
+    }
+    if (fd.getBoundingBox() != null && subsetFd.getBoundingBox() == null)
+      ((PointDatasetImpl) subsetFd).setBoundingBox(fd.getBoundingBox());
+    logger.debug("{}: subset opens {} of {} files", name, want.size(), nfiles);
+    return subsetFd;
+  }
+
   @Override
   public void updateCollection(State localState, CollectionUpdateType force) {
     try {
@@ -83,6 +146,23 @@ public class InvDatasetFcPoint extends InvDatasetFeatureCollection {
     } catch (IOException e) {
       logger.error("update failed", e);
     }
+
+    if (summaryIndex != null) { // files are opened on the background thread, not under the collection lock
+      try {
+        List<MFile> files = new ArrayList<>();
+        for (MFile mfile : datasetCollection.getFilesSorted())
+          files.add(mfile);
+        summaryIndex.scheduleUpdate(files);
+      } catch (IOException e) {
+        logger.error("{}: point summary index update failed", name, e);
+      }
+    }
+  }
+
+  @Override
+  protected void _showStatus(Formatter f, boolean summaryOnly, String type) throws IOException {
+    if (!summaryOnly && summaryIndex != null)
+      summaryIndex.showStatus(f);
   }
 
   @Override
@@ -15,6 +15,8 @@ import thredds.core.DatasetManager;
 import thredds.core.StandardService;
 import thredds.inventory.*;
 import thredds.server.catalog.FeatureCollectionRef;
+import thredds.server.ncss.exception.FeaturesNotFoundException;
+import thredds.server.search.DatasetSearchIndex;
 import ucar.nc2.dataset.DatasetUrl;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.NetcdfDatasets;
@@ -24,6 +26,7 @@ import ucar.nc2.ft2.coverage.CoverageCollection;
 import ucar.nc2.ft2.simpgeometry.SimpleGeometryFeatureDataset;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.util.URLnaming;
+import ucar.unidata.geoloc.LatLonRect;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.*;
@@ -58,6 +61,7 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
   // can be changed
   protected static AllowedServices allowedServices;
   protected static String contextName = "/thredds"; // set by TdsInit
+  protected static DatasetSearchIndex searchIndex; // set by TdsInit
 
   // cant use spring wiring because InvDatasetFeatureCollection not a spring component because depends on catalog config
   public static void setContextName(String c) {
@@ -68,6 +72,10 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
     allowedServices = _allowedServices;
   }
 
+  public static void setSearchIndex(DatasetSearchIndex _searchIndex) {
+    searchIndex = _searchIndex;
+  }
+
   protected static String buildCatalogServiceHref(String path) {
     return contextName + "/catalog/" + path + "/catalog.xml";
   }
@@ -280,6 +288,7 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
         updateCollection(state, config.updateConfig.updateType);
         // makeDatasetTop(state);
         first = false;
+        updateSearchIndex(state);
       }
       localState = state.copy();
     }
@@ -315,7 +324,13 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
     synchronized (lock) {
       state = localState;
     }
+    updateSearchIndex(localState);
+  }
 
+  // the variables, coverage and date range of the collection may have changed
+  private void updateSearchIndex(State localState) {
+    if (searchIndex != null)
+      searchIndex.updateFeatureCollection(parent.getID(), localState.vars, localState.coverage, localState.dateRange);
   }
 
   /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -533,6 +548,23 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
     return null;
   }
 
+  /**
+   * Get the associated Point Dataset for a subset request. Subclasses may use the subset to open fewer files;
+   * the returned dataset must still be subset by the caller.
+   *
+   * @param matchPath match.remaining
+   * @param wantBB requested bounding box, or null for all
+   * @param wantRange requested time range, or null for all
+   * @param wantStations requested station names, or null for all
+   * @return Point Dataset, or null if n/a
+   * @throws IOException on error
+   * @throws FeaturesNotFoundException if the collection is known to have nothing in the subset
+   */
+  public FeatureDatasetPoint getPointDataset(String matchPath, LatLonRect wantBB, CalendarDateRange wantRange,
+      List<String> wantStations) throws IOException, FeaturesNotFoundException {
+    return getPointDataset(matchPath);
+  }
+
   /**
    * Get the associated Grid Dataset, if any. called by DatasetHandler.openGridDataset()
    *
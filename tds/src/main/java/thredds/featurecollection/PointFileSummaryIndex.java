@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.featurecollection;
+
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import thredds.inventory.MFile;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.ft.DsgFeatureCollection;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.nc2.ft.FeatureDatasetPoint;
+import ucar.nc2.ft.StationFeatureCollection;
+import ucar.nc2.ft.point.CollectionInfo;
+import ucar.nc2.ft.point.DsgCollectionHelper;
+import ucar.nc2.ft.point.StationFeature;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonRect;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-file summary of a point feature collection: time range, lat/lon bounding box and station ids for each
+ * component file. Used to open only the files that can intersect a subset request.
+ * Off unless enabled in threddsConfig.xml. Built on a background thread, and updated incrementally: files whose
+ * lastModified is unchanged are not reopened. Until the first build is done, subsets use all files.
+ * Persisted in the feature collection cache directory, if one has been set.
+ *
+ * @since 5.0
+ */
+@ThreadSafe
+public class PointFileSummaryIndex {
+  static private final Logger logger = org.slf4j.LoggerFactory.getLogger(PointFileSummaryIndex.class);
+  static private final int MAGIC = 0x50465349; // "PFSI"
+  static private final int VERSION = 2;
+
+  static private Path cacheDir; // null means dont persist
+  static private volatile ExecutorService executor; // null means summary indexes are not used
+
+  /**
+   * Set the directory where the summary indexes are kept. Called from TdsInit.
+   *
+   * @param dir top feature collection cache directory; may be null, then indexes are only kept in memory.
+   */
+  public static void setCacheDirectory(Path dir) {
+    cacheDir = (dir == null) ? null : dir.resolve("pointSummary");
+  }
+
+  /**
+   * Turn summary indexes on or off for point feature collections opened from now on. Called from TdsInit.
+   */
+  public static synchronized void setEnabled(boolean enable) {
+    shutdown();
+    if (enable) {
+      executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PointFileSummaryIndex");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  public static boolean isEnabled() {
+    return executor != null;
+  }
+
+  /** Called from TdsInit.destroy. */
+  public static synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  public static class Summary {
+    public final String path;
+    public final long lastModified;
+    public final CalendarDateRange dateRange; // may be null
+    public final LatLonRect bbox; // may be null
+    public final Set<String> stations; // empty if not a station collection
+
+    Summary(String path, long lastModified, CalendarDateRange dateRange, LatLonRect bbox, Set<String> stations) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.dateRange = dateRange;
+      this.bbox = bbox;
+      this.stations = stations;
+    }
+
+    /**
+     * Can this file contain data in the requested subset? Missing metadata always intersects.
+     *
+     * @param wantBB requested bounding box, or null for all
+     * @param wantRange requested time range, or null for all
+     * @param wantStations requested station names, or null for all
+     */
+    public boolean intersects(LatLonRect wantBB, CalendarDateRange wantRange, Collection<String> wantStations) {
+      wantStations = wantedStations(wantStations);
+      if (wantRange != null && dateRange != null && !dateRange.intersects(wantRange))
+        return false;
+      if (wantBB != null && bbox != null && bbox.intersect(wantBB) == null)
+        return false;
+      if (wantStations != null && !stations.isEmpty()) {
+        boolean found = false;
+        for (String stn : wantStations) {
+          if (stations.contains(stn)) {
+            found = true;
+            break;
+          }
+        }
+        if (!found)
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * The requested station names, or null if all stations are wanted.
+   * NCSS asks for all stations with "stns=all", as in StationWriterUtils.getStationsInSubset().
+   */
+  public static <T extends Collection<String>> T wantedStations(T stations) {
+    if (stations == null || stations.isEmpty() || stations.contains("all"))
+      return null;
+    return stations;
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
+  private final String name;
+  private final FeatureType featureType;
+  private volatile Map<String, Summary> summaries = ImmutableMap.of(); // keyed by MFile.getPath()
+  private final AtomicReference<List<MFile>> pending = new AtomicReference<>(); // files for the queued update
+  private volatile boolean loaded;
+  private volatile boolean ready; // the first update is done
+  private volatile boolean closed;
+
+  public PointFileSummaryIndex(String name, FeatureType featureType) {
+    this.name = name;
+    this.featureType = featureType;
+  }
+
+  public int size() {
+    return summaries.size();
+  }
+
+  /** False until the index has been built for the first time; until then all files should be used. */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /** Stop updating; an update that is running stops before the next file. */
+  public void close() {
+    closed = true;
+  }
+
+  public Summary get(String path) {
+    return summaries.get(path);
+  }
+
+  // for testing
+  synchronized void put(Summary s) {
+    Map<String, Summary> result = new LinkedHashMap<>(summaries);
+    result.put(s.path, s);
+    summaries = ImmutableMap.copyOf(result);
+  }
+
+  /**
+   * Can this file contain data in the requested subset? True if the file has not been summarized.
+   */
+  public boolean intersects(MFile mfile, LatLonRect wantBB, CalendarDateRange wantRange,
+      Collection<String> wantStations) {
+    Summary s = summaries.get(mfile.getPath());
+    if (s == null || s.lastModified != mfile.getLastModified())
+      return true;
+    return s.intersects(wantBB, wantRange, wantStations);
+  }
+
+  /**
+   * Bring the index up to date with the given files on the background thread, and return immediately.
+   * If an update is already queued, it uses these files instead. Called from the collection update, which must not
+   * wait for the files to be opened.
+   *
+   * @param files current files in the collection
+   */
+  public void scheduleUpdate(List<MFile> files) {
+    ExecutorService exec = executor;
+    if (exec == null || closed)
+      return;
+    if (pending.getAndSet(files) != null)
+      return; // the queued update has not started, it will use these files
+    try {
+      exec.execute(this::runUpdate);
+    } catch (RejectedExecutionException e) { // shut down
+      pending.set(null);
+    }
+  }
+
+  private void runUpdate() {
+    List<MFile> files = pending.getAndSet(null);
+    if (files == null || closed)
+      return;
+    try {
+      int n = update(files);
+      logger.debug("{}: point summary index updated {} files", name, n);
+    } catch (Throwable t) {
+      logger.error("{}: point summary index update failed", name, t);
+    }
+  }
+
+  /**
+   * Bring the index up to date with the files currently in the collection.
+   * Unchanged files are reused, new or modified files are opened and summarized, missing files are dropped.
+   *
+   * @param files current files in the collection
+   * @return number of files that were (re)summarized
+   */
+  synchronized int update(Iterable<MFile> files) {
+    if (!loaded) {
+      summaries = readIndex();
+      loaded = true;
+    }
+
+    Map<String, Summary> old = summaries;
+    Map<String, Summary> result = new LinkedHashMap<>();
+    int nchanged = 0;
+    for (MFile mfile : files) {
+      if (closed)
+        return nchanged;
+      Summary s = old.get(mfile.getPath());
+      if (s == null || s.lastModified != mfile.getLastModified()) {
+        s = summarize(mfile);
+        nchanged++;
+      }
+      if (s != null)
+        result.put(s.path, s);
+    }
+
+    boolean changed = nchanged > 0 || result.size() != old.size();
+    summaries = ImmutableMap.copyOf(result);
+    ready = true;
+    if (changed)
+      writeIndex();
+    return nchanged;
+  }
+
+  private Summary summarize(MFile mfile) {
+    Formatter errlog = new Formatter();
+    try (FeatureDataset fd = FeatureDatasetFactoryManager.open(featureType, mfile.getPath(), null, errlog)) {
+      if (!(fd instanceof FeatureDatasetPoint)) {
+        logger.warn("{}: cant summarize {} err= {}", name, mfile.getPath(), errlog);
+        return null;
+      }
+      FeatureDatasetPoint fdp = (FeatureDatasetPoint) fd;
+
+      CalendarDateRange dateRange = fdp.getCalendarDateRange();
+      LatLonRect bbox = fdp.getBoundingBox();
+      Set<String> stations = new HashSet<>();
+
+      for (DsgFeatureCollection dsg : fdp.getPointFeatureCollectionList()) {
+        if (dsg instanceof StationFeatureCollection) {
+          for (StationFeature s : ((StationFeatureCollection) dsg).getStationFeatures())
+            stations.add(s.getName());
+        }
+        if (dateRange == null || bbox == null) { // must read through the data
+          CollectionInfo info = new DsgCollectionHelper(dsg).calcBounds();
+          if (dateRange == null)
+            dateRange = info.getCalendarDateRange(null);
+          if (bbox == null)
+            bbox = info.bbox;
+        }
+      }
+      return new Summary(mfile.getPath(), mfile.getLastModified(), dateRange, bbox, stations);
+
+    } catch (Throwable t) {
+      logger.warn("{}: failed to summarize {}", name, mfile.getPath(), t);
+      return null;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+  // persistence
+
+  private Path getIndexFile() {
+    if (cacheDir == null)
+      return null;
+    return cacheDir.resolve(name.replaceAll("[^\\w.-]", "_") + ".pfsi");
+  }
+
+  private Map<String, Summary> readIndex() {
+    Path file = getIndexFile();
+    if (file == null || !Files.exists(file))
+      return ImmutableMap.of();
+
+    Map<String, Summary> result = new LinkedHashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        logger.info("{}: ignoring point summary index {} with unknown format", name, file);
+        return ImmutableMap.of();
+      }
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        Summary s = readSummary(in);
+        result.put(s.path, s);
+      }
+    } catch (IOException e) {
+      logger.warn("{}: failed to read point summary index {}", name, file, e);
+      return ImmutableMap.of();
+    }
+    return ImmutableMap.copyOf(result);
+  }
+
+  private void writeIndex() {
+    Path file = getIndexFile();
+    if (file == null)
+      return;
+
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        Collection<Summary> all = summaries.values();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(all.size());
+        for (Summary s : all)
+          writeSummary(out, s);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    } catch (IOException e) {
+      logger.warn("{}: failed to write point summary index {}", name, file, e);
+    }
+  }
+
+  static void writeSummary(DataOutputStream out, Summary s) throws IOException {
+    out.writeUTF(s.path);
+    out.writeLong(s.lastModified);
+    out.writeBoolean(s.dateRange != null);
+    if (s.dateRange != null) {
+      out.writeLong(s.dateRange.getStart().getMillis());
+      out.writeLong(s.dateRange.getEnd().getMillis());
+    }
+    out.writeBoolean(s.bbox != null);
+    if (s.bbox != null) {
+      out.writeDouble(s.bbox.getLatMin());
+      out.writeDouble(s.bbox.getLonMin());
+      out.writeDouble(s.bbox.getHeight());
+      out.writeDouble(s.bbox.getWidth());
+    }
+    out.writeInt(s.stations.size());
+    for (String stn : s.stations)
+      out.writeUTF(stn);
+  }
+
+  static Summary readSummary(DataInputStream in) throws IOException {
+    String path = in.readUTF();
+    long lastModified = in.readLong();
+    CalendarDateRange dateRange = null;
+    if (in.readBoolean())
+      dateRange = CalendarDateRange.of(CalendarDate.of(in.readLong()), CalendarDate.of(in.readLong()));
+    LatLonRect bbox = null;
+    if (in.readBoolean()) {
+      double latMin = in.readDouble();
+      double lonMin = in.readDouble();
+      double height = in.readDouble();
+      double width = in.readDouble();
+      bbox = new LatLonRect(LatLonPoint.create(latMin, lonMin), height, width);
+    }
+    int nstations = in.readInt();
+    Set<String> stations = new HashSet<>(nstations);
+    for (int i = 0; i < nstations; i++)
+      stations.add(in.readUTF());
+    return new Summary(path, lastModified, dateRange, bbox, stations);
+  }
+
+  public void showStatus(Formatter f) {
+    f.format("  Point file summary index: %d files, ready= %s, file= %s%n", summaries.size(), ready, getIndexFile());
+  }
+}
@@ -16,21 +16,56 @@ import ucar.nc2.internal.dataset.ft.fmrc.InventoryCacheProvider;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Implementation of a persisted grid inventory cache using ChronicleMap.
+ * <p>
+ * The cache is a list of segments, each one a persisted ChronicleMap. Puts go to the newest segment; when it is full,
+ * a new segment with twice the capacity is started, sized from the average value actually written. So maxEntries,
+ * maxBloatFactor and averageValueSize only size the first segment.
+ * <p>
+ * Each value starts with a small header containing the file's last modified time, so that stale entries are detected
+ * without parsing the GridDatasetInv XML. Entries for files that no longer exist are removed by compact().
  */
 public class GridInventoryCacheChronicle implements InventoryCacheProvider {
 
   private static final Logger logger = LoggerFactory.getLogger(GridInventoryCacheChronicle.class);
-  private static ChronicleMap<String, byte[]> cache;
 
   private static final int DEFAULT_ENTRIES = 1000;
   private static final int DEFAULT_BLOAT_FACTOR = 1;
 
+  private static final String SEGMENT_NAME = "GridDatasetInv";
+  private static final Pattern SEGMENT_FILE = Pattern.compile(SEGMENT_NAME + "(\\.(\\d+))?\\.dat");
+
+  // value = VALUE_VERSION, lastModified (long), compact xml. Values written before segments were added are plain xml.
+  private static final byte VALUE_VERSION = 1;
+  private static final int VALUE_HEADER_SIZE = 1 + 8;
+
+  private static final List<Segment> segments = new CopyOnWriteArrayList<>(); // oldest first, last gets the puts
+  private static Path cacheDir;
+  private static int firstAverageValueSize;
+
+  // stats
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static final LongAdder stale = new LongAdder();
+  private static final LongAdder puts = new LongAdder();
+  private static final LongAdder putBytes = new LongAdder();
+  private static final LongAdder loadNanos = new LongAdder();
+  private static final LongAdder compacted = new LongAdder();
+
   private enum AverageValueSize {
     small(4096), medium(16384), large(65536), defaultSize(small.size);
 
@@ -41,6 +76,81 @@ public class GridInventoryCacheChronicle implements InventoryCacheProvider {
     }
   }
 
+  private static class Segment {
+    private final int index;
+    private final Path file;
+    private final long capacity; // roll over to a new segment when this many entries are stored
+    private final ChronicleMap<String, byte[]> map;
+    // readers and writers of the map hold the read lock, so that compact() cant close it under them
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed; // guarded by lock
+
+    private Segment(int index, Path file, long capacity, ChronicleMap<String, byte[]> map) {
+      this.index = index;
+      this.file = file;
+      this.capacity = capacity;
+      this.map = map;
+    }
+
+    @Nullable
+    private byte[] get(String key) {
+      lock.readLock().lock();
+      try {
+        return closed ? null : map.get(key);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    // return false if the segment was closed
+    private boolean put(String key, byte[] value) {
+      lock.readLock().lock();
+      try {
+        if (closed)
+          return false;
+        map.put(key, value);
+        return true;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    private void remove(String key) {
+      lock.readLock().lock();
+      try {
+        if (!closed)
+          map.remove(key);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    // close it if empty; a put may have gone in since it was last looked at
+    private boolean closeIfEmpty() {
+      lock.writeLock().lock();
+      try {
+        if (closed || map.longSize() != 0)
+          return false;
+        closed = true;
+        map.close();
+        return true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void close() {
+      lock.writeLock().lock();
+      try {
+        if (!closed)
+          map.close();
+        closed = true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
   /**
    * Initialize the inventory cache
    *
@@ -55,8 +165,8 @@ public class GridInventoryCacheChronicle implements InventoryCacheProvider {
    * Initialize the inventory cache
    *
    * @param cacheDir Path to the cache directory. This location will be created if it does not exist.
-   * @param maxEntries number of entries in the cache, at most
-   * @param maxBloatFactor max number of times the cache size can increase
+   * @param maxEntries number of entries in the first segment
+   * @param maxBloatFactor max number of times a segment can increase in size before a new one is started
    * @throws IOException
    */
   public static void init(Path cacheDir, int maxEntries, int maxBloatFactor) throws IOException {
@@ -67,10 +177,10 @@ public class GridInventoryCacheChronicle implements InventoryCacheProvider {
    * Initialize the inventory cache
    *
    * @param cacheDir Path to the cache directory. This location will be created if it does not exist.
-   * @param maxEntries number of entries in the cache, at most
-   * @param maxBloatFactor max number of times the cache size can increase
+   * @param maxEntries number of entries in the first segment
+   * @param maxBloatFactor max number of times a segment can increase in size before a new one is started
    * @param averageValueSizeName a name of one of the {@link AverageValueSize} constants or null if the default should
-   *        be used
+   *        be used. Only used for the first segment.
    * @throws IOException
    */
   public static void init(Path cacheDir, int maxEntries, int maxBloatFactor, String averageValueSizeName)
@@ -84,114 +194,331 @@ public class GridInventoryCacheChronicle implements InventoryCacheProvider {
    * Initialize the inventory cache
    *
    * @param cacheDir Path to the cache directory. This location will be created if it does not exist.
-   * @param maxEntries number of entries in the cache, at most
-   * @param maxBloatFactor max number of times the cache size can increase
-   * @param averageValueSize the average size of a value (a grid dataset inventory) in bytes
+   * @param maxEntries number of entries in the first segment
+   * @param maxBloatFactor max number of times a segment can increase in size before a new one is started
+   * @param averageValueSize the average size of a value (a grid dataset inventory) in bytes, for the first segment
    * @throws IOException
    */
-  private static void init(Path cacheDir, int maxEntries, int maxBloatFactor, int averageValueSize) throws IOException {
+  private static synchronized void init(Path cacheDir, int maxEntries, int maxBloatFactor, int averageValueSize)
+      throws IOException {
+    if (!segments.isEmpty())
+      return;
+
     if (!Files.exists(cacheDir)) {
       logger.info("Creating cache directory at {}", cacheDir.toString());
       Files.createDirectories(cacheDir);
     }
-    Path dbFile = cacheDir.resolve("GridDatasetInv.dat");
-    if (Files.exists(dbFile)) {
-      logger.info("Previous grid inventory cache found. Using {}", dbFile.toString());
-    } else {
-      logger.info("Creating new grid inventory cache file at {}", dbFile.toString());
+    GridInventoryCacheChronicle.cacheDir = cacheDir;
+    GridInventoryCacheChronicle.firstAverageValueSize = averageValueSize;
+    long firstCapacity = (long) Math.max(maxEntries, 1) * Math.max(maxBloatFactor, 1);
+
+    // open existing segments, in order
+    SortedMap<Integer, Path> existing = new TreeMap<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(cacheDir, SEGMENT_NAME + "*.dat")) {
+      for (Path p : ds) {
+        Matcher m = SEGMENT_FILE.matcher(p.getFileName().toString());
+        if (m.matches())
+          existing.put(m.group(2) == null ? 0 : Integer.parseInt(m.group(2)), p);
+      }
+    }
+    for (Map.Entry<Integer, Path> entry : existing.entrySet()) {
+      logger.info("Previous grid inventory cache found. Using {}", entry.getValue().toString());
+      segments.add(openSegment(entry.getKey(), firstCapacity << Math.min(entry.getKey(), 30), maxEntries,
+          maxBloatFactor, averageValueSize));
     }
-    if (cache == null) {
+
+    if (segments.isEmpty()) {
       logger.info("Grid inventory cache built with: maxEntries={}, maxBloatFactor={}, averageValueSize={}", maxEntries,
           maxBloatFactor, averageValueSize);
-
-      cache = ChronicleMapBuilder.of(String.class, byte[].class).name("GridDatasetInv")
-          .averageKey("/data/project/analysis/file.ext").averageValueSize(averageValueSize).entries(maxEntries)
-          .maxBloatFactor(maxBloatFactor).createOrRecoverPersistedTo(dbFile.toFile());
+      segments.add(openSegment(0, firstCapacity, maxEntries, maxBloatFactor, averageValueSize));
     }
   }
 
+  private static Segment openSegment(int index, long capacity, long entries, int bloatFactor, int averageValueSize)
+      throws IOException {
+    Path file = cacheDir.resolve(index == 0 ? SEGMENT_NAME + ".dat" : SEGMENT_NAME + "." + index + ".dat");
+    if (!Files.exists(file))
+      logger.info("Creating new grid inventory cache file at {}", file.toString());
+    ChronicleMap<String, byte[]> map = ChronicleMapBuilder.of(String.class, byte[].class).name(SEGMENT_NAME + index)
+        .averageKey("/data/project/analysis/file.ext").averageValueSize(averageValueSize).entries(entries)
+        .maxBloatFactor(bloatFactor).createOrRecoverPersistedTo(file.toFile());
+    return new Segment(index, file, capacity, map);
+  }
+
+  // start a new segment with twice the capacity of the full one
+  private static synchronized Segment rollover(Segment full) throws IOException {
+    Segment active = segments.get(segments.size() - 1);
+    if (active != full)
+      return active; // another thread already did it
+
+    long capacity = full.capacity * 2;
+    int averageValueSize = puts.sum() > 0 ? (int) (putBytes.sum() / puts.sum()) : firstAverageValueSize;
+    logger.info("Grid inventory cache segment {} is full ({} entries); starting segment {} with capacity={}",
+        full.index, full.map.longSize(), full.index + 1, capacity);
+    Segment next = openSegment(full.index + 1, capacity, capacity, 1, Math.max(averageValueSize, 256));
+    segments.add(next);
+    return next;
+  }
+
   @Override
   @Nullable
   public GridDatasetInv get(MFile mfile) throws IOException {
-    GridDatasetInv inv = null;
-    if (cache != null) {
-      String mfileLoc = mfile.getPath();
-      byte[] xmlBytes = cache.getOrDefault(mfileLoc, null);
-      if (xmlBytes != null) {
-        inv = GridDatasetInv.readXML(xmlBytes);
-        // check if version requires regenerating the inventory
-        if (inv.isXmlVersionCompatible()) {
-          // check if file has changed
-          long fileModifiedSecs = mfile.getLastModified() / 1000; // ignore msecs
-          long xmlModifiedSecs = inv.getLastModified() / 1000; // ignore msecs
-          if (xmlModifiedSecs >= fileModifiedSecs) { // LOOK if fileDate is -1, will always succeed
-            logger.debug("cache ok {} >= {} for {}", xmlModifiedSecs, fileModifiedSecs, mfileLoc);
-          } else {
-            logger.info(" cache out of date {} < {} for {}. Removing cache entry.", xmlModifiedSecs, fileModifiedSecs,
-                mfileLoc);
-            cache.remove(mfileLoc);
-          }
-        } else {
-          logger.error("GridDatasetInv xml version needs upgrade for {}. Removing cache entry.", mfileLoc);
-          cache.remove(mfileLoc);
-        }
+    Segment[] snapshot = segments.toArray(new Segment[0]);
+    if (snapshot.length == 0)
+      return null;
+
+    String mfileLoc = mfile.getPath();
+    for (int i = snapshot.length - 1; i >= 0; i--) { // newest first
+      Segment segment = snapshot[i];
+      byte[] value = segment.get(mfileLoc);
+      if (value != null)
+        return readValue(segment, mfile, value);
+    }
+    misses.increment();
+    return null;
+  }
+
+  @Nullable
+  private GridDatasetInv readValue(Segment segment, MFile mfile, byte[] value) {
+    String mfileLoc = mfile.getPath();
+    long fileModifiedSecs = mfile.getLastModified() / 1000; // ignore msecs
+    boolean hasHeader = value.length > VALUE_HEADER_SIZE && value[0] == VALUE_VERSION;
+
+    // check if file has changed without parsing the xml
+    if (hasHeader) {
+      long xmlModifiedSecs = ByteBuffer.wrap(value, 1, 8).getLong() / 1000; // ignore msecs
+      if (xmlModifiedSecs < fileModifiedSecs) { // LOOK if fileDate is -1, will always succeed
+        logger.info(" cache out of date {} < {} for {}. Removing cache entry.", xmlModifiedSecs, fileModifiedSecs,
+            mfileLoc);
+        removeStale(segment, mfileLoc);
+        return null;
+      }
+    }
+
+    long start = System.nanoTime();
+    GridDatasetInv inv = hasHeader
+        ? GridDatasetInv.readXML(Arrays.copyOfRange(value, VALUE_HEADER_SIZE, value.length))
+        : GridDatasetInv.readXML(value);
+    loadNanos.add(System.nanoTime() - start);
+
+    // check if version requires regenerating the inventory
+    if (!inv.isXmlVersionCompatible()) {
+      logger.error("GridDatasetInv xml version needs upgrade for {}. Removing cache entry.", mfileLoc);
+      removeStale(segment, mfileLoc);
+      return null;
+    }
+
+    if (!hasHeader) {
+      long xmlModifiedSecs = inv.getLastModified() / 1000; // ignore msecs
+      if (xmlModifiedSecs < fileModifiedSecs) {
+        logger.info(" cache out of date {} < {} for {}. Removing cache entry.", xmlModifiedSecs, fileModifiedSecs,
+            mfileLoc);
+        removeStale(segment, mfileLoc);
+        return null;
       }
     }
+
+    logger.debug("cache ok for {}", mfileLoc);
+    hits.increment();
     return inv;
   }
 
+  private static void removeStale(Segment segment, String mfileLoc) {
+    stale.increment();
+    segment.remove(mfileLoc);
+  }
+
   @Override
   public void put(MFile mfile, GridDatasetInv inventory) throws IOException {
-    if (cache != null) {
-      String xml = inventory.writeCompactXML(new Date(mfile.getLastModified()));
-      cache.put(mfile.getPath(), xml.getBytes(Charsets.UTF_8));
+    if (segments.isEmpty())
+      return;
+
+    byte[] xml = inventory.writeCompactXML(new Date(mfile.getLastModified())).getBytes(Charsets.UTF_8);
+    byte[] value = ByteBuffer.allocate(VALUE_HEADER_SIZE + xml.length).put(VALUE_VERSION)
+        .putLong(mfile.getLastModified()).put(xml).array();
+    String mfileLoc = mfile.getPath();
+
+    Segment[] snapshot;
+    Segment active;
+    while (true) { // try again if compact() closed the segment after a rollover
+      snapshot = segments.toArray(new Segment[0]);
+      if (snapshot.length == 0)
+        return;
+      active = snapshot[snapshot.length - 1];
+      try {
+        if (active.map.longSize() >= active.capacity)
+          active = rollover(active);
+        if (active.put(mfileLoc, value))
+          break;
+      } catch (IllegalStateException e) { // chronicle map has no space left, or was closed
+        logger.debug("Grid inventory cache segment {} ran out of space", active.index, e);
+        active = rollover(active);
+        if (active.put(mfileLoc, value))
+          break;
+      }
+      if (segments.contains(active))
+        return; // closed by shutdown()
+    }
+    puts.increment();
+    putBytes.add(value.length);
+
+    // dont leave an older copy behind
+    for (Segment segment : snapshot) {
+      if (segment != active)
+        segment.remove(mfileLoc);
     }
   }
 
   /**
-   * Shutdown hook to close the cache.
+   * Remove entries for local files that no longer exist, and delete older segments that become empty.
+   *
+   * @return number of entries removed
    */
-  public static void shutdown() {
-    if (cache != null) {
-      cache.close();
+  public static synchronized long compact() {
+    long count = 0;
+    for (Segment segment : segments) {
+      List<String> missing = new ArrayList<>();
+      for (String key : segment.map.keySet()) {
+        if (isMissingLocalFile(key))
+          missing.add(key);
+      }
+      for (String key : missing)
+        segment.remove(key);
+      count += missing.size();
+    }
+
+    for (Segment segment : new ArrayList<>(segments.subList(0, Math.max(segments.size() - 1, 0)))) {
+      if (segment.closeIfEmpty()) {
+        segments.remove(segment);
+        try {
+          Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+          logger.warn("Failed to delete empty grid inventory cache segment {}", segment.file, e);
+        }
+      }
+    }
+
+    compacted.add(count);
+    logger.info("Grid inventory cache compaction removed {} entries, {} segments left", count, segments.size());
+    return count;
+  }
+
+  // only local paths can be checked cheaply; leave remote and object store locations alone
+  private static boolean isMissingLocalFile(String location) {
+    if (!location.startsWith("/") && !location.matches("^[A-Za-z]:[/\\\\].*"))
+      return false;
+    try {
+      return !Files.exists(Paths.get(location));
+    } catch (Exception e) {
+      return false;
     }
   }
 
+  /**
+   * Shutdown hook to close the cache.
+   */
+  public static synchronized void shutdown() {
+    for (Segment segment : segments)
+      segment.close();
+  }
+
   /**
    * Display cache info
    */
   public static void showCache(Formatter formatter) {
-    if (cache == null) {
+    if (segments.isEmpty()) {
       formatter.format("%nFMRC GridInventoryCache: turned off%n");
     } else {
       formatter.format("%nFMRC GridInventoryCache:%n");
       formatter.format("numberOfEntries=%d, ", getNumberOfEntries());
+      formatter.format("numberOfSegments=%d, ", getNumberOfSegments());
       formatter.format("remainingAutoResizes=%d, ", getRemainingAutoResizes());
       formatter.format("percentageFreeSpace=%d, ", getPercentageFreeSpace());
       formatter.format("offHeapMemoryUsed=%d", getOffHeapMemoryUsed());
       formatter.format("%n");
+      formatter.format("hits=%d, misses=%d, stale=%d, hitRate=%.3f, ", hits.sum(), misses.sum(), stale.sum(),
+          getHitRate());
+      formatter.format("averageLoadMicros=%.1f, puts=%d, compacted=%d", getAverageLoadMicros(), puts.sum(),
+          compacted.sum());
+      formatter.format("%n");
+      for (Segment segment : segments) {
+        formatter.format("  segment %d: entries=%d capacity=%d percentageFreeSpace=%d offHeapMemoryUsed=%d %s%n",
+            segment.index, segment.map.longSize(), segment.capacity, segment.map.percentageFreeSpace(),
+            segment.map.offHeapMemoryUsed(), segment.file);
+      }
     }
   }
 
   // For testing
-  static void resetCache() {
+  static synchronized void resetCache() {
     shutdown();
-    cache = null;
+    segments.clear();
+    hits.reset();
+    misses.reset();
+    stale.reset();
+    puts.reset();
+    putBytes.reset();
+    loadNanos.reset();
+    compacted.reset();
+  }
+
+  public static boolean isEnabled() {
+    return !segments.isEmpty();
+  }
+
+  public static long getHits() {
+    return hits.sum();
   }
 
-  static long getNumberOfEntries() {
-    return cache.longSize();
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  public static long getStale() {
+    return stale.sum();
+  }
+
+  public static long getTotalLoadNanos() {
+    return loadNanos.sum();
+  }
+
+  public static long getNumberOfEntries() {
+    long count = 0;
+    for (Segment segment : segments)
+      count += segment.map.longSize();
+    return count;
+  }
+
+  static int getNumberOfSegments() {
+    return segments.size();
   }
 
   static int getRemainingAutoResizes() {
-    return cache.remainingAutoResizes();
+    return getActiveSegment().map.remainingAutoResizes();
   }
 
   static int getPercentageFreeSpace() {
-    return cache.percentageFreeSpace();
+    return getActiveSegment().map.percentageFreeSpace();
+  }
+
+  public static long getOffHeapMemoryUsed() {
+    long total = 0;
+    for (Segment segment : segments)
+      total += segment.map.offHeapMemoryUsed();
+    return total;
+  }
+
+  static double getHitRate() {
+    long lookups = hits.sum() + misses.sum() + stale.sum();
+    return lookups == 0 ? 0.0 : ((double) hits.sum()) / lookups;
+  }
+
+  static double getAverageLoadMicros() {
+    long n = hits.sum();
+    return n == 0 ? 0.0 : loadNanos.sum() / 1000.0 / n;
   }
 
-  static long getOffHeapMemoryUsed() {
-    return cache.offHeapMemoryUsed();
+  private static Segment getActiveSegment() {
+    return segments.get(segments.size() - 1);
   }
 }
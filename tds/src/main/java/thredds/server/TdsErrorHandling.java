@@ -16,8 +16,10 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.servlet.HandlerExceptionResolver;
 import org.springframework.web.servlet.ModelAndView;
+import thredds.server.catalogservice.CatalogXmlStreamWriter;
 import thredds.server.exception.MethodNotImplementedException;
 import thredds.server.exception.RequestTooLargeException;
+import thredds.server.exception.ServiceBusyException;
 import thredds.server.exception.ServiceNotAllowed;
 import thredds.server.ncss.exception.NcssException;
 import javax.servlet.http.HttpServletRequest;
@@ -33,11 +35,13 @@ import static org.springframework.web.util.HtmlUtils.htmlEscape;
 /**
  * Global Exception handling
  * ServiceNotAllowed FORBIDDEN
+ * ServiceBusyException SERVICE_UNAVAILABLE, with Retry-After
  * FileNotFoundException NOT_FOUND
  * IOException INTERNAL_SERVER_ERROR
  * UnsupportedOperationException UNPROCESSABLE_ENTITY
  * IllegalArgumentException BAD_REQUEST
  * BindException BAD_REQUEST
+ * CatalogXmlStreamWriter.Aborted rethrown, the response is already committed
  * Throwable INTERNAL_SERVER_ERROR
  *
  * @author caron
@@ -69,6 +73,17 @@ public class TdsErrorHandling implements HandlerExceptionResolver {
         HttpStatus.FORBIDDEN);
   }
 
+  @ExceptionHandler(ServiceBusyException.class)
+  public ResponseEntity<String> handle(ServiceBusyException ex) {
+    logger.info("TDS busy: {}", ex.getMessage());
+
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.setContentType(MediaType.TEXT_PLAIN);
+    responseHeaders.set(HttpHeaders.RETRY_AFTER, Integer.toString(ex.getRetryAfterSecs()));
+    return new ResponseEntity<>("Service Busy: " + htmlEscape(ex.getMessage()), responseHeaders,
+        HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
   @ExceptionHandler(MethodNotImplementedException.class)
   public ResponseEntity<String> handle(MethodNotImplementedException ex) {
     logger.warn("TDS Error", ex);
@@ -88,6 +103,12 @@ public class TdsErrorHandling implements HandlerExceptionResolver {
     return new ResponseEntity<>("FileNotFound: No such file or directory", responseHeaders, HttpStatus.NOT_FOUND);
   }
 
+  // the response is committed and incomplete, so let the container drop the connection instead of adding to it
+  @ExceptionHandler(CatalogXmlStreamWriter.Aborted.class)
+  public void handle(CatalogXmlStreamWriter.Aborted ex) {
+    throw ex;
+  }
+
   @ExceptionHandler(IOException.class)
   public ResponseEntity<String> handle(IOException ex) {
     String eName = ex.getClass().getName(); // dont want compile time dependency on ClientAbortException
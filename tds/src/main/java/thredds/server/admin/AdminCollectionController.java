@@ -32,6 +32,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import thredds.core.DataRootManager;
 import thredds.core.DatasetManager;
 import thredds.featurecollection.CollectionUpdater;
+import thredds.featurecollection.FeatureCollectionCache;
 import thredds.featurecollection.InvDatasetFeatureCollection;
 import thredds.featurecollection.FeatureCollectionConfig;
 import thredds.featurecollection.FeatureCollectionType;
@@ -63,6 +64,7 @@ public class AdminCollectionController implements InitializingBean {
   private static final String DOWNLOAD = "download";
   private static final String DOWNLOAD_ALL = "downloadAll";
   private static final String TRIGGER = "trigger";
+  private static final String WARM_UP = "warmUp";
 
   @Autowired
   DebugCommands debugCommands;
@@ -83,6 +85,9 @@ public class AdminCollectionController implements InitializingBean {
   @Autowired
   CollectionUpdater collectionUpdater;
 
+  @Autowired
+  private FeatureCollectionCache featureCollectionCache;
+
   public void afterPropertiesSet() {
     Escaper urlParamEscaper = UrlEscapers.urlFormParameterEscaper();
 
@@ -110,6 +115,9 @@ public class AdminCollectionController implements InitializingBean {
         url = tdsContext.getContextPath() + PATH + "/" + SHOW_CSV;
         e.pw.printf("<p/><a href='%s'>Collection Status CSV</a>%n", url);
 
+        url = tdsContext.getContextPath() + PATH + "/" + WARM_UP;
+        e.pw.printf("<p/><a href='%s'>Collection Warm Up Status</a>%n", url);
+
         url = tdsContext.getContextPath() + PATH + "/" + DOWNLOAD_ALL;
         e.pw.printf("<p/><a href='%s'>Download All top-level collection indices</a>%n", url);
       }
@@ -208,6 +216,16 @@ public class AdminCollectionController implements InitializingBean {
     return new ResponseEntity<>(out.toString(), responseHeaders, HttpStatus.OK);
   }
 
+  @RequestMapping(value = {"/" + WARM_UP})
+  protected ResponseEntity<String> showWarmUpStatus() {
+    Formatter f = new Formatter();
+    featureCollectionCache.showWarmUp(f);
+
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.setContentType(MediaType.TEXT_HTML);
+    return new ResponseEntity<>("<pre>" + Escape.html(f.toString()) + "</pre>", responseHeaders, HttpStatus.OK);
+  }
+
   @RequestMapping(value = {"/" + SHOW_CSV})
   protected ResponseEntity<String> showCollectionStatusCsv() throws Exception {
     Formatter out = new Formatter();
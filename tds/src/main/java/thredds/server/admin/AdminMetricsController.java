@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.admin;
+
+import com.google.common.cache.CacheStats;
+import opendap.servers.parsers.ConstraintCache;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import thredds.core.DatasetManager;
+import thredds.featurecollection.CollectionUpdater;
+import thredds.featurecollection.FeatureCollectionCache;
+import thredds.featurecollection.cache.GridInventoryCacheChronicle;
+import thredds.server.catalog.ConfigCatalogCache;
+import thredds.server.catalog.ConfigCatalogSnapshots;
+import thredds.server.ncss.controller.NcssDiskCache;
+import thredds.server.opendap.Dap2ResponseCache;
+import thredds.servlet.AdmissionControl;
+import thredds.servlet.AsyncFileWriter;
+import thredds.servlet.CountingFileCache;
+import thredds.servlet.ParallelDeflaterOutputStream;
+import thredds.servlet.RequestMetrics;
+import ucar.nc2.grib.collection.GribCdmIndex;
+import ucar.nc2.util.DiskCache2;
+import ucar.nc2.util.cache.FileCacheIF;
+import ucar.unidata.io.RandomAccessFile;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Handle /admin/metrics: cache, executor and per service request metrics in the Prometheus text format.
+ * Everything here reads counters that are kept anyway, except the disk cache size, which is recomputed
+ * at most once a minute, so scraping is cheap.
+ *
+ * @since 5.0
+ */
+@Controller
+@RequestMapping(value = "/admin/metrics", method = RequestMethod.GET)
+public class AdminMetricsController {
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final long DISK_USAGE_MAX_AGE_MSECS = 60 * 1000;
+
+  @Autowired
+  private ConfigCatalogCache configCatalogCache;
+
+  @Autowired
+  private FeatureCollectionCache featureCollectionCache;
+
+  @Autowired
+  private CollectionUpdater collectionUpdater;
+
+  @Autowired
+  @Qualifier("fcTriggerExecutor")
+  private ExecutorService fcTriggerExecutor;
+
+  @Autowired
+  private NcssDiskCache ncssDiskCache;
+
+  private final ReentrantLock diskUsageLock = new ReentrantLock();
+  private volatile long diskUsageTime;
+  private volatile long diskUsageFiles;
+  private volatile long diskUsageBytes;
+
+  @RequestMapping
+  protected ResponseEntity<String> getMetrics() {
+    Metrics m = new Metrics();
+    writeRequests(m);
+    writeAdmissionControl(m);
+    writeAsyncWrites(m);
+    writeParallelDeflate(m);
+    writeGuavaCaches(m);
+    writeCatalogSnapshots(m);
+    writeFileCaches(m);
+    writeGridInventoryCache(m);
+    writeExecutors(m);
+    writeDiskCache(m);
+    writeJvm(m);
+
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.set(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE);
+    return new ResponseEntity<>(m.toString(), responseHeaders, HttpStatus.OK);
+  }
+
+  private void writeRequests(Metrics m) {
+    Iterable<RequestMetrics.Service> services = RequestMetrics.getServices();
+    String[] statusClass = {"other", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    m.header("tds_requests_total", "counter", "Requests handled, by service and status class");
+    for (RequestMetrics.Service s : services) {
+      for (int i = 0; i < statusClass.length; i++) {
+        long count = s.getRequests(i);
+        if (count > 0)
+          m.sample("tds_requests_total", count, "service", s.getName(), "status", statusClass[i]);
+      }
+    }
+
+    m.header("tds_request_duration_seconds", "histogram", "Time to handle a request, by service");
+    for (RequestMetrics.Service s : services) {
+      for (int b = 0; b < RequestMetrics.LATENCY_BUCKETS.length; b++) {
+        m.sample("tds_request_duration_seconds_bucket", s.getCumulativeCount(b), "service", s.getName(), "le",
+            Double.toString(RequestMetrics.LATENCY_BUCKETS[b]));
+      }
+      long count = s.getCumulativeCount(RequestMetrics.LATENCY_BUCKETS.length);
+      m.sample("tds_request_duration_seconds_bucket", count, "service", s.getName(), "le", "+Inf");
+      m.sample("tds_request_duration_seconds_sum", s.getLatencySeconds(), "service", s.getName());
+      m.sample("tds_request_duration_seconds_count", count, "service", s.getName());
+    }
+
+    m.header("tds_response_bytes_total", "counter", "Response bytes written, by service");
+    for (RequestMetrics.Service s : services)
+      m.sample("tds_response_bytes_total", s.getBytesOut(), "service", s.getName());
+  }
+
+  private void writeAdmissionControl(Metrics m) {
+    if (!AdmissionControl.isEnabled())
+      return;
+    Iterable<AdmissionControl.Status> status = AdmissionControl.getStatus();
+    m.header("tds_admission_active", "gauge", "Requests holding a slot, by limited service");
+    for (AdmissionControl.Status s : status)
+      m.sample("tds_admission_active", s.active, "service", s.service);
+    m.header("tds_admission_waiting", "gauge", "Requests waiting for a slot");
+    for (AdmissionControl.Status s : status)
+      m.sample("tds_admission_waiting", s.waiting, "service", s.service);
+    m.header("tds_admission_active_large", "gauge", "Large requests holding a large request slot");
+    for (AdmissionControl.Status s : status)
+      m.sample("tds_admission_active_large", s.activeLarge, "service", s.service);
+    m.header("tds_admission_admitted_total", "counter", "Requests given a slot");
+    for (AdmissionControl.Status s : status)
+      m.sample("tds_admission_admitted_total", s.admitted, "service", s.service);
+    m.header("tds_admission_queued_total", "counter", "Requests that had to wait for a slot");
+    for (AdmissionControl.Status s : status)
+      m.sample("tds_admission_queued_total", s.queued, "service", s.service);
+    m.header("tds_admission_rejected_total", "counter", "Requests rejected with 503, by reason");
+    for (AdmissionControl.Status s : status) {
+      m.sample("tds_admission_rejected_total", s.rejectedQueueFull, "service", s.service, "reason", "queueFull");
+      m.sample("tds_admission_rejected_total", s.rejectedTimeout, "service", s.service, "reason", "timeout");
+      m.sample("tds_admission_rejected_total", s.rejectedClient, "service", s.service, "reason", "client");
+      m.sample("tds_admission_rejected_total", s.rejectedLarge, "service", s.service, "reason", "large");
+    }
+  }
+
+  private void writeAsyncWrites(Metrics m) {
+    m.header("tds_async_writes_active", "gauge", "Downloads being sent with non-blocking writes");
+    m.sample("tds_async_writes_active", AsyncFileWriter.getActive());
+    m.header("tds_async_writes_total", "counter", "Downloads sent with non-blocking writes");
+    m.sample("tds_async_writes_total", AsyncFileWriter.getStarted());
+    m.header("tds_async_writes_failed_total", "counter", "Non-blocking downloads that failed or timed out");
+    m.sample("tds_async_writes_failed_total", AsyncFileWriter.getFailed());
+    m.header("tds_async_write_bytes_total", "counter", "Bytes sent with non-blocking writes");
+    m.sample("tds_async_write_bytes_total", AsyncFileWriter.getBytesSent());
+  }
+
+  private void writeParallelDeflate(Metrics m) {
+    m.header("tds_deflate_streams_total", "counter", "Responses compressed by the TDS");
+    m.sample("tds_deflate_streams_total", ParallelDeflaterOutputStream.getStreams());
+    m.header("tds_deflate_in_bytes_total", "counter", "Bytes compressed by the TDS");
+    m.sample("tds_deflate_in_bytes_total", ParallelDeflaterOutputStream.getBytesIn());
+    m.header("tds_deflate_out_bytes_total", "counter", "Compressed bytes written by the TDS");
+    m.sample("tds_deflate_out_bytes_total", ParallelDeflaterOutputStream.getBytesOut());
+  }
+
+  private void writeGuavaCaches(Metrics m) {
+    CacheStats catalogs = configCatalogCache.getStats();
+    CacheStats collections = featureCollectionCache.getStats();
+    CacheStats dap2 = Dap2ResponseCache.getStats();
+
+    m.header("tds_cache_size", "gauge", "Objects in the cache");
+    m.sample("tds_cache_size", configCatalogCache.size(), "cache", "configCatalog");
+    m.sample("tds_cache_size", featureCollectionCache.size(), "cache", "featureCollection");
+    m.sample("tds_cache_size", Dap2ResponseCache.size(), "cache", "dap2Response");
+    m.sample("tds_cache_size", ConstraintCache.size(), "cache", "dap2Constraint");
+
+    m.header("tds_cache_hits_total", "counter", "Cache lookups that found the object");
+    m.sample("tds_cache_hits_total", catalogs.hitCount(), "cache", "configCatalog");
+    m.sample("tds_cache_hits_total", collections.hitCount(), "cache", "featureCollection");
+    m.sample("tds_cache_hits_total", dap2.hitCount(), "cache", "dap2Response");
+    m.sample("tds_cache_hits_total", ConstraintCache.getHits(), "cache", "dap2Constraint");
+
+    m.header("tds_cache_misses_total", "counter", "Cache lookups that had to load the object");
+    m.sample("tds_cache_misses_total", catalogs.missCount(), "cache", "configCatalog");
+    m.sample("tds_cache_misses_total", collections.missCount(), "cache", "featureCollection");
+    m.sample("tds_cache_misses_total", dap2.missCount(), "cache", "dap2Response");
+    m.sample("tds_cache_misses_total", ConstraintCache.getMisses(), "cache", "dap2Constraint");
+
+    m.header("tds_cache_evictions_total", "counter", "Objects removed from the cache to make room");
+    m.sample("tds_cache_evictions_total", catalogs.evictionCount(), "cache", "configCatalog");
+    m.sample("tds_cache_evictions_total", collections.evictionCount(), "cache", "featureCollection");
+    m.sample("tds_cache_evictions_total", dap2.evictionCount(), "cache", "dap2Response");
+
+    m.header("tds_cache_load_seconds_total", "counter", "Time spent loading objects on a miss");
+    m.sample("tds_cache_load_seconds_total", catalogs.totalLoadTime() / 1.0e9, "cache", "configCatalog");
+    m.sample("tds_cache_load_seconds_total", collections.totalLoadTime() / 1.0e9, "cache", "featureCollection");
+
+    m.header("tds_cache_load_failures_total", "counter", "Loads that threw an exception");
+    m.sample("tds_cache_load_failures_total", catalogs.loadExceptionCount(), "cache", "configCatalog");
+    m.sample("tds_cache_load_failures_total", collections.loadExceptionCount(), "cache", "featureCollection");
+  }
+
+  private void writeCatalogSnapshots(Metrics m) {
+    ConfigCatalogSnapshots snapshots = configCatalogCache.getSnapshots();
+    if (snapshots == null)
+      return;
+    m.header("tds_catalog_snapshot_hits_total", "counter", "Config catalogs read from an up to date snapshot");
+    m.sample("tds_catalog_snapshot_hits_total", snapshots.getHits());
+    m.header("tds_catalog_snapshot_misses_total", "counter", "Config catalogs parsed from XML");
+    m.sample("tds_catalog_snapshot_misses_total", snapshots.getMisses());
+  }
+
+  // the netcdf-java FileCaches hold open files. The RandomAccessFile and TimePartition caches are CountingFileCaches
+  // set in TdsInit. The NetcdfFile caches are made inside netcdf-java, which has no accessors for their counts,
+  // so for those only the acquires done by DatasetManager are counted.
+  private void writeFileCaches(Metrics m) {
+    String[] names = {"RandomAccessFile", "TimePartition"};
+    FileCacheIF[] caches = {RandomAccessFile.getGlobalFileCache(), GribCdmIndex.gribCollectionCache};
+
+    m.header("tds_file_cache_files", "gauge", "Open files held by the file cache");
+    for (int i = 0; i < caches.length; i++) {
+      if (caches[i] instanceof CountingFileCache)
+        m.sample("tds_file_cache_files", ((CountingFileCache) caches[i]).getFileCount(), "cache", names[i]);
+    }
+    m.header("tds_file_cache_hits_total", "counter", "File cache acquires that found an open file");
+    m.header("tds_file_cache_misses_total", "counter", "File cache acquires that opened the file");
+    for (int i = 0; i < caches.length; i++) {
+      if (caches[i] instanceof CountingFileCache) {
+        CountingFileCache fc = (CountingFileCache) caches[i];
+        m.sample("tds_file_cache_hits_total", fc.getHits(), "cache", names[i]);
+        m.sample("tds_file_cache_misses_total", fc.getMisses(), "cache", names[i]);
+      }
+    }
+    m.sample("tds_file_cache_hits_total", DatasetManager.getNetcdfFileCacheHits(), "cache", "NetcdfFile");
+    m.sample("tds_file_cache_misses_total", DatasetManager.getNetcdfFileCacheMisses(), "cache", "NetcdfFile");
+  }
+
+  private void writeGridInventoryCache(Metrics m) {
+    if (!GridInventoryCacheChronicle.isEnabled())
+      return;
+    m.header("tds_grid_inventory_cache_entries", "gauge", "Entries in the FMRC grid inventory cache");
+    m.sample("tds_grid_inventory_cache_entries", GridInventoryCacheChronicle.getNumberOfEntries());
+    m.header("tds_grid_inventory_cache_offheap_bytes", "gauge", "Off heap memory used by the grid inventory cache");
+    m.sample("tds_grid_inventory_cache_offheap_bytes", GridInventoryCacheChronicle.getOffHeapMemoryUsed());
+    m.header("tds_grid_inventory_cache_lookups_total", "counter", "Grid inventory cache lookups, by result");
+    m.sample("tds_grid_inventory_cache_lookups_total", GridInventoryCacheChronicle.getHits(), "result", "hit");
+    m.sample("tds_grid_inventory_cache_lookups_total", GridInventoryCacheChronicle.getMisses(), "result", "miss");
+    m.sample("tds_grid_inventory_cache_lookups_total", GridInventoryCacheChronicle.getStale(), "result", "stale");
+    m.header("tds_grid_inventory_cache_load_seconds_total", "counter", "Time spent reading inventories on a hit");
+    m.sample("tds_grid_inventory_cache_load_seconds_total", GridInventoryCacheChronicle.getTotalLoadNanos() / 1.0e9);
+  }
+
+  private void writeExecutors(Metrics m) {
+    if (fcTriggerExecutor instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) fcTriggerExecutor;
+      m.header("tds_executor_active_threads", "gauge", "Threads running a task");
+      m.sample("tds_executor_active_threads", pool.getActiveCount(), "executor", "fcTrigger");
+      m.header("tds_executor_queued_tasks", "gauge", "Tasks waiting for a thread");
+      m.sample("tds_executor_queued_tasks", pool.getQueue().size(), "executor", "fcTrigger");
+      m.header("tds_executor_completed_tasks_total", "counter", "Tasks completed");
+      m.sample("tds_executor_completed_tasks_total", pool.getCompletedTaskCount(), "executor", "fcTrigger");
+    }
+
+    Scheduler scheduler = collectionUpdater.getScheduler();
+    if (scheduler != null) {
+      try {
+        m.header("tds_collection_updater_running_jobs", "gauge", "Feature collection update jobs running now");
+        m.sample("tds_collection_updater_running_jobs", scheduler.getCurrentlyExecutingJobs().size());
+        m.header("tds_collection_updater_jobs_total", "counter", "Feature collection update jobs run");
+        m.sample("tds_collection_updater_jobs_total", scheduler.getMetaData().getNumberOfJobsExecuted());
+      } catch (SchedulerException e) {
+        // scheduler shutting down, leave these out
+      }
+    }
+  }
+
+  private void writeDiskCache(Metrics m) {
+    DiskCache2 diskCache = ncssDiskCache.getDiskCache();
+    if (diskCache == null)
+      return;
+    // walking the cache directory can be slow, so only one scrape a minute does it
+    if (System.currentTimeMillis() - diskUsageTime > DISK_USAGE_MAX_AGE_MSECS && diskUsageLock.tryLock()) {
+      try {
+        countDiskUsage(new File(diskCache.getRootDirectory()).toPath());
+      } finally {
+        diskUsageLock.unlock();
+      }
+    }
+    if (diskUsageTime == 0)
+      return;
+    m.header("tds_disk_cache_files", "gauge", "Files in the disk cache");
+    m.sample("tds_disk_cache_files", diskUsageFiles, "cache", "ncss");
+    m.header("tds_disk_cache_bytes", "gauge", "Size of the files in the disk cache");
+    m.sample("tds_disk_cache_bytes", diskUsageBytes, "cache", "ncss");
+  }
+
+  private void countDiskUsage(Path root) {
+    long[] counts = new long[2];
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          counts[0]++;
+          counts[1] += attrs.size();
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE; // scoured while we looked
+        }
+      });
+    } catch (IOException e) {
+      return;
+    }
+    diskUsageFiles = counts[0];
+    diskUsageBytes = counts[1];
+    diskUsageTime = System.currentTimeMillis();
+  }
+
+  private void writeJvm(Metrics m) {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    m.header("tds_jvm_heap_used_bytes", "gauge", "Heap in use");
+    m.sample("tds_jvm_heap_used_bytes", heap.getUsed());
+    m.header("tds_jvm_heap_max_bytes", "gauge", "Maximum heap");
+    m.sample("tds_jvm_heap_max_bytes", heap.getMax());
+    m.header("tds_jvm_threads", "gauge", "Live threads");
+    m.sample("tds_jvm_threads", ManagementFactory.getThreadMXBean().getThreadCount());
+
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+      m.header("tds_process_open_fds", "gauge", "Open file descriptors of the server process");
+      m.sample("tds_process_open_fds", ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount());
+    }
+  }
+
+  /** Prometheus text exposition format, which wants \n line endings whatever the platform */
+  static class Metrics {
+    private final Formatter f = new Formatter(Locale.ROOT);
+
+    void header(String name, String type, String help) {
+      f.format("# HELP %s %s\n# TYPE %s %s\n", name, help, name, type);
+    }
+
+    void sample(String name, long value, String... labels) {
+      f.format("%s%s %d\n", name, labels(labels), value);
+    }
+
+    void sample(String name, double value, String... labels) {
+      f.format("%s%s %s\n", name, labels(labels), Double.toString(value));
+    }
+
+    private static String labels(String... labels) {
+      if (labels.length == 0)
+        return "";
+      StringBuilder sb = new StringBuilder("{");
+      for (int i = 0; i < labels.length; i += 2) {
+        if (i > 0)
+          sb.append(',');
+        sb.append(labels[i]).append("=\"");
+        String value = labels[i + 1];
+        for (int j = 0; j < value.length(); j++) {
+          char c = value.charAt(j);
+          if (c == '\\' || c == '"')
+            sb.append('\\').append(c);
+          else if (c == '\n')
+            sb.append("\\n");
+          else
+            sb.append(c);
+        }
+        sb.append('"');
+      }
+      return sb.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+      return f.toString();
+    }
+  }
+}
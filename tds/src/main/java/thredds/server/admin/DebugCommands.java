@@ -5,11 +5,16 @@
 
 package thredds.server.admin;
 
+import opendap.servers.parsers.ConstraintCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import thredds.featurecollection.cache.GridInventoryCacheChronicle;
 import thredds.server.config.TdsContext;
+import thredds.server.opendap.Dap2ResponseCache;
+import thredds.servlet.AdmissionControl;
+import thredds.servlet.AsyncFileWriter;
+import thredds.servlet.RequestIoStats;
 import thredds.servlet.ServletUtil;
 import ucar.nc2.dataset.NetcdfDataset;
 import java.io.ByteArrayOutputStream;
@@ -167,6 +172,35 @@ public class DebugCommands {
     };
     debugHandler.addAction(act);
 
+    act = new Action("showDap2ResponseCache", "Show DAP2 small response and constraint caches") {
+      public void doAction(Event e) {
+        Formatter f = new Formatter();
+        Dap2ResponseCache.show(f);
+        f.format("DAP2 constraint cache (maxSize=%d)%n  entries=%d hits=%d misses=%d%n",
+            ConstraintCache.getMaxSize(), ConstraintCache.size(), ConstraintCache.getHits(),
+            ConstraintCache.getMisses());
+        e.pw.println(f);
+      }
+    };
+    debugHandler.addAction(act);
+
+    act = new Action("clearDap2ResponseCache", "Clear DAP2 small response and constraint caches") {
+      public void doAction(Event e) {
+        Dap2ResponseCache.clear();
+        ConstraintCache.clear();
+        e.pw.println("  DAP2 response and constraint caches cleared");
+      }
+    };
+    debugHandler.addAction(act);
+
+    act = new Action("compactGridInventoryCache", "Remove FMRC GridInventoryCache entries for deleted files") {
+      public void doAction(Event e) {
+        long count = GridInventoryCacheChronicle.compact();
+        e.pw.printf("  Removed %d entries%n", count);
+      }
+    };
+    debugHandler.addAction(act);
+
     act = new Action("disableRAFCache", "Disable RandomAccessFile Cache") {
       public void doAction(Event e) {
         RandomAccessFile.getGlobalFileCache().disable();
@@ -252,6 +286,41 @@ public class DebugCommands {
       }
     };
     debugHandler.addAction(act);
+
+    act = new Action("showRequestIo", "Show request I/O totals per service") {
+      public void doAction(Event e) {
+        Formatter f = new Formatter();
+        RequestIoStats.showServiceTotals(f);
+        e.pw.println(f);
+      }
+    };
+    debugHandler.addAction(act);
+
+    act = new Action("showAdmissionControl", "Show admission control limits and state") {
+      public void doAction(Event e) {
+        Formatter f = new Formatter();
+        AdmissionControl.show(f);
+        e.pw.println(f);
+      }
+    };
+    debugHandler.addAction(act);
+
+    act = new Action("showAsyncWrites", "Show async (non-blocking) download state") {
+      public void doAction(Event e) {
+        Formatter f = new Formatter();
+        AsyncFileWriter.show(f);
+        e.pw.println(f);
+      }
+    };
+    debugHandler.addAction(act);
+
+    act = new Action("resetRequestIo", "Reset request I/O totals") {
+      public void doAction(Event e) {
+        RequestIoStats.resetServiceTotals();
+        e.pw.println("  Request I/O totals reset");
+      }
+    };
+    debugHandler.addAction(act);
   }
 
 
@@ -52,7 +52,29 @@ public class CatalogServiceController {
     String baseUriString = request.getRequestURL().toString();
     try {
       baseUri = new URI(baseUriString);
-      catalog = catalogManager.getCatalog(catalogPath, baseUri);
+
+      // large DatasetScan directories are written as the datasets are made
+      if (!isHtml && params.dataset == null && catalogManager.isDatasetScanStreaming()
+          && request.getMethod().equals("GET")) {
+        CatalogXmlStreamWriter writer = new CatalogXmlStreamWriter(response);
+        boolean streamed;
+        try {
+          streamed = catalogManager.makeDatasetScanCatalog(catalogPath, baseUri, writer.getMarker(), writer);
+        } catch (Exception e) {
+          writer.failed(e);
+          throw e;
+        }
+        if (streamed) {
+          writer.finish();
+          return null;
+        }
+      }
+
+      // just the requested dataset, if its ID is tracked
+      catalog = (params.dataset == null) ? null
+          : catalogManager.getCatalogForDataset(catalogPath, baseUri, params.dataset);
+      if (catalog == null)
+        catalog = catalogManager.getCatalog(catalogPath, baseUri);
 
     } catch (URISyntaxException e) {
       String msg = "Bad URI syntax [" + baseUriString + "]: " + e.getMessage();
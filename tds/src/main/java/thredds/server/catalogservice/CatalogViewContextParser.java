@@ -13,6 +13,7 @@ import thredds.server.catalog.FeatureCollectionRef;
 import thredds.server.config.HtmlConfigBean;
 import thredds.server.config.TdsContext;
 import thredds.server.config.TdsServerInfoBean;
+import thredds.server.metadata.ExtractedMetadataCache;
 import thredds.server.viewer.ViewerLinkProvider;
 import thredds.server.viewer.ViewerService;
 import ucar.nc2.units.DateType;
@@ -44,6 +45,9 @@ public class CatalogViewContextParser {
   @Autowired
   private ConfigCatalogCache ccc;
 
+  @Autowired
+  private ExtractedMetadataCache metadataCache;
+
   public Map<String, Object> getCatalogViewContext(Catalog cat, HttpServletRequest req, boolean isLocalCatalog) {
     Map<String, Object> model = new HashMap<>();
 
@@ -76,6 +80,11 @@ public class CatalogViewContextParser {
     // add dataset specfic context
     DatasetContext context = new DatasetContext(ds, isLocalCatalog, tdsContext, req);
     populateDatasetContext(ds, context, req, isLocalCatalog);
+    if (isLocalCatalog && ds.getUrlPath() != null) { // what the catalog doesnt say, if the file was crawled
+      ExtractedMetadataCache.Metadata extracted = metadataCache.get(metadataCache.getLocation(ds.getUrlPath()));
+      if (extracted != null)
+        context.addExtractedMetadata(extracted);
+    }
     model.put("dataset", context);
 
     // add jsonLD
@@ -427,6 +436,8 @@ class DatasetContext {
 
   private Map<String, Object> geospatialCoverage;
 
+  private ThreddsMetadata.GeospatialCoverage coverage;
+
   private Map<String, Object> timeCoverage;
 
   private List<Map<String, String>> metadata;
@@ -706,7 +717,16 @@ class DatasetContext {
   }
 
   private void setVariables() {
-    List<ThreddsMetadata.VariableGroup> vars = ds.getVariables();
+    setVariables(ds.getVariables());
+
+    // LOOK what about VariableMapLink string ??
+    ThreddsMetadata.UriResolved uri = ds.getVariableMapLink();
+    if (uri != null) {
+      this.variableMapLink = uri.resolved.toASCIIString();
+    }
+  }
+
+  private void setVariables(List<ThreddsMetadata.VariableGroup> vars) {
     this.variables = new ArrayList<>(vars.size());
 
     for (ThreddsMetadata.VariableGroup t : vars) {
@@ -731,16 +751,14 @@ class DatasetContext {
       varGroup.put("varList", varList);
       this.variables.add(varGroup);
     }
-
-    // LOOK what about VariableMapLink string ??
-    ThreddsMetadata.UriResolved uri = ds.getVariableMapLink();
-    if (uri != null) {
-      this.variableMapLink = uri.resolved.toASCIIString();
-    }
   }
 
   private void setGeospatialCoverage() {
-    ThreddsMetadata.GeospatialCoverage gc = ds.getGeospatialCoverage();
+    setGeospatialCoverage(ds.getGeospatialCoverage());
+  }
+
+  private void setGeospatialCoverage(ThreddsMetadata.GeospatialCoverage gc) {
+    this.coverage = gc;
     this.geospatialCoverage = new HashMap<>();
     if (gc != null) {
       this.geospatialCoverage.put("eastWestRange", rangeString(gc.getEastWestRange()));
@@ -785,6 +803,23 @@ class DatasetContext {
     }
   }
 
+  /**
+   * Use the metadata extracted from the data file for the variables, geospatial and time coverage that the catalog
+   * does not have.
+   */
+  protected void addExtractedMetadata(ExtractedMetadataCache.Metadata extracted) {
+    if (this.variables.isEmpty() && extracted.getVariables() != null) {
+      setVariables(Collections.singletonList(extracted.getVariables()));
+    }
+    if (this.coverage == null && extracted.getGeospatialCoverage() != null) {
+      setGeospatialCoverage(extracted.getGeospatialCoverage());
+    }
+    if (this.timeCoverage.isEmpty() && extracted.getDateRange() != null) {
+      this.timeCoverage.put("start", extracted.getDateRange().getStart().toString());
+      this.timeCoverage.put("end", extracted.getDateRange().getEnd().toString());
+    }
+  }
+
   private void setMetadata() {
     java.util.List<ThreddsMetadata.MetadataOther> metadata = ds.getMetadataOther();
     this.metadata = new ArrayList<>(metadata.size());
@@ -890,6 +925,10 @@ class DatasetContext {
     return this.geospatialCoverage;
   }
 
+  protected ThreddsMetadata.GeospatialCoverage getCoverage() {
+    return this.coverage;
+  }
+
   public Map<String, Object> getTimeCoverage() {
     return this.timeCoverage;
   }
@@ -993,7 +1032,7 @@ class JsonLD {
     }
 
     // set the spatial coverage
-    ThreddsMetadata.GeospatialCoverage gc = ds.getGeospatialCoverage();
+    ThreddsMetadata.GeospatialCoverage gc = dsContext.getCoverage();
     if (gc != null) {
       LatLonRect bbox = gc.getBoundingBox();
       String box =
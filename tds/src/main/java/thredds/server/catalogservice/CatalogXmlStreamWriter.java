@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.catalogservice;
+
+import thredds.client.catalog.builder.CatalogBuilder;
+import thredds.client.catalog.tools.CatalogXmlWriter;
+import thredds.server.catalog.DatasetScan;
+import thredds.util.ContentType;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Writes the catalog of a DatasetScan directory to the response as the batches of datasets are made,
+ * see DatasetScan.makeCatalogForDirectory(String, URI, int, String, CatalogHandler).
+ * <p/>
+ * Each catalog is written with CatalogXmlWriter, so the XML is the same as for the whole catalog.
+ * From the first catalog, everything before the marker is written, and everything after it is kept for the end.
+ * From the others, only what is between the two markers is written.
+ * If making the catalog fails after something was sent, the response is aborted, see failed(Throwable).
+ *
+ * @since 5.0
+ */
+public class CatalogXmlStreamWriter implements DatasetScan.CatalogHandler {
+  private final HttpServletResponse res;
+  private final String marker = "marker-" + UUID.randomUUID();
+  private final CatalogXmlWriter xmlWriter = new CatalogXmlWriter();
+
+  private Writer out;
+  private String footer;
+
+  public CatalogXmlStreamWriter(HttpServletResponse res) {
+    this.res = res;
+  }
+
+  /** The name of the marker datasets */
+  public String getMarker() {
+    return marker;
+  }
+
+  /** true once the first catalog has been written */
+  public boolean hasHeader() {
+    return out != null;
+  }
+
+  @Override
+  public void handle(CatalogBuilder catalog) throws IOException {
+    String xml = xmlWriter.writeXML(catalog.makeCatalog());
+    String markerAtt = "name=\"" + marker + "\"";
+    int first = xml.indexOf(markerAtt);
+    int last = xml.lastIndexOf(markerAtt);
+    if (first < 0)
+      throw new IllegalStateException("CatalogXmlStreamWriter: no marker in catalog");
+
+    if (out == null) { // the first catalog
+      res.setContentType(ContentType.xml.getContentHeader());
+      out = new BufferedWriter(new OutputStreamWriter(res.getOutputStream(), StandardCharsets.UTF_8), 64 * 1000);
+      out.write(xml, 0, lineStart(xml, first));
+      footer = xml.substring(lineEnd(xml, first));
+
+    } else {
+      int start = lineEnd(xml, first);
+      int end = lineStart(xml, last);
+      if (end > start)
+        out.write(xml, start, end - start);
+    }
+  }
+
+  /** Write the rest of the first catalog, and flush */
+  public void finish() throws IOException {
+    if (out == null)
+      return;
+    out.write(footer);
+    out.flush();
+  }
+
+  /**
+   * Called when making the catalog failed. If nothing has been committed yet, the response is reset, so that the caller
+   * can send the error instead. Otherwise the status cant be changed anymore, and closing the catalog would send a
+   * valid looking but incomplete catalog, so the response is abandoned: nothing more is written, and Aborted is thrown
+   * for the container to drop the connection.
+   *
+   * @throws Aborted if the response was already committed
+   */
+  public void failed(Throwable t) {
+    if (out == null)
+      return;
+    out = null;
+    if (!res.isCommitted()) {
+      res.reset();
+      return;
+    }
+    throw new Aborted("CatalogXmlStreamWriter: failed after the response was committed, catalog is incomplete", t);
+  }
+
+  /**
+   * Thrown when the catalog fails after its response was committed. TdsErrorHandling lets it through to the container,
+   * which closes the connection, so that the client sees an error instead of a short catalog.
+   */
+  public static class Aborted extends RuntimeException {
+    Aborted(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  private static int lineStart(String xml, int pos) {
+    return xml.lastIndexOf('\n', pos) + 1;
+  }
+
+  private static int lineEnd(String xml, int pos) {
+    int end = xml.indexOf('\n', pos);
+    return (end < 0) ? xml.length() : end + 1;
+  }
+}
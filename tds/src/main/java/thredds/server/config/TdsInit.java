@@ -16,18 +16,29 @@ import org.springframework.stereotype.Component;
 import thredds.client.catalog.tools.CatalogXmlWriter;
 import thredds.client.catalog.tools.DataFactory;
 import thredds.core.AllowedServices;
+import thredds.core.CatalogManager;
 import thredds.core.ConfigCatalogInitialization;
 import thredds.core.DatasetManager;
 import thredds.core.StandardService;
 import thredds.featurecollection.CollectionUpdater;
+import thredds.featurecollection.FeatureCollectionCache;
+import thredds.featurecollection.PointFileSummaryIndex;
 import thredds.featurecollection.cache.GridInventoryCacheChronicle;
 import thredds.featurecollection.InvDatasetFeatureCollection;
 import thredds.server.catalog.ConfigCatalogCache;
 import thredds.server.catalog.DatasetScan;
+import thredds.server.metadata.ExtractedMetadataCache;
 import thredds.server.ncss.controller.NcssDiskCache;
 import thredds.server.ncss.format.FormatsAvailabilityService;
 import thredds.server.ncss.format.SupportedFormat;
 import thredds.server.notebook.JupyterNotebookServiceCache;
+import thredds.server.search.DatasetSearchIndex;
+import thredds.servlet.AdmissionControl;
+import thredds.servlet.AsyncFileWriter;
+import thredds.servlet.CountingFileCache;
+import thredds.servlet.ParallelDeflaterOutputStream;
+import thredds.servlet.RandomAccessFileCache;
+import thredds.servlet.RequestIoStats;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.NetcdfDatasets;
@@ -49,6 +60,8 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Calendar;
+import java.util.Formatter;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -69,6 +82,10 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
   static private final Logger startupLog = org.slf4j.LoggerFactory.getLogger("serverStartup");
   static private final Logger logCatalogInit = org.slf4j.LoggerFactory.getLogger("catalogInit");
 
+  // first element of the request path of the services that AdmissionControl may limit
+  static private final String[] admissionControlServices = {"catalog", "dodsC", "dap4", "ncss", "wms", "wcs",
+      "fileServer", "cdmremote", "iso", "ncml", "uddc", "notebook"};
+
   @Autowired
   private TdsContext tdsContext;
 
@@ -87,9 +104,21 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
   @Autowired
   private ConfigCatalogInitialization configCatalogInitializer;
 
+  @Autowired
+  private CatalogManager catalogManager;
+
+  @Autowired
+  private DatasetSearchIndex searchIndex;
+
+  @Autowired
+  private ExtractedMetadataCache metadataCache;
+
   @Autowired
   CollectionUpdater collectionUpdater;
 
+  @Autowired
+  private FeatureCollectionCache featureCollectionCache;
+
   @Autowired
   @Qualifier("fcTriggerExecutor")
   private ExecutorService executor; // need this so we can shut it down
@@ -104,6 +133,7 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
   private NcssDiskCache ncssDiskCache;
 
   private Timer cdmDiskCacheTimer;
+  private Timer gridInventoryCacheTimer;
   private boolean wasInitialized;
 
   private XMLStore store;
@@ -234,6 +264,9 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     boolean useBytesForDataSize = ThreddsConfig.getBoolean("catalogWriting.useBytesForDataSize", false);
     CatalogXmlWriter.useBytesForDataSize(useBytesForDataSize);
     startupLog.info("TdsInit: catalogWriting.useBytesForDataSize= " + useBytesForDataSize);
+    int datasetScanBatchSize = ThreddsConfig.getInt("catalogWriting.datasetScanBatchSize", 0);
+    catalogManager.setDatasetScanBatchSize(datasetScanBatchSize);
+    startupLog.info("TdsInit: catalogWriting.datasetScanBatchSize= " + datasetScanBatchSize);
 
     // datasetSource plug-in
     ThreddsConfig.getRootList("datasetSource").forEach(datasetManager::registerDatasetSource);
@@ -383,13 +416,41 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     String averageValueSize = ThreddsConfig.get("FeatureCollection.averageValueSize", null);
 
     Path fcCacheDir = Paths.get(fcCache);
+    PointFileSummaryIndex.setCacheDirectory(fcCacheDir);
+    // per-file bounds of point collections, so subsets open fewer files; default is to open all files
+    boolean pointSummaryIndex = ThreddsConfig.getBoolean("FeatureCollection.pointSummaryIndex", false);
+    PointFileSummaryIndex.setEnabled(pointSummaryIndex);
+    startupLog.info("TdsInit: FeatureCollection.pointSummaryIndex= {}", pointSummaryIndex);
     try {
       GridInventoryCacheChronicle.init(fcCacheDir, maxEntries, maxBloatFactor, averageValueSize);
       startupLog.info("TdsInit: GridDatasetInv cache= {}", fcCache);
+
+      // remove entries for deleted files, default once a day starting in an hour
+      scourSecs = ThreddsConfig.getSeconds("FeatureCollection.scour", 24 * 60 * 60);
+      if (scourSecs > 0) {
+        gridInventoryCacheTimer = new Timer("GridInventoryCache", true);
+        gridInventoryCacheTimer.scheduleAtFixedRate(new GridInventoryCompactTask(), 1000L * 60 * 60,
+            1000L * scourSecs);
+      }
     } catch (Exception e) {
       startupLog.error("TdsInit: Failed initialize GridDatasetInv cache= {}", fcCache, e);
     }
 
+    // open feature collections in the background after the catalogs are read; default is lazily on first request
+    boolean warmUp = ThreddsConfig.getBoolean("FeatureCollection.warmUp", false);
+    int warmUpThreads = ThreddsConfig.getInt("FeatureCollection.warmUpThreads", 2);
+    featureCollectionCache.setWarmUpThreads(warmUp ? warmUpThreads : 0);
+    startupLog.info("TdsInit: FeatureCollection.warmUp= {} threads= {}", warmUp, warmUpThreads);
+
+    // update collections when their files change, instead of on the rescan schedule; default is rescan
+    boolean watch = ThreddsConfig.getBoolean("FeatureCollection.watch", false);
+    int watchDebounce = ThreddsConfig.getSeconds("FeatureCollection.watchDebounce", 5);
+    int watchStable = ThreddsConfig.getSeconds("FeatureCollection.watchStable", 10);
+    if (watch)
+      collectionUpdater.setWatch(1000L * watchDebounce, 1000L * watchStable);
+    startupLog.info("TdsInit: FeatureCollection.watch= {} debounce= {} secs stable= {} secs", watch, watchDebounce,
+        watchStable);
+
     ///////////////////////////////////////////////
     // Object caching
     int min, max, secs;
@@ -399,7 +460,7 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     max = ThreddsConfig.getInt("RandomAccessFile.maxFiles", 500);
     secs = ThreddsConfig.getSeconds("RandomAccessFile.scour", 11 * 60);
     if (max > 0) {
-      RandomAccessFile.setGlobalFileCache(new FileCache("RandomAccessFile", min, max, -1, secs));
+      RandomAccessFile.setGlobalFileCache(new RandomAccessFileCache("RandomAccessFile", min, max, -1, secs));
       startupLog.info("TdsInit: RandomAccessFile.initPartitionCache= [" + min + "," + max + "] scour = " + secs);
     }
 
@@ -418,14 +479,70 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     min = ThreddsConfig.getInt("TimePartition.minFiles", 100);
     max = ThreddsConfig.getInt("TimePartition.maxFiles", 150);
     secs = ThreddsConfig.getSeconds("TimePartition.scour", 13 * 60);
-    if (max > 0) {
-      GribCdmIndex.initDefaultCollectionCache(min, max, secs);
-      startupLog.info("TdsInit: GribCdmIndex.initDefaultCollectionCache= [" + min + "," + max + "] scour = " + secs);
+    if (max > 0) { // same as GribCdmIndex.initDefaultCollectionCache, but counting hits and misses for the metrics
+      GribCdmIndex.gribCollectionCache = new CountingFileCache("TimePartitionCache", min, max, -1, secs);
+      startupLog.info("TdsInit: GribCdmIndex.gribCollectionCache= [" + min + "," + max + "] scour = " + secs);
     }
 
     // RandomAccessFile.enableDefaultGlobalFileCache();
     // RandomAccessFile.setDebugLeaks(true);
 
+    // per request I/O counts in the closing log message; raf counts are off by default to keep the message short
+    boolean requestAccounting = ThreddsConfig.getBoolean("RequestAccounting.allow", true);
+    boolean rafCounters = ThreddsConfig.getBoolean("RequestAccounting.rafCounters", false);
+    RequestIoStats.setEnabled(requestAccounting, rafCounters);
+    startupLog.info("TdsInit: RequestAccounting.allow= {} rafCounters= {}", requestAccounting, rafCounters);
+
+    // per service concurrency limits, off unless configured
+    Map<String, AdmissionControl.Limits> serviceLimits = new HashMap<>();
+    if (ThreddsConfig.getBoolean("AdmissionControl.allow", false)) {
+      for (String service : admissionControlServices) {
+        String prefix = "AdmissionControl." + service + ".";
+        int maxConcurrent = ThreddsConfig.getInt(prefix + "maxConcurrent", 0);
+        if (maxConcurrent <= 0)
+          continue;
+        AdmissionControl.Limits limits = new AdmissionControl.Limits();
+        limits.maxConcurrent = maxConcurrent;
+        limits.maxQueue = ThreddsConfig.getInt(prefix + "maxQueue", 2 * maxConcurrent);
+        limits.maxWaitSecs = ThreddsConfig.getSeconds(prefix + "maxWait", 10);
+        limits.maxPerClient = ThreddsConfig.getInt(prefix + "maxPerClient", 0);
+        limits.largeRequest = ThreddsConfig.getBytes(prefix + "largeRequest", 0);
+        limits.maxLarge = ThreddsConfig.getInt(prefix + "maxLarge", Math.max(1, maxConcurrent / 4));
+        serviceLimits.put(service, limits);
+      }
+    }
+    AdmissionControl.configure(serviceLimits, ThreddsConfig.getSeconds("AdmissionControl.retryAfter", 10));
+    Formatter admissionConfig = new Formatter();
+    AdmissionControl.show(admissionConfig);
+    startupLog.info("TdsInit: {}", admissionConfig);
+
+    // non-blocking writes of large responses, off by default
+    boolean asyncWrite = ThreddsConfig.getBoolean("AsyncWrite.allow", false);
+    File spoolDir = new File(ThreddsConfig.get("AsyncWrite.dir",
+        new File(tdsContext.getThreddsDirectory().getPath(), "/cache/async/").getPath()));
+    if (asyncWrite && !spoolDir.exists() && !spoolDir.mkdirs()) {
+      startupLog.error("TdsInit: Cant make AsyncWrite directory " + spoolDir + ", DAP2 responses will not be async");
+      spoolDir = null;
+    }
+    AsyncFileWriter.setConfig(asyncWrite, ThreddsConfig.getBytes("AsyncWrite.minSize", 10 * 1000 * 1000),
+        (int) ThreddsConfig.getBytes("AsyncWrite.chunkSize", 64 * 1024),
+        ThreddsConfig.getSeconds("AsyncWrite.timeout", 60 * 60), asyncWrite ? spoolDir : null,
+        ThreddsConfig.getBytes("AsyncWrite.maxSpool", 100 * 1000 * 1000));
+    AsyncFileWriter.cleanSpoolDir();
+    Formatter asyncConfig = new Formatter();
+    AsyncFileWriter.show(asyncConfig);
+    startupLog.info("TdsInit: {}", asyncConfig);
+
+    // compress responses here on several threads instead of in Tomcat, off by default
+    ParallelDeflaterOutputStream.setConfig(ThreddsConfig.getBoolean("ParallelDeflate.allow", false),
+        ThreddsConfig.getInt("ParallelDeflate.threads", Runtime.getRuntime().availableProcessors()),
+        ThreddsConfig.getInt("ParallelDeflate.level", 6),
+        (int) ThreddsConfig.getBytes("ParallelDeflate.blockSize", 128 * 1024),
+        ThreddsConfig.getBytes("ParallelDeflate.minSize", 1000 * 1000));
+    Formatter deflateConfig = new Formatter();
+    ParallelDeflaterOutputStream.show(deflateConfig);
+    startupLog.info("TdsInit: {}", deflateConfig);
+
     // Config Cat Cache
     max = ThreddsConfig.getInt("ConfigCatalog.keepInMemory", 100);
     String rootPath = tdsContext.getContentRootPathProperty() + "thredds/";
@@ -445,6 +562,48 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     configCatalogInitializer.setTrackerDir(trackerDir);
     configCatalogInitializer.setMaxDatasetToTrack(trackerMax);
     configCatalogInitializer.setDatasetTrackerAverageValueSize(datasetTrackerAverageValueSize);
+    configCatalogInitializer.setDatasetTrackerType(ThreddsConfig.get("ConfigCatalog.datasetTracker", "chronicle"));
+    int materializeThreads = ThreddsConfig.getInt("ConfigCatalog.materializeThreads", 0);
+    configCatalogInitializer.setMaterializeThreads(materializeThreads);
+    startupLog.info("TdsInit: ConfigCatalog.materializeThreads= {}", materializeThreads);
+
+    // binary snapshots of the parsed catalogs, so unchanged catalogs are not parsed again
+    boolean snapshot = ThreddsConfig.getBoolean("ConfigCatalog.snapshot", false);
+    try {
+      ccc.setSnapshotDir(snapshot ? new File(trackerDir, "snapshots").getPath() : null);
+    } catch (IOException e) {
+      startupLog.error("TdsInit: cant make catalog snapshot directory", e);
+    }
+    startupLog.info("TdsInit: ConfigCatalog.snapshot= {}", snapshot);
+
+    // catalogs this big are read a batch of datasets at a time, at startup
+    long streamingSize = ThreddsConfig.getBytes("ConfigCatalog.streamingSize", 0);
+    int streamingBatchSize = ThreddsConfig.getInt("ConfigCatalog.streamingBatchSize", 10 * 1000);
+    configCatalogInitializer.setStreaming(streamingSize, streamingBatchSize);
+    startupLog.info("TdsInit: ConfigCatalog.streamingSize= {} streamingBatchSize= {}", streamingSize,
+        streamingBatchSize);
+
+    // index of dataset ids, to answer catalog requests with a dataset parameter without making the whole catalog
+    boolean trackDatasetIds = ThreddsConfig.getBoolean("ConfigCatalog.datasetIdIndex", false);
+    configCatalogInitializer.setTrackDatasetIds(trackDatasetIds);
+    startupLog.info("TdsInit: ConfigCatalog.datasetIdIndex= " + trackDatasetIds);
+
+    // index of the datasets, for the search service
+    boolean useSearchIndex = ThreddsConfig.getBoolean("ConfigCatalog.searchIndex", false);
+    configCatalogInitializer.setSearchIndex(useSearchIndex);
+    if (useSearchIndex)
+      InvDatasetFeatureCollection.setSearchIndex(searchIndex);
+    startupLog.info("TdsInit: ConfigCatalog.searchIndex= " + useSearchIndex);
+
+    // metadata extracted from the data files, so metadata requests and dataset pages dont open them
+    boolean useMetadataCache = ThreddsConfig.getBoolean("ConfigCatalog.extractedMetadata", false);
+    int crawlThreads = ThreddsConfig.getInt("ConfigCatalog.extractedMetadataCrawlThreads", 0);
+    int metadataMaxSize =
+        ThreddsConfig.getInt("ConfigCatalog.extractedMetadataMaxSize", (int) ExtractedMetadataCache.DEFAULT_MAX_SIZE);
+    if (useMetadataCache)
+      metadataCache.open(trackerDir, crawlThreads, metadataMaxSize);
+    startupLog.info("TdsInit: ConfigCatalog.extractedMetadata= {} crawlThreads= {} maxSize= {}", useMetadataCache,
+        crawlThreads, metadataMaxSize);
 
     // Jupyter notebook service cache
     if (allowedServices.isAllowed(StandardService.jupyterNotebook)) {
@@ -469,6 +628,12 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     }
   }
 
+  static private class GridInventoryCompactTask extends TimerTask {
+    public void run() {
+      GridInventoryCacheChronicle.compact();
+    }
+  }
+
   /*
    * http://stackoverflow.com/questions/24660408/how-can-i-get-intellij-debugger-to-allow-my-apps-shutdown-hooks-to-run?
    * lq=1
@@ -489,10 +654,16 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     // background threads
     if (cdmDiskCacheTimer != null)
       cdmDiskCacheTimer.cancel();
+    if (gridInventoryCacheTimer != null)
+      gridInventoryCacheTimer.cancel();
     FileCache.shutdown(); // this handles background threads for all instances of FileCache
     DiskCache2.exit(); // this handles background threads for all instances of DiskCache2
     GridInventoryCacheChronicle.shutdown();
+    featureCollectionCache.shutdown();
+    PointFileSummaryIndex.shutdown();
+    metadataCache.shutdown();
     executor.shutdownNow();
+    ParallelDeflaterOutputStream.shutdown();
     /*
      * try {
      * catalogWatcher.close();
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.exception;
+
+/**
+ * The service is at its admission control limit; the client should retry after retryAfterSecs.
+ * Returned as 503 with a Retry-After header.
+ */
+public class ServiceBusyException extends RuntimeException {
+  private final int retryAfterSecs;
+
+  public ServiceBusyException(String message, int retryAfterSecs) {
+    super(message);
+    this.retryAfterSecs = retryAfterSecs;
+  }
+
+  public int getRetryAfterSecs() {
+    return retryAfterSecs;
+  }
+}
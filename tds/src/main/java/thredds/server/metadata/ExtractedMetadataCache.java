@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.metadata;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import thredds.client.catalog.Dataset;
+import thredds.client.catalog.ThreddsMetadata;
+import thredds.core.DataRootManager;
+import thredds.core.DatasetManager;
+import thredds.server.catalog.DataRoot;
+import thredds.server.catalog.DatasetScan;
+import thredds.server.catalog.writer.ThreddsMetadataExtractor;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.constants.DataFormatType;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dt.GridDataset;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonRect;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keep the ThreddsMetadata extracted from data files (variables, bounding box and time range), so that metadata
+ * requests and dataset pages dont have to open the files.
+ * <p/>
+ * Keyed by file location, and only used while the file's lastModified is unchanged, so only local files are cached.
+ * The total number of files and variables kept is limited, least recently used are dropped first. Kept in a file in
+ * the catalog tracker directory. Optionally, the files of the DatasetScans are crawled in the background after the
+ * config catalogs are read, so the cache is filled before they are requested, and files that are gone are dropped.
+ *
+ * @since 5.0
+ */
+@Component
+public class ExtractedMetadataCache {
+  static private final Logger logger = LoggerFactory.getLogger(ExtractedMetadataCache.class);
+  static private final String dbname = "/extractedMetadata.dat";
+  static private final int MAGIC = 0x54454d43; // "TEMC"
+  static private final int VERSION = 2;
+  static public final long DEFAULT_MAX_SIZE = 1000 * 1000;
+
+  @Autowired
+  private DataRootManager dataRootManager;
+
+  @Autowired
+  private DatasetManager datasetManager;
+
+  /** The metadata extracted from one file. Any of it may be null, eg if the file could not be opened. */
+  public static class Metadata {
+    final long lastModified;
+    final FeatureType featureType;
+    final ThreddsMetadata.VariableGroup variables;
+    final LatLonRect bbox;
+    final CalendarDateRange dateRange;
+
+    Metadata(long lastModified, FeatureType featureType, ThreddsMetadata.VariableGroup variables, LatLonRect bbox,
+        CalendarDateRange dateRange) {
+      this.lastModified = lastModified;
+      this.featureType = featureType;
+      this.variables = variables;
+      this.bbox = bbox;
+      this.dateRange = dateRange;
+    }
+
+    /** the feature type the file was opened as */
+    public FeatureType getFeatureType() {
+      return featureType;
+    }
+
+    public ThreddsMetadata.VariableGroup getVariables() {
+      return variables;
+    }
+
+    public ThreddsMetadata.GeospatialCoverage getGeospatialCoverage() {
+      return (bbox == null) ? null : new ThreddsMetadata.GeospatialCoverage(bbox, null, 0.0, 0.0);
+    }
+
+    public CalendarDateRange getDateRange() {
+      return dateRange;
+    }
+
+    // a file and its variables are each counted as one
+    int weight() {
+      return 1 + (variables == null ? 0 : variables.getVariableList().size());
+    }
+  }
+
+  private volatile String filepath; // null if not enabled
+  private volatile Cache<String, Metadata> cache = makeCache(DEFAULT_MAX_SIZE); // key is the file location
+  private volatile boolean changed;
+
+  // optional crawl
+  private int crawlThreads; // 0 means no crawl
+  private ExecutorService crawlExecutor;
+  private final AtomicInteger crawled = new AtomicInteger();
+  private final AtomicInteger extracted = new AtomicInteger();
+  private final AtomicInteger pruned = new AtomicInteger();
+
+  /**
+   * Start using the cache, read from the directory if it was saved there. Called from TdsInit.
+   *
+   * @param dir the catalog tracker directory
+   * @param crawlThreads number of threads used by crawl(); if <= 0, crawl() does nothing
+   * @param maxSize maximum number of files plus their variables that are kept
+   */
+  public synchronized void open(String dir, int crawlThreads, long maxSize) {
+    this.crawlThreads = crawlThreads;
+    String path = dir + dbname;
+    cache = makeCache(maxSize);
+    if (new File(path).exists())
+      read(path);
+    filepath = path;
+  }
+
+  private static Cache<String, Metadata> makeCache(long maxSize) {
+    return CacheBuilder.newBuilder().maximumWeight(maxSize).weigher((String key, Metadata m) -> m.weight()).build();
+  }
+
+  /**
+   * True if the location is a local file, whose lastModified can be checked. Object stores and remote or other
+   * non-file locations are not cached, File.lastModified() is always 0 for them.
+   */
+  static boolean isLocalFile(String location) {
+    if (location == null || DatasetManager.isLocationObjectStore(location))
+      return false;
+    int colon = location.indexOf(':');
+    return colon < 0 || (colon == 1 && File.separatorChar == '\\'); // allow a windows drive letter
+  }
+
+  public boolean isEnabled() {
+    return filepath != null;
+  }
+
+  public int size() {
+    return (int) cache.size();
+  }
+
+  /**
+   * The location of the file for a request path, if its metadata can be cached: the path must be in a datasetRoot or
+   * datasetScan, and not be an NcML dataset.
+   *
+   * @return the file location, or null
+   */
+  public String getLocation(String reqPath) {
+    if (filepath == null || reqPath == null)
+      return null;
+    DataRootManager.DataRootMatch match = dataRootManager.findDataRootMatch(reqPath);
+    if (match == null)
+      return null;
+    DataRoot.Type type = match.dataRoot.getType();
+    if (type != DataRoot.Type.datasetRoot && type != DataRoot.Type.datasetScan)
+      return null;
+    if (datasetManager.getLocationFromNcml(reqPath) != null)
+      return null;
+    String location = match.dataRoot.getFileLocationFromRequestPath(reqPath);
+    return isLocalFile(location) ? location : null;
+  }
+
+  /** The cached metadata of this file, or null if its not cached or the file changed since */
+  public Metadata get(String location) {
+    if (filepath == null || !isLocalFile(location))
+      return null;
+    Metadata metadata = cache.getIfPresent(location);
+    if (metadata == null)
+      return null;
+    if (metadata.lastModified != new File(location).lastModified()) {
+      cache.invalidate(location);
+      changed = true;
+      return null;
+    }
+    return metadata;
+  }
+
+  /**
+   * Cache the metadata extracted from a file.
+   *
+   * @param location the file location
+   * @param featureType the feature type the file was opened as, or null if it could not be opened
+   * @param extracted from ThreddsMetadataExtractor, or null if it could not be extracted
+   * @return what was cached, or null if the file does not exist or is not a local file
+   */
+  public Metadata put(String location, FeatureType featureType, ThreddsMetadata extracted) {
+    if (filepath == null || !isLocalFile(location))
+      return null;
+    long lastModified = new File(location).lastModified();
+    if (lastModified == 0)
+      return null;
+
+    ThreddsMetadata.VariableGroup variables = null;
+    LatLonRect bbox = null;
+    CalendarDateRange dateRange = null;
+    if (extracted != null) {
+      Object vars = extracted.getFlds().get(Dataset.VariableGroups);
+      if (vars instanceof ThreddsMetadata.VariableGroup)
+        variables = (ThreddsMetadata.VariableGroup) vars;
+      Object gc = extracted.getFlds().get(Dataset.GeospatialCoverage);
+      if (gc instanceof ThreddsMetadata.GeospatialCoverage)
+        bbox = ((ThreddsMetadata.GeospatialCoverage) gc).getBoundingBox();
+      Object tc = extracted.getFlds().get(Dataset.TimeCoverage);
+      if (tc instanceof CalendarDateRange)
+        dateRange = (CalendarDateRange) tc;
+    }
+
+    Metadata metadata = new Metadata(lastModified, featureType, variables, bbox, dateRange);
+    cache.put(location, metadata);
+    changed = true;
+    return metadata;
+  }
+
+  /** Get the cached metadata of this file, or open the file and extract it */
+  public Metadata extract(String location) {
+    Metadata metadata = get(location);
+    if (metadata != null)
+      return metadata;
+
+    FeatureType featureType = null;
+    ThreddsMetadata result = null;
+    Formatter errlog = new Formatter();
+    try (FeatureDataset fd = FeatureDatasetFactoryManager.open(FeatureType.ANY, location, null, errlog)) {
+      if (fd == null) {
+        logger.debug("cant open {} as a feature dataset, err= {}", location, errlog);
+      } else {
+        featureType = fd.getFeatureType();
+        String fileFormat = (fd instanceof GridDataset) ? getDataFormat(((GridDataset) fd).getNetcdfFile()) : null;
+        result = new ThreddsMetadataExtractor().extract(fd, fileFormat);
+      }
+    } catch (Throwable t) {
+      logger.warn("failed to extract metadata from {}", location, t);
+    }
+    extracted.incrementAndGet();
+    return put(location, featureType, result); // failures are cached too, so unchanged files are not opened again
+  }
+
+  /** The canonical data format name of an open file */
+  public static String getDataFormat(NetcdfFile ncfile) {
+    String fileTypeS = ncfile.getFileTypeId();
+    DataFormatType fileFormat = DataFormatType.getType(fileTypeS);
+    return (fileFormat != null) ? fileFormat.toString() : fileTypeS;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  // crawl
+
+  /**
+   * Extract the metadata of the files of the DatasetScans in the background, skipping the ones already cached, then
+   * drop the cached files that no longer exist. Called after the config catalogs are read; a crawl already in
+   * progress is cancelled.
+   *
+   * @param scanSupplier supplies the configured DatasetScans; called in a background thread
+   */
+  public synchronized void crawl(Supplier<List<DatasetScan>> scanSupplier) {
+    if (crawlExecutor != null)
+      crawlExecutor.shutdownNow(); // a reread supersedes the previous crawl
+    if (filepath == null || crawlThreads <= 0)
+      return;
+
+    // when the queue is full, the scan waits by extracting a file itself, so the files are not all queued at once
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(crawlThreads, crawlThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(100 * crawlThreads), new ThreadPoolExecutor.CallerRunsPolicy());
+    crawlExecutor = executor;
+    executor.submit(() -> {
+      List<DatasetScan> scans = scanSupplier.get();
+      logger.info("ExtractedMetadataCache crawl of {} datasetScans using {} threads", scans.size(), crawlThreads);
+      crawled.set(0);
+      extracted.set(0);
+      pruned.set(0);
+      AtomicInteger pending = new AtomicInteger(1); // save when the scans and all the extractions are done
+
+      for (DatasetScan scan : scans) {
+        try {
+          scan.scanFiles(mfile -> {
+            if (executor.isShutdown())
+              return; // cancelled
+            crawled.incrementAndGet();
+            if (!isLocalFile(mfile.getPath()) || get(mfile.getPath()) != null)
+              return;
+            pending.incrementAndGet();
+            executor.submit(() -> {
+              try {
+                if (!Thread.currentThread().isInterrupted())
+                  extract(mfile.getPath());
+              } finally {
+                if (pending.decrementAndGet() == 0)
+                  saveQuietly();
+              }
+            });
+          });
+        } catch (Throwable t) {
+          logger.warn("ExtractedMetadataCache failed to crawl {}", scan.getScanLocation(), t);
+        }
+      }
+      if (!executor.isShutdown())
+        prune();
+      if (pending.decrementAndGet() == 0)
+        saveQuietly();
+      executor.shutdown(); // already submitted tasks still run
+    });
+  }
+
+  /** Drop the cached files that no longer exist */
+  void prune() {
+    for (String location : new ArrayList<>(cache.asMap().keySet())) {
+      if (!new File(location).exists()) {
+        cache.invalidate(location);
+        pruned.incrementAndGet();
+        changed = true;
+      }
+    }
+  }
+
+  private void saveQuietly() {
+    try {
+      save();
+    } catch (IOException e) {
+      logger.warn("ExtractedMetadataCache save failed", e);
+    }
+  }
+
+  public synchronized void shutdown() {
+    if (crawlExecutor != null)
+      crawlExecutor.shutdownNow();
+    saveQuietly();
+  }
+
+  public void showStatus(Formatter f) {
+    f.format("ExtractedMetadataCache file=%s files=%d; last crawl: files=%d extracted=%d pruned=%d%n", filepath,
+        cache.size(), crawled.get(), extracted.get(), pruned.get());
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  // persistence: MAGIC, VERSION, count, then each location and metadata
+
+  public synchronized void save() throws IOException {
+    if (filepath == null || !changed)
+      return;
+    changed = false;
+
+    Path file = Paths.get(filepath);
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      Map<String, Metadata> all = new HashMap<>(cache.asMap());
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(all.size());
+      for (Map.Entry<String, Metadata> entry : all.entrySet()) {
+        out.writeUTF(entry.getKey());
+        writeMetadata(out, entry.getValue());
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void read(String path) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        logger.info("ExtractedMetadataCache: ignoring {} with unknown format", path);
+        return;
+      }
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        String location = in.readUTF();
+        cache.put(location, readMetadata(in));
+      }
+      changed = false;
+
+    } catch (IOException e) {
+      logger.warn("ExtractedMetadataCache: failed to read {}", path, e);
+      cache.invalidateAll();
+    }
+  }
+
+  static void writeMetadata(DataOutputStream out, Metadata m) throws IOException {
+    out.writeLong(m.lastModified);
+    writeString(out, m.featureType == null ? null : m.featureType.toString());
+
+    out.writeBoolean(m.variables != null);
+    if (m.variables != null) {
+      writeString(out, m.variables.getVocabulary());
+      List<ThreddsMetadata.Variable> vars = m.variables.getVariableList();
+      out.writeInt(vars.size());
+      for (ThreddsMetadata.Variable v : vars) {
+        writeString(out, v.getName());
+        writeString(out, v.getDescription());
+        writeString(out, v.getVocabularyName());
+        writeString(out, v.getUnits());
+        writeString(out, v.getVocabularyId());
+      }
+    }
+
+    out.writeBoolean(m.bbox != null);
+    if (m.bbox != null) {
+      out.writeDouble(m.bbox.getLatMin());
+      out.writeDouble(m.bbox.getLonMin());
+      out.writeDouble(m.bbox.getHeight());
+      out.writeDouble(m.bbox.getWidth());
+    }
+
+    out.writeBoolean(m.dateRange != null);
+    if (m.dateRange != null) {
+      out.writeLong(m.dateRange.getStart().getMillis());
+      out.writeLong(m.dateRange.getEnd().getMillis());
+    }
+  }
+
+  static Metadata readMetadata(DataInputStream in) throws IOException {
+    long lastModified = in.readLong();
+    String featureTypeName = readString(in);
+    FeatureType featureType = (featureTypeName == null) ? null : FeatureType.getType(featureTypeName);
+
+    ThreddsMetadata.VariableGroup variables = null;
+    if (in.readBoolean()) {
+      String vocab = readString(in);
+      int n = in.readInt();
+      List<ThreddsMetadata.Variable> vars = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+        vars.add(new ThreddsMetadata.Variable(readString(in), readString(in), readString(in), readString(in),
+            readString(in)));
+      variables = new ThreddsMetadata.VariableGroup(vocab, null, null, vars);
+    }
+
+    LatLonRect bbox = null;
+    if (in.readBoolean()) {
+      double latMin = in.readDouble();
+      double lonMin = in.readDouble();
+      double height = in.readDouble();
+      double width = in.readDouble();
+      bbox = new LatLonRect(LatLonPoint.create(latMin, lonMin), height, width);
+    }
+
+    CalendarDateRange dateRange = null;
+    if (in.readBoolean())
+      dateRange = CalendarDateRange.of(CalendarDate.of(in.readLong()), CalendarDate.of(in.readLong()));
+
+    return new Metadata(lastModified, featureType, variables, bbox, dateRange);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null)
+      out.writeUTF(s);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
@@ -11,6 +11,7 @@ import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -20,6 +21,7 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RequestMapping;
 import thredds.client.catalog.Catalog;
 import thredds.client.catalog.ThreddsMetadata;
+import thredds.core.DatasetManager;
 import thredds.core.TdsRequestedDataset;
 import thredds.server.catalog.writer.ThreddsMetadataExtractor;
 import thredds.util.ContentType;
@@ -41,6 +43,12 @@ import java.util.List;
 @RequestMapping("/metadata")
 public class MetadataController {
 
+  @Autowired
+  private ExtractedMetadataCache metadataCache;
+
+  @Autowired
+  private DatasetManager datasetManager;
+
   @RequestMapping(value = "**")
   public ResponseEntity<String> getMetadata(@Valid MetadataRequestParameterBean params, BindingResult result,
       HttpServletResponse res, HttpServletRequest req) throws Exception {
@@ -49,36 +57,53 @@ public class MetadataController {
       throw new BindException(result);
     String path = TdsPathUtils.extractPath(req, "metadata");
 
+    // use the cached metadata if the file hasnt changed, and was opened as a grid, as below
+    String location = metadataCache.getLocation(path);
+    if (location != null) {
+      ExtractedMetadataCache.Metadata cached = metadataCache.get(location);
+      if (cached != null && cached.getVariables() != null && cached.getFeatureType() != null
+          && cached.getFeatureType().isCoverageFeatureType()) {
+        if (!datasetManager.resourceControlOk(req, res, path))
+          return null;
+        return makeResponse(cached.getVariables(), params);
+      }
+    }
+
     try (GridDataset gridDataset = TdsRequestedDataset.getGridDataset(req, res, path)) {
       if (gridDataset == null)
         return null;
 
       NetcdfFile ncfile = gridDataset.getNetcdfFile(); // LOOK maybe gridDataset.getFileTypeId ??
-      String fileTypeS = ncfile.getFileTypeId();
-      ucar.nc2.constants.DataFormatType fileFormat = ucar.nc2.constants.DataFormatType.getType(fileTypeS);
-      if (fileFormat != null)
-        fileTypeS = fileFormat.toString(); // canonicalize
-
-      ThreddsMetadata.VariableGroup vars = new ThreddsMetadataExtractor().extractVariables(fileTypeS, gridDataset);
-
-      boolean wantXML = (params.getAccept() != null) && params.getAccept().equalsIgnoreCase("XML");
-
-      HttpHeaders responseHeaders = new HttpHeaders();
-      String strResponse;
-      if (wantXML) {
-        strResponse = writeXML(vars);
-        responseHeaders.set(ContentType.HEADER, ContentType.xml.getContentHeader());
-        // responseHeaders.set(Constants.Content_Disposition, Constants.setContentDispositionValue(datasetPath,
-        // ".xml"));
-      } else {
-        strResponse = writeHTML(vars);
-        responseHeaders.set(ContentType.HEADER, ContentType.html.getContentHeader());
-      }
-      return new ResponseEntity<>(strResponse, responseHeaders, HttpStatus.OK);
+      String fileTypeS = ExtractedMetadataCache.getDataFormat(ncfile); // canonicalize
+
+      ThreddsMetadataExtractor extractor = new ThreddsMetadataExtractor();
+      ThreddsMetadata.VariableGroup vars = extractor.extractVariables(fileTypeS, gridDataset);
+      if (location != null) // the coverage too, for the dataset pages
+        metadataCache.put(location, gridDataset.getFeatureType(), extractor.extract(gridDataset, fileTypeS));
+
+      return makeResponse(vars, params);
     }
 
   }
 
+  private ResponseEntity<String> makeResponse(ThreddsMetadata.VariableGroup vars,
+      MetadataRequestParameterBean params) {
+    boolean wantXML = (params.getAccept() != null) && params.getAccept().equalsIgnoreCase("XML");
+
+    HttpHeaders responseHeaders = new HttpHeaders();
+    String strResponse;
+    if (wantXML) {
+      strResponse = writeXML(vars);
+      responseHeaders.set(ContentType.HEADER, ContentType.xml.getContentHeader());
+      // responseHeaders.set(Constants.Content_Disposition, Constants.setContentDispositionValue(datasetPath,
+      // ".xml"));
+    } else {
+      strResponse = writeHTML(vars);
+      responseHeaders.set(ContentType.HEADER, ContentType.html.getContentHeader());
+    }
+    return new ResponseEntity<>(strResponse, responseHeaders, HttpStatus.OK);
+  }
+
   private String writeHTML(ThreddsMetadata.VariableGroup vars) {
     Formatter f = new Formatter();
     f.format("<h3>Variables:</h3>%n<ul>%n");
@@ -20,6 +20,7 @@ import thredds.server.config.TdsContext;
 import thredds.server.ncss.exception.NcssException;
 import thredds.server.ncss.format.SupportedFormat;
 import thredds.server.ncss.format.SupportedOperation;
+import thredds.servlet.ParallelDeflaterOutputStream;
 import thredds.util.TdsPathUtils;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -67,6 +68,31 @@ public abstract class AbstractNcssController {
     }
   }
 
+  /**
+   * Gzip a text (CSV or XML) stream response on the ParallelDeflate pool, if the client accepts it.
+   *
+   * @return the stream to write to, which must be finished, or null to write to the response as usual
+   */
+  protected ParallelDeflaterOutputStream gzipStream(HttpServletRequest req, HttpServletResponse res,
+      SupportedFormat format) throws IOException {
+    if (!format.isStream() || format.isBinary() || !ParallelDeflaterOutputStream.acceptsGzip(req))
+      return null;
+    res.setHeader("Content-Encoding", "gzip");
+    res.addHeader("Vary", "Accept-Encoding");
+    return new ParallelDeflaterOutputStream(res.getOutputStream(), true);
+  }
+
+  /**
+   * Called when a request fails after gzipStream() was used. If nothing has been sent yet, drop the partly written
+   * gzip stream, so that the error is sent uncompressed. Otherwise the client gets a truncated gzip stream.
+   */
+  protected void gzipFailed(HttpServletResponse res) {
+    if (!res.isCommitted()) {
+      res.resetBuffer();
+      res.setHeader("Content-Encoding", "identity");
+    }
+  }
+
   abstract String getBase();
 
   protected String buildDatasetUrl(String path) {
@@ -28,6 +28,9 @@ import thredds.server.ncss.params.NcssGridParamsBean;
 import thredds.server.ncss.params.NcssParamsBean;
 import thredds.server.ncss.view.dsg.DsgSubsetWriter;
 import thredds.server.ncss.view.dsg.DsgSubsetWriterFactory;
+import thredds.servlet.AdmissionControl;
+import thredds.servlet.AsyncFileWriter;
+import thredds.servlet.ParallelDeflaterOutputStream;
 import thredds.util.Constants;
 import thredds.util.ContentType;
 import ucar.ma2.InvalidRangeException;
@@ -95,15 +98,15 @@ public class NcssGridController extends AbstractNcssController {
       checkRequestedVars(gcd, params);
 
       if (params.hasLatLonPoint()) {
-        handleRequestGridAsPoint(res, params, datasetPath, gcd);
+        handleRequestGridAsPoint(req, res, params, datasetPath, gcd);
       } else {
-        handleRequestGrid(res, params, datasetPath, gcd);
+        handleRequestGrid(req, res, params, datasetPath, gcd);
       }
     }
   }
 
-  private void handleRequestGrid(HttpServletResponse res, NcssGridParamsBean params, String datasetPath,
-      CoverageCollection gcd) throws IOException, NcssException, InvalidRangeException {
+  private void handleRequestGrid(HttpServletRequest req, HttpServletResponse res, NcssGridParamsBean params,
+      String datasetPath, CoverageCollection gcd) throws IOException, NcssException, InvalidRangeException {
     // Supported formats are netcdf3 (default) and netcdf4ext/ netcdf4 (turned on in TdsInit if C library is present)
     SupportedFormat sf = SupportedOperation.GRID_REQUEST.getSupportedFormat(params.getAccept());
     NetcdfFileFormat version = getNetcdfFileFormat(sf);
@@ -135,6 +138,13 @@ public class NcssGridController extends AbstractNcssController {
 
     setResponseHeaders(res, httpHeaders);
 
+    // large files are sent without holding this thread, and deleted when done
+    if (AsyncFileWriter.canWrite(req, netcdfResult.length())) {
+      res.setStatus(HttpServletResponse.SC_OK);
+      AsyncFileWriter.write(req, res, netcdfResult.toPath(), 0, netcdfResult.length(), true);
+      return;
+    }
+
     IO.copyFileB(netcdfResult, res.getOutputStream(), 60000);
     res.flushBuffer();
     res.getOutputStream().close();
@@ -167,6 +177,13 @@ public class NcssGridController extends AbstractNcssController {
       maxFileDownloadSize *= ESTIMATED_COMPRESSION_RATE;
     }
 
+    // admission control wants the size before the file is written; a 1 byte limit makes the writer only compute it
+    if (AdmissionControl.wantsSize()) {
+      NetcdfFormatWriter.Builder sizeb = NetcdfFormatWriter.builder().setLocation(responseFilename).setFormat(version);
+      AdmissionControl.reserve(
+          CFGridCoverageWriter.write(gcd, params.getVar(), subset, params.isAddLatLon(), sizeb, 1).sizeToBeWritten());
+    }
+
     // write the file
     // default chunking - let user control at some point
     NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setLocation(responseFilename).setFormat(version);
@@ -193,8 +210,8 @@ public class NcssGridController extends AbstractNcssController {
     return ncFile.getPath();
   }
 
-  private void handleRequestGridAsPoint(HttpServletResponse res, NcssGridParamsBean params, String datasetPath,
-      CoverageCollection gcd) throws Exception {
+  private void handleRequestGridAsPoint(HttpServletRequest req, HttpServletResponse res, NcssGridParamsBean params,
+      String datasetPath, CoverageCollection gcd) throws Exception {
     SupportedFormat sf = SupportedOperation.POINT_REQUEST.getSupportedFormat(params.getAccept());
 
     CoverageAsPoint covp = new CoverageAsPoint(gcd, params.getVar(), params.makeSubset(gcd));
@@ -204,10 +221,19 @@ public class NcssGridController extends AbstractNcssController {
       // SubsetParams ncssParams = params.makeSubset(gcd);
       SubsetParams ncssParams =
           new SubsetParams().set(SubsetParams.timeAll, true).set(SubsetParams.variables, params.getVar());
-      DsgSubsetWriter pds =
-          DsgSubsetWriterFactory.newInstance(fd, ncssParams, ncssDiskCache, res.getOutputStream(), sf);
-      setResponseHeaders(res, pds.getHttpHeaders(datasetPath, sf.isStream()));
-      pds.respond(res, fd, datasetPath, ncssParams, sf);
+      ParallelDeflaterOutputStream gzOut = gzipStream(req, res, sf);
+      try {
+        DsgSubsetWriter pds = DsgSubsetWriterFactory.newInstance(fd, ncssParams, ncssDiskCache,
+            gzOut != null ? gzOut : res.getOutputStream(), sf);
+        setResponseHeaders(res, pds.getHttpHeaders(datasetPath, sf.isStream()));
+        pds.respond(res, fd, datasetPath, ncssParams, sf);
+        if (gzOut != null)
+          gzOut.finish();
+      } catch (Exception e) {
+        if (gzOut != null)
+          gzipFailed(res);
+        throw e;
+      }
     }
   }
 
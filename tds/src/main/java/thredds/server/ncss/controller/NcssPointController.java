@@ -26,6 +26,7 @@ import thredds.server.ncss.format.SupportedOperation;
 import thredds.server.ncss.params.NcssPointParamsBean;
 import thredds.server.ncss.view.dsg.DsgSubsetWriter;
 import thredds.server.ncss.view.dsg.DsgSubsetWriterFactory;
+import thredds.servlet.ParallelDeflaterOutputStream;
 import ucar.nc2.constants.FeatureType;
 import ucar.nc2.ft.DsgFeatureCollection;
 import ucar.nc2.ft.FeatureDataset;
@@ -91,7 +92,10 @@ public class NcssPointController extends AbstractNcssController {
       throw new BindException(validationResult);
 
     String datasetPath = getDatasetPath(req);
-    try (FeatureDatasetPoint fdp = TdsRequestedDataset.getPointDataset(req, res, datasetPath)) {
+    SubsetParams ncssParams = params.makeSubset();
+    CalendarDateRange wantRange = DsgSubsetWriter.getWantedDateRange(ncssParams);
+    try (FeatureDatasetPoint fdp = TdsRequestedDataset.getPointDataset(req, res, datasetPath,
+        ncssParams.getLatLonBoundingBox(), wantRange, ncssParams.getStations())) {
       if (fdp == null)
         return;
 
@@ -106,13 +110,21 @@ public class NcssPointController extends AbstractNcssController {
         throw new NcssException("Dataset Feature Type is " + ft.toString() + " but request is for Points or Stations");
       }
 
-      SubsetParams ncssParams = params.makeSubset();
       SupportedFormat format = getSupportedOperation(fdp).getSupportedFormat(params.getAccept());
 
-      DsgSubsetWriter pds =
-          DsgSubsetWriterFactory.newInstance(fdp, ncssParams, ncssDiskCache, res.getOutputStream(), format);
-      setResponseHeaders(res, pds.getHttpHeaders(datasetPath, format.isStream()));
-      pds.respond(res, fdp, datasetPath, ncssParams, format);
+      ParallelDeflaterOutputStream gzOut = gzipStream(req, res, format);
+      try {
+        DsgSubsetWriter pds = DsgSubsetWriterFactory.newInstance(fdp, ncssParams, ncssDiskCache,
+            gzOut != null ? gzOut : res.getOutputStream(), format);
+        setResponseHeaders(res, pds.getHttpHeaders(datasetPath, format.isStream()));
+        pds.respond(res, fdp, datasetPath, ncssParams, format);
+        if (gzOut != null)
+          gzOut.finish();
+      } catch (Exception e) {
+        if (gzOut != null)
+          gzipFailed(res);
+        throw e;
+      }
     }
   }
 
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.opendap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Formatter;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Keeps small DAP2 data (.dods) responses in memory, so the requests that every client makes when it opens a
+ * dataset (the 1D coordinate variables, eg "?time,lat,lon") are answered without opening the dataset or reading
+ * data. Only datasets read from a single local file are cached; its last modified time is part of the key, so a
+ * changed file is a miss. NcML and aggregations are never cached, as their members may change without it.
+ * NcML in the catalog is not part of the key, so the cache is cleared when the catalogs are reread.
+ * The stored body is exactly what would be sent, and may also be kept deflated.
+ *
+ * @since 5.0
+ */
+public class Dap2ResponseCache {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Dap2ResponseCache.class);
+
+  private static volatile Cache<String, Entry> cache;
+  private static volatile long maxResponseBytes;
+  private static volatile boolean preDeflate;
+  private static long maxBytes;
+
+  /**
+   * Called from OpendapServlet.init.
+   *
+   * @param maxSize total bytes kept, 0 to turn off
+   * @param maxResponseSize largest response that is cached
+   * @param deflate also keep the deflated body, for clients that accept it
+   */
+  public static void init(long maxSize, long maxResponseSize, boolean deflate) {
+    maxBytes = maxSize;
+    maxResponseBytes = maxResponseSize;
+    preDeflate = deflate;
+    cache = (maxSize <= 0) ? null
+        : CacheBuilder.newBuilder().maximumWeight(maxSize).weigher((String key, Entry e) -> e.weight(key))
+            .recordStats().build();
+  }
+
+  public static boolean isEnabled() {
+    return cache != null;
+  }
+
+  /** True if a response of this (estimated) size may be cached. */
+  public static boolean wants(long size) {
+    return cache != null && size >= 0 && size <= maxResponseBytes;
+  }
+
+  /**
+   * Make the cache key.
+   *
+   * @param datasetPath the request path of the dataset
+   * @param ce the constraint expression, may be null
+   * @param lastModified last modified time of the dataset
+   */
+  public static String makeKey(String datasetPath, String ce, long lastModified) {
+    return datasetPath + "?" + normalizeConstraint(ce) + "@" + lastModified;
+  }
+
+  /**
+   * Remove white space, and sort a projection list so that "lon,lat" and "lat,lon" share an entry; the order
+   * of the response comes from the DDS, not the constraint. Selections, functions and strings are left alone.
+   */
+  static String normalizeConstraint(String ce) {
+    if (ce == null)
+      return "";
+    if (ce.indexOf('"') >= 0)
+      return ce;
+    StringBuilder sb = new StringBuilder(ce.length());
+    for (int i = 0; i < ce.length(); i++) {
+      char c = ce.charAt(i);
+      if (!Character.isWhitespace(c))
+        sb.append(c);
+    }
+    String result = sb.toString();
+    if (result.indexOf('&') >= 0 || result.indexOf('(') >= 0)
+      return result;
+
+    Set<String> projections = new TreeSet<>();
+    for (String p : result.split(",")) {
+      if (!p.isEmpty())
+        projections.add(p);
+    }
+    return String.join(",", projections);
+  }
+
+  public static Entry get(String key) {
+    Cache<String, Entry> c = cache;
+    return (c == null) ? null : c.getIfPresent(key);
+  }
+
+  /** Add a response. Returns its entry, which is only kept if the body is not too big. */
+  public static Entry put(String key, byte[] body) throws IOException {
+    Cache<String, Entry> c = cache;
+    if (c == null || body.length > maxResponseBytes)
+      return new Entry(body, null);
+    Entry entry = new Entry(body, preDeflate ? deflate(body) : null);
+    c.put(key, entry);
+    return entry;
+  }
+
+  /** A cached response body. */
+  public static class Entry {
+    private final byte[] body;
+    private final byte[] deflated;
+
+    private Entry(byte[] body, byte[] deflated) {
+      this.body = body;
+      this.deflated = deflated;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+
+    /** The deflated body, compressed now if it was not kept. */
+    public byte[] getDeflated() throws IOException {
+      return (deflated != null) ? deflated : deflate(body);
+    }
+
+    private int weight(String key) {
+      return 2 * key.length() + body.length + (deflated == null ? 0 : deflated.length);
+    }
+  }
+
+  // zlib, the same encoding as a deflated response
+  private static byte[] deflate(byte[] body) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(body.length / 2 + 64);
+    try (DeflaterOutputStream dOut = new DeflaterOutputStream(bos)) {
+      dOut.write(body);
+    }
+    return bos.toByteArray();
+  }
+
+  ///////////////////////////////////////////////////////
+  // reporting
+
+  public static long size() {
+    Cache<String, Entry> c = cache;
+    return (c == null) ? 0 : c.size();
+  }
+
+  public static CacheStats getStats() {
+    Cache<String, Entry> c = cache;
+    return (c == null) ? new CacheStats(0, 0, 0, 0, 0, 0) : c.stats();
+  }
+
+  public static void clear() {
+    Cache<String, Entry> c = cache;
+    if (c != null)
+      c.invalidateAll();
+    log.info("DAP2 response cache cleared");
+  }
+
+  public static void show(Formatter f) {
+    Cache<String, Entry> c = cache;
+    if (c == null) {
+      f.format("DAP2 response cache: turned off%n");
+      return;
+    }
+    long bytes = 0;
+    for (Entry e : c.asMap().values())
+      bytes += e.body.length + (e.deflated == null ? 0 : e.deflated.length);
+    CacheStats stats = c.stats();
+    f.format("DAP2 response cache (maxSize=%d maxResponseSize=%d preDeflate=%s)%n", maxBytes, maxResponseBytes,
+        preDeflate);
+    f.format("  entries=%d bytes=%d hits=%d misses=%d evictions=%d%n", c.size(), bytes, stats.hitCount(),
+        stats.missCount(), stats.evictionCount());
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.opendap;
+
+import opendap.dap.*;
+import opendap.servers.ServerMethods;
+import opendap.servlet.AsciiWriter;
+import thredds.servlet.RequestIoStats;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Writes the DAP2 ASCII response of netcdf arrays and grids a slab at a time: the constrained section is read
+ * along its outer dimension, at most slabSize elements at a time, and each slab is written before the next one is
+ * read. Numbers are formatted into one reused buffer. So the memory used does not depend on the size of the
+ * request, except for arrays whose inner dimensions alone are bigger than a slab. The output is the same as
+ * AsciiWriter's.
+ * <p>
+ * Strings, structures and sequences are written by AsciiWriter.
+ *
+ * @since 5.0
+ */
+public class NcAsciiWriter extends AsciiWriter {
+  static final int DEFAULT_SLAB_SIZE = 1000 * 1000; // elements
+
+  private final int slabSize;
+  private final StringBuilder sb = new StringBuilder(16 * 1024);
+  private final char[] chars = new char[16 * 1024];
+
+  public NcAsciiWriter() {
+    this(DEFAULT_SLAB_SIZE);
+  }
+
+  NcAsciiWriter(int slabSize) {
+    this.slabSize = Math.max(1, slabSize);
+  }
+
+  @Override
+  protected boolean writeStreaming(BaseType bt, String datasetName, PrintWriter pw, Object specialO)
+      throws IOException, NoSuchVariableException {
+    if (canStream(bt)) {
+      writeArray((NcSDArray) bt, pw, null);
+      pw.print("\n");
+      return true;
+    }
+
+    if (bt instanceof NcSDGrid) {
+      NcSDGrid dgrid = (NcSDGrid) bt;
+      boolean stream = false;
+      for (Enumeration e = dgrid.getVariables(); e.hasMoreElements();) {
+        BaseType ta = (BaseType) e.nextElement();
+        stream |= ta.isProject() && canStream(ta);
+      }
+      if (!stream)
+        return false;
+
+      // same as AsciiWriter.showGrid
+      String rootName = (dgrid.projectedComponents(true) > 1) ? dgrid.getEncodedName() : null;
+      for (Enumeration e = dgrid.getVariables(); e.hasMoreElements();) {
+        BaseType ta = (BaseType) e.nextElement();
+        if (!ta.isProject())
+          continue;
+        if (canStream(ta)) {
+          writeArray((NcSDArray) ta, pw, rootName);
+          pw.print("\n");
+        } else {
+          if (!((ServerMethods) ta).isRead())
+            ((ServerMethods) ta).read(datasetName, specialO);
+          toASCII(ta, pw, true, rootName, true);
+        }
+      }
+      pw.print("\n");
+      return true;
+    }
+
+    return false;
+  }
+
+  // numeric arrays that have not been read yet
+  private boolean canStream(BaseType bt) {
+    if (!(bt instanceof NcSDArray))
+      return false;
+    NcSDArray arr = (NcSDArray) bt;
+    if (arr.isRead() || arr.getPrimitiveVector() instanceof BaseTypePrimitiveVector)
+      return false;
+    DataType dt = arr.getVariable().getDataType();
+    return dt.isNumeric();
+  }
+
+  // same as AsciiWriter.showArray, with newLine left to the caller
+  private void writeArray(NcSDArray arr, PrintWriter pw, String rootName) throws IOException {
+    pw.print(toASCIIFlatName(arr, rootName));
+    pw.print("\n");
+
+    BaseType template = arr.getPrimitiveVector().getTemplate();
+    int rank = arr.numDimensions();
+    List<Range> ranges = new ArrayList<>(rank);
+    int[] shape = new int[rank];
+    long inner = 1;
+    try {
+      for (int i = 0; i < rank; i++) {
+        Range r = new Range(arr.getStart(i), arr.getStop(i), arr.getStride(i));
+        ranges.add(r);
+        shape[i] = r.length();
+        if (i > 0)
+          inner *= r.length();
+      }
+
+      int rowLen = shape[rank - 1];
+      int[] counter = new int[rank]; // index of the next element in the constrained array
+      int rows = (int) Math.max(1, slabSize / Math.max(1, inner));
+      Range outer = ranges.get(0);
+      for (int first = 0; first < shape[0]; first += rows) {
+        int last = Math.min(first + rows, shape[0]) - 1;
+        ranges.set(0, new Range(outer.element(first), outer.element(last), outer.stride()));
+
+        long readStart = System.nanoTime();
+        Array slab = arr.getVariable().read(ranges);
+        RequestIoStats.addRead(System.nanoTime() - readStart);
+
+        IndexIterator ii = slab.getIndexIterator();
+        while (ii.hasNext()) {
+          int col = counter[rank - 1];
+          if (col == 0 && rank > 1) {
+            // label of the row, eg "[2][0], "
+            for (int d = 0; d < rank - 1; d++)
+              sb.append('[').append(counter[d]).append(']');
+            sb.append(", ");
+          } else if (col > 0) {
+            sb.append(", ");
+          }
+          appendValue(template, ii);
+          if (col == rowLen - 1 && (rank > 1 || counter[0] == shape[0] - 1))
+            sb.append('\n');
+          increment(counter, shape);
+          if (sb.length() > chars.length - 64)
+            flush(pw);
+        }
+      }
+      if (shape[0] == 0 || rowLen == 0)
+        sb.append('\n');
+      flush(pw);
+
+    } catch (InvalidDimensionException | InvalidRangeException e) {
+      throw new IllegalStateException("NcAsciiWriter " + arr.getEncodedName() + ": " + e.getMessage());
+    }
+  }
+
+  // same formats as the PrimitiveVector classes
+  private void appendValue(BaseType template, IndexIterator ii) {
+    if (template instanceof DFloat32)
+      sb.append(ii.getFloatNext());
+    else if (template instanceof DFloat64)
+      sb.append(ii.getDoubleNext());
+    else if (template instanceof DUInt32)
+      sb.append(ii.getIntNext() & 0xFFFFFFFFL);
+    else if (template instanceof DUInt16)
+      sb.append(ii.getShortNext() & 0xFFFF);
+    else if (template instanceof DInt32)
+      sb.append(ii.getIntNext());
+    else if (template instanceof DInt16)
+      sb.append(ii.getShortNext());
+    else if (template instanceof DByte)
+      sb.append(ii.getByteNext() & 0xFF);
+    else
+      sb.append(ii.getObjectNext());
+  }
+
+  private static void increment(int[] counter, int[] shape) {
+    for (int d = counter.length - 1; d >= 0; d--) {
+      if (++counter[d] < shape[d])
+        return;
+      counter[d] = 0;
+    }
+  }
+
+  // copy through the char buffer, so no Strings are made
+  private void flush(PrintWriter pw) {
+    int len = sb.length();
+    for (int start = 0; start < len; start += chars.length) {
+      int n = Math.min(chars.length, len - start);
+      sb.getChars(start, start + n, chars, 0);
+      pw.write(chars, 0, n);
+    }
+    sb.setLength(0);
+  }
+}
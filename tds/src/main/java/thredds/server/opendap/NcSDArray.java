@@ -12,6 +12,7 @@ import opendap.servers.*;
 import opendap.dap.BaseType;
 import opendap.dap.DArrayDimension;
 import opendap.dap.PrimitiveVector;
+import thredds.servlet.RequestIoStats;
 import java.io.IOException;
 import java.io.EOFException;
 import java.io.DataOutputStream;
@@ -69,6 +70,7 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
    */
   public boolean read(String datasetName, Object specialO) throws IOException {
     long tstart = System.currentTimeMillis();
+    long readStart = System.nanoTime();
 
     Array a;
     try {
@@ -83,6 +85,7 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
 
       try {
         a = ncVar.read(ranges);
+        RequestIoStats.addRead(System.nanoTime() - readStart);
 
       } catch (java.lang.ArrayIndexOutOfBoundsException t) {
         log.error(getRequestedRange(), t);
@@ -12,10 +12,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import java.io.*;
 import java.util.*;
-import java.util.zip.DeflaterOutputStream;
 import java.net.URI;
 import opendap.dap.*;
 import opendap.dap.parsers.ParseException;
+import opendap.servers.parsers.ConstraintCache;
 import opendap.servers.*;
 import opendap.servlet.*;
 import org.springframework.beans.factory.InitializingBean;
@@ -29,6 +29,11 @@ import thredds.core.TdsRequestedDataset;
 import thredds.server.config.TdsContext;
 import thredds.server.config.ThreddsConfig;
 import thredds.server.exception.RequestTooLargeException;
+import thredds.server.exception.ServiceBusyException;
+import thredds.servlet.AdmissionControl;
+import thredds.servlet.AsyncFileWriter;
+import thredds.servlet.ParallelDeflaterOutputStream;
+import thredds.servlet.RequestIoStats;
 import thredds.servlet.ServletUtil;
 import thredds.servlet.filter.CookieFilter;
 import thredds.util.TdsPathUtils;
@@ -57,11 +62,10 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
   TdsContext tdsContext;
 
   private boolean allowSessions = false;
-  private boolean allowDeflate = false; // handled by Tomcat
 
   private String odapVersionString = "opendap/3.7";
 
-  private int ascLimit = 50;
+  private int ascLimit = 500;
   private int binLimit = 500;
 
   private boolean debugSession = false;
@@ -99,6 +103,19 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
       logServerStartup.info(getClass().getName() + " version= " + odapVersionString + " ascLimit = " + ascLimit
           + " binLimit = " + binLimit);
 
+      long cacheSize = ThreddsConfig.getBytes("Opendap.responseCache.maxSize", 20 * 1000 * 1000);
+      long cacheResponseSize = ThreddsConfig.getBytes("Opendap.responseCache.maxResponseSize", 100 * 1000);
+      boolean cacheDeflated = ThreddsConfig.getBoolean("Opendap.responseCache.preDeflate", false);
+      // only deflated responses are sent with ParallelDeflate on, otherwise Tomcat compresses them
+      cacheDeflated = cacheDeflated && ThreddsConfig.getBoolean("ParallelDeflate.allow", false);
+      Dap2ResponseCache.init(cacheSize, cacheResponseSize, cacheDeflated);
+      logServerStartup.info(getClass().getName() + " responseCache maxSize = " + cacheSize + " maxResponseSize = "
+          + cacheResponseSize + " preDeflate = " + cacheDeflated);
+
+      int ceCacheSize = ThreddsConfig.getInt("Opendap.constraintCacheSize", 1000);
+      ConstraintCache.setMaxSize(ceCacheSize);
+      logServerStartup.info(getClass().getName() + " constraintCacheSize = " + ceCacheSize);
+
       if (tdsContext != null) // LOOK not set in mock testing enviro ?
       {
         setRootpath(tdsContext.getServletRootDirectory().getPath());
@@ -235,6 +252,10 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
       // handled at the Spring level by TdsErrorHandling, so
       // pass it on up the stack
       throw e;
+
+      // 503 - too many large requests
+    } catch (ServiceBusyException e) {
+      throw e;
     } catch (java.net.SocketException e) {
       log.info("SocketException: " + e.getMessage(), e);
 
@@ -282,7 +303,8 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
       dds.printConstrained(pw);
       pw.println("---------------------------------------------");
 
-      AsciiWriter writer = new AsciiWriter(); // could be static
+      // arrays are read and written a slab at a time
+      AsciiWriter writer = new NcAsciiWriter();
       writer.toASCII(pw, dds, ds);
 
       // the way that getDAP2Data works
@@ -425,11 +447,11 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
 
       ServletOutputStream sOut = response.getOutputStream();
       OutputStream bOut;
-      DeflaterOutputStream dOut = null;
-      if (rs.getAcceptsCompressed() && allowDeflate) {
+      ParallelDeflaterOutputStream dOut = null;
+      if (allowDeflate(rs)) {
         response.setHeader("Content-Encoding", "deflate");
-        dOut = new DeflaterOutputStream(sOut);
-        bOut = new BufferedOutputStream(dOut);
+        dOut = new ParallelDeflaterOutputStream(sOut, false);
+        bOut = new BufferedOutputStream(RequestIoStats.countUncompressed(dOut));
       } else {
         bOut = new BufferedOutputStream(sOut);
       }
@@ -483,6 +505,24 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
   public void doGetDAP2Data(ReqState rs) throws Exception {
     HttpServletResponse response = rs.getResponse();
 
+    // small responses of datasets read from a single file (eg the coordinates) may already be cached; NcML and
+    // aggregations are not cached, since their members can change without the dataset's own file changing
+    String cacheKey = null;
+    if (Dap2ResponseCache.isEnabled()) {
+      long lastModified = TdsRequestedDataset.getSingleFileLastModified(rs.getRequest(), rs.getDataSet());
+      if (lastModified > 0)
+        cacheKey = Dap2ResponseCache.makeKey(rs.getDataSet(), rs.getConstraintExpression(), lastModified);
+    }
+    if (cacheKey != null) {
+      Dap2ResponseCache.Entry entry = Dap2ResponseCache.get(cacheKey);
+      if (entry != null) {
+        if (!TdsRequestedDataset.resourceControlOk(rs.getRequest(), response, rs.getDataSet()))
+          return; // error message already sent
+        sendCachedDAP2Data(rs, entry);
+        return;
+      }
+    }
+
     GuardedDataset ds = null;
     try {
       ds = getDataset(rs);
@@ -494,43 +534,39 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
       response.setHeader("XDODS-Server", getServerVersion());
       response.setHeader("Content-Description", "dods-data");
 
-      ServletOutputStream sOut = response.getOutputStream();
-      OutputStream bOut;
-      DeflaterOutputStream dOut = null;
-      if (rs.getAcceptsCompressed() && allowDeflate) {
-        response.setHeader("Content-Encoding", "deflate");
-        dOut = new DeflaterOutputStream(sOut);
-        bOut = new BufferedOutputStream(dOut);
-
-      } else {
-        bOut = new BufferedOutputStream(sOut);
-      }
-
       ServerDDS myDDS = ds.getDDS();
       CEEvaluator ce = new CEEvaluator(myDDS);
       ce.parseConstraint(rs);
-      checkSize(myDDS, false);
-
-      // Send the constrained DDS back to the client
-      PrintWriter pw = new PrintWriter(new OutputStreamWriter(bOut, StandardCharsets.UTF_8));
-      myDDS.printConstrained(pw);
+      long size = checkSize(myDDS, false);
 
-      // Send the Data delimiter back to the client
-      pw.flush();
-      bOut.write("\nData:\n".getBytes(StandardCharsets.UTF_8));
-      bOut.flush();
-
-      // Send the binary data back to the client
-      DataOutputStream sink = new DataOutputStream(bOut);
-      ce.send(myDDS.getEncodedName(), sink, ds);
-      sink.flush();
+      if (cacheKey != null && Dap2ResponseCache.wants(size)) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream((int) size + 1024);
+        writeDAP2Body(myDDS, ce, ds, body);
+        sendCachedDAP2Data(rs, Dap2ResponseCache.put(cacheKey, body.toByteArray()));
+        return;
+      }
 
-      // Finish up sending the compressed stuff, but don't
-      // close the stream (who knows what the Servlet may expect!)
-      if (null != dOut) {
-        dOut.finish();
+      // large responses are written to a spool file at disk speed, then sent to the client without holding
+      // this thread or the dataset. Responses too large to spool are streamed as they are read.
+      HttpServletRequest request = rs.getRequest();
+      if (AsyncFileWriter.canWrite(request, size) && AsyncFileWriter.canSpool(size)) {
+        File spool = AsyncFileWriter.createSpoolFile("dods");
+        boolean sent = false;
+        try {
+          try (OutputStream fileOut = new FileOutputStream(spool)) {
+            writeDAP2Data(rs, myDDS, ce, ds, fileOut);
+          }
+          response.setContentLengthLong(spool.length());
+          AsyncFileWriter.write(request, response, spool.toPath(), 0, spool.length(), true);
+          sent = true;
+        } finally {
+          if (!sent && !spool.delete())
+            log.warn("Failed to delete spool file {}", spool);
+        }
+        return;
       }
-      bOut.flush();
+
+      writeDAP2Data(rs, myDDS, ce, ds, response.getOutputStream());
 
     } finally { // release lock if needed
       if (ds != null) {
@@ -539,6 +575,70 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
     }
   }
 
+  private void writeDAP2Data(ReqState rs, ServerDDS myDDS, CEEvaluator ce, GuardedDataset ds, OutputStream sOut)
+      throws Exception {
+    HttpServletResponse response = rs.getResponse();
+    OutputStream bOut;
+    ParallelDeflaterOutputStream dOut = null;
+    if (allowDeflate(rs)) {
+      response.setHeader("Content-Encoding", "deflate");
+      dOut = new ParallelDeflaterOutputStream(sOut, false);
+      bOut = new BufferedOutputStream(RequestIoStats.countUncompressed(dOut));
+
+    } else {
+      bOut = new BufferedOutputStream(sOut);
+    }
+
+    writeDAP2Body(myDDS, ce, ds, bOut);
+
+    // Finish up sending the compressed stuff, but don't
+    // close the stream (who knows what the Servlet may expect!)
+    if (null != dOut) {
+      dOut.finish();
+    }
+    bOut.flush();
+  }
+
+  // the constrained DDS, the data delimiter and the data, not encoded
+  private void writeDAP2Body(ServerDDS myDDS, CEEvaluator ce, GuardedDataset ds, OutputStream bOut)
+      throws Exception {
+    // Send the constrained DDS back to the client
+    PrintWriter pw = new PrintWriter(new OutputStreamWriter(bOut, StandardCharsets.UTF_8));
+    myDDS.printConstrained(pw);
+
+    // Send the Data delimiter back to the client
+    pw.flush();
+    bOut.write("\nData:\n".getBytes(StandardCharsets.UTF_8));
+    bOut.flush();
+
+    // Send the binary data back to the client
+    DataOutputStream sink = new DataOutputStream(bOut);
+    ce.send(myDDS.getEncodedName(), sink, ds);
+    sink.flush();
+  }
+
+  // compression is left to Tomcat unless ParallelDeflate is turned on
+  private boolean allowDeflate(ReqState rs) {
+    return rs.getAcceptsCompressed() && ParallelDeflaterOutputStream.isEnabled();
+  }
+
+  private void sendCachedDAP2Data(ReqState rs, Dap2ResponseCache.Entry entry) throws IOException {
+    HttpServletResponse response = rs.getResponse();
+    response.setContentType("application/octet-stream");
+    response.setHeader("XDODS-Server", getServerVersion());
+    response.setHeader("Content-Description", "dods-data");
+
+    byte[] body = entry.getBody();
+    if (allowDeflate(rs)) {
+      response.setHeader("Content-Encoding", "deflate");
+      body = entry.getDeflated();
+    }
+    response.setContentLength(body.length);
+    ServletOutputStream out = response.getOutputStream();
+    out.write(body);
+    out.flush();
+  }
+
   public void doGetVER(ReqState rs) throws Exception {
     HttpServletResponse response = rs.getResponse();
 
@@ -782,7 +882,7 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
     return rs;
   }
 
-  private void checkSize(ServerDDS dds, boolean isAscii) throws Exception {
+  private long checkSize(ServerDDS dds, boolean isAscii) throws Exception {
     long size = computeSize(dds, isAscii);
     // System.err.printf("total (constrained) size=%s\n", size);
     log.debug("total (constrained) size={}", size);
@@ -792,6 +892,8 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
       log.info("Reject request size = {} Mbytes", dsize);
       throw new RequestTooLargeException(dsize + " Mbytes, max=" + maxSize);
     }
+    AdmissionControl.reserve(size);
+    return size;
   }
 
   private static final boolean debugSize = false;
@@ -0,0 +1,716 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.search;
+
+import org.springframework.stereotype.Component;
+import thredds.client.catalog.Dataset;
+import thredds.client.catalog.ThreddsMetadata;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.nc2.units.DateRange;
+import ucar.unidata.geoloc.LatLonRect;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of the datasets in the config catalogs, to search by text and by space and time.
+ * <p/>
+ * The text index maps each term of the name, ID, keywords and variable names of a dataset to the datasets that have
+ * it. The spatial index is a grid of 10 degree cells, each with the datasets whose bounding box overlaps it;
+ * datasets that cover many cells are kept in one list instead. Time ranges are checked for each candidate.
+ * <p/>
+ * Only datasets with an ID are indexed. The index is kept in a file in the catalog tracker directory, so catalogs that
+ * are not read again at startup keep their datasets. Removed datasets are marked deleted, and the index is rebuilt
+ * when there are as many deleted as live ones. When all the catalogs are read again while the TDS is running, a new
+ * index is made, and the old one is searched until it is done.
+ *
+ * @since 5.0
+ */
+@Component
+public class DatasetSearchIndex {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(DatasetSearchIndex.class);
+  static private final String dbname = "/searchIndex.dat";
+  static private final int MAGIC = 0x54445349; // "TDSI"
+  static private final int VERSION = 2;
+  static private final int CELL = 10; // degrees
+  static private final int NLAT = 180 / CELL, NLON = 360 / CELL;
+  static private final int MAX_CELLS = 64; // more than this goes in the wide list
+
+  /** An indexed dataset */
+  public static class Doc {
+    final String id, name, catalog, urlPath;
+    final List<String> keywords;
+    final List<String> variables; // names and vocabulary names
+    final double south, north, west, width; // no bbox if Double.isNaN(south)
+    final long start, end; // no time range if start > end
+
+    Doc(String id, String name, String catalog, String urlPath, List<String> keywords, List<String> variables,
+        double south, double north, double west, double width, long start, long end) {
+      this.id = id;
+      this.name = name;
+      this.catalog = catalog;
+      this.urlPath = urlPath;
+      this.keywords = keywords;
+      this.variables = variables;
+      this.south = south;
+      this.north = north;
+      this.west = west;
+      this.width = width;
+      this.start = start;
+      this.end = end;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** the config catalog, relative to the content root */
+    public String getCatalog() {
+      return catalog;
+    }
+
+    public String getUrlPath() {
+      return urlPath;
+    }
+
+    public boolean hasBoundingBox() {
+      return !Double.isNaN(south);
+    }
+
+    public double getSouth() {
+      return south;
+    }
+
+    public double getNorth() {
+      return north;
+    }
+
+    public double getWest() {
+      return west;
+    }
+
+    public double getEast() {
+      return normalize(west + width);
+    }
+
+    public boolean hasTimeRange() {
+      return start <= end;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    public long getEnd() {
+      return end;
+    }
+  }
+
+  /** What to search for. Only the terms and constraints that are set are used */
+  public static class Query {
+    List<String> terms = new ArrayList<>();
+    double south = Double.NaN, north, west, width;
+    long start = Long.MIN_VALUE, end = Long.MAX_VALUE;
+    boolean hasTime;
+
+    /** all the terms of this text must be in the dataset */
+    public Query setText(String text) {
+      terms = new ArrayList<>(tokenize(text));
+      return this;
+    }
+
+    public Query setBoundingBox(double south, double north, double west, double east) {
+      if (south > north)
+        throw new IllegalArgumentException("south > north");
+      this.south = south;
+      this.north = north;
+      this.west = normalize(west);
+      double w = normalize(east) - this.west;
+      this.width = (east - west >= 360) ? 360 : (w < 0 ? w + 360 : w);
+      return this;
+    }
+
+    public Query setTimeRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+      this.hasTime = true;
+      return this;
+    }
+  }
+
+  /** One page of the datasets that match a Query */
+  public static class Result {
+    public final int total;
+    public final List<Doc> datasets;
+
+    Result(int total, List<Doc> datasets) {
+      this.total = total;
+      this.datasets = datasets;
+    }
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile String filepath; // null if not enabled
+  private final AtomicBoolean changed = new AtomicBoolean(); // set under the write lock, cleared by save()
+
+  // guarded by lock
+  private Index index = new Index(); // the one that is searched
+  private Index building; // all the catalogs are being read into this, null if not
+
+  /**
+   * Start using the index, read from the directory if it was saved there. Called at the start of each read of the
+   * config catalogs.
+   *
+   * @param dir the catalog tracker directory
+   * @param startOver throw out what is in the index. If the index is already in use, a new one is made, which
+   *        replaces it in save()
+   */
+  public void open(String dir, boolean startOver) {
+    lock.writeLock().lock();
+    try {
+      String path = dir + dbname;
+      if (!path.equals(filepath)) {
+        index = new Index();
+        building = null;
+        changed.set(true);
+        if (!startOver && new File(path).exists())
+          read(path);
+      } else if (startOver) {
+        building = new Index();
+        changed.set(true);
+      }
+      filepath = path;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public boolean isEnabled() {
+    return filepath != null;
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return index.ids.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Add a dataset of a config catalog; if its ID is already indexed, the new one replaces it */
+  public void add(String catalog, Dataset ds) {
+    if (filepath == null || ds.getID() == null)
+      return;
+
+    List<String> keywords = new ArrayList<>();
+    for (ThreddsMetadata.Vocab keyword : ds.getKeywords())
+      keywords.add(keyword.getText());
+    List<String> variables = getVariables(ds.getVariables());
+
+    double south = Double.NaN, north = 0, west = 0, width = 0;
+    ThreddsMetadata.GeospatialCoverage gc = ds.getGeospatialCoverage();
+    if (gc != null && gc.getBoundingBox() != null) {
+      LatLonRect bbox = gc.getBoundingBox();
+      south = bbox.getLatMin();
+      north = bbox.getLatMax();
+      west = normalize(bbox.getLonMin());
+      width = Math.min(360, bbox.getWidth());
+    }
+
+    long start = 1, end = 0;
+    DateRange tc = ds.getTimeCoverage();
+    if (tc != null && tc.getStart() != null && tc.getEnd() != null) {
+      start = tc.getStart().getCalendarDate().getMillis();
+      end = tc.getEnd().getCalendarDate().getMillis();
+    }
+
+    Doc doc = new Doc(ds.getID(), ds.getName(), catalog, ds.getUrlPath(), keywords, variables, south, north, west,
+        width, start, end);
+    lock.writeLock().lock();
+    try {
+      (building != null ? building : index).put(doc);
+      changed.set(true);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * A feature collection was updated: replace the variables, bounding box and time range of its dataset, if it is
+   * indexed.
+   */
+  public void updateFeatureCollection(String id, ThreddsMetadata.VariableGroup vars,
+      ThreddsMetadata.GeospatialCoverage coverage, CalendarDateRange dateRange) {
+    if (filepath == null || id == null)
+      return;
+    List<String> variables = (vars == null) ? null : getVariables(Collections.singletonList(vars));
+    lock.writeLock().lock();
+    try {
+      update(index, id, variables, coverage, dateRange);
+      if (building != null)
+        update(building, id, variables, coverage, dateRange);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // must hold the write lock
+  private void update(Index idx, String id, List<String> variables, ThreddsMetadata.GeospatialCoverage coverage,
+      CalendarDateRange dateRange) {
+    Doc old = idx.get(id);
+    if (old == null)
+      return;
+
+    double south = old.south, north = old.north, west = old.west, width = old.width;
+    if (coverage != null && coverage.getBoundingBox() != null) {
+      LatLonRect bbox = coverage.getBoundingBox();
+      south = bbox.getLatMin();
+      north = bbox.getLatMax();
+      west = normalize(bbox.getLonMin());
+      width = Math.min(360, bbox.getWidth());
+    }
+
+    long start = old.start, end = old.end;
+    if (dateRange != null) {
+      start = dateRange.getStart().getMillis();
+      end = dateRange.getEnd().getMillis();
+    }
+    idx.put(new Doc(old.id, old.name, old.catalog, old.urlPath, old.keywords,
+        (variables != null) ? variables : old.variables, south, north, west, width, start, end));
+    changed.set(true);
+  }
+
+  private static List<String> getVariables(List<ThreddsMetadata.VariableGroup> groups) {
+    List<String> result = new ArrayList<>();
+    for (ThreddsMetadata.VariableGroup group : groups) {
+      for (ThreddsMetadata.Variable v : group.getVariableList()) {
+        if (v.getName() != null && !result.contains(v.getName()))
+          result.add(v.getName());
+        if (v.getVocabularyName() != null && !result.contains(v.getVocabularyName()))
+          result.add(v.getVocabularyName());
+      }
+    }
+    return result;
+  }
+
+  /** Remove the datasets of this catalog, before it is read again, or when it is gone */
+  public void removeCatalog(String catalog) {
+    if (filepath == null)
+      return;
+    lock.writeLock().lock();
+    try {
+      if ((building != null ? building : index).removeCatalog(catalog))
+        changed.set(true);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Search the index.
+   *
+   * @param query what to look for
+   * @param offset number of matching datasets to skip
+   * @param limit maximum number of datasets to return
+   * @return the number of datasets that match, and the requested page of them in catalog order
+   */
+  public Result search(Query query, int offset, int limit) {
+    lock.readLock().lock();
+    try {
+      int total = 0;
+      List<Doc> page = new ArrayList<>();
+      PrimitiveIterator.OfInt candidates = index.candidates(query);
+      while (candidates.hasNext()) {
+        Doc doc = index.docs.get(candidates.nextInt());
+        if (doc == null || !matches(doc, query))
+          continue;
+        if (total >= offset && page.size() < limit)
+          page.add(doc);
+        total++;
+      }
+      return new Result(total, page);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static boolean matches(Doc doc, Query query) {
+    if (!Double.isNaN(query.south)) {
+      if (!doc.hasBoundingBox() || doc.north < query.south || doc.south > query.north)
+        return false;
+      if (!lonOverlap(doc.west, doc.width, query.west, query.width))
+        return false;
+    }
+    if (query.hasTime) {
+      if (!doc.hasTimeRange() || doc.end < query.start || doc.start > query.end)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Write the index to its file, if it changed. Called at the end of each read of the config catalogs, so a new index
+   * made by open() replaces the old one here.
+   */
+  public void save() throws IOException {
+    if (filepath == null)
+      return;
+    lock.writeLock().lock();
+    try {
+      if (building != null) {
+        index = building;
+        building = null;
+        changed.set(true);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    lock.readLock().lock();
+    try {
+      // the read lock keeps out changes, but not another save
+      if (!changed.getAndSet(false))
+        return;
+      Path file = Paths.get(filepath);
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          out.writeInt(index.ids.size());
+          for (Doc doc : index.docs) {
+            if (doc != null)
+              writeDoc(out, doc);
+          }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        changed.set(true);
+        Files.deleteIfExists(tmp);
+        throw e;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public void show(Formatter f) {
+    lock.readLock().lock();
+    try {
+      f.format("DatasetSearchIndex file=%s datasets=%d deleted=%d terms=%d wide=%d%n", filepath, index.ids.size(),
+          index.deleted, index.terms.size(), index.wide.size);
+      if (building != null)
+        f.format("  rebuilding datasets=%d%n", building.ids.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+
+  // the datasets of one index, and the lists to find them by; guarded by the lock of the DatasetSearchIndex
+  private static class Index {
+    final List<Doc> docs = new ArrayList<>(); // by doc number, null if deleted
+    final Map<String, Integer> ids = new HashMap<>(); // id -> doc number
+    final Map<String, IntList> catalogs = new HashMap<>(); // catalog -> doc numbers, some may be deleted
+    final Map<String, IntList> terms = new HashMap<>();
+    final IntList[] cells = new IntList[NLAT * NLON];
+    IntList wide = new IntList();
+    int deleted;
+
+    Doc get(String id) {
+      Integer docno = ids.get(id);
+      return (docno == null) ? null : docs.get(docno);
+    }
+
+    void put(Doc doc) {
+      Integer old = ids.get(doc.id);
+      if (old != null)
+        delete(old);
+
+      int docno = docs.size();
+      docs.add(doc);
+      ids.put(doc.id, docno);
+      catalogs.computeIfAbsent(doc.catalog, k -> new IntList()).add(docno);
+      for (String term : terms(doc))
+        terms.computeIfAbsent(term, k -> new IntList()).add(docno);
+
+      if (doc.hasBoundingBox()) {
+        int[] docCells = cells(doc.south, doc.north, doc.west, doc.width, MAX_CELLS);
+        if (docCells == null) {
+          wide.add(docno);
+        } else {
+          for (int cell : docCells) {
+            if (cells[cell] == null)
+              cells[cell] = new IntList();
+            cells[cell].add(docno);
+          }
+        }
+      }
+      compactIfNeeded();
+    }
+
+    /** @return true if the catalog had datasets */
+    boolean removeCatalog(String catalog) {
+      IntList docnos = catalogs.remove(catalog);
+      if (docnos == null)
+        return false;
+      docnos.forEach(this::delete);
+      compactIfNeeded();
+      return true;
+    }
+
+    // the doc numbers stay in the catalog, term and cell lists until the index is compacted
+    private void delete(int docno) {
+      Doc doc = docs.set(docno, null);
+      if (doc != null) {
+        ids.remove(doc.id);
+        deleted++;
+      }
+    }
+
+    private void compactIfNeeded() {
+      if (deleted < 1000 || deleted < ids.size())
+        return;
+      List<Doc> live = new ArrayList<>(ids.size());
+      for (Doc doc : docs) {
+        if (doc != null)
+          live.add(doc);
+      }
+      docs.clear();
+      ids.clear();
+      catalogs.clear();
+      terms.clear();
+      Arrays.fill(cells, null);
+      wide = new IntList();
+      deleted = 0;
+      for (Doc doc : live)
+        put(doc);
+    }
+
+    // doc numbers, ascending, that might match
+    PrimitiveIterator.OfInt candidates(Query query) {
+      if (!query.terms.isEmpty()) {
+        List<IntList> lists = new ArrayList<>();
+        for (String term : query.terms) {
+          IntList list = terms.get(term);
+          if (list == null)
+            return new IntList().iterator();
+          lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(l -> l.size));
+        IntList result = lists.get(0);
+        for (int i = 1; i < lists.size(); i++)
+          result = result.intersect(lists.get(i));
+        return result.iterator();
+      }
+
+      if (!Double.isNaN(query.south)) {
+        BitSet bits = new BitSet(docs.size());
+        for (int cell : cells(query.south, query.north, query.west, query.width, Integer.MAX_VALUE)) {
+          if (cells[cell] != null)
+            cells[cell].forEach(bits::set);
+        }
+        wide.forEach(bits::set);
+        return bits.stream().iterator();
+      }
+
+      return java.util.stream.IntStream.range(0, docs.size()).iterator();
+    }
+  }
+
+  private static Set<String> terms(Doc doc) {
+    Set<String> result = new HashSet<>();
+    result.addAll(tokenize(doc.id));
+    result.addAll(tokenize(doc.name));
+    for (String keyword : doc.keywords)
+      result.addAll(tokenize(keyword));
+    for (String variable : doc.variables)
+      result.addAll(tokenize(variable));
+    return result;
+  }
+
+  /**
+   * Split text into lower case terms: runs of letters, digits and underscores, and the parts of those with
+   * underscores, so "air_temperature" is found by "air_temperature", "air" and "temperature".
+   */
+  static Set<String> tokenize(String text) {
+    Set<String> result = new LinkedHashSet<>();
+    if (text == null)
+      return result;
+    for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}_]+")) {
+      if (token.isEmpty())
+        continue;
+      result.add(token);
+      if (token.indexOf('_') >= 0) {
+        for (String part : token.split("_+"))
+          if (!part.isEmpty())
+            result.add(part);
+      }
+    }
+    return result;
+  }
+
+  // the grid cells that a bounding box overlaps, or null if more than max
+  private static int[] cells(double south, double north, double west, double width, int max) {
+    int lat0 = latCell(south), lat1 = latCell(north);
+    int nlon = (width >= 360 - CELL) ? NLON : (int) Math.floor((west + width + 180) / CELL) - lonCell(west) + 1;
+    nlon = Math.min(nlon, NLON);
+    int n = (lat1 - lat0 + 1) * nlon;
+    if (n > max)
+      return null;
+    int[] result = new int[n];
+    int count = 0;
+    for (int lat = lat0; lat <= lat1; lat++) {
+      for (int i = 0; i < nlon; i++)
+        result[count++] = lat * NLON + (lonCell(west) + i) % NLON;
+    }
+    return result;
+  }
+
+  private static int latCell(double lat) {
+    return Math.max(0, Math.min(NLAT - 1, (int) Math.floor((lat + 90) / CELL)));
+  }
+
+  private static int lonCell(double lon) {
+    return Math.max(0, Math.min(NLON - 1, (int) Math.floor((lon + 180) / CELL)));
+  }
+
+  // longitude in [-180, 180)
+  static double normalize(double lon) {
+    double result = (lon + 180) % 360;
+    if (result < 0)
+      result += 360;
+    return result - 180;
+  }
+
+  // do two longitude ranges overlap, each a normalized west edge and a width to the east
+  static boolean lonOverlap(double west1, double width1, double west2, double width2) {
+    double d12 = (west2 - west1 + 360) % 360;
+    double d21 = (west1 - west2 + 360) % 360;
+    return d12 <= width1 || d21 <= width2;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // MAGIC, VERSION, count, then each doc
+
+  private void read(String path) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        logger.warn("DatasetSearchIndex: ignore {}, not a search index of this version", path);
+        changed.set(true);
+        return;
+      }
+      int n = in.readInt();
+      for (int i = 0; i < n; i++)
+        index.put(readDoc(in));
+      changed.set(false);
+
+    } catch (IOException e) {
+      logger.error("DatasetSearchIndex: read " + path, e);
+      index = new Index();
+      changed.set(true);
+    }
+  }
+
+  private static void writeDoc(DataOutputStream out, Doc doc) throws IOException {
+    out.writeUTF(doc.id);
+    writeString(out, doc.name);
+    out.writeUTF(doc.catalog);
+    writeString(out, doc.urlPath);
+    writeStrings(out, doc.keywords);
+    writeStrings(out, doc.variables);
+    out.writeDouble(doc.south);
+    out.writeDouble(doc.north);
+    out.writeDouble(doc.west);
+    out.writeDouble(doc.width);
+    out.writeLong(doc.start);
+    out.writeLong(doc.end);
+  }
+
+  private static Doc readDoc(DataInputStream in) throws IOException {
+    String id = in.readUTF();
+    String name = readString(in);
+    String catalog = in.readUTF();
+    String urlPath = readString(in);
+    List<String> keywords = readStrings(in);
+    List<String> variables = readStrings(in);
+    return new Doc(id, name, catalog, urlPath, keywords, variables, in.readDouble(), in.readDouble(), in.readDouble(),
+        in.readDouble(), in.readLong(), in.readLong());
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String s : strings)
+      out.writeUTF(s);
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    List<String> result = new ArrayList<>(n);
+    for (int i = 0; i < n; i++)
+      result.add(in.readUTF());
+    return result;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null)
+      out.writeUTF(s);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  // growable list of ascending doc numbers
+  private static class IntList {
+    int[] values = new int[4];
+    int size;
+
+    void add(int value) {
+      if (size == values.length)
+        values = Arrays.copyOf(values, size * 2);
+      values[size++] = value;
+    }
+
+    void forEach(java.util.function.IntConsumer consumer) {
+      for (int i = 0; i < size; i++)
+        consumer.accept(values[i]);
+    }
+
+    IntList intersect(IntList other) {
+      IntList result = new IntList();
+      int i = 0, j = 0;
+      while (i < size && j < other.size) {
+        if (values[i] < other.values[j])
+          i++;
+        else if (values[i] > other.values[j])
+          j++;
+        else {
+          result.add(values[i]);
+          i++;
+          j++;
+        }
+      }
+      return result;
+    }
+
+    PrimitiveIterator.OfInt iterator() {
+      return Arrays.stream(values, 0, size).iterator();
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.search;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import thredds.server.config.TdsContext;
+import thredds.server.exception.ServiceNotAllowed;
+import thredds.util.ContentType;
+import ucar.nc2.time.CalendarDate;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Search the datasets of the config catalogs, using the DatasetSearchIndex.
+ * <p/>
+ * Parameters: q (all of these words), north, south, east, west (all four, overlaps the bounding box),
+ * time_start, time_end (ISO dates, overlaps the time range), offset, limit, accept (xml or json).
+ *
+ * @since 5.0
+ */
+@Controller
+@RequestMapping("/search")
+public class SearchController {
+  static private final int MAX_LIMIT = 1000;
+
+  @Autowired
+  private DatasetSearchIndex searchIndex;
+
+  @Autowired
+  private TdsContext tdsContext;
+
+  @RequestMapping(value = "**", method = {RequestMethod.GET})
+  public ResponseEntity<String> search(SearchRequest params) {
+    if (!searchIndex.isEnabled())
+      throw new ServiceNotAllowed("search");
+
+    DatasetSearchIndex.Query query = makeQuery(params);
+    int offset = Math.max(0, params.getOffset());
+    int limit = Math.max(0, Math.min(MAX_LIMIT, params.getLimit()));
+    DatasetSearchIndex.Result result = searchIndex.search(query, offset, limit);
+
+    HttpHeaders responseHeaders = new HttpHeaders();
+    String strResponse;
+    if ("json".equalsIgnoreCase(params.getAccept())) {
+      strResponse = writeJSON(result, offset, limit);
+      responseHeaders.set(ContentType.HEADER, ContentType.json.getContentHeader());
+    } else {
+      strResponse = writeXML(result, offset, limit);
+      responseHeaders.set(ContentType.HEADER, ContentType.xml.getContentHeader());
+    }
+    return new ResponseEntity<>(strResponse, responseHeaders, HttpStatus.OK);
+  }
+
+  static DatasetSearchIndex.Query makeQuery(SearchRequest params) {
+    DatasetSearchIndex.Query query = new DatasetSearchIndex.Query();
+    if (params.getQ() != null)
+      query.setText(params.getQ());
+
+    boolean hasBB = params.getNorth() != null && params.getSouth() != null && params.getEast() != null
+        && params.getWest() != null;
+    boolean hasAnyBB = params.getNorth() != null || params.getSouth() != null || params.getEast() != null
+        || params.getWest() != null;
+    if (hasAnyBB && !hasBB)
+      throw new IllegalArgumentException("must have all of north, south, east, west, or none");
+    if (hasBB)
+      query.setBoundingBox(params.getSouth(), params.getNorth(), params.getWest(), params.getEast());
+
+    if (params.getTime_start() != null || params.getTime_end() != null) {
+      long start = (params.getTime_start() == null) ? Long.MIN_VALUE : parseTime(params.getTime_start());
+      long end = (params.getTime_end() == null) ? Long.MAX_VALUE : parseTime(params.getTime_end());
+      query.setTimeRange(start, end);
+    }
+    return query;
+  }
+
+  private static long parseTime(String iso) {
+    CalendarDate date = CalendarDate.parseISOformat(null, iso);
+    if (date == null)
+      throw new IllegalArgumentException("invalid time " + iso);
+    return date.getMillis();
+  }
+
+  // the catalog page of the dataset
+  private String catalogUrl(DatasetSearchIndex.Doc doc) {
+    String catalog = doc.getCatalog().endsWith(".xml") ? doc.getCatalog().replaceAll(".xml$", ".html")
+        : doc.getCatalog();
+    return tdsContext.getContextPath() + "/catalog/" + catalog + "?dataset="
+        + URLEncoder.encode(doc.getId(), StandardCharsets.UTF_8);
+  }
+
+  private String writeXML(DatasetSearchIndex.Result result, int offset, int limit) {
+    Element root = new Element("searchResults");
+    root.setAttribute("total", Integer.toString(result.total));
+    root.setAttribute("offset", Integer.toString(offset));
+    root.setAttribute("limit", Integer.toString(limit));
+
+    for (DatasetSearchIndex.Doc doc : result.datasets) {
+      Element elem = new Element("dataset");
+      elem.setAttribute("ID", doc.getId());
+      if (doc.getName() != null)
+        elem.setAttribute("name", doc.getName());
+      elem.setAttribute("catalog", catalogUrl(doc));
+      if (doc.getUrlPath() != null)
+        elem.setAttribute("urlPath", doc.getUrlPath());
+      if (doc.hasBoundingBox()) {
+        Element bb = new Element("boundingBox");
+        bb.setAttribute("north", Double.toString(doc.getNorth()));
+        bb.setAttribute("south", Double.toString(doc.getSouth()));
+        bb.setAttribute("east", Double.toString(doc.getEast()));
+        bb.setAttribute("west", Double.toString(doc.getWest()));
+        elem.addContent(bb);
+      }
+      if (doc.hasTimeRange()) {
+        Element time = new Element("timeRange");
+        time.setAttribute("start", CalendarDate.of(doc.getStart()).toString());
+        time.setAttribute("end", CalendarDate.of(doc.getEnd()).toString());
+        elem.addContent(time);
+      }
+      root.addContent(elem);
+    }
+
+    XMLOutputter fmt = new XMLOutputter(Format.getPrettyFormat());
+    return fmt.outputString(new Document(root));
+  }
+
+  private String writeJSON(DatasetSearchIndex.Result result, int offset, int limit) {
+    JSONObject jo = new JSONObject();
+    jo.put("total", result.total);
+    jo.put("offset", offset);
+    jo.put("limit", limit);
+
+    JSONArray datasets = new JSONArray();
+    for (DatasetSearchIndex.Doc doc : result.datasets) {
+      JSONObject ds = new JSONObject();
+      ds.put("id", doc.getId());
+      ds.put("name", doc.getName());
+      ds.put("catalog", catalogUrl(doc));
+      if (doc.getUrlPath() != null)
+        ds.put("urlPath", doc.getUrlPath());
+      if (doc.hasBoundingBox()) {
+        JSONObject bb = new JSONObject();
+        bb.put("north", doc.getNorth());
+        bb.put("south", doc.getSouth());
+        bb.put("east", doc.getEast());
+        bb.put("west", doc.getWest());
+        ds.put("boundingBox", bb);
+      }
+      if (doc.hasTimeRange()) {
+        JSONObject time = new JSONObject();
+        time.put("start", CalendarDate.of(doc.getStart()).toString());
+        time.put("end", CalendarDate.of(doc.getEnd()).toString());
+        ds.put("timeRange", time);
+      }
+      datasets.put(ds);
+    }
+    jo.put("datasets", datasets);
+    return jo.toString(2);
+  }
+}
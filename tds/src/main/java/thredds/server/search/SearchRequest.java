@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.search;
+
+/**
+ * Parameters of a /search request
+ *
+ * @since 5.0
+ */
+public class SearchRequest {
+  private String q;
+  private Double north, south, east, west;
+  private String time_start, time_end;
+  private int offset;
+  private int limit = 100;
+  private String accept;
+
+  public String getQ() {
+    return q;
+  }
+
+  public void setQ(String q) {
+    this.q = q;
+  }
+
+  public Double getNorth() {
+    return north;
+  }
+
+  public void setNorth(Double north) {
+    this.north = north;
+  }
+
+  public Double getSouth() {
+    return south;
+  }
+
+  public void setSouth(Double south) {
+    this.south = south;
+  }
+
+  public Double getEast() {
+    return east;
+  }
+
+  public void setEast(Double east) {
+    this.east = east;
+  }
+
+  public Double getWest() {
+    return west;
+  }
+
+  public void setWest(Double west) {
+    this.west = west;
+  }
+
+  public String getTime_start() {
+    return time_start;
+  }
+
+  public void setTime_start(String time_start) {
+    this.time_start = time_start;
+  }
+
+  public String getTime_end() {
+    return time_end;
+  }
+
+  public void setTime_end(String time_end) {
+    this.time_end = time_end;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public void setOffset(int offset) {
+    this.offset = offset;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public void setLimit(int limit) {
+    this.limit = limit;
+  }
+
+  public String getAccept() {
+    return accept;
+  }
+
+  public void setAccept(String accept) {
+    this.accept = accept;
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import thredds.server.exception.ServiceBusyException;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per service concurrency limits, so that a few heavy requests cannot take all the container threads.
+ * <p>
+ * AdmissionControlFilter asks for a slot for each request of a limited service. If none is free, the request
+ * waits up to maxWait in a queue of at most maxQueue requests, else it is rejected with 503 and Retry-After.
+ * Each client (by remote address) may hold at most maxPerClient slots and queue places of a service.
+ * <p>
+ * Controllers that know the size of the response before writing it call reserve(nbytes); responses of at least
+ * largeRequest bytes also need one of maxLarge slots, so large requests cannot crowd out small ones.
+ *
+ * @since 5.0
+ */
+public class AdmissionControl {
+  private static volatile Map<String, Limiter> limiters = Collections.emptyMap();
+  private static volatile int retryAfterSecs = 10;
+  private static final ThreadLocal<Permit> current = new ThreadLocal<>();
+
+  /** Limits for one service, from threddsConfig.xml */
+  public static class Limits {
+    public int maxConcurrent; // required
+    public int maxQueue; // 0 = no waiting
+    public int maxWaitSecs = 10;
+    public int maxPerClient; // 0 = no limit
+    public long largeRequest; // bytes, 0 = no large request limit
+    public int maxLarge = 1;
+  }
+
+  /** Called from TdsInit. */
+  public static void configure(Map<String, Limits> serviceLimits, int retryAfter) {
+    Map<String, Limiter> result = new ConcurrentHashMap<>();
+    for (Map.Entry<String, Limits> entry : serviceLimits.entrySet()) {
+      if (entry.getValue().maxConcurrent > 0)
+        result.put(entry.getKey(), new Limiter(entry.getKey(), entry.getValue()));
+    }
+    retryAfterSecs = retryAfter;
+    limiters = result;
+  }
+
+  public static boolean isEnabled() {
+    return !limiters.isEmpty();
+  }
+
+  public static int getRetryAfterSecs() {
+    return retryAfterSecs;
+  }
+
+  /**
+   * Wait for a slot for this request.
+   *
+   * @param service first element of the request path
+   * @param client remote address
+   * @return the permit, which must be released when the request is done, or null if rejected
+   */
+  public static Permit admit(String service, String client) throws InterruptedException {
+    Limiter limiter = limiters.get(service);
+    if (limiter == null)
+      return Permit.NONE;
+    Permit permit = limiter.admit(client);
+    if (permit != null)
+      current.set(permit);
+    return permit;
+  }
+
+  /**
+   * Called by controllers once they know how many bytes the response will be. If it is a large request,
+   * wait for one of the service's large request slots.
+   *
+   * @throws ServiceBusyException if no large request slot came free in time
+   */
+  public static void reserve(long nbytes) {
+    Permit permit = current.get();
+    if (permit == null || permit.limiter == null)
+      return;
+    try {
+      permit.reserveLarge(nbytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceBusyException("interrupted", retryAfterSecs);
+    }
+  }
+
+  /**
+   * True if reserve() will need the response size for the request on this thread. Lets controllers skip
+   * estimating it when it isn't needed.
+   */
+  public static boolean wantsSize() {
+    Permit permit = current.get();
+    return permit != null && permit.limiter != null && permit.limiter.limits.largeRequest > 0 && !permit.large;
+  }
+
+  /**
+   * Forget the permit of the request on this thread, when the request goes async. The permit is still held
+   * until it is released on completion.
+   */
+  public static void detach() {
+    current.remove();
+  }
+
+  /** The permit for a request. Release exactly once, when the response is done. */
+  public static class Permit {
+    static final Permit NONE = new Permit(null, null);
+
+    private final Limiter limiter;
+    private final String client;
+    private boolean large;
+
+    private Permit(Limiter limiter, String client) {
+      this.limiter = limiter;
+      this.client = client;
+    }
+
+    private void reserveLarge(long nbytes) throws InterruptedException {
+      Limits limits = limiter.limits;
+      if (large || limits.largeRequest <= 0 || nbytes < limits.largeRequest)
+        return;
+      if (!limiter.large.tryAcquire(limits.maxWaitSecs, TimeUnit.SECONDS)) {
+        limiter.rejectedLarge.increment();
+        throw new ServiceBusyException(String.format("%s has %d large requests running", limiter.service,
+            limits.maxLarge), retryAfterSecs);
+      }
+      large = true;
+    }
+
+    public void release() {
+      if (limiter == null)
+        return;
+      if (current.get() == this)
+        current.remove();
+      if (large)
+        limiter.large.release();
+      limiter.slots.release();
+      limiter.releaseClient(client);
+    }
+  }
+
+  private static class Limiter {
+    final String service;
+    final Limits limits;
+    final Semaphore slots;
+    final Semaphore large;
+    final AtomicInteger waiting = new AtomicInteger();
+    final Map<String, Integer> clients = new ConcurrentHashMap<>(); // slots and queue places held per client
+
+    final LongAdder admitted = new LongAdder();
+    final LongAdder queued = new LongAdder();
+    final LongAdder rejectedQueueFull = new LongAdder();
+    final LongAdder rejectedTimeout = new LongAdder();
+    final LongAdder rejectedClient = new LongAdder();
+    final LongAdder rejectedLarge = new LongAdder();
+
+    Limiter(String service, Limits limits) {
+      this.service = service;
+      this.limits = limits;
+      this.slots = new Semaphore(limits.maxConcurrent, true);
+      this.large = new Semaphore(Math.max(1, limits.maxLarge), true);
+    }
+
+    Permit admit(String client) throws InterruptedException {
+      if (!acquireClient(client)) {
+        rejectedClient.increment();
+        return null;
+      }
+
+      boolean ok = slots.tryAcquire();
+      if (!ok) {
+        if (waiting.incrementAndGet() > limits.maxQueue) {
+          waiting.decrementAndGet();
+          rejectedQueueFull.increment();
+        } else {
+          queued.increment();
+          try {
+            ok = slots.tryAcquire(limits.maxWaitSecs, TimeUnit.SECONDS);
+          } finally {
+            waiting.decrementAndGet();
+          }
+          if (!ok)
+            rejectedTimeout.increment();
+        }
+      }
+
+      if (!ok) {
+        releaseClient(client);
+        return null;
+      }
+      admitted.increment();
+      return new Permit(this, client);
+    }
+
+    private boolean acquireClient(String client) {
+      if (limits.maxPerClient <= 0 || client == null)
+        return true;
+      boolean[] ok = new boolean[1];
+      clients.compute(client, (k, count) -> {
+        int n = (count == null) ? 0 : count;
+        if (n >= limits.maxPerClient)
+          return count;
+        ok[0] = true;
+        return n + 1;
+      });
+      return ok[0];
+    }
+
+    private void releaseClient(String client) {
+      if (limits.maxPerClient <= 0 || client == null)
+        return;
+      clients.computeIfPresent(client, (k, count) -> count <= 1 ? null : count - 1);
+    }
+
+    long rejected() {
+      return rejectedQueueFull.sum() + rejectedTimeout.sum() + rejectedClient.sum() + rejectedLarge.sum();
+    }
+  }
+
+  ///////////////////////////////////////////////////////
+  // reporting
+
+  /** Current state of one limited service, for metrics. */
+  public static class Status {
+    public final String service;
+    public final int active, waiting, activeLarge;
+    public final long admitted, queued, rejectedQueueFull, rejectedTimeout, rejectedClient, rejectedLarge;
+
+    private Status(Limiter l) {
+      this.service = l.service;
+      this.active = l.limits.maxConcurrent - l.slots.availablePermits();
+      this.waiting = l.waiting.get();
+      this.activeLarge = Math.max(1, l.limits.maxLarge) - l.large.availablePermits();
+      this.admitted = l.admitted.sum();
+      this.queued = l.queued.sum();
+      this.rejectedQueueFull = l.rejectedQueueFull.sum();
+      this.rejectedTimeout = l.rejectedTimeout.sum();
+      this.rejectedClient = l.rejectedClient.sum();
+      this.rejectedLarge = l.rejectedLarge.sum();
+    }
+  }
+
+  public static Iterable<Status> getStatus() {
+    Map<String, Status> result = new TreeMap<>();
+    for (Limiter l : limiters.values())
+      result.put(l.service, new Status(l));
+    return result.values();
+  }
+
+  public static void show(Formatter f) {
+    f.format("Admission control (retryAfter=%d secs)%n", retryAfterSecs);
+    if (limiters.isEmpty())
+      f.format("  no limits configured%n");
+    for (Limiter l : new TreeMap<>(limiters).values()) {
+      Limits lim = l.limits;
+      f.format("  %s: maxConcurrent=%d maxQueue=%d maxWait=%d secs maxPerClient=%d largeRequest=%d maxLarge=%d%n",
+          l.service, lim.maxConcurrent, lim.maxQueue, lim.maxWaitSecs, lim.maxPerClient, lim.largeRequest,
+          lim.maxLarge);
+      f.format("    active=%d waiting=%d clients=%d admitted=%d queued=%d rejected=%d%n",
+          lim.maxConcurrent - l.slots.availablePermits(), l.waiting.get(), l.clients.size(), l.admitted.sum(),
+          l.queued.sum(), l.rejected());
+    }
+  }
+}
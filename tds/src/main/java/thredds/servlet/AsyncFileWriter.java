@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send a file to the client with Servlet 3.1 non-blocking I/O, so that a slow client does not hold a container
+ * thread for the whole download. The request thread returns as soon as the transfer is started; the file is then
+ * read in chunks of chunkSize bytes, and a chunk is only read when the socket can take it, so each download
+ * buffers at most one chunk.
+ * <p>
+ * Used for bulk transfers of local files: the HTTPServer, NCSS grid files, and DAP2 data responses, which
+ * are spooled to a file first if they are no larger than maxSpoolBytes. Responses smaller than minBytes, and
+ * requests whose filter chain does not support async, are written the usual (blocking) way.
+ * <p>
+ * A download keeps its AdmissionControl permit until the container calls onComplete, ie until the last byte is
+ * written, the client goes away or the transfer times out, not just until the request thread returns.
+ *
+ * @since 5.0
+ */
+public class AsyncFileWriter {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AsyncFileWriter.class);
+
+  private static volatile boolean enabled;
+  private static volatile long minBytes = 10 * 1000 * 1000;
+  private static volatile int chunkSize = 64 * 1024;
+  private static volatile long timeoutMsecs = 60 * 60 * 1000;
+  private static volatile File spoolDir;
+  private static volatile long maxSpoolBytes = 100 * 1000 * 1000;
+
+  private static final AtomicInteger active = new AtomicInteger();
+  private static final LongAdder started = new LongAdder();
+  private static final LongAdder completed = new LongAdder();
+  private static final LongAdder failed = new LongAdder();
+  private static final LongAdder bytesSent = new LongAdder();
+
+  /** Called from TdsInit. */
+  public static void setConfig(boolean enable, long minSize, int chunk, int timeoutSecs, File spool,
+      long maxSpool) {
+    minBytes = minSize;
+    chunkSize = Math.max(1024, chunk);
+    timeoutMsecs = timeoutSecs * 1000L;
+    spoolDir = spool;
+    maxSpoolBytes = maxSpool;
+    enabled = enable;
+  }
+
+  /**
+   * True if a response of this size to this request should be sent with write().
+   *
+   * @param nbytes size of the response, or -1 if unknown
+   */
+  public static boolean canWrite(HttpServletRequest req, long nbytes) {
+    return enabled && nbytes >= minBytes && req.isAsyncSupported() && !req.isAsyncStarted();
+  }
+
+  /** Directory for responses that are produced into a file before being sent, or null if none. */
+  public static File getSpoolDir() {
+    return spoolDir;
+  }
+
+  /**
+   * True if a response of this size may be produced into a spool file and then sent with write().
+   * Larger responses should be streamed to the client, so that the disk used is bounded.
+   */
+  public static boolean canSpool(long nbytes) {
+    return spoolDir != null && nbytes <= maxSpoolBytes;
+  }
+
+  /** Make a file in the spool directory for a response that is then sent with write(..., true). */
+  public static File createSpoolFile(String prefix) throws IOException {
+    File dir = spoolDir;
+    if (dir == null)
+      throw new IllegalStateException("AsyncFileWriter has no spool directory");
+    return File.createTempFile(prefix, ".tmp", dir);
+  }
+
+  /**
+   * Start sending part of a file. Headers must already be set. Returns immediately; the response is completed
+   * when the last byte is written or the client goes away.
+   *
+   * @param req the request, on the request thread
+   * @param res the response
+   * @param file local file to send
+   * @param start first byte to send
+   * @param length number of bytes to send
+   * @param deleteWhenDone delete the file when the response is done, eg for temporary files
+   */
+  public static void write(HttpServletRequest req, HttpServletResponse res, Path file, long start, long length,
+      boolean deleteWhenDone) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    AsyncContext ctx;
+    try {
+      ctx = req.startAsync(req, res);
+    } catch (IllegalStateException e) {
+      channel.close();
+      throw e;
+    }
+    ctx.setTimeout(timeoutMsecs);
+    Transfer transfer = new Transfer(ctx, res.getOutputStream(), channel, file, start, length, deleteWhenDone);
+    ctx.addListener(transfer);
+    active.incrementAndGet();
+    started.increment();
+    transfer.out.setWriteListener(transfer);
+  }
+
+  private static class Transfer implements WriteListener, AsyncListener {
+    private final AsyncContext ctx;
+    private final ServletOutputStream out;
+    private final FileChannel channel;
+    private final Path file;
+    private final boolean deleteWhenDone;
+    private final RequestIoStats ioStats;
+    private final byte[] buffer;
+    private final ByteBuffer bb;
+    private long position, remaining;
+    private boolean done;
+
+    Transfer(AsyncContext ctx, ServletOutputStream out, FileChannel channel, Path file, long start, long length,
+        boolean deleteWhenDone) {
+      this.ctx = ctx;
+      this.out = out;
+      this.channel = channel;
+      this.file = file;
+      this.deleteWhenDone = deleteWhenDone;
+      this.ioStats = RequestIoStats.current();
+      this.buffer = new byte[(int) Math.min(chunkSize, Math.max(length, 1))];
+      this.bb = ByteBuffer.wrap(buffer);
+      this.position = start;
+      this.remaining = length;
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      // container threads call back here; count the writes against the request
+      boolean attach = RequestIoStats.current() != ioStats;
+      if (attach)
+        RequestIoStats.resume(ioStats);
+      try {
+        while (out.isReady()) {
+          if (remaining <= 0) {
+            finish(true);
+            return;
+          }
+          bb.clear();
+          bb.limit((int) Math.min(buffer.length, remaining));
+          int n = channel.read(bb, position);
+          if (n < 0)
+            throw new IOException("Unexpected end of file " + file + " at " + position);
+          out.write(buffer, 0, n);
+          position += n;
+          remaining -= n;
+          bytesSent.add(n);
+        }
+      } finally {
+        if (attach)
+          RequestIoStats.suspend();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      log.debug("Async transfer of {} failed: {}", file, t.getMessage());
+      finish(false);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      finish(false); // no op unless the container completed the request first
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      log.info("Async transfer of {} timed out with {} bytes remaining", file, remaining);
+      finish(false);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      onError(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+
+    private synchronized void finish(boolean ok) {
+      if (done)
+        return;
+      done = true;
+      active.decrementAndGet();
+      if (ok)
+        completed.increment();
+      else
+        failed.increment();
+
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Failed to close " + file, e);
+      }
+      if (deleteWhenDone) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          log.warn("Failed to delete " + file, e);
+        }
+      }
+      try {
+        ctx.complete();
+      } catch (IllegalStateException e) {
+        // already completed by the container
+      }
+    }
+  }
+
+  /** Remove spool files left by a previous run. Called from TdsInit. */
+  public static void cleanSpoolDir() {
+    File dir = spoolDir;
+    File[] files = (dir == null) ? null : dir.listFiles();
+    if (files == null)
+      return;
+    for (File f : files) {
+      if (f.isFile() && !f.delete())
+        log.warn("Failed to delete old spool file {}", f);
+    }
+  }
+
+  public static int getActive() {
+    return active.get();
+  }
+
+  public static long getStarted() {
+    return started.sum();
+  }
+
+  public static long getFailed() {
+    return failed.sum();
+  }
+
+  public static long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public static void show(Formatter f) {
+    f.format("Async writes (enabled=%s minBytes=%d chunkSize=%d timeout=%d secs spoolDir=%s maxSpoolBytes=%d)%n",
+        enabled, minBytes, chunkSize, timeoutMsecs / 1000, spoolDir, maxSpoolBytes);
+    f.format("  active=%d started=%d completed=%d failed=%d bytesSent=%d%n", active.get(), started.sum(),
+        completed.sum(), failed.sum(), bytesSent.sum());
+  }
+}
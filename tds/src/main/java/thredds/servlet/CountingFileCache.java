@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.cache.FileCache;
+import ucar.nc2.util.cache.FileCacheable;
+import ucar.nc2.util.cache.FileFactory;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A FileCache that counts its hits and misses, and can say how many files it holds, for /admin/metrics.
+ * An acquire is a miss when the cache calls the factory to open the file.
+ *
+ * @since 5.0
+ */
+public class CountingFileCache extends FileCache {
+  private final LongAdder acquireHits = new LongAdder();
+  private final LongAdder acquireMisses = new LongAdder();
+
+  public CountingFileCache(String name, int minElementsInMemory, int softLimit, int hardLimit, int period) {
+    super(name, minElementsInMemory, softLimit, hardLimit, period);
+  }
+
+  @Override
+  public FileCacheable acquire(FileFactory factory, Object hashKey, DatasetUrl location, int buffer_size,
+      CancelTask cancelTask, Object spiObject) throws IOException {
+    FileFactory opener = getFactory(factory);
+    boolean[] opened = new boolean[1];
+    FileCacheable result = super.acquire((durl, bufferSize, task, iospMessage) -> {
+      opened[0] = true;
+      return opener.open(durl, bufferSize, task, iospMessage);
+    }, hashKey, location, buffer_size, cancelTask, spiObject);
+    if (opened[0])
+      acquireMisses.increment();
+    else
+      acquireHits.increment();
+    acquired(!opened[0]);
+    return result;
+  }
+
+  /** The factory used to open a file on a miss; subclasses may open it differently. */
+  protected FileFactory getFactory(FileFactory factory) {
+    return factory;
+  }
+
+  /** Called after each acquire. */
+  protected void acquired(boolean cacheHit) {}
+
+  /** Acquires that found the file open in the cache. */
+  public long getHits() {
+    return acquireHits.sum();
+  }
+
+  /** Acquires that opened the file. */
+  public long getMisses() {
+    return acquireMisses.sum();
+  }
+
+  /** Number of open files held by the cache. */
+  public int getFileCount() {
+    return files.size();
+  }
+}
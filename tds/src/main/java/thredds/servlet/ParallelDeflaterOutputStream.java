@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Formatter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Compress a response on several threads, the way pigz does. The input is cut into blocks of blockSize bytes,
+ * and each block is deflated on a shared pool, primed with the last 32K of the block before it so the
+ * compression ratio is close to a single stream. Every block but the last ends with a sync flush, so the
+ * compressed blocks can simply be written one after the other. The result is a single zlib (Content-Encoding:
+ * deflate) or gzip stream that any client can read.
+ * <p>
+ * At most 2 * threads blocks per response are in memory. With threads <= 1 the blocks are deflated on the
+ * calling thread.
+ *
+ * @since 5.0
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ParallelDeflaterOutputStream.class);
+  private static final int DICT_SIZE = 32 * 1024; // the deflate window
+
+  private static volatile boolean enabled;
+  private static volatile int nthreads = 1;
+  private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+  private static volatile int blockSize = 128 * 1024;
+  private static volatile long minBytes = 1000 * 1000;
+  private static ExecutorService pool;
+
+  private static final LongAdder bytesIn = new LongAdder();
+  private static final LongAdder bytesOut = new LongAdder();
+  private static final LongAdder streams = new LongAdder();
+
+  /** Called from TdsInit. */
+  public static synchronized void setConfig(boolean enable, int threads, int compressionLevel, int block,
+      long minSize) {
+    shutdown();
+    nthreads = Math.max(1, threads);
+    level = (compressionLevel < 0 || compressionLevel > 9) ? Deflater.DEFAULT_COMPRESSION : compressionLevel;
+    blockSize = Math.max(DICT_SIZE, block);
+    minBytes = minSize;
+    if (enable && nthreads > 1) {
+      AtomicInteger count = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(nthreads, r -> {
+        Thread t = new Thread(r, "ParallelDeflate-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    enabled = enable;
+  }
+
+  /** Called from TdsInit.destroy. */
+  public static synchronized void shutdown() {
+    enabled = false;
+    if (pool != null)
+      pool.shutdownNow();
+    pool = null;
+  }
+
+  private static synchronized ExecutorService getPool() {
+    return pool;
+  }
+
+  /** True if the TDS compresses responses itself, instead of leaving it to Tomcat. */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** True if the response to this request may be gzipped by the TDS. */
+  public static boolean acceptsGzip(HttpServletRequest req) {
+    if (!enabled)
+      return false;
+    String accept = req.getHeader("Accept-Encoding");
+    return accept != null && accept.contains("gzip");
+  }
+
+  /**
+   * True if a file of this size should be gzipped for this request.
+   *
+   * @param nbytes size of the file, or -1 if unknown
+   */
+  public static boolean canGzip(HttpServletRequest req, long nbytes) {
+    return nbytes >= minBytes && acceptsGzip(req);
+  }
+
+  public static long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  public static long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  public static long getStreams() {
+    return streams.sum();
+  }
+
+  public static void show(Formatter f) {
+    f.format("ParallelDeflate enabled=%s threads=%d level=%d blockSize=%d minSize=%d%n", enabled, nthreads, level,
+        blockSize, minBytes);
+  }
+
+  //////////////////////////////////////////////////////////////
+
+  private final OutputStream out;
+  private final boolean gzip;
+  private final Checksum check;
+  private final int block = blockSize;
+  private final int deflateLevel = level;
+  private final ExecutorService executor = getPool();
+  private final int maxPending = 2 * nthreads;
+  private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  private byte[] buf = new byte[block];
+  private int count;
+  private byte[] prev; // the last block, whose tail primes the next one
+  private int prevLen;
+  private long totalIn;
+  private boolean headerDone, finished;
+
+  /**
+   * Compress onto out.
+   *
+   * @param out the underlying stream, not closed by finish()
+   * @param gzip write gzip, else zlib
+   */
+  public ParallelDeflaterOutputStream(OutputStream out, boolean gzip) {
+    this.out = out;
+    this.gzip = gzip;
+    this.check = gzip ? new CRC32() : new Adler32();
+    streams.increment();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (finished)
+      throw new IOException("write after finish");
+    if (count == buf.length)
+      submit(false);
+    buf[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (finished)
+      throw new IOException("write after finish");
+    while (len > 0) {
+      if (count == buf.length)
+        submit(false);
+      int n = Math.min(len, buf.length - count);
+      System.arraycopy(b, off, buf, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** Send what has been written so far; the stream can still be written to. */
+  @Override
+  public void flush() throws IOException {
+    if (finished)
+      return;
+    if (count > 0)
+      submit(false);
+    drain(0);
+    out.flush();
+  }
+
+  /** Write the rest of the compressed data and the trailer, without closing the underlying stream. */
+  public void finish() throws IOException {
+    if (finished)
+      return;
+    submit(true);
+    drain(0);
+    finished = true;
+    if (gzip) {
+      writeIntLE(check.getValue());
+      writeIntLE(totalIn);
+    } else {
+      long v = check.getValue();
+      out.write(new byte[] {(byte) (v >> 24), (byte) (v >> 16), (byte) (v >> 8), (byte) v});
+    }
+    bytesOut.add(gzip ? 8 : 4);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void submit(boolean last) throws IOException {
+    if (!headerDone)
+      writeHeader();
+    final byte[] data = buf;
+    final int len = count;
+    final byte[] dict = prev;
+    final int dictLen = prevLen;
+    check.update(data, 0, len);
+    totalIn += len;
+    bytesIn.add(len);
+
+    if (executor == null) {
+      writeBlock(deflate(data, len, dict, dictLen, last));
+    } else {
+      try {
+        pending.add(executor.submit(() -> deflate(data, len, dict, dictLen, last)));
+      } catch (RejectedExecutionException e) { // pool was shut down
+        drain(0);
+        writeBlock(deflate(data, len, dict, dictLen, last));
+      }
+      drain(maxPending);
+    }
+
+    // data is not changed after this, so its tail can be used as the next dictionary
+    if (len > 0) {
+      prev = data;
+      prevLen = len;
+    }
+    buf = last ? null : new byte[block];
+    count = 0;
+  }
+
+  // write finished blocks until no more than max are waiting
+  private void drain(int max) throws IOException {
+    while (pending.size() > max) {
+      Future<byte[]> next = pending.poll();
+      try {
+        writeBlock(next.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancelAll();
+        throw new IOException("interrupted while compressing", e);
+      } catch (ExecutionException e) {
+        cancelAll();
+        log.warn("ParallelDeflate failed", e.getCause());
+        throw new IOException("compression failed", e.getCause());
+      }
+    }
+  }
+
+  private void cancelAll() {
+    for (Future<byte[]> f : pending)
+      f.cancel(true);
+    pending.clear();
+  }
+
+  private void writeBlock(byte[] compressed) throws IOException {
+    out.write(compressed);
+    bytesOut.add(compressed.length);
+  }
+
+  private byte[] deflate(byte[] data, int len, byte[] dict, int dictLen, boolean last) {
+    Deflater def = new Deflater(deflateLevel, true); // raw deflate, the header and trailer are written here
+    try {
+      if (dict != null) {
+        int n = Math.min(DICT_SIZE, dictLen);
+        def.setDictionary(dict, dictLen - n, n);
+      }
+      def.setInput(data, 0, len);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 2 + 64);
+      byte[] tmp = new byte[64 * 1024];
+      if (last) {
+        def.finish();
+        while (!def.finished()) {
+          int n = def.deflate(tmp);
+          bos.write(tmp, 0, n);
+        }
+      } else {
+        // a full output buffer means there may be more
+        int n;
+        do {
+          n = def.deflate(tmp, 0, tmp.length, Deflater.SYNC_FLUSH);
+          bos.write(tmp, 0, n);
+        } while (n == tmp.length);
+      }
+      return bos.toByteArray();
+    } finally {
+      def.end();
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    headerDone = true;
+    if (gzip) {
+      // magic, deflate, no flags, no mtime, no extra flags, unknown OS
+      out.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+      bytesOut.add(10);
+    } else {
+      // RFC 1950: deflate with a 32K window, FLEVEL from the level, FCHECK so that the header is a multiple of 31
+      int cmf = 0x78;
+      int flevel = (deflateLevel == Deflater.DEFAULT_COMPRESSION || deflateLevel == 6) ? 2
+          : deflateLevel < 2 ? 0 : deflateLevel < 6 ? 1 : 3;
+      int flg = flevel << 6;
+      int rem = (cmf * 256 + flg) % 31;
+      if (rem != 0)
+        flg += 31 - rem;
+      out.write(new byte[] {(byte) cmf, (byte) flg});
+      bytesOut.add(2);
+    }
+  }
+
+  private void writeIntLE(long v) throws IOException {
+    out.write(new byte[] {(byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24)});
+  }
+}
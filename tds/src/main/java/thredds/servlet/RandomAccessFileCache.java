@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import ucar.nc2.util.cache.FileFactory;
+import ucar.unidata.io.RandomAccessFile;
+import java.io.IOException;
+
+/**
+ * The global RandomAccessFile cache, set in TdsInit, which counts acquires and reads for RequestIoStats.
+ * Hits and misses are counted for the request on the acquiring thread, and in the CountingFileCache totals.
+ * <p>
+ * RandomAccessFile.acquire() only uses the global cache for local files, which its factory opens with
+ * new RandomAccessFile(location, "r", bufferSize). This cache opens them the same way as a subclass that counts
+ * the seeks and bytes read by the request on the reading thread, so overlapping requests do not see each other's
+ * reads. Files that netcdf-java opens without the cache are not counted.
+ *
+ * @since 5.0
+ */
+public class RandomAccessFileCache extends CountingFileCache {
+  private static final FileFactory countingFactory =
+      (durl, bufferSize, task, iospMessage) -> new CountingRandomAccessFile(durl.getTrueurl(), bufferSize);
+
+  public RandomAccessFileCache(String name, int minElementsInMemory, int softLimit, int hardLimit, int period) {
+    super(name, minElementsInMemory, softLimit, hardLimit, period);
+  }
+
+  @Override
+  protected FileFactory getFactory(FileFactory factory) {
+    return countingFactory;
+  }
+
+  @Override
+  protected void acquired(boolean cacheHit) {
+    RequestIoStats.addRafAcquire(cacheHit);
+  }
+
+  private static class CountingRandomAccessFile extends RandomAccessFile {
+    CountingRandomAccessFile(String location, int bufferSize) throws IOException {
+      super(location, "r", bufferSize);
+    }
+
+    // every buffer fill is a seek and a read of the underlying file
+    @Override
+    protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+      int n = super.read_(pos, b, offset, len);
+      RequestIoStats.addRafRead(Math.max(n, 0));
+      return n;
+    }
+  }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Formatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O cost of one request, bound to the request thread between start() and finish(),
+ * which RequestBracketingLogMessageFilter calls around each request.
+ * Counted here:
+ * <ul>
+ * <li>dataset opens, time spent opening, and NetcdfFile cache hits and misses (DatasetManager)</li>
+ * <li>time spent reading data (NcSDArray)</li>
+ * <li>time spent writing the response and bytes written, before and after compression</li>
+ * <li>RandomAccessFile cache hits and misses, and seeks and bytes read from the files in that cache
+ * (RandomAccessFileCache), counted on the thread that does them</li>
+ * <li>cpu time and bytes allocated by the request thread</li>
+ * </ul>
+ * The counts are added to totals per service (first element of the servlet path), for at most MAX_SERVICES services.
+ *
+ * @since 5.0
+ */
+public class RequestIoStats {
+  private static final ThreadLocal<RequestIoStats> current = new ThreadLocal<>();
+  private static final AtomicInteger inFlight = new AtomicInteger();
+  private static final AtomicLong nstarted = new AtomicLong();
+  // the service comes from the request path, so bound the number kept; the rest are counted as "other"
+  static final int MAX_SERVICES = 100;
+  private static final Map<String, ServiceTotals> services = new ConcurrentHashMap<>();
+
+  private static volatile boolean enabled = true;
+  private static volatile boolean rafCounters;
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  /**
+   * Called from TdsInit.
+   *
+   * @param enable keep per request counts
+   * @param countRaf also log RandomAccessFile cache hits, misses, seeks and bytes
+   */
+  public static void setEnabled(boolean enable, boolean countRaf) {
+    enabled = enable;
+    rafCounters = enable && countRaf;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** The stats for the request on this thread, or null if none */
+  public static RequestIoStats current() {
+    return current.get();
+  }
+
+  /** Start counting for the request on this thread. */
+  public static RequestIoStats start(String service) {
+    if (!enabled)
+      return null;
+    RequestIoStats stats = new RequestIoStats(service);
+    current.set(stats);
+    return stats;
+  }
+
+  /** Stop counting, add to the service totals and return the stats, or null if not counting. */
+  public static RequestIoStats finish() {
+    RequestIoStats stats = current.get();
+    if (stats == null)
+      return null;
+    current.remove();
+    stats.end();
+    ServiceTotals totals = services.get(stats.service);
+    if (totals == null)
+      totals = addService(stats.service);
+    totals.add(stats);
+    return stats;
+  }
+
+  private static synchronized ServiceTotals addService(String service) {
+    ServiceTotals totals = services.get(service);
+    if (totals == null) // leave room for "other"
+      totals = services.computeIfAbsent(services.size() < MAX_SERVICES - 1 ? service : "other", ServiceTotals::new);
+    return totals;
+  }
+
+  /**
+   * Detach the stats from this thread, when the request goes async and is finished on another thread.
+   * Returns the stats, or null if not counting.
+   */
+  public static RequestIoStats suspend() {
+    RequestIoStats stats = current.get();
+    current.remove();
+    if (stats != null)
+      stats.endThreadTimes();
+    return stats;
+  }
+
+  /** Attach stats from suspend() to this thread, eg in an async callback. Null is ignored. */
+  public static void resume(RequestIoStats stats) {
+    if (stats != null)
+      current.set(stats);
+  }
+
+  ///////////////////////////////////////////////////////
+  // static hooks, no-ops when there is no request on this thread
+
+  /** Time spent acquiring a dataset, and whether it came from the NetcdfFile cache. */
+  public static void addOpen(long nanos, boolean cacheHit) {
+    RequestIoStats stats = current.get();
+    if (stats != null) {
+      stats.opens++;
+      stats.openNanos += nanos;
+      if (cacheHit)
+        stats.ncCacheHits++;
+    }
+  }
+
+  /** The NetcdfFile cache did not have the file, and it is being opened. */
+  public static void addCacheMiss() {
+    RequestIoStats stats = current.get();
+    if (stats != null)
+      stats.ncCacheMisses++;
+  }
+
+  /** The RandomAccessFile cache was asked for a file, and whether it had it open. */
+  static void addRafAcquire(boolean cacheHit) {
+    RequestIoStats stats = current.get();
+    if (stats != null) {
+      if (cacheHit)
+        stats.rafHits++;
+      else
+        stats.rafMisses++;
+    }
+  }
+
+  /** A RandomAccessFile from the cache read its buffer. */
+  static void addRafRead(long nbytes) {
+    RequestIoStats stats = current.get();
+    if (stats != null) {
+      stats.rafSeeks++;
+      stats.rafBytes += nbytes;
+    }
+  }
+
+  /** Time spent reading data values. */
+  public static void addRead(long nanos) {
+    RequestIoStats stats = current.get();
+    if (stats != null)
+      stats.readNanos += nanos;
+  }
+
+  /** Time spent and bytes written to the client. */
+  public static void addWrite(long nanos, long nbytes) {
+    RequestIoStats stats = current.get();
+    if (stats != null) {
+      stats.writeNanos += nanos;
+      stats.bytesOut += nbytes;
+    }
+  }
+
+  /**
+   * Wrap the stream that compresses the response, to count the bytes before compression.
+   * Returns the stream itself if there is no request on this thread.
+   */
+  public static OutputStream countUncompressed(OutputStream compressor) {
+    RequestIoStats stats = current.get();
+    if (stats == null)
+      return compressor;
+    return new FilterOutputStream(compressor) {
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        stats.uncompressedBytes++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        stats.uncompressedBytes += len;
+      }
+    };
+  }
+
+  ///////////////////////////////////////////////////////
+
+  private final String service;
+  private final long startNanos;
+  private final long startedBefore;
+  private final int inFlightAtStart;
+  private final long cpuStart;
+  private final long allocStart;
+  private final Thread thread;
+
+  private int opens, ncCacheHits, ncCacheMisses;
+  private long openNanos, readNanos, writeNanos;
+  private long bytesOut, uncompressedBytes;
+  private int rafHits, rafMisses;
+  private long rafSeeks, rafBytes;
+
+  // set in end()
+  private long elapsedNanos;
+  private int overlap;
+  private boolean threadTimesDone;
+  private long cpuNanos = -1;
+  private long allocBytes = -1;
+
+  private RequestIoStats(String service) {
+    this.service = service;
+    this.startedBefore = nstarted.getAndIncrement();
+    this.inFlightAtStart = inFlight.getAndIncrement();
+    this.cpuStart = threadCpuTime();
+    this.allocStart = threadAllocatedBytes();
+    this.thread = Thread.currentThread();
+    this.startNanos = System.nanoTime();
+  }
+
+  private void end() {
+    elapsedNanos = System.nanoTime() - startNanos;
+    inFlight.decrementAndGet();
+    // requests running when this one started, plus the ones started since
+    overlap = inFlightAtStart + (int) (nstarted.get() - startedBefore - 1);
+    endThreadTimes();
+  }
+
+  // cpu and allocation are per thread, so only count the request thread, up to when it finishes or goes async
+  private void endThreadTimes() {
+    if (threadTimesDone || Thread.currentThread() != thread)
+      return;
+    threadTimesDone = true;
+    long cpu = threadCpuTime();
+    if (cpu >= 0 && cpuStart >= 0)
+      cpuNanos = cpu - cpuStart;
+    long alloc = threadAllocatedBytes();
+    if (alloc >= 0 && allocStart >= 0)
+      allocBytes = alloc - allocStart;
+  }
+
+  private static long threadCpuTime() {
+    try {
+      return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+    } catch (UnsupportedOperationException e) {
+      return -1;
+    }
+  }
+
+  private static long threadAllocatedBytes() {
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+      return -1;
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+    if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+      return -1;
+    return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  public long getBytesOut() {
+    return bytesOut;
+  }
+
+  public long getUncompressedBytes() {
+    return uncompressedBytes;
+  }
+
+  public int getOverlap() {
+    return overlap;
+  }
+
+  public long getRafSeeks() {
+    return rafSeeks;
+  }
+
+  public long getRafBytes() {
+    return rafBytes;
+  }
+
+  /**
+   * Key=value fields for the closing log message. Times are in msecs.
+   */
+  public String toLogFields() {
+    Formatter f = new Formatter();
+    f.format("service=%s opens=%d openMs=%d ncHits=%d ncMisses=%d readMs=%d writeMs=%d bytesOut=%d", service, opens,
+        millis(openNanos), ncCacheHits, ncCacheMisses, millis(readNanos), millis(writeNanos), bytesOut);
+    if (uncompressedBytes > 0)
+      f.format(" uncompressed=%d", uncompressedBytes);
+    if (rafCounters)
+      f.format(" rafHits=%d rafMisses=%d rafSeeks=%d rafBytes=%d", rafHits, rafMisses, rafSeeks, rafBytes);
+    if (cpuNanos >= 0)
+      f.format(" cpuMs=%d", millis(cpuNanos));
+    if (allocBytes >= 0)
+      f.format(" allocKb=%d", allocBytes / 1000);
+    f.format(" overlap=%d", overlap);
+    return f.toString();
+  }
+
+  private static long millis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  ///////////////////////////////////////////////////////
+  // totals per service
+
+  private static class ServiceTotals {
+    final String service;
+    final LongAdder requests = new LongAdder();
+    final LongAdder elapsedNanos = new LongAdder();
+    final LongAdder opens = new LongAdder();
+    final LongAdder openNanos = new LongAdder();
+    final LongAdder ncCacheHits = new LongAdder();
+    final LongAdder ncCacheMisses = new LongAdder();
+    final LongAdder readNanos = new LongAdder();
+    final LongAdder writeNanos = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder uncompressedBytes = new LongAdder();
+    final LongAdder cpuNanos = new LongAdder();
+    final LongAdder allocBytes = new LongAdder();
+    final LongAdder rafHits = new LongAdder();
+    final LongAdder rafMisses = new LongAdder();
+    final LongAdder rafSeeks = new LongAdder();
+    final LongAdder rafBytes = new LongAdder();
+
+    ServiceTotals(String service) {
+      this.service = service;
+    }
+
+    void add(RequestIoStats s) {
+      requests.increment();
+      elapsedNanos.add(s.elapsedNanos);
+      opens.add(s.opens);
+      openNanos.add(s.openNanos);
+      ncCacheHits.add(s.ncCacheHits);
+      ncCacheMisses.add(s.ncCacheMisses);
+      readNanos.add(s.readNanos);
+      writeNanos.add(s.writeNanos);
+      bytesOut.add(s.bytesOut);
+      uncompressedBytes.add(s.uncompressedBytes);
+      if (s.cpuNanos > 0)
+        cpuNanos.add(s.cpuNanos);
+      if (s.allocBytes > 0)
+        allocBytes.add(s.allocBytes);
+      rafHits.add(s.rafHits);
+      rafMisses.add(s.rafMisses);
+      rafSeeks.add(s.rafSeeks);
+      rafBytes.add(s.rafBytes);
+    }
+  }
+
+  public static void showServiceTotals(Formatter f) {
+    f.format("Request I/O per service (enabled=%s, rafCounters=%s, inFlight=%d)%n", enabled, rafCounters,
+        inFlight.get());
+    f.format("%-12s %9s %10s %7s %8s %8s %9s %9s %9s %12s %12s %10s %12s %9s %9s %12s %12s%n", "service",
+        "requests", "elapsedMs", "opens", "openMs", "ncHits", "ncMisses", "readMs", "writeMs", "bytesOut",
+        "uncompressed", "cpuMs", "allocKb", "rafHits", "rafMisses", "rafSeeks", "rafBytes");
+    for (ServiceTotals t : new TreeMap<>(services).values()) {
+      f.format("%-12s %9d %10d %7d %8d %8d %9d %9d %9d %12d %12d %10d %12d %9d %9d %12d %12d%n", t.service,
+          t.requests.sum(), millis(t.elapsedNanos.sum()), t.opens.sum(), millis(t.openNanos.sum()),
+          t.ncCacheHits.sum(), t.ncCacheMisses.sum(), millis(t.readNanos.sum()), millis(t.writeNanos.sum()),
+          t.bytesOut.sum(), t.uncompressedBytes.sum(), millis(t.cpuNanos.sum()), t.allocBytes.sum() / 1000,
+          t.rafHits.sum(), t.rafMisses.sum(), t.rafSeeks.sum(), t.rafBytes.sum());
+    }
+  }
+
+  public static void resetServiceTotals() {
+    services.clear();
+  }
+}
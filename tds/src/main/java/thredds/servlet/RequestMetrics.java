@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts, latency histogram and bytes out per service, recorded by RequestBracketingLogMessageFilter
+ * for every request. Recording is a few LongAdder increments, so it is always on; the counters are never reset,
+ * as expected by Prometheus.
+ *
+ * @since 5.0
+ */
+public class RequestMetrics {
+  /** Upper bounds of the latency histogram buckets, in seconds. */
+  public static final double[] LATENCY_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+  private static final long[] bucketNanos = new long[LATENCY_BUCKETS.length];
+  static {
+    for (int i = 0; i < LATENCY_BUCKETS.length; i++)
+      bucketNanos[i] = (long) (LATENCY_BUCKETS[i] * 1.0e9);
+  }
+
+  // the service comes from the request path, so bound the number kept; the rest are counted as "other"
+  static final int MAX_SERVICES = 100;
+  private static final Map<String, Service> services = new ConcurrentHashMap<>();
+
+  public static class Service {
+    private final String name;
+    private final LongAdder[] statusClass = new LongAdder[6]; // 1xx .. 5xx, [0] for anything else
+    private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1]; // last is +Inf
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    private Service(String name) {
+      this.name = name;
+      for (int i = 0; i < statusClass.length; i++)
+        statusClass[i] = new LongAdder();
+      for (int i = 0; i < buckets.length; i++)
+        buckets[i] = new LongAdder();
+    }
+
+    private void record(int status, long nanos, long nbytes) {
+      int sc = status / 100;
+      statusClass[sc >= 1 && sc <= 5 ? sc : 0].increment();
+
+      int b = 0;
+      while (b < bucketNanos.length && nanos > bucketNanos[b])
+        b++;
+      buckets[b].increment();
+      latencyNanos.add(nanos);
+      if (nbytes > 0)
+        bytesOut.add(nbytes);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Number of requests whose status was in the given class.
+     *
+     * @param statusClass 1-5 for 1xx-5xx, 0 for any other status (eg the TDS specific 1000-1002)
+     */
+    public long getRequests(int statusClass) {
+      return this.statusClass[statusClass].sum();
+    }
+
+    public long getRequests() {
+      long total = 0;
+      for (LongAdder count : statusClass)
+        total += count.sum();
+      return total;
+    }
+
+    /** Cumulative count of requests that took no more than LATENCY_BUCKETS[bucket]; bucket == length for +Inf */
+    public long getCumulativeCount(int bucket) {
+      long total = 0;
+      for (int i = 0; i <= bucket; i++)
+        total += buckets[i].sum();
+      return total;
+    }
+
+    public double getLatencySeconds() {
+      return latencyNanos.sum() / 1.0e9;
+    }
+
+    public long getBytesOut() {
+      return bytesOut.sum();
+    }
+  }
+
+  /**
+   * Record a finished request.
+   *
+   * @param service first element of the servlet path
+   * @param status http status code
+   * @param nanos time to handle the request
+   * @param nbytes bytes written, or -1 if unknown
+   */
+  public static void record(String service, int status, long nanos, long nbytes) {
+    Service s = services.get(service);
+    if (s == null)
+      s = addService(service);
+    s.record(status, nanos, nbytes);
+  }
+
+  private static synchronized Service addService(String service) {
+    Service s = services.get(service);
+    if (s == null) // leave room for "other"
+      s = services.computeIfAbsent(services.size() < MAX_SERVICES - 1 ? service : "other", Service::new);
+    return s;
+  }
+
+  /** The services seen so far, sorted by name. */
+  public static Iterable<Service> getServices() {
+    return new TreeMap<>(services).values();
+  }
+}
@@ -25,6 +25,10 @@ import javax.servlet.http.HttpSession;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class ServletUtil {
@@ -301,32 +305,79 @@ public class ServletUtil {
       return;
     }
 
-    response.setContentType(getContentType(requestPath, request.getServletContext()));
+    final String contentType = getContentType(requestPath, request.getServletContext());
+    response.setContentType(contentType);
     response.addDateHeader("Last-Modified", file.getLastModified());
     response.addHeader("Accept-Ranges", "bytes");
 
     final long startPosition = getContentStartPosition(request.getHeader("Range"));
     final long endPosition = getContentEndPosition(request.getHeader("Range"), file.getLength());
     final long contentLength = endPosition - startPosition;
-    addContentLengthHeader(response, contentLength);
+    final boolean isRange = isRangeRequest(request.getHeader("Range"));
+
+    // whole files may be gzipped on the ParallelDeflate pool, if the client accepts it
+    final boolean gzip =
+        !isRange && isCompressible(contentType) && ParallelDeflaterOutputStream.canGzip(request, contentLength);
+    if (gzip) {
+      response.setHeader("Content-Encoding", "gzip");
+      response.addHeader("Vary", "Accept-Encoding");
+    } else {
+      addContentLengthHeader(response, contentLength);
+    }
 
     if (request.getMethod().equals("HEAD")) {
       return;
     }
 
+    if (isRange) {
+      response.addHeader("Content-Range",
+          "bytes " + startPosition + "-" + (endPosition - 1) + "/" + file.getLength());
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    }
+
+    if (gzip) {
+      ParallelDeflaterOutputStream gzOut = new ParallelDeflaterOutputStream(response.getOutputStream(), true);
+      file.writeToStream(gzOut);
+      gzOut.finish();
+      return;
+    }
+
+    // large local files are sent without holding this thread
+    final Path localPath = getLocalPath(file);
+    if (localPath != null && AsyncFileWriter.canWrite(request, contentLength)) {
+      AsyncFileWriter.write(request, response, localPath, startPosition, contentLength, false);
+      return;
+    }
+
     ServletOutputStream outputStream = response.getOutputStream();
 
-    if (!isRangeRequest(request.getHeader("Range"))) {
+    if (!isRange) {
       file.writeToStream(outputStream);
       return;
     }
 
-    response.addHeader("Content-Range", "bytes " + startPosition + "-" + (endPosition - 1) + "/" + file.getLength());
-    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-
     file.writeToStream(outputStream, startPosition, contentLength);
   }
 
+  // dont gzip what is already compressed
+  private static boolean isCompressible(String contentType) {
+    if (contentType == null)
+      return true;
+    String type = contentType.toLowerCase(Locale.ROOT);
+    return !type.startsWith("image/") && !type.startsWith("video/") && !type.contains("zip")
+        && !type.contains("compress");
+  }
+
+  // the path of an MFile on the local file system, or null if it is elsewhere (eg S3)
+  private static Path getLocalPath(MFile file) {
+    try {
+      Path path = Paths.get(file.getPath());
+      return Files.isRegularFile(path) ? path : null;
+    } catch (InvalidPathException e) {
+      return null;
+    }
+  }
+
   /**
    * Send given content string as the HTTP response.
    *
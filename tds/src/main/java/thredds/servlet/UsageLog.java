@@ -95,6 +95,16 @@ public class UsageLog {
     return "Request Completed - " + resCode + " - " + resSizeInBytes + " - " + duration;
   }
 
+  /**
+   * As above, with the request I/O counts appended as key=value fields.
+   *
+   * @param ioStats counts for this request, may be null
+   */
+  public static String closingMessageForRequestContext(int resCode, long resSizeInBytes, RequestIoStats ioStats) {
+    String msg = closingMessageForRequestContext(resCode, resSizeInBytes);
+    return ioStats == null ? msg : msg + " - " + ioStats.toLogFields();
+  }
+
   /**
    * Gather context information for the current non-request thread and
    * return a log message appropriate for logging.
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet.filter;
+
+import thredds.servlet.AdmissionControl;
+import thredds.util.TdsPathUtils;
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reject requests with 503 and Retry-After when their service is at its AdmissionControl limit,
+ * instead of letting them wait for a container thread until they time out.
+ * Comes after RequestBracketingLogMessageFilter, so rejected requests are logged.
+ *
+ * @see AdmissionControl
+ * @since 5.0
+ */
+public class AdmissionControlFilter implements Filter {
+  private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(getClass());
+
+  public void init(FilterConfig filterConfig) throws ServletException {}
+
+  public void destroy() {}
+
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+      throws IOException, ServletException {
+    if (!AdmissionControl.isEnabled() || !(servletRequest instanceof HttpServletRequest)) {
+      filterChain.doFilter(servletRequest, servletResponse);
+      return;
+    }
+
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    String service = TdsPathUtils.getServiceName(request);
+
+    AdmissionControl.Permit permit;
+    try {
+      permit = AdmissionControl.admit(service, request.getRemoteAddr());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      permit = null;
+    }
+
+    if (permit == null) {
+      log.debug("doFilter(): {} busy, rejected request from {}", service, request.getRemoteAddr());
+      response.setHeader("Retry-After", Integer.toString(AdmissionControl.getRetryAfterSecs()));
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service " + service + " is busy");
+      return;
+    }
+
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      if (request.isAsyncStarted()) {
+        // hold the slot until the async response (AsyncFileWriter) is done
+        AdmissionControl.detach();
+        AdmissionControl.Permit held = permit;
+        request.getAsyncContext().addListener(new AsyncListener() {
+          public void onComplete(AsyncEvent event) {
+            held.release();
+          }
+
+          public void onTimeout(AsyncEvent event) {}
+
+          public void onError(AsyncEvent event) {}
+
+          public void onStartAsync(AsyncEvent event) {}
+        });
+      } else {
+        permit.release();
+      }
+    }
+  }
+}
@@ -6,11 +6,15 @@
 package thredds.servlet.filter;
 
 import org.slf4j.MDC;
+import thredds.servlet.RequestIoStats;
+import thredds.servlet.RequestMetrics;
 import thredds.servlet.UsageLog;
+import thredds.util.TdsPathUtils;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Wraps a request with the UsageLog.setup and UsageLog.closing log messages
@@ -46,12 +50,63 @@ public class RequestBracketingLogMessageFilter implements javax.servlet.Filter {
 
     // Initial setup
     log.info(UsageLog.setupRequestContext(request));
+    String service = TdsPathUtils.getServiceName(request);
+    RequestIoStats.start(service);
+    long start = System.nanoTime();
 
-    filterChain.doFilter(request, response);
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      if (request.isAsyncStarted()) {
+        // the response is still being written (AsyncFileWriter), so log it when it is done
+        request.getAsyncContext().addListener(new Closing(service, start, response, RequestIoStats.suspend()));
+        MDC.clear();
+      } else {
+        closing(service, start, response);
+      }
+    }
+  }
 
-    log.info(
-        UsageLog.closingMessageForRequestContext(response.getHttpStatusCode(), response.getHttpResponseBodyLength()));
+  private void closing(String service, long start, TdsServletResponseWrapper response) {
+    long took = System.nanoTime() - start;
+    RequestIoStats ioStats = RequestIoStats.finish();
+    RequestMetrics.record(service, response.getHttpStatusCode(), took,
+        ioStats != null ? ioStats.getBytesOut() : response.getHttpResponseBodyLength());
+    log.info(UsageLog.closingMessageForRequestContext(response.getHttpStatusCode(),
+        response.getHttpResponseBodyLength(), ioStats));
     MDC.clear();
   }
 
+  /** Writes the closing message of an async request, on whichever thread completes it. */
+  private class Closing implements AsyncListener {
+    private final String service;
+    private final long start;
+    private final TdsServletResponseWrapper response;
+    private final RequestIoStats ioStats;
+    private final Map<String, String> mdc = MDC.getCopyOfContextMap();
+
+    Closing(String service, long start, TdsServletResponseWrapper response, RequestIoStats ioStats) {
+      this.service = service;
+      this.start = start;
+      this.response = response;
+      this.ioStats = ioStats;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      if (mdc != null)
+        MDC.setContextMap(mdc);
+      RequestIoStats.resume(ioStats);
+      closing(service, start, response);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {}
+
+    @Override
+    public void onError(AsyncEvent event) {}
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+  }
 }
@@ -5,6 +5,9 @@
 
 package thredds.servlet.filter;
 
+import thredds.servlet.RequestIoStats;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
@@ -21,6 +24,7 @@ public class TdsServletResponseWrapper extends HttpServletResponseWrapper {
 
   private int httpStatusCode = 200;
   private long httpResponseBodyLength = -1;
+  private ServletOutputStream countingOutputStream;
 
   public TdsServletResponseWrapper(HttpServletResponse response) {
     super(response);
@@ -77,4 +81,67 @@ public class TdsServletResponseWrapper extends HttpServletResponseWrapper {
     this.setHttpResponseBodyLength(len);
     super.setContentLength(len);
   }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    this.setHttpResponseBodyLength(len);
+    super.setContentLengthLong(len);
+  }
+
+  /**
+   * When the request is being counted, the output stream records the time spent writing and the bytes written.
+   */
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    ServletOutputStream out = super.getOutputStream();
+    if (RequestIoStats.current() == null)
+      return out;
+    if (countingOutputStream == null)
+      countingOutputStream = new CountingServletOutputStream(out);
+    return countingOutputStream;
+  }
+
+  private static class CountingServletOutputStream extends ServletOutputStream {
+    private final ServletOutputStream out;
+
+    CountingServletOutputStream(ServletOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      long start = System.nanoTime();
+      out.write(b);
+      RequestIoStats.addWrite(System.nanoTime() - start, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      out.write(b, off, len);
+      RequestIoStats.addWrite(System.nanoTime() - start, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long start = System.nanoTime();
+      out.flush();
+      RequestIoStats.addWrite(System.nanoTime() - start, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+
+    @Override
+    public boolean isReady() {
+      return out.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      out.setWriteListener(writeListener);
+    }
+  }
 }
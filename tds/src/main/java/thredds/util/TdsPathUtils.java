@@ -64,6 +64,21 @@ public class TdsPathUtils {
     return path;
   }
 
+  /**
+   * The service a request is for: the first element of the servlet path, eg "dodsC" for /thredds/dodsC/...
+   * Used to group requests in logs, metrics and admission control.
+   */
+  public static String getServiceName(HttpServletRequest req) {
+    String path = req.getServletPath();
+    if (path == null || path.length() < 2)
+      path = req.getPathInfo();
+    if (path == null || path.length() < 2)
+      return "root";
+    int start = path.startsWith("/") ? 1 : 0;
+    int end = path.indexOf('/', start);
+    return end < 0 ? path.substring(start) : path.substring(start, end);
+  }
+
   ///////////////////////////////////////////////////
 
 
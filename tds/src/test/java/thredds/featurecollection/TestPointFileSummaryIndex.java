@@ -0,0 +1,118 @@
+package thredds.featurecollection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import thredds.filesystem.MFileOS;
+import thredds.inventory.MFile;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonRect;
+
+public class TestPointFileSummaryIndex {
+
+  private static CalendarDateRange range(String start, String end) {
+    return CalendarDateRange.of(CalendarDate.parseISOformat(null, start), CalendarDate.parseISOformat(null, end));
+  }
+
+  private static PointFileSummaryIndex.Summary makeSummary() {
+    LatLonRect bbox = new LatLonRect(LatLonPoint.create(30, -110), LatLonPoint.create(40, -100));
+    return new PointFileSummaryIndex.Summary("/data/obs/20200101.nc", 1234L,
+        range("2020-01-01T00:00:00Z", "2020-01-01T23:59:59Z"), bbox, ImmutableSet.of("KDEN", "KBOU"));
+  }
+
+  @Test
+  public void shouldIntersectWhenNothingRequested() {
+    assertThat(makeSummary().intersects(null, null, null)).isTrue();
+  }
+
+  @Test
+  public void shouldSkipOnTime() {
+    PointFileSummaryIndex.Summary s = makeSummary();
+    assertThat(s.intersects(null, range("2020-01-01T12:00:00Z", "2020-01-02T12:00:00Z"), null)).isTrue();
+    assertThat(s.intersects(null, range("2020-01-02T00:00:00Z", "2020-01-03T00:00:00Z"), null)).isFalse();
+  }
+
+  @Test
+  public void shouldSkipOnBoundingBox() {
+    PointFileSummaryIndex.Summary s = makeSummary();
+    LatLonRect inside = new LatLonRect(LatLonPoint.create(35, -105), LatLonPoint.create(36, -104));
+    LatLonRect outside = new LatLonRect(LatLonPoint.create(-10, 10), LatLonPoint.create(0, 20));
+    assertThat(s.intersects(inside, null, null)).isTrue();
+    assertThat(s.intersects(outside, null, null)).isFalse();
+  }
+
+  @Test
+  public void shouldSkipOnStations() {
+    PointFileSummaryIndex.Summary s = makeSummary();
+    assertThat(s.intersects(null, null, ImmutableList.of("KSLC", "KDEN"))).isTrue();
+    assertThat(s.intersects(null, null, ImmutableList.of("KSLC"))).isFalse();
+  }
+
+  @Test
+  public void shouldNotSkipForAllStations() {
+    PointFileSummaryIndex.Summary s = makeSummary();
+    assertThat(s.intersects(null, null, ImmutableList.of("all"))).isTrue();
+    assertThat(s.intersects(null, null, ImmutableList.of())).isTrue();
+    assertThat(PointFileSummaryIndex.wantedStations(ImmutableList.of("all"))).isNull();
+    assertThat(PointFileSummaryIndex.wantedStations(ImmutableList.of("KDEN"))).containsExactly("KDEN");
+  }
+
+  @Test
+  public void shouldKeepFilesWithoutSummary() {
+    PointFileSummaryIndex index = new PointFileSummaryIndex("obs", FeatureType.STATION);
+    PointFileSummaryIndex.Summary s = makeSummary();
+    index.put(s);
+    MFile summarized = new MFileOS(s.path) {
+      @Override
+      public long getLastModified() {
+        return s.lastModified;
+      }
+    };
+    MFile notSummarized = new MFileOS("/data/obs/20200102.nc");
+
+    assertThat(index.intersects(summarized, null, null, ImmutableList.of("KSLC"))).isFalse();
+    assertThat(index.intersects(notSummarized, null, null, ImmutableList.of("KSLC"))).isTrue();
+    assertThat(index.intersects(summarized, null, null, ImmutableList.of("all"))).isTrue();
+    assertThat(index.intersects(notSummarized, null, null, ImmutableList.of("all"))).isTrue();
+  }
+
+  @Test
+  public void shouldBeReadyAfterFirstUpdate() {
+    PointFileSummaryIndex index = new PointFileSummaryIndex("obs", FeatureType.STATION);
+    assertThat(index.isReady()).isFalse();
+    index.update(ImmutableList.of());
+    assertThat(index.isReady()).isTrue();
+    assertThat(index.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldRoundTrip() throws IOException {
+    PointFileSummaryIndex.Summary s = makeSummary();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bos)) {
+      PointFileSummaryIndex.writeSummary(out, s);
+    }
+
+    PointFileSummaryIndex.Summary read;
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      read = PointFileSummaryIndex.readSummary(in);
+    }
+
+    assertThat(read.path).isEqualTo(s.path);
+    assertThat(read.lastModified).isEqualTo(s.lastModified);
+    assertThat(read.dateRange).isEqualTo(s.dateRange);
+    assertThat(read.bbox.getLatMin()).isWithin(1e-9).of(s.bbox.getLatMin());
+    assertThat(read.bbox.getLonMax()).isWithin(1e-9).of(s.bbox.getLonMax());
+    assertThat(read.stations).containsExactlyElementsIn(s.stations);
+  }
+}
@@ -6,7 +6,11 @@ import com.google.common.base.Charsets;
 import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -94,20 +98,96 @@ public class TestGridInventoryCacheChronicle {
     assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(maxEntries);
   }
 
+  @Test
+  public void shouldRollOverToNewSegmentWhenFull() throws IOException {
+    final int maxEntries = 5;
+    GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), maxEntries, 1);
+
+    putInCache(20, SMALL_FILE);
+    // segment capacities are 5, 10, 20
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(20);
+    assertThat(GridInventoryCacheChronicle.getNumberOfSegments()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldReopenAllSegments() throws IOException {
+    GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), 5, 1);
+    putInCache(20, SMALL_FILE);
+    GridInventoryCacheChronicle.resetCache();
+
+    GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), 5, 1);
+    assertThat(GridInventoryCacheChronicle.getNumberOfSegments()).isEqualTo(3);
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(20);
+    assertThat(new GridInventoryCacheChronicle().get(new MFileOS("key0"))).isNotNull();
+  }
+
+  @Test
+  public void shouldNotReturnOutOfDateEntry() throws IOException {
+    GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath());
+    final GridInventoryCacheChronicle cache = new GridInventoryCacheChronicle();
+    final File file = copyToTempFile(SMALL_FILE);
+
+    cache.put(new MFileOS(file), makeInventory(SMALL_FILE));
+    assertThat(cache.get(new MFileOS(file))).isNotNull();
+
+    assertThat(file.setLastModified(file.lastModified() + 10 * 1000)).isTrue();
+    assertThat(cache.get(new MFileOS(file))).isNull();
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(0);
+    assertThat(GridInventoryCacheChronicle.getHitRate()).isEqualTo(0.5);
+  }
+
+  @Test
+  public void shouldCompactEntriesForMissingFiles() throws IOException {
+    GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath());
+    final GridInventoryCacheChronicle cache = new GridInventoryCacheChronicle();
+    final GridDatasetInv gridDatasetInv = makeInventory(SMALL_FILE);
+    final File kept = copyToTempFile(SMALL_FILE);
+    final File deleted = copyToTempFile(SMALL_FILE);
+
+    cache.put(new MFileOS(kept), gridDatasetInv);
+    cache.put(new MFileOS(deleted), gridDatasetInv);
+    assertThat(deleted.delete()).isTrue();
+
+    assertThat(GridInventoryCacheChronicle.compact()).isEqualTo(1);
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(1);
+    assertThat(cache.get(new MFileOS(kept))).isNotNull();
+  }
+
+  @Test
+  public void shouldPutWhileCompacting() throws Exception {
+    GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), 5, 1);
+    putInCache(20, SMALL_FILE); // segment capacities are 5, 10, 20
+
+    // moving the entries to the newest segment empties the older ones, which compact() then closes
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final Thread putter = new Thread(() -> {
+      try {
+        putInCache(20, SMALL_FILE);
+      } catch (Throwable t) {
+        failure.set(t);
+      }
+    });
+    putter.start();
+    while (putter.isAlive())
+      GridInventoryCacheChronicle.compact();
+    putter.join();
+    GridInventoryCacheChronicle.compact();
+
+    assertThat(failure.get()).isNull();
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(20);
+    assertThat(GridInventoryCacheChronicle.getNumberOfSegments()).isEqualTo(1);
+    assertThat(new GridInventoryCacheChronicle().get(new MFileOS("key0"))).isNotNull();
+  }
+
   @Category(NeedsCdmUnitTest.class)
   @Test
-  public void shouldFitLessThanMaxEntriesInCacheForLargeFileWithSmallAverageValueSize() throws IOException {
+  public void shouldKeepAllEntriesForLargeFileWithSmallAverageValueSize() throws IOException {
     final int maxEntries = 10;
     GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), maxEntries, 1, "Small");
     assertThat(GridInventoryCacheChronicle.getRemainingAutoResizes()).isEqualTo(1);
 
-    try {
-      putInCache(10, LARGE_FILE);
-    } catch (IllegalStateException e) {
-      assertThat(GridInventoryCacheChronicle.getRemainingAutoResizes()).isEqualTo(0);
-      assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isLessThan(10);
-      assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isGreaterThan(2);
-    }
+    putInCache(10, LARGE_FILE);
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(10);
   }
 
   @Category(NeedsCdmUnitTest.class)
@@ -120,36 +200,31 @@ public class TestGridInventoryCacheChronicle {
     putInCache(maxEntries, LARGE_FILE);
     assertThat(GridInventoryCacheChronicle.getRemainingAutoResizes()).isEqualTo(1);
     assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(10);
+    assertThat(GridInventoryCacheChronicle.getNumberOfSegments()).isEqualTo(1);
   }
 
   @Category(NeedsCdmUnitTest.class)
   @Test
-  public void shouldResizeCacheWithDefaultAverageValueSize() throws IOException {
+  public void shouldGrowCacheWithDefaultAverageValueSize() throws IOException {
     final int maxEntries = 10;
     final int maxBloatFactor = 5;
     GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), maxEntries, maxBloatFactor);
 
-    try {
-      putInCache(100, LARGE_FILE);
-    } catch (IllegalStateException e) {
-      assertThat(GridInventoryCacheChronicle.getRemainingAutoResizes()).isEqualTo(0);
-      assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isAtLeast(10);
-    }
+    putInCache(100, LARGE_FILE);
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(100);
+    assertThat(GridInventoryCacheChronicle.getNumberOfSegments()).isGreaterThan(1);
   }
 
   @Category(NeedsCdmUnitTest.class)
   @Test
-  public void shouldResizeCacheWithLargeAverageValueSize() throws IOException {
+  public void shouldGrowCacheWithLargeAverageValueSize() throws IOException {
     final int maxEntries = 10;
     final int maxBloatFactor = 5;
     GridInventoryCacheChronicle.init(tempFolder.getRoot().toPath(), maxEntries, maxBloatFactor, "LARGE");
 
-    try {
-      putInCache(400, LARGE_FILE);
-    } catch (IllegalStateException e) {
-      assertThat(GridInventoryCacheChronicle.getRemainingAutoResizes()).isEqualTo(0);
-      assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isAtLeast(100);
-    }
+    putInCache(400, LARGE_FILE);
+    assertThat(GridInventoryCacheChronicle.getNumberOfEntries()).isEqualTo(400);
+    assertThat(GridInventoryCacheChronicle.getNumberOfSegments()).isGreaterThan(1);
   }
 
   private void putInCache(int numberOfTimes, String filename) throws IOException {
@@ -166,6 +241,18 @@ public class TestGridInventoryCacheChronicle {
     }
   }
 
+  private static GridDatasetInv makeInventory(String filename) throws IOException {
+    try (final GridDataset gridDataset = GridDataset.open(filename)) {
+      return new GridDatasetInv(gridDataset, CalendarDate.of(0));
+    }
+  }
+
+  private File copyToTempFile(String filename) throws IOException {
+    final File file = tempFolder.newFile();
+    Files.copy(Paths.get(filename), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return file;
+  }
+
   private static int calculateValueSize(String file) throws IOException {
     try (final GridDataset gridDataset = GridDataset.open(file)) {
       final GridDatasetInv inv = new GridDatasetInv(gridDataset, CalendarDate.of(0));
@@ -0,0 +1,133 @@
+package thredds.server.catalogservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletResponse;
+import thredds.client.catalog.Service;
+import thredds.client.catalog.tools.CatalogXmlWriter;
+import thredds.core.StandardService;
+import thredds.server.catalog.ConfigCatalog;
+import thredds.server.catalog.DatasetScan;
+import thredds.server.catalog.builder.ConfigCatalogBuilder;
+import thredds.util.ContentType;
+
+public class TestCatalogXmlStreamWriter {
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File dataDir;
+
+  @Before
+  public void setup() throws IOException {
+    StandardService ss = StandardService.resolver;
+    Service latest = new Service(ss.getType().toString(), ss.getBase(), ss.getType().toString(),
+        ss.getType().getDescription(), null, null, null, ss.getType().getAccessType());
+    StandardService ss2 = StandardService.httpServer;
+    Service httpServer = new Service(ss2.getType().toString(), ss2.getBase(), ss2.getType().toString(),
+        ss2.getType().getDescription(), null, null, null, ss2.getType().getAccessType());
+    DatasetScan.setSpecialServices(latest, httpServer);
+
+    dataDir = tempFolder.newFolder("data");
+    for (int i = 0; i < 7; i++)
+      Files.write(new File(dataDir, "file" + i + ".nc").toPath(), new byte[100 * i]);
+    assertThat(new File(dataDir, "subdir").mkdir()).isTrue();
+  }
+
+  private DatasetScan makeScan(boolean latestOnTop) throws IOException {
+    String catalog = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<catalog name='stream' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'>\n"
+        + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+        + "  <datasetScan name='scan' ID='scanId' path='scan' location='" + dataDir.getPath() + "/'>\n"
+        + "    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n"
+        + "    <addLatest top='" + latestOnTop + "'/>\n" + "  </datasetScan>\n"
+        + "</catalog>\n";
+    ConfigCatalogBuilder builder = new ConfigCatalogBuilder("thredds");
+    ConfigCatalog cat = (ConfigCatalog) builder.buildFromString(catalog, URI.create("/thredds/catalog.xml"));
+    assertThat(builder.hasFatalError()).isFalse();
+    return (DatasetScan) cat.getDatasetsLocal().get(0);
+  }
+
+  private String stream(DatasetScan scan, int batchSize) throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    CatalogXmlStreamWriter writer = new CatalogXmlStreamWriter(response);
+    assertThat(scan.makeCatalogForDirectory("scan", URI.create("/thredds/catalog/scan/catalog.xml"), batchSize,
+        writer.getMarker(), writer)).isTrue();
+    writer.finish();
+    assertThat(response.getContentType()).isEqualTo(ContentType.xml.getContentHeader());
+    return new String(response.getContentAsByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void shouldWriteSameXmlAsCatalog() throws IOException {
+    for (boolean latestOnTop : new boolean[] {true, false}) {
+      DatasetScan scan = makeScan(latestOnTop);
+      String expected = new CatalogXmlWriter().writeXML(
+          scan.makeCatalogForDirectory("scan", URI.create("/thredds/catalog/scan/catalog.xml")).makeCatalog());
+      assertThat(expected).contains("file6.nc");
+
+      for (int batchSize : new int[] {1, 3, 1000})
+        assertThat(stream(scan, batchSize)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void shouldWriteEmptyDirectory() throws IOException {
+    for (File f : dataDir.listFiles())
+      assertThat(f.delete()).isTrue();
+    DatasetScan scan = makeScan(true);
+    String expected = new CatalogXmlWriter().writeXML(
+        scan.makeCatalogForDirectory("scan", URI.create("/thredds/catalog/scan/catalog.xml")).makeCatalog());
+    assertThat(stream(scan, 10)).isEqualTo(expected);
+  }
+
+  // the first catalog has no datasets, so this fails after one batch of files
+  private MockHttpServletResponse failInSecondBatch(boolean committed) throws IOException {
+    DatasetScan scan = makeScan(true);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    CatalogXmlStreamWriter writer = new CatalogXmlStreamWriter(response);
+    int[] count = new int[1];
+    try {
+      scan.makeCatalogForDirectory("scan", URI.create("/thredds/catalog/scan/catalog.xml"), 3, writer.getMarker(),
+          catalog -> {
+            if (++count[0] == 3) {
+              response.setCommitted(committed);
+              throw new IOException("failed");
+            }
+            writer.handle(catalog);
+          });
+    } catch (IOException e) {
+      try {
+        writer.failed(e);
+        assertThat(committed).isFalse();
+      } catch (CatalogXmlStreamWriter.Aborted aborted) {
+        assertThat(committed).isTrue();
+        assertThat(aborted).hasCauseThat().isSameInstanceAs(e);
+      }
+    }
+    assertThat(count[0]).isEqualTo(3);
+    return response;
+  }
+
+  @Test
+  public void shouldResetIfNotCommitted() throws IOException {
+    MockHttpServletResponse response = failInSecondBatch(false);
+    assertThat(response.getContentAsByteArray()).isEmpty();
+    assertThat(response.getContentType()).isNull();
+  }
+
+  @Test
+  public void shouldAbortIfCommitted() throws Exception {
+    MockHttpServletResponse response = failInSecondBatch(true);
+    String xml = new String(response.getContentAsByteArray(), StandardCharsets.UTF_8);
+    assertThat(xml).doesNotContain("</catalog>");
+  }
+}
@@ -0,0 +1,119 @@
+package thredds.server.metadata;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.Dataset;
+import thredds.client.catalog.ThreddsMetadata;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonRect;
+
+public class TestExtractedMetadataCache {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static ThreddsMetadata makeMetadata() {
+    ThreddsMetadata metadata = new ThreddsMetadata();
+    ThreddsMetadata.Variable var = new ThreddsMetadata.Variable("T", "air temperature", "air_temperature", "K", null);
+    metadata.getFlds().put(Dataset.VariableGroups,
+        new ThreddsMetadata.VariableGroup("CF-1.0", null, null, Collections.singletonList(var)));
+    LatLonRect bbox = new LatLonRect(LatLonPoint.create(20, -130), 40, 70);
+    metadata.getFlds().put(Dataset.GeospatialCoverage, new ThreddsMetadata.GeospatialCoverage(bbox, null, 0.0, 0.0));
+    metadata.getFlds().put(Dataset.TimeCoverage, CalendarDateRange.of(CalendarDate.parseISOformat(null, "2020-01-01"),
+        CalendarDate.parseISOformat(null, "2020-12-31")));
+    return metadata;
+  }
+
+  @Test
+  public void shouldPersistMetadata() throws IOException {
+    File data = tempFolder.newFile("data.nc");
+    String dir = tempFolder.newFolder("tracker").getPath();
+
+    ExtractedMetadataCache cache = new ExtractedMetadataCache();
+    assertThat(cache.isEnabled()).isFalse();
+    assertThat(cache.put(data.getPath(), FeatureType.GRID, makeMetadata())).isNull();
+
+    cache.open(dir, 0, ExtractedMetadataCache.DEFAULT_MAX_SIZE);
+    assertThat(cache.put(data.getPath(), FeatureType.GRID, makeMetadata())).isNotNull();
+    assertThat(cache.put(new File(dir, "missing.nc").getPath(), FeatureType.GRID, makeMetadata())).isNull();
+    cache.save();
+
+    ExtractedMetadataCache reread = new ExtractedMetadataCache();
+    reread.open(dir, 0, ExtractedMetadataCache.DEFAULT_MAX_SIZE);
+    assertThat(reread.size()).isEqualTo(1);
+    ExtractedMetadataCache.Metadata metadata = reread.get(data.getPath());
+    assertThat(metadata).isNotNull();
+    assertThat(metadata.getFeatureType()).isEqualTo(FeatureType.GRID);
+
+    ThreddsMetadata.Variable var = metadata.getVariables().getVariableList().get(0);
+    assertThat(metadata.getVariables().getVocabulary()).isEqualTo("CF-1.0");
+    assertThat(var.getName()).isEqualTo("T");
+    assertThat(var.getVocabularyName()).isEqualTo("air_temperature");
+    assertThat(var.getUnits()).isEqualTo("K");
+    assertThat(var.getVocabularyId()).isNull();
+
+    LatLonRect bbox = metadata.getGeospatialCoverage().getBoundingBox();
+    assertThat(bbox.getLatMin()).isWithin(1e-9).of(20);
+    assertThat(bbox.getLonMin()).isWithin(1e-9).of(-130);
+    assertThat(bbox.getWidth()).isWithin(1e-9).of(70);
+    assertThat(metadata.getDateRange().getStart()).isEqualTo(CalendarDate.parseISOformat(null, "2020-01-01"));
+  }
+
+  @Test
+  public void shouldForgetChangedFile() throws IOException {
+    File data = tempFolder.newFile("data.nc");
+    ExtractedMetadataCache cache = new ExtractedMetadataCache();
+    cache.open(tempFolder.newFolder("tracker").getPath(), 0, ExtractedMetadataCache.DEFAULT_MAX_SIZE);
+
+    assertThat(cache.put(data.getPath(), null, null)).isNotNull(); // could not be extracted, is remembered too
+    assertThat(cache.get(data.getPath()).getVariables()).isNull();
+
+    assertThat(data.setLastModified(data.lastModified() - 10 * 1000)).isTrue();
+    assertThat(cache.get(data.getPath())).isNull();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldLimitSize() throws IOException {
+    ExtractedMetadataCache cache = new ExtractedMetadataCache();
+    cache.open(tempFolder.newFolder("tracker").getPath(), 0, 10); // each file with its one variable counts 2
+    for (int i = 0; i < 20; i++)
+      assertThat(cache.put(tempFolder.newFile("data" + i + ".nc").getPath(), FeatureType.GRID, makeMetadata()))
+          .isNotNull();
+    assertThat(cache.size()).isAtMost(5);
+  }
+
+  @Test
+  public void shouldSkipNonFileLocations() throws IOException {
+    ExtractedMetadataCache cache = new ExtractedMetadataCache();
+    cache.open(tempFolder.newFolder("tracker").getPath(), 0, ExtractedMetadataCache.DEFAULT_MAX_SIZE);
+    for (String location : new String[] {"cdms3:bucket?data.nc", "s3://bucket/data.nc", "http://server/data.nc"}) {
+      assertThat(cache.put(location, FeatureType.GRID, makeMetadata())).isNull();
+      assertThat(cache.get(location)).isNull();
+    }
+  }
+
+  @Test
+  public void shouldPruneMissingFiles() throws IOException {
+    File data = tempFolder.newFile("data.nc");
+    File gone = tempFolder.newFile("gone.nc");
+    ExtractedMetadataCache cache = new ExtractedMetadataCache();
+    cache.open(tempFolder.newFolder("tracker").getPath(), 0, ExtractedMetadataCache.DEFAULT_MAX_SIZE);
+    assertThat(cache.put(data.getPath(), FeatureType.GRID, makeMetadata())).isNotNull();
+    assertThat(cache.put(gone.getPath(), FeatureType.GRID, makeMetadata())).isNotNull();
+
+    assertThat(gone.delete()).isTrue();
+    cache.prune();
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get(data.getPath())).isNotNull();
+  }
+}
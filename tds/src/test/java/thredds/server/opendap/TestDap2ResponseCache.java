@@ -0,0 +1,65 @@
+package thredds.server.opendap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.InflaterOutputStream;
+import org.junit.After;
+import org.junit.Test;
+
+/** Test Dap2ResponseCache keys, size limits and deflated bodies */
+public class TestDap2ResponseCache {
+
+  @After
+  public void cleanup() {
+    Dap2ResponseCache.init(0, 0, false);
+  }
+
+  @Test
+  public void shouldNormalizeProjections() {
+    assertThat(Dap2ResponseCache.normalizeConstraint(null)).isEqualTo("");
+    assertThat(Dap2ResponseCache.normalizeConstraint("time, lon,lat")).isEqualTo("lat,lon,time");
+    assertThat(Dap2ResponseCache.normalizeConstraint("lat,lat")).isEqualTo("lat");
+    assertThat(Dap2ResponseCache.normalizeConstraint("temp[0:1:2],lat")).isEqualTo("lat,temp[0:1:2]");
+    // selections and strings are not reordered
+    assertThat(Dap2ResponseCache.normalizeConstraint("b,a&a>1")).isEqualTo("b,a&a>1");
+    assertThat(Dap2ResponseCache.normalizeConstraint("b,a&s=\"x y\"")).isEqualTo("b,a&s=\"x y\"");
+
+    assertThat(Dap2ResponseCache.makeKey("a/b.nc", "lon,lat", 10))
+        .isEqualTo(Dap2ResponseCache.makeKey("a/b.nc", "lat, lon", 10));
+    assertThat(Dap2ResponseCache.makeKey("a/b.nc", "lat", 10))
+        .isNotEqualTo(Dap2ResponseCache.makeKey("a/b.nc", "lat", 11));
+  }
+
+  @Test
+  public void shouldOnlyKeepSmallResponses() throws Exception {
+    Dap2ResponseCache.init(10000, 100, true);
+    assertThat(Dap2ResponseCache.wants(100)).isTrue();
+    assertThat(Dap2ResponseCache.wants(101)).isFalse();
+
+    byte[] small = new byte[50];
+    Dap2ResponseCache.put("small", small);
+    Dap2ResponseCache.Entry big = Dap2ResponseCache.put("big", new byte[200]);
+    assertThat(big.getBody().length).isEqualTo(200);
+    assertThat(Dap2ResponseCache.get("big")).isNull();
+
+    Dap2ResponseCache.Entry entry = Dap2ResponseCache.get("small");
+    assertThat(entry).isNotNull();
+    assertThat(entry.getBody()).isEqualTo(small);
+
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+    try (InflaterOutputStream out = new InflaterOutputStream(inflated)) {
+      out.write(entry.getDeflated());
+    }
+    assertThat(inflated.toByteArray()).isEqualTo(small);
+    assertThat(Dap2ResponseCache.getStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldDoNothingWhenOff() throws Exception {
+    assertThat(Dap2ResponseCache.isEnabled()).isFalse();
+    assertThat(Dap2ResponseCache.wants(1)).isFalse();
+    Dap2ResponseCache.put("key", new byte[1]);
+    assertThat(Dap2ResponseCache.get("key")).isNull();
+  }
+}
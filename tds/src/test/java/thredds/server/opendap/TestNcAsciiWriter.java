@@ -0,0 +1,62 @@
+package thredds.server.opendap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import opendap.servers.CEEvaluator;
+import opendap.servers.ServerDDS;
+import opendap.servlet.AsciiWriter;
+import opendap.servlet.GuardedDataset;
+import org.junit.Test;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.NetcdfDatasets;
+
+/** Test that NcAsciiWriter writes the same ASCII response as AsciiWriter, whatever the slab size */
+public class TestNcAsciiWriter {
+  private static final String testdir = "src/test/data/testdata2/";
+
+  private String writeAscii(String filename, String constraint, AsciiWriter writer) throws Exception {
+    try (NetcdfFile ncfile = NetcdfDatasets.openFile(testdir + filename, null)) {
+      GuardedDataset ds = new GuardedDatasetCacheAndClone(testdir + filename, ncfile, false);
+      ServerDDS dds = ds.getDDS();
+      dds.setEncodedName(filename);
+      new CEEvaluator(dds).parseConstraint(constraint, null);
+
+      StringWriter content = new StringWriter();
+      PrintWriter pw = new PrintWriter(content);
+      dds.printConstrained(pw);
+      writer.toASCII(pw, dds, null);
+      pw.close();
+      return content.toString();
+    }
+  }
+
+  private void compare(String filename, String constraint) throws Exception {
+    String expected = writeAscii(filename, constraint, new AsciiWriter());
+    assertThat(writeAscii(filename, constraint, new NcAsciiWriter())).isEqualTo(expected);
+    assertThat(writeAscii(filename, constraint, new NcAsciiWriter(1))).isEqualTo(expected);
+    assertThat(writeAscii(filename, constraint, new NcAsciiWriter(7))).isEqualTo(expected);
+  }
+
+  @Test
+  public void shouldMatchExpectedFile() throws Exception {
+    String expected = new String(Files.readAllBytes(Paths.get(testdir + "temp_air_01082000.nc.04.asc")),
+        StandardCharsets.UTF_8);
+    String result = writeAscii("temp_air_01082000.nc", "t[0:2:3][3:4][4:5][0:2:6]", new NcAsciiWriter(5));
+    assertThat(result.replace("\r\n", "\n")).isEqualTo(expected.replace("\r\n", "\n"));
+  }
+
+  @Test
+  public void shouldMatchAsciiWriter() throws Exception {
+    compare("temp_air_01082000.nc", "t[0:2:3][3:4][4:5][0:2:6]");
+    compare("temp_air_01082000.nc", "t.t[1][0:1][0:3][2:5]");
+    compare("temp_air_01082000.nc", "t.latitude,t.longitude[0:3]");
+    compare("temp_air_01082000.nc", "");
+    compare("tst-PROFILER.nc", "wmoStaNum");
+    compare("tst-PROFILER.nc", "wmoStaNum[3:2:20],staName");
+  }
+}
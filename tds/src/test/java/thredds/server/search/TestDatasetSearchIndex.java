@@ -0,0 +1,151 @@
+package thredds.server.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.Catalog;
+import thredds.client.catalog.Dataset;
+import thredds.client.catalog.ThreddsMetadata;
+import thredds.server.catalog.builder.ConfigCatalogBuilder;
+import ucar.nc2.time.CalendarDate;
+
+public class TestDatasetSearchIndex {
+  private static final String CATALOG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+      + "<catalog name='search' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'>\n"
+      + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+      + "  <dataset name='Sea Surface Temperature' ID='sst' urlPath='data/sst.nc' serviceName='odap'>\n"
+      + "    <keyword>Oceans</keyword>\n"
+      + "    <variables vocabulary='CF-1.0'><variable name='sst' vocabulary_name='sea_surface_temperature' units='K'/>"
+      + "</variables>\n"
+      + "    <geospatialCoverage><northsouth><start>20</start><size>40</size></northsouth>"
+      + "<eastwest><start>-130</start><size>70</size></eastwest></geospatialCoverage>\n"
+      + "    <timeCoverage><start>2020-01-01T00:00:00Z</start><end>2020-12-31T00:00:00Z</end></timeCoverage>\n"
+      + "  </dataset>\n"
+      + "  <dataset name='Pacific Winds' ID='winds' urlPath='data/winds.nc' serviceName='odap'>\n"
+      + "    <variables vocabulary='CF-1.0'><variable name='u' vocabulary_name='eastward_wind' units='m/s'/>"
+      + "</variables>\n"
+      + "    <geospatialCoverage><northsouth><start>-30</start><size>60</size></northsouth>"
+      + "<eastwest><start>150</start><size>80</size></eastwest></geospatialCoverage>\n"
+      + "    <timeCoverage><start>2019-01-01T00:00:00Z</start><end>2019-12-31T00:00:00Z</end></timeCoverage>\n"
+      + "  </dataset>\n"
+      + "  <dataset name='Global Air Temperature' ID='air' urlPath='data/air.nc' serviceName='odap'>\n"
+      + "    <variables vocabulary='CF-1.0'><variable name='T' vocabulary_name='air_temperature' units='K'/>"
+      + "</variables>\n"
+      + "    <geospatialCoverage><northsouth><start>-90</start><size>180</size></northsouth>"
+      + "<eastwest><start>0</start><size>360</size></eastwest></geospatialCoverage>\n" + "  </dataset>\n"
+      + "  <dataset name='no id' urlPath='data/noid.nc' serviceName='odap'/>\n" + "</catalog>\n";
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Catalog cat;
+  private DatasetSearchIndex index;
+
+  @Before
+  public void makeIndex() throws IOException {
+    ConfigCatalogBuilder builder = new ConfigCatalogBuilder("thredds");
+    cat = builder.buildFromString(CATALOG, URI.create("/thredds/catalog/search.xml"));
+    assertThat(builder.hasFatalError()).isFalse();
+
+    index = new DatasetSearchIndex();
+    assertThat(index.isEnabled()).isFalse();
+    index.open(tempFolder.getRoot().getPath(), true);
+    for (Dataset ds : cat.getDatasetsLocal())
+      index.add("search.xml", ds);
+  }
+
+  private static List<String> ids(DatasetSearchIndex.Result result) {
+    List<String> ids = new ArrayList<>();
+    for (DatasetSearchIndex.Doc doc : result.datasets)
+      ids.add(doc.getId());
+    return ids;
+  }
+
+  private List<String> search(DatasetSearchIndex.Query query) {
+    return ids(index.search(query, 0, 100));
+  }
+
+  private static long millis(String iso) {
+    return CalendarDate.parseISOformat(null, iso).getMillis();
+  }
+
+  @Test
+  public void shouldFindByText() {
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(search(new DatasetSearchIndex.Query().setText("temperature"))).containsExactly("sst", "air").inOrder();
+    assertThat(search(new DatasetSearchIndex.Query().setText("Air Temperature"))).containsExactly("air");
+    assertThat(search(new DatasetSearchIndex.Query().setText("oceans"))).containsExactly("sst");
+    assertThat(search(new DatasetSearchIndex.Query().setText("eastward_wind"))).containsExactly("winds");
+    assertThat(search(new DatasetSearchIndex.Query().setText("snow"))).isEmpty();
+  }
+
+  @Test
+  public void shouldFindBySpaceAndTime() {
+    assertThat(search(new DatasetSearchIndex.Query().setBoundingBox(30, 40, -120, -110))).containsExactly("sst", "air")
+        .inOrder();
+    // across the dateline
+    assertThat(search(new DatasetSearchIndex.Query().setBoundingBox(0, 10, -170, -160))).containsExactly("winds",
+        "air");
+    assertThat(search(new DatasetSearchIndex.Query().setTimeRange(millis("2019-06-01"), millis("2019-07-01"))))
+        .containsExactly("winds");
+    assertThat(search(new DatasetSearchIndex.Query().setText("temperature").setBoundingBox(-80, -70, 10, 20)))
+        .containsExactly("air");
+  }
+
+  @Test
+  public void shouldPage() {
+    DatasetSearchIndex.Result result = index.search(new DatasetSearchIndex.Query(), 1, 1);
+    assertThat(result.total).isEqualTo(3);
+    assertThat(ids(result)).containsExactly("winds");
+  }
+
+  @Test
+  public void shouldRemoveAndPersist() throws IOException {
+    index.add("other.xml", cat.findDatasetByID("winds")); // moved to another catalog
+    index.removeCatalog("search.xml");
+    assertThat(index.size()).isEqualTo(1);
+    index.save();
+
+    DatasetSearchIndex reread = new DatasetSearchIndex();
+    reread.open(tempFolder.getRoot().getPath(), false);
+    DatasetSearchIndex.Result result = reread.search(new DatasetSearchIndex.Query().setText("wind"), 0, 10);
+    assertThat(ids(result)).containsExactly("winds");
+    DatasetSearchIndex.Doc doc = result.datasets.get(0);
+    assertThat(doc.getCatalog()).isEqualTo("other.xml");
+    assertThat(doc.getEast()).isWithin(1e-6).of(-130);
+    assertThat(doc.getStart()).isEqualTo(millis("2019-01-01T00:00:00Z"));
+  }
+
+  @Test
+  public void shouldReplaceVariables() {
+    ThreddsMetadata.Variable var = new ThreddsMetadata.Variable("salt", null, "sea_water_salinity", "1", null);
+    index.updateFeatureCollection("sst",
+        new ThreddsMetadata.VariableGroup("CF-1.0", null, null, Collections.singletonList(var)), null, null);
+    assertThat(search(new DatasetSearchIndex.Query().setText("salinity"))).containsExactly("sst");
+    assertThat(search(new DatasetSearchIndex.Query().setText("sea_surface_temperature"))).isEmpty();
+    assertThat(search(new DatasetSearchIndex.Query().setText("oceans"))).containsExactly("sst");
+    assertThat(search(new DatasetSearchIndex.Query().setText("surface"))).containsExactly("sst");
+  }
+
+  @Test
+  public void shouldSearchOldIndexWhileRebuilding() throws IOException {
+    index.save();
+    index.open(tempFolder.getRoot().getPath(), true); // all catalogs are read again
+    index.add("search.xml", cat.findDatasetByID("air"));
+    assertThat(search(new DatasetSearchIndex.Query())).containsExactly("sst", "winds", "air").inOrder();
+
+    index.save();
+    assertThat(search(new DatasetSearchIndex.Query())).containsExactly("air");
+    DatasetSearchIndex reread = new DatasetSearchIndex();
+    reread.open(tempFolder.getRoot().getPath(), false);
+    assertThat(reread.size()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,102 @@
+package thredds.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import thredds.server.exception.ServiceBusyException;
+
+/** Test AdmissionControl limits, queue, per client share and large requests */
+public class TestAdmissionControl {
+
+  @Before
+  public void setup() {
+    AdmissionControl.Limits limits = new AdmissionControl.Limits();
+    limits.maxConcurrent = 2;
+    limits.maxQueue = 0;
+    limits.maxWaitSecs = 0;
+    limits.maxPerClient = 1;
+    limits.largeRequest = 1000;
+    limits.maxLarge = 1;
+    Map<String, AdmissionControl.Limits> map = new HashMap<>();
+    map.put("ncss", limits);
+    AdmissionControl.configure(map, 7);
+  }
+
+  @After
+  public void cleanup() {
+    AdmissionControl.configure(Collections.emptyMap(), 10);
+  }
+
+  @Test
+  public void shouldNotLimitOtherServices() throws Exception {
+    AdmissionControl.Permit permit = AdmissionControl.admit("catalog", "client1");
+    assertThat(permit).isNotNull();
+    assertThat(AdmissionControl.wantsSize()).isFalse();
+    permit.release();
+  }
+
+  @Test
+  public void shouldRejectWhenFull() throws Exception {
+    assertThat(AdmissionControl.isEnabled()).isTrue();
+    assertThat(AdmissionControl.getRetryAfterSecs()).isEqualTo(7);
+
+    AdmissionControl.Permit p1 = AdmissionControl.admit("ncss", "client1");
+    assertThat(p1).isNotNull();
+    assertThat(AdmissionControl.admit("ncss", "client1")).isNull(); // per client share
+    AdmissionControl.Permit p2 = AdmissionControl.admit("ncss", "client2");
+    assertThat(p2).isNotNull();
+    assertThat(AdmissionControl.admit("ncss", "client3")).isNull(); // full, no queue
+
+    p1.release();
+    AdmissionControl.Permit p3 = AdmissionControl.admit("ncss", "client3");
+    assertThat(p3).isNotNull();
+    p2.release();
+    p3.release();
+
+    AdmissionControl.Status status = AdmissionControl.getStatus().iterator().next();
+    assertThat(status.service).isEqualTo("ncss");
+    assertThat(status.active).isEqualTo(0);
+    assertThat(status.admitted).isEqualTo(3);
+    assertThat(status.rejectedClient).isEqualTo(1);
+    assertThat(status.rejectedQueueFull).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldLimitLargeRequests() throws Exception {
+    AdmissionControl.Permit p1 = AdmissionControl.admit("ncss", "client1");
+    assertThat(AdmissionControl.wantsSize()).isTrue();
+    AdmissionControl.reserve(999); // small
+    AdmissionControl.reserve(5000); // takes the only large slot
+    assertThat(AdmissionControl.wantsSize()).isFalse();
+
+    AtomicInteger retryAfter = new AtomicInteger(-1);
+    Thread other = new Thread(() -> {
+      try {
+        AdmissionControl.Permit p2 = AdmissionControl.admit("ncss", "client2");
+        try {
+          AdmissionControl.reserve(5000);
+        } catch (ServiceBusyException e) {
+          retryAfter.set(e.getRetryAfterSecs());
+        } finally {
+          p2.release();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    other.start();
+    other.join();
+    assertThat(retryAfter.get()).isEqualTo(7);
+
+    p1.release();
+    AdmissionControl.Status status = AdmissionControl.getStatus().iterator().next();
+    assertThat(status.rejectedLarge).isEqualTo(1);
+    assertThat(status.activeLarge).isEqualTo(0);
+  }
+}
@@ -0,0 +1,95 @@
+package thredds.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.After;
+import org.junit.Test;
+
+/** Test that ParallelDeflaterOutputStream writes streams that standard inflaters can read */
+public class TestParallelDeflaterOutputStream {
+
+  @After
+  public void cleanup() {
+    ParallelDeflaterOutputStream.shutdown();
+  }
+
+  private static byte[] makeData(int size) {
+    // compressible text, with random bytes mixed in
+    Random random = new Random(17);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+    while (bos.size() < size) {
+      byte[] line = ("station " + random.nextInt(100) + ", temp=" + random.nextInt(40) + "\n")
+          .getBytes(StandardCharsets.UTF_8);
+      bos.write(line, 0, line.length);
+      bos.write(random.nextInt(256));
+    }
+    return Arrays.copyOf(bos.toByteArray(), size);
+  }
+
+  private static byte[] compress(byte[] data, boolean gzip, int writeSize, boolean flushHalfWay)
+      throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ParallelDeflaterOutputStream out = new ParallelDeflaterOutputStream(bos, gzip);
+    for (int i = 0; i < data.length; i += writeSize) {
+      if (writeSize == 1)
+        out.write(data[i]);
+      else
+        out.write(data, i, Math.min(writeSize, data.length - i));
+      if (flushHalfWay && i == (data.length / 2 / writeSize) * writeSize)
+        out.flush();
+    }
+    out.finish();
+    return bos.toByteArray();
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try (InputStream is = in) {
+      return is.readAllBytes();
+    }
+  }
+
+  private void checkRoundTrip(int size) throws IOException {
+    byte[] data = makeData(size);
+
+    byte[] zlib = compress(data, false, 10000, false);
+    assertThat(readAll(new InflaterInputStream(new ByteArrayInputStream(zlib)))).isEqualTo(data);
+    assertThat(zlib.length).isLessThan(Math.max(size, 100));
+
+    byte[] gzip = compress(data, true, 7777, true);
+    assertThat(readAll(new GZIPInputStream(new ByteArrayInputStream(gzip)))).isEqualTo(data);
+  }
+
+  @Test
+  public void shouldInflateWithPool() throws IOException {
+    ParallelDeflaterOutputStream.setConfig(true, 3, 6, 32 * 1024, 0);
+    checkRoundTrip(0);
+    checkRoundTrip(1000);
+    checkRoundTrip(32 * 1024);
+    checkRoundTrip(1000 * 1000);
+  }
+
+  @Test
+  public void shouldInflateOnCallingThread() throws IOException {
+    ParallelDeflaterOutputStream.setConfig(true, 1, 1, 40 * 1000, 0);
+    checkRoundTrip(1000);
+    checkRoundTrip(300 * 1000);
+
+    byte[] data = makeData(100 * 1000);
+    byte[] zlib = compress(data, false, 1, false);
+    assertThat(readAll(new InflaterInputStream(new ByteArrayInputStream(zlib)))).isEqualTo(data);
+  }
+
+  @Test
+  public void shouldNotGzipWhenOff() {
+    assertThat(ParallelDeflaterOutputStream.isEnabled()).isFalse();
+  }
+}
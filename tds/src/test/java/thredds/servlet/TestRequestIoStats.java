@@ -0,0 +1,116 @@
+package thredds.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Formatter;
+import org.junit.After;
+import org.junit.Test;
+
+/** Test RequestIoStats counting on the request thread */
+public class TestRequestIoStats {
+
+  @After
+  public void cleanup() {
+    RequestIoStats.finish();
+    RequestIoStats.resetServiceTotals();
+    RequestIoStats.setEnabled(true, false);
+  }
+
+  @Test
+  public void shouldCountOnlyWhileStarted() throws Exception {
+    RequestIoStats.addWrite(1000, 99);
+    assertThat(RequestIoStats.current()).isNull();
+
+    RequestIoStats.start("dodsC");
+    RequestIoStats.addOpen(2000000, true);
+    RequestIoStats.addCacheMiss();
+    RequestIoStats.addOpen(3000000, false);
+    RequestIoStats.addWrite(1000, 100);
+    RequestIoStats.addWrite(1000, 28);
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = RequestIoStats.countUncompressed(compressed)) {
+      out.write(new byte[500]);
+      out.write(1);
+    }
+
+    RequestIoStats stats = RequestIoStats.finish();
+    assertThat(stats).isNotNull();
+    assertThat(RequestIoStats.current()).isNull();
+    assertThat(stats.getService()).isEqualTo("dodsC");
+    assertThat(stats.getBytesOut()).isEqualTo(128);
+    assertThat(stats.getUncompressedBytes()).isEqualTo(501);
+    assertThat(stats.getOverlap()).isEqualTo(0);
+
+    String fields = stats.toLogFields();
+    assertThat(fields).startsWith("service=dodsC opens=2 openMs=5 ncHits=1 ncMisses=1 ");
+    assertThat(fields).contains(" bytesOut=128 uncompressed=501");
+    assertThat(fields).endsWith(" overlap=0");
+
+    Formatter f = new Formatter();
+    RequestIoStats.showServiceTotals(f);
+    assertThat(f.toString()).contains("dodsC");
+  }
+
+  @Test
+  public void shouldNotWrapWhenNotStarted() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(RequestIoStats.countUncompressed(out) == out).isTrue();
+    assertThat(RequestIoStats.finish()).isNull();
+  }
+
+  @Test
+  public void shouldFinishOnAnotherThread() throws Exception {
+    RequestIoStats.start("fileServer");
+    RequestIoStats.addWrite(1000, 10);
+    RequestIoStats stats = RequestIoStats.suspend();
+    assertThat(RequestIoStats.current()).isNull();
+    RequestIoStats.addWrite(1000, 99); // not counted
+
+    Thread other = new Thread(() -> {
+      RequestIoStats.resume(stats);
+      RequestIoStats.addWrite(1000, 20);
+      RequestIoStats.finish();
+    });
+    other.start();
+    other.join();
+
+    assertThat(stats.getBytesOut()).isEqualTo(30);
+    assertThat(RequestIoStats.current()).isNull();
+  }
+
+  @Test
+  public void shouldCountRafReadsOnlyOnRequestThread() throws Exception {
+    RequestIoStats.setEnabled(true, true);
+    RequestIoStats.start("ncss");
+    RequestIoStats.addRafAcquire(true);
+    RequestIoStats.addRafAcquire(false);
+    RequestIoStats.addRafRead(8092);
+    RequestIoStats.addRafRead(100);
+
+    Thread other = new Thread(() -> RequestIoStats.addRafRead(999)); // another request's reads
+    other.start();
+    other.join();
+
+    RequestIoStats stats = RequestIoStats.finish();
+    assertThat(stats.getRafSeeks()).isEqualTo(2);
+    assertThat(stats.getRafBytes()).isEqualTo(8192);
+    assertThat(stats.toLogFields()).contains(" rafHits=1 rafMisses=1 rafSeeks=2 rafBytes=8192");
+  }
+
+  @Test
+  public void shouldLimitServices() {
+    for (int i = 0; i < RequestIoStats.MAX_SERVICES + 10; i++) {
+      RequestIoStats.start("service" + i);
+      RequestIoStats.finish();
+    }
+
+    Formatter f = new Formatter();
+    RequestIoStats.showServiceTotals(f);
+    String[] lines = f.toString().split("\n");
+    assertThat(lines.length).isEqualTo(RequestIoStats.MAX_SERVICES + 2); // title and column headers
+    assertThat(f.toString()).contains("other ");
+  }
+}
@@ -0,0 +1,52 @@
+package thredds.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+/** Test RequestMetrics histogram and status counts */
+public class TestRequestMetrics {
+
+  private static RequestMetrics.Service find(String name) {
+    for (RequestMetrics.Service s : RequestMetrics.getServices()) {
+      if (s.getName().equals(name))
+        return s;
+    }
+    return null;
+  }
+
+  @Test
+  public void shouldCountByStatusAndLatency() {
+    String name = "testRequestMetrics";
+    RequestMetrics.record(name, 200, 1000000, 100); // 1 ms
+    RequestMetrics.record(name, 206, 20000000, 50); // 20 ms
+    RequestMetrics.record(name, 404, 5000000, -1); // 5 ms, on the bucket boundary
+    RequestMetrics.record(name, 1000, 120000000000L, -1); // 2 minutes, client abort
+
+    RequestMetrics.Service s = find(name);
+    assertThat(s).isNotNull();
+    assertThat(s.getRequests()).isEqualTo(4);
+    assertThat(s.getRequests(2)).isEqualTo(2);
+    assertThat(s.getRequests(4)).isEqualTo(1);
+    assertThat(s.getRequests(0)).isEqualTo(1);
+    assertThat(s.getBytesOut()).isEqualTo(150);
+
+    assertThat(s.getCumulativeCount(0)).isEqualTo(2); // <= 5 ms
+    assertThat(s.getCumulativeCount(2)).isEqualTo(3); // <= 25 ms
+    assertThat(s.getCumulativeCount(RequestMetrics.LATENCY_BUCKETS.length - 1)).isEqualTo(3); // <= 60 s
+    assertThat(s.getCumulativeCount(RequestMetrics.LATENCY_BUCKETS.length)).isEqualTo(4); // +Inf
+    assertThat(s.getLatencySeconds()).isWithin(1.0e-6).of(120.026);
+  }
+
+  @Test
+  public void shouldBoundNumberOfServices() {
+    for (int i = 0; i < 2 * RequestMetrics.MAX_SERVICES; i++)
+      RequestMetrics.record("testService" + i, 200, 1000000, 100);
+
+    int n = 0;
+    for (RequestMetrics.Service s : RequestMetrics.getServices())
+      n++;
+    assertThat(n).isEqualTo(RequestMetrics.MAX_SERVICES);
+    assertThat(find("other")).isNotNull();
+  }
+}